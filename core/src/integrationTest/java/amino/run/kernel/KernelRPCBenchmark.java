@@ -0,0 +1,173 @@
+package amino.run.kernel;
+
+import amino.run.kernel.client.KernelClient;
+import amino.run.kernel.common.KernelOID;
+import amino.run.kernel.common.KernelObjectStub;
+import amino.run.kernel.common.KernelRPC;
+import amino.run.kernel.server.KernelServer;
+import amino.run.kernel.server.KernelServerImpl;
+import amino.run.kernel.transport.NIOKernelTransport;
+import amino.run.kernel.transport.RMIKernelTransport;
+import amino.run.kernel.transport.TransportType;
+import amino.run.oms.OMSServer;
+import amino.run.policy.Policy;
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares the cost of a kernel RPC to a kernel object on the local kernel server with the cost of
+ * the same RPC made to the same server over the RMI and NIO transports through the loopback
+ * interface. Run with {@code gradlew :core:kernelRPCBenchmark}; an optional argument sets the RMI
+ * registry port.
+ */
+public class KernelRPCBenchmark {
+    private static final int WARMUP = 20000;
+    private static final int ITERATIONS = 100000;
+
+    public static class Echo implements Serializable {
+        public Object echo(Object value) {
+            return value;
+        }
+    }
+
+    private interface Call {
+        Object call() throws Exception;
+    }
+
+    private static class Stub implements KernelObjectStub {
+        private final KernelOID oid;
+        private InetSocketAddress host;
+
+        Stub(KernelOID oid, InetSocketAddress host) {
+            this.oid = oid;
+            this.host = host;
+        }
+
+        @Override
+        public KernelOID $__getKernelOID() {
+            return oid;
+        }
+
+        @Override
+        public InetSocketAddress $__getHostname() {
+            return host;
+        }
+
+        @Override
+        public void $__updateHostname(InetSocketAddress hostname) {
+            host = hostname;
+        }
+
+        @Override
+        public void $__setNextClientPolicy(Policy.ClientPolicy clientPolicy) {}
+    }
+
+    /** An OMS that only hands out kernel object ids */
+    private static OMSServer newOMS() {
+        final AtomicInteger nextOID = new AtomicInteger();
+        return (OMSServer)
+                Proxy.newProxyInstance(
+                        OMSServer.class.getClassLoader(),
+                        new Class<?>[] {OMSServer.class},
+                        new InvocationHandler() {
+                            @Override
+                            public Object invoke(Object proxy, Method method, Object[] args) {
+                                if (method.getName().equals("registerKernelObject")
+                                        && method.getReturnType() == KernelOID.class) {
+                                    return new KernelOID(nextOID.incrementAndGet());
+                                }
+                                return null;
+                            }
+                        });
+    }
+
+    private static void measure(String name, Call call) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            call.call();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            call.call();
+        }
+        long nanos = System.nanoTime() - start;
+        System.out.printf("%-32s %10.0f ns/op%n", name, (double) nanos / ITERATIONS);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = (args.length > 0) ? Integer.parseInt(args[0]) : 22399;
+        final InetSocketAddress host = new InetSocketAddress("127.0.0.1", port);
+        final KernelServerImpl server = new KernelServerImpl(host, newOMS());
+        KernelServer remote = (KernelServer) UnicastRemoteObject.exportObject(server, 0);
+        Registry registry = LocateRegistry.createRegistry(port);
+        registry.rebind("io.amino.run.kernelserver", remote);
+        server.startTransport(TransportType.nio, new InetSocketAddress("127.0.0.1", 0));
+
+        KernelOID oid = server.newKernelObject(Echo.class);
+        ArrayList<Object> params = new ArrayList<Object>();
+        params.add("payload");
+        params.add(new int[64]);
+        ArrayList<Object> echoParams = new ArrayList<Object>();
+        echoParams.add(params);
+        String method = Echo.class.getMethod("echo", Object.class).toGenericString();
+        final KernelRPC rpc = new KernelRPC(oid, method, echoParams);
+
+        final KernelClient client = server.getKernelClient();
+        final Stub stub = new Stub(oid, host);
+        final RMIKernelTransport rmi = new RMIKernelTransport();
+        final NIOKernelTransport nio = new NIOKernelTransport(rmi);
+
+        measure(
+                "local",
+                new Call() {
+                    @Override
+                    public Object call() throws Exception {
+                        return client.makeKernelRPC(stub, rpc);
+                    }
+                });
+        client.setLocalRPCCopy(true);
+        measure(
+                "local, copy on pass",
+                new Call() {
+                    @Override
+                    public Object call() throws Exception {
+                        return client.makeKernelRPC(stub, rpc);
+                    }
+                });
+        client.setLocalRPCCopy(false);
+        measure(
+                "local through makeKernelRPC",
+                new Call() {
+                    @Override
+                    public Object call() throws Exception {
+                        return server.makeKernelRPC(rpc);
+                    }
+                });
+        measure(
+                "rmi loopback",
+                new Call() {
+                    @Override
+                    public Object call() throws Exception {
+                        return rmi.makeKernelRPC(host, rpc);
+                    }
+                });
+        measure(
+                "nio loopback",
+                new Call() {
+                    @Override
+                    public Object call() throws Exception {
+                        return nio.makeKernelRPC(host, rpc);
+                    }
+                });
+
+        nio.shutdown();
+        System.exit(0);
+    }
+}
@@ -0,0 +1,109 @@
+package amino.run.app;
+
+import java.io.Serializable;
+import java.util.Objects;
+import org.yaml.snakeyaml.Yaml;
+
+/**
+ * Specification for admission control. Users use {@code AdmissionSpec} to limit how many RPCs each
+ * kernel object of their microservice runs at the same time and how many RPCs may wait for it.
+ *
+ * <p>RPCs beyond {@link #maxConcurrency} wait in a queue of at most {@link #queueDepth} RPCs for at
+ * most {@link #queueTimeoutInMs} milliseconds. RPCs that find the queue full or wait too long are
+ * rejected with {@link amino.run.kernel.common.KernelObjectOverloadedException}, which client
+ * policies can use to back off or fail over to another replica.
+ *
+ * <p>Yaml example: <code>
+ * admissionSpec: {maxConcurrency: 16, queueDepth: 64, queueTimeoutInMs: 200, fair: false}
+ * </code>
+ */
+public class AdmissionSpec implements Serializable {
+    public static final int DEFAULT_MAX_CONCURRENCY = 100;
+    public static final int DEFAULT_QUEUE_DEPTH = 1000;
+
+    /** Maximum number of RPCs running on a kernel object at the same time */
+    private int maxConcurrency = DEFAULT_MAX_CONCURRENCY;
+
+    /** Maximum number of RPCs waiting to run on a kernel object */
+    private int queueDepth = DEFAULT_QUEUE_DEPTH;
+
+    /** Maximum time an RPC waits in the queue. 0 means RPCs wait as long as it takes. */
+    private long queueTimeoutInMs = 0;
+
+    /** Whether waiting RPCs run in arrival order */
+    private boolean fair = true;
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public void setMaxConcurrency(int maxConcurrency) {
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public void setQueueDepth(int queueDepth) {
+        this.queueDepth = queueDepth;
+    }
+
+    public long getQueueTimeoutInMs() {
+        return queueTimeoutInMs;
+    }
+
+    public void setQueueTimeoutInMs(long queueTimeoutInMs) {
+        this.queueTimeoutInMs = queueTimeoutInMs;
+    }
+
+    public boolean isFair() {
+        return fair;
+    }
+
+    public void setFair(boolean fair) {
+        this.fair = fair;
+    }
+
+    /**
+     * Validate admission settings
+     *
+     * @throws IllegalArgumentException
+     */
+    public void validate() throws IllegalArgumentException {
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException(
+                    "invalid argument: max concurrency must be positive, was " + maxConcurrency);
+        }
+        if (queueDepth < 0) {
+            throw new IllegalArgumentException(
+                    "invalid argument: queue depth can not be negative, was " + queueDepth);
+        }
+        if (queueTimeoutInMs < 0) {
+            throw new IllegalArgumentException(
+                    "invalid argument: queue timeout can not be negative, was " + queueTimeoutInMs);
+        }
+    }
+
+    @Override
+    public String toString() {
+        Yaml yaml = new Yaml();
+        return yaml.dump(this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        AdmissionSpec that = (AdmissionSpec) o;
+        return maxConcurrency == that.maxConcurrency
+                && queueDepth == that.queueDepth
+                && queueTimeoutInMs == that.queueTimeoutInMs
+                && fair == that.fair;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(maxConcurrency, queueDepth, queueTimeoutInMs, fair);
+    }
+}
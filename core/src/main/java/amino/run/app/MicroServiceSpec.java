@@ -60,6 +60,9 @@ public class MicroServiceSpec implements Serializable {
 
     private NodeSelectorSpec nodeSelectorSpec;
 
+    /** Admission control for kernel objects of microservice. Defaults apply when not set. */
+    private AdmissionSpec admissionSpec;
+
     public static Builder newBuilder() {
         return new Builder();
     }
@@ -130,6 +133,14 @@ public class MicroServiceSpec implements Serializable {
         this.nodeSelectorSpec = nodeSelectorSpec;
     }
 
+    public AdmissionSpec getAdmissionSpec() {
+        return admissionSpec;
+    }
+
+    public void setAdmissionSpec(AdmissionSpec admissionSpec) {
+        this.admissionSpec = admissionSpec;
+    }
+
     public static MicroServiceSpec fromYaml(String yamlString) {
         Yaml yaml = new Yaml();
         return yaml.loadAs(yamlString, MicroServiceSpec.class);
@@ -145,6 +156,10 @@ public class MicroServiceSpec implements Serializable {
         if (nodeSelectorSpec != null) {
             nodeSelectorSpec.validate();
         }
+
+        if (admissionSpec != null) {
+            admissionSpec.validate();
+        }
     }
 
     @Override
@@ -158,7 +173,8 @@ public class MicroServiceSpec implements Serializable {
                 && Objects.equals(sourceFileLocation, that.sourceFileLocation)
                 && Objects.equals(constructorName, that.constructorName)
                 && Objects.equals(dmList, that.dmList)
-                && Objects.equals(nodeSelectorSpec, that.nodeSelectorSpec);
+                && Objects.equals(nodeSelectorSpec, that.nodeSelectorSpec)
+                && Objects.equals(admissionSpec, that.admissionSpec);
     }
 
     @Override
@@ -170,7 +186,8 @@ public class MicroServiceSpec implements Serializable {
                 sourceFileLocation,
                 constructorName,
                 dmList,
-                nodeSelectorSpec);
+                nodeSelectorSpec,
+                admissionSpec);
     }
 
     @Override
@@ -187,6 +204,7 @@ public class MicroServiceSpec implements Serializable {
         private String constructorName;
         private List<DMSpec> dmList = new ArrayList<DMSpec>();
         private NodeSelectorSpec nodeSelectorSpec;
+        private AdmissionSpec admissionSpec;
 
         public Builder setName(String name) {
             this.name = name;
@@ -225,6 +243,11 @@ public class MicroServiceSpec implements Serializable {
             return this;
         }
 
+        public Builder setAdmissionSpec(AdmissionSpec admissionSpec) {
+            this.admissionSpec = admissionSpec;
+            return this;
+        }
+
         public MicroServiceSpec create() {
             MicroServiceSpec spec = new MicroServiceSpec();
             spec.setName(name);
@@ -234,6 +257,7 @@ public class MicroServiceSpec implements Serializable {
             spec.setConstructorName(constructorName);
             spec.setDmList(dmList);
             spec.setNodeSelectorSpec(nodeSelectorSpec);
+            spec.setAdmissionSpec(admissionSpec);
             return spec;
         }
     }
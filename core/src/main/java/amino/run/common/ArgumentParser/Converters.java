@@ -1,7 +1,10 @@
 package amino.run.common.ArgumentParser;
 
+import amino.run.kernel.transport.TransportType;
+import amino.run.oms.OMSShardMap;
 import com.google.common.net.InetAddresses;
 import com.google.devtools.common.options.Converter;
+import com.google.devtools.common.options.EnumConverter;
 import com.google.devtools.common.options.OptionsParsingException;
 import java.util.HashMap;
 import java.util.Map;
@@ -89,4 +92,39 @@ public final class Converters {
             super(MIN_VALUE, MAX_VALUE);
         }
     }
+
+    /** Custom Converter type to handle the kernel transport type */
+    public static class TransportTypeConverter extends EnumConverter<TransportType> {
+        public TransportTypeConverter() {
+            super(TransportType.class, "kernel transport");
+        }
+    }
+
+    /** Custom Converter type to handle the OMS shard map */
+    public static class OMSShardMapConverter implements Converter<OMSShardMap> {
+        /**
+         * Parses the shard map, see {@link OMSShardMap#parse(String)}
+         *
+         * @param input
+         * @return shard map, or <code>null</code> if the OMS is not sharded
+         * @throws OptionsParsingException
+         */
+        @Override
+        public OMSShardMap convert(String input) throws OptionsParsingException {
+            if (input.equals("")) {
+                return null;
+            }
+            try {
+                return OMSShardMap.parse(input);
+            } catch (IllegalArgumentException e) {
+                throw new OptionsParsingException(e.getMessage());
+            }
+        }
+
+        /** @return description of Param Type */
+        @Override
+        public String getTypeDescription() {
+            return "OMS shard map";
+        }
+    }
 }
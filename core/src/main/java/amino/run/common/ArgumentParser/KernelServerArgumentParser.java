@@ -1,5 +1,6 @@
 package amino.run.common.ArgumentParser;
 
+import amino.run.kernel.transport.TransportType;
 import com.google.devtools.common.options.Option;
 import java.util.HashMap;
 import java.util.Map;
@@ -30,4 +31,69 @@ public class KernelServerArgumentParser extends OMSArgumentParser {
             converter = Converters.LabelConverter.class,
             category = "startup")
     public Map<String, String> labels = new HashMap<String, String>();
+
+    @Option(
+            name = "kernel-transport",
+            help = "transport for kernel RPCs between kernel servers (rmi or nio)",
+            defaultValue = "rmi",
+            converter = Converters.TransportTypeConverter.class,
+            category = "startup")
+    public TransportType transport;
+
+    @Option(
+            name = "kernel-transport-port",
+            help = "port of the nio kernel transport, 0 picks any free port",
+            defaultValue = "0",
+            category = "startup",
+            converter = Converters.PortConverter.class)
+    public Integer transportPort;
+
+    @Option(
+            name = "kernel-rpc-batch-window",
+            help = "milliseconds to coalesce kernel RPCs to the same host, 0 disables batching",
+            defaultValue = "0",
+            category = "startup")
+    public int batchWindow;
+
+    @Option(
+            name = "kernel-rpc-batch-size",
+            help = "maximum number of kernel RPCs sent in one batch",
+            defaultValue = "64",
+            category = "startup")
+    public int batchSize;
+
+    @Option(
+            name = "kernel-app-rpc-threads",
+            help = "application RPCs that may run at once, 0 does not bound them",
+            defaultValue = "0",
+            category = "startup")
+    public int appRPCThreads;
+
+    @Option(
+            name = "kernel-app-rpc-queue",
+            help = "application RPCs that may wait to run before RPCs are rejected",
+            defaultValue = "0",
+            category = "startup")
+    public int appRPCQueue;
+
+    @Option(
+            name = "kernel-control-rpc-threads",
+            help = "RPCs between policies that may run at once, 0 does not bound them",
+            defaultValue = "0",
+            category = "startup")
+    public int controlRPCThreads;
+
+    @Option(
+            name = "kernel-control-rpc-queue",
+            help = "RPCs between policies that may wait to run before RPCs are rejected",
+            defaultValue = "0",
+            category = "startup")
+    public int controlRPCQueue;
+
+    @Option(
+            name = "kernel-local-rpc-copy",
+            help = "copy parameters and return values of RPCs to kernel objects on this server",
+            defaultValue = "false",
+            category = "startup")
+    public boolean localRPCCopy;
 }
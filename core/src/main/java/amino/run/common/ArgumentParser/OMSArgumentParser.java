@@ -1,5 +1,6 @@
 package amino.run.common.ArgumentParser;
 
+import amino.run.oms.OMSShardMap;
 import com.google.devtools.common.options.Option;
 import com.google.devtools.common.options.OptionsBase;
 
@@ -28,4 +29,20 @@ public class OMSArgumentParser extends OptionsBase {
             category = "startup",
             converter = Converters.PortConverter.class)
     public Integer servicePort;
+
+    @Option(
+            name = "oms-shards",
+            help = "OMS shards as host:port,host:port;host:port, separating shards by semicolons"
+                    + " and the replicas of a shard by commas",
+            defaultValue = "",
+            converter = Converters.OMSShardMapConverter.class,
+            category = "startup")
+    public OMSShardMap omsShards;
+
+    @Option(
+            name = "oms-log-dir",
+            help = "directory of the OMS replication log, keeps the OMS state across restarts",
+            defaultValue = "",
+            category = "startup")
+    public String omsLogDir;
 }
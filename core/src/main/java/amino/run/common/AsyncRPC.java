@@ -0,0 +1,52 @@
+package amino.run.common;
+
+import amino.run.policy.Policy;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
+
+/**
+ * Helper used by the {@code fooAsync} methods of generated app stubs. Makes the RPC through the
+ * client policy without blocking and completes the returned future with the method result, or with
+ * the exception thrown by the microservice method.
+ */
+public class AsyncRPC {
+    private AsyncRPC() {}
+
+    @SuppressWarnings("unchecked")
+    public static <T> CompletableFuture<T> invoke(
+            Policy.ClientPolicy client, String method, ArrayList<Object> params) {
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        CompletableFuture<Object> future;
+        try {
+            future = client.onRPCAsync(method, params);
+        } catch (Exception e) {
+            result.completeExceptionally(unwrap(e));
+            return result;
+        }
+
+        future.whenComplete(
+                new BiConsumer<Object, Throwable>() {
+                    @Override
+                    public void accept(Object ret, Throwable t) {
+                        if (t != null) {
+                            result.completeExceptionally(unwrap(t));
+                        } else {
+                            result.complete((T) ret);
+                        }
+                    }
+                });
+        return result;
+    }
+
+    private static Throwable unwrap(Throwable t) {
+        if (t instanceof CompletionException && t.getCause() != null) {
+            t = t.getCause();
+        }
+        if (t instanceof AppExceptionWrapper) {
+            return ((AppExceptionWrapper) t).getException();
+        }
+        return t;
+    }
+}
@@ -0,0 +1,246 @@
+package amino.run.common;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable table of the invocable methods of a class. Each method, identified by its {@link
+ * Method#toGenericString() generic string}, is resolved once to an integer slot holding a pre-bound
+ * {@link MethodHandle}. Tables are built once per class and shared, so lookups and invocations
+ * never lock.
+ *
+ * <p>Invocations behave like {@link Method#invoke}: exceptions thrown by the invoked method are
+ * wrapped in an {@link InvocationTargetException}, and arguments that do not match the method
+ * result in an {@link IllegalArgumentException}.
+ */
+public final class DispatchTable {
+    private static final ConcurrentHashMap<Class<?>, DispatchTable> publicTables =
+            new ConcurrentHashMap<Class<?>, DispatchTable>();
+    private static final ConcurrentHashMap<Class<?>, DispatchTable> declaredTables =
+            new ConcurrentHashMap<Class<?>, DispatchTable>();
+
+    private final Map<String, Integer> slots;
+    private final Method[] methods;
+    private final MethodHandle[] handles;
+
+    private DispatchTable(Method[] candidates) {
+        Map<String, Integer> slots = new HashMap<String, Integer>();
+        List<Method> methods = new ArrayList<Method>();
+        for (Method m : candidates) {
+            String name = m.toGenericString();
+            if (!slots.containsKey(name)) {
+                slots.put(name, methods.size());
+                methods.add(m);
+            }
+        }
+
+        this.slots = slots;
+        this.methods = methods.toArray(new Method[methods.size()]);
+        this.handles = new MethodHandle[this.methods.length];
+        for (int i = 0; i < this.methods.length; i++) {
+            handles[i] = bind(this.methods[i]);
+        }
+    }
+
+    /**
+     * Get the table of the public methods of a class, including inherited ones.
+     *
+     * @param cl class
+     * @return the shared table for the class
+     */
+    public static DispatchTable forPublicMethods(Class<?> cl) {
+        DispatchTable table = publicTables.get(cl);
+        if (table == null) {
+            table = new DispatchTable(cl.getMethods());
+            DispatchTable existing = publicTables.putIfAbsent(cl, table);
+            if (existing != null) {
+                table = existing;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Get the table of the methods declared by a class.
+     *
+     * @param cl class
+     * @return the shared table for the class
+     */
+    public static DispatchTable forDeclaredMethods(Class<?> cl) {
+        DispatchTable table = declaredTables.get(cl);
+        if (table == null) {
+            table = new DispatchTable(cl.getDeclaredMethods());
+            DispatchTable existing = declaredTables.putIfAbsent(cl, table);
+            if (existing != null) {
+                table = existing;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Returns a method handle of type (Object, Object...)Object taking the target followed by the
+     * arguments. Returns <code>null</code> if the method is not accessible, in which case it is
+     * invoked reflectively, which reports the access error the same way as before.
+     */
+    private static MethodHandle bind(Method m) {
+        MethodHandle handle;
+        try {
+            handle = MethodHandles.publicLookup().unreflect(m);
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+
+        if (m.isVarArgs()) {
+            handle = handle.asFixedArity();
+        }
+        if (Modifier.isStatic(m.getModifiers())) {
+            // Like Method.invoke, ignore the target of static methods
+            handle = MethodHandles.dropArguments(handle, 0, Object.class);
+        }
+        return handle.asType(MethodType.genericMethodType(m.getParameterTypes().length + 1));
+    }
+
+    /**
+     * Get the slot of a method.
+     *
+     * @param method generic string of the method
+     * @return the slot, or -1 if the class has no such method
+     */
+    public int slotOf(String method) {
+        Integer slot = slots.get(method);
+        return slot == null ? -1 : slot;
+    }
+
+    public boolean contains(String method) {
+        return slots.containsKey(method);
+    }
+
+    public Method getMethod(int slot) {
+        return methods[slot];
+    }
+
+    /**
+     * Invoke the method in the given slot.
+     *
+     * @param slot slot returned by {@link #slotOf}
+     * @param target object to invoke the method on
+     * @param args arguments of the method
+     * @return the return value of the method, <code>null</code> for void methods
+     * @throws InvocationTargetException if the method throws
+     * @throws IllegalAccessException if the method is not accessible
+     * @throws IllegalArgumentException if the arguments do not match the method
+     */
+    public Object invoke(int slot, Object target, List<Object> args)
+            throws InvocationTargetException, IllegalAccessException {
+        if (handles[slot] == null) {
+            return methods[slot].invoke(target, args.toArray());
+        }
+        checkArity(slot, args.size());
+
+        // The handle takes the target and the arguments in a single array
+        Object[] targetAndArgs = new Object[args.size() + 1];
+        targetAndArgs[0] = target;
+        for (int i = 0; i < args.size(); i++) {
+            targetAndArgs[i + 1] = args.get(i);
+        }
+        return invokeHandle(slot, target, targetAndArgs);
+    }
+
+    /**
+     * Invoke the method in the given slot with an array of arguments.
+     *
+     * @see #invoke(int, Object, List)
+     */
+    public Object invoke(int slot, Object target, Object[] args)
+            throws InvocationTargetException, IllegalAccessException {
+        if (handles[slot] == null) {
+            return methods[slot].invoke(target, args);
+        }
+        checkArity(slot, args.length);
+
+        Object[] targetAndArgs = new Object[args.length + 1];
+        targetAndArgs[0] = target;
+        System.arraycopy(args, 0, targetAndArgs, 1, args.length);
+        return invokeHandle(slot, target, targetAndArgs);
+    }
+
+    private void checkArity(int slot, int count) {
+        Method m = methods[slot];
+        if (count != m.getParameterTypes().length) {
+            throw new IllegalArgumentException(
+                    String.format("Wrong number of arguments for %s: %d", m.getName(), count));
+        }
+    }
+
+    /**
+     * Uses {@link MethodHandle#invokeWithArguments} rather than {@code invokeExact}, whose
+     * signature polymorphic calls do not compile with the source level of the project.
+     */
+    private Object invokeHandle(int slot, Object target, Object[] targetAndArgs)
+            throws InvocationTargetException {
+        try {
+            return handles[slot].invokeWithArguments(targetAndArgs);
+        } catch (Throwable t) {
+            throw translate(methods[slot], target, t);
+        }
+    }
+
+    /**
+     * Maps failures of a method handle invocation to what {@link Method#invoke} would have thrown.
+     * Conversion failures of the target or arguments are reported as {@link
+     * IllegalArgumentException}, anything thrown by the method itself is wrapped.
+     */
+    private static RuntimeException translate(Method m, Object target, Throwable t)
+            throws InvocationTargetException {
+        if (t instanceof ClassCastException || t instanceof NullPointerException) {
+            if (!Modifier.isStatic(m.getModifiers())) {
+                if (target == null) {
+                    throw new NullPointerException();
+                }
+                if (!m.getDeclaringClass().isInstance(target)) {
+                    throw new IllegalArgumentException(
+                            "object is not an instance of declaring class");
+                }
+            }
+            if (isConversionFailure(t)) {
+                throw new IllegalArgumentException("argument type mismatch", t);
+            }
+        }
+        throw new InvocationTargetException(t);
+    }
+
+    /**
+     * Checks whether the exception was raised while converting arguments for the method handle,
+     * rather than by the invoked method. The conversion adapters are the only frames above this
+     * class that belong to {@code java.lang.invoke}.
+     */
+    private static boolean isConversionFailure(Throwable t) {
+        for (StackTraceElement frame : t.getStackTrace()) {
+            String cl = frame.getClassName();
+            if (cl.equals(DispatchTable.class.getName())) {
+                return true;
+            }
+            if (!cl.startsWith("java.lang.invoke.")
+                    && !cl.startsWith("sun.invoke.")
+                    && !cl.equals("java.lang.Class")) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return slots.keySet().toString();
+    }
+}
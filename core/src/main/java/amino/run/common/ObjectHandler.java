@@ -2,9 +2,7 @@ package amino.run.common;
 
 import amino.run.graal.io.*;
 import java.io.*;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.Hashtable;
 import java.util.logging.Logger;
 import org.graalvm.polyglot.*;
 
@@ -26,24 +24,22 @@ public class ObjectHandler implements Serializable {
     private static final Logger logger = Logger.getLogger(ObjectHandler.class.getName());
 
     /**
-     * Table of strings of method names and function pointers to the actual methods For invoking
-     * RPCs on the object. Constructed at construction time to reduce overhead from reflection.
+     * Table of the methods of the object for invoking RPCs on it. Shared by all handlers of objects
+     * of the same class, and looked up on first use after construction or deserialization.
      */
-    private Hashtable<String, Method> methods;
+    private transient volatile DispatchTable methods;
 
     protected Class<?> getClass(Object obj) {
         return obj.getClass();
     }
 
-    private void fillMethodTable(Object obj) {
-        Class<?> cl = getClass(obj);
-        this.methods = new Hashtable<String, Method>();
-        // Grab the methods of the class
-        Method[] methods = cl.getMethods();
-        for (int i = 0; i < methods.length; i++) {
-            if (this.methods.get(methods[i].toGenericString()) == null)
-                this.methods.put(methods[i].toGenericString(), methods[i]);
+    private DispatchTable getMethods() {
+        DispatchTable table = methods;
+        if (table == null) {
+            table = DispatchTable.forPublicMethods(getClass(object));
+            methods = table;
         }
+        return table;
     }
 
     public boolean isGraalObject() {
@@ -63,8 +59,6 @@ public class ObjectHandler implements Serializable {
     public ObjectHandler(Object obj) {
         // TODO: get all the methods from all superclasses - careful about duplicates
         object = obj;
-
-        fillMethodTable(obj);
         logger.fine("Created object " + obj.toString());
     }
 
@@ -76,8 +70,13 @@ public class ObjectHandler implements Serializable {
      * @return the return value from the method
      */
     public Object invoke(String method, ArrayList<Object> params) throws Exception {
+        DispatchTable table = getMethods();
+        int slot = table.slotOf(method);
+        if (slot < 0) {
+            throw new Exception(
+                    String.format("Could not find method %s, methods are %s", method, table));
+        }
 
-        Object[] p = params.toArray();
         if (isGraalObject()) {
             ArrayList<Object> inParams = new ArrayList<Object>();
             for (Object o : params) {
@@ -94,16 +93,23 @@ public class ObjectHandler implements Serializable {
             // we need to wrap parameters with another object array.
             // Please refer to unit test
             // amino.run.common.VarargsFunctionReflectionTest
-            p = new Object[] {inParams.toArray()};
+            return table.invoke(slot, object, new Object[] {inParams.toArray()});
         }
-        Method m = methods.get(method);
 
-        if (m == null) {
-            throw new Exception(
-                    String.format("Could not find method %s, methods are %s", method, methods));
-        }
+        return table.invoke(slot, object, params);
+    }
 
-        return m.invoke(object, p);
+    /**
+     * Whether a method of the object is annotated with {@link
+     * amino.run.runtime.annotations.Immutable}, i.e. does not change the state of the object.
+     *
+     * @param method generic string of the method
+     * @return <code>true</code> if the method exists and is immutable
+     */
+    public boolean isImmutableMethod(String method) {
+        DispatchTable table = getMethods();
+        int slot = table.slotOf(method);
+        return slot >= 0 && Utils.isImmutableMethod(table.getMethod(slot));
     }
 
     public Serializable getObject() {
@@ -112,6 +118,7 @@ public class ObjectHandler implements Serializable {
 
     public void setObject(Serializable object) {
         this.object = object;
+        methods = null;
     }
 
     private void writeObject(ObjectOutputStream out) throws IOException {
@@ -156,12 +163,9 @@ public class ObjectHandler implements Serializable {
 
             ((GraalObject) appStubObject).$__initializeGraal(object);
             ((GraalAppObjectStub) appStubObject).$__initialize(directInvocation);
-            fillMethodTable(appStubObject);
             this.object = appStubObject;
         } else {
-            Object obj = in.readObject();
-            fillMethodTable(obj);
-            this.object = obj;
+            this.object = in.readObject();
         }
     }
 
@@ -4,6 +4,7 @@ import static amino.run.policy.Upcalls.PolicyConfig;
 
 import amino.run.app.DMSpec;
 import amino.run.app.Language;
+import amino.run.common.codec.KernelCodec;
 import amino.run.runtime.annotations.AnnotationConfig;
 import amino.run.runtime.annotations.Immutable;
 import java.io.ByteArrayInputStream;
@@ -12,7 +13,6 @@ import java.io.File;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.lang.annotation.Annotation;
@@ -93,41 +93,30 @@ public class Utils {
     }
 
     /**
-     * Serialize object into bytes.
+     * Serialize object into bytes with {@link KernelCodec}.
      *
-     * @param object the object to be serialized. The object must implement {@link
-     *     java.io.Serializable}.
+     * @param object the object to be serialized. Objects of types not known to {@link KernelCodec}
+     *     must implement {@link java.io.Serializable}.
      * @return a byte array
-     * @throws Exception
+     * @throws IOException
      */
     public static final byte[] toBytes(Object object) throws IOException {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        ObjectOutput out = null;
-        try {
-            out = new ObjectOutputStream(bos);
-            out.writeObject(object);
-            out.flush();
-            return bos.toByteArray();
-        } finally {
-            if (bos != null) {
-                try {
-                    bos.close();
-                } catch (IOException e) {
-                    logger.log(Level.WARNING, "failed to close stream bos", e);
-                }
-            }
-
-            if (out != null) {
-                try {
-                    out.close();
-                } catch (IOException e) {
-                    logger.log(Level.WARNING, "failed to close stream bos", e);
-                }
-            }
-        }
+        return KernelCodec.encode(object);
     }
 
+    /**
+     * Deserialize object from bytes produced by {@link #toBytes} or by Java serialization.
+     *
+     * @param bytes
+     * @return the object
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
     public static Object toObject(byte[] bytes) throws IOException, ClassNotFoundException {
+        if (KernelCodec.isEncoded(bytes)) {
+            return KernelCodec.decode(bytes);
+        }
+
         ByteArrayInputStream bis = new ByteArrayInputStream(bytes);
         ObjectInput in = null;
         try {
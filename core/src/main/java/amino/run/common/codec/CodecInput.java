@@ -0,0 +1,130 @@
+package amino.run.common.codec;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/** Reads the primitive encodings written by {@link CodecOutput}. */
+public class CodecInput {
+    private final byte[] buf;
+    private int pos;
+    private final int limit;
+    private final MethodTable methods;
+    /** Methods defined by the data itself */
+    private final Map<Integer, String> definitions = new HashMap<Integer, String>();
+
+    CodecInput(byte[] buf, int off, int len, MethodTable methods) {
+        this.buf = buf;
+        this.pos = off;
+        this.limit = off + len;
+        this.methods = methods;
+    }
+
+    MethodTable getMethods() {
+        return methods;
+    }
+
+    Map<Integer, String> getDefinitions() {
+        return definitions;
+    }
+
+    int position() {
+        return pos;
+    }
+
+    byte[] buffer() {
+        return buf;
+    }
+
+    private void require(int n) throws EOFException {
+        if (n < 0 || limit - pos < n) {
+            throw new EOFException("Truncated kernel codec data");
+        }
+    }
+
+    public int readByte() throws IOException {
+        require(1);
+        return buf[pos++];
+    }
+
+    public void skip(int n) throws IOException {
+        require(n);
+        pos += n;
+    }
+
+    public byte[] readBytes(int len) throws IOException {
+        require(len);
+        byte[] b = new byte[len];
+        System.arraycopy(buf, pos, b, 0, len);
+        pos += len;
+        return b;
+    }
+
+    public int readVarInt() throws IOException {
+        int v = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readByte();
+            v |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return v;
+            }
+        }
+        throw new IOException("Malformed variable length int");
+    }
+
+    public long readVarLong() throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = readByte();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return v;
+            }
+        }
+        throw new IOException("Malformed variable length long");
+    }
+
+    public int readSignedVarInt() throws IOException {
+        int v = readVarInt();
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    public long readSignedVarLong() throws IOException {
+        long v = readVarLong();
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    public int readInt() throws IOException {
+        require(4);
+        int v =
+                ((buf[pos] & 0xFF) << 24)
+                        | ((buf[pos + 1] & 0xFF) << 16)
+                        | ((buf[pos + 2] & 0xFF) << 8)
+                        | (buf[pos + 3] & 0xFF);
+        pos += 4;
+        return v;
+    }
+
+    public long readLong() throws IOException {
+        return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+    }
+
+    public String readString() throws IOException {
+        int len = readVarInt();
+        require(len);
+        String s = new String(buf, pos, len, StandardCharsets.UTF_8);
+        pos += len;
+        return s;
+    }
+
+    /**
+     * Reads a value written by {@link CodecOutput#writeValue}.
+     *
+     * @return the value, may be <code>null</code>
+     */
+    public Object readValue() throws IOException, ClassNotFoundException {
+        return KernelCodec.readValue(this);
+    }
+}
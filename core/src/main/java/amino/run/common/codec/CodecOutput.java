@@ -0,0 +1,117 @@
+package amino.run.common.codec;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Growable byte buffer with the primitive encodings used by {@link KernelCodec}. */
+public class CodecOutput {
+    private byte[] buf;
+    private int count;
+    private final MethodTable methods;
+    /** Ids of the methods defined by this output, in the order they were first written */
+    private final Map<String, Integer> definitions = new LinkedHashMap<String, Integer>();
+
+    CodecOutput(int capacity, MethodTable methods) {
+        buf = new byte[capacity];
+        this.methods = methods;
+    }
+
+    MethodTable getMethods() {
+        return methods;
+    }
+
+    Map<String, Integer> getDefinitions() {
+        return definitions;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (count + extra > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length << 1, count + extra));
+        }
+    }
+
+    public void writeByte(int b) {
+        ensureCapacity(1);
+        buf[count++] = (byte) b;
+    }
+
+    public void writeBytes(byte[] b, int off, int len) {
+        ensureCapacity(len);
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+    }
+
+    /** Writes an unsigned variable length int, 7 bits per byte. */
+    public void writeVarInt(int v) {
+        ensureCapacity(5);
+        while ((v & ~0x7F) != 0) {
+            buf[count++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buf[count++] = (byte) v;
+    }
+
+    /** Writes an unsigned variable length long, 7 bits per byte. */
+    public void writeVarLong(long v) {
+        ensureCapacity(10);
+        while ((v & ~0x7FL) != 0) {
+            buf[count++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buf[count++] = (byte) v;
+    }
+
+    /** Writes a signed int with zig-zag encoding so that small negative values stay short. */
+    public void writeSignedVarInt(int v) {
+        writeVarInt((v << 1) ^ (v >> 31));
+    }
+
+    public void writeSignedVarLong(long v) {
+        writeVarLong((v << 1) ^ (v >> 63));
+    }
+
+    public void writeInt(int v) {
+        ensureCapacity(4);
+        buf[count++] = (byte) (v >>> 24);
+        buf[count++] = (byte) (v >>> 16);
+        buf[count++] = (byte) (v >>> 8);
+        buf[count++] = (byte) v;
+    }
+
+    public void writeLong(long v) {
+        writeInt((int) (v >>> 32));
+        writeInt((int) v);
+    }
+
+    public void writeString(String s) {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(b.length);
+        writeBytes(b, 0, b.length);
+    }
+
+    /**
+     * Writes any value, using a registered codec for its type or Java serialization otherwise.
+     *
+     * @param value value to write, may be <code>null</code>
+     * @throws IOException if the value cannot be encoded
+     */
+    public void writeValue(Object value) throws IOException {
+        KernelCodec.writeValue(this, value);
+    }
+
+    /** Appends everything written to another output. */
+    void writeTo(CodecOutput out) {
+        out.writeBytes(buf, 0, count);
+    }
+
+    int size() {
+        return count;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(buf, count);
+    }
+}
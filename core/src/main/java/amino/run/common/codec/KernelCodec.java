@@ -0,0 +1,609 @@
+package amino.run.common.codec;
+
+import amino.run.common.MicroServiceID;
+import amino.run.common.ReplicaID;
+import amino.run.kernel.common.KernelOID;
+import amino.run.kernel.common.KernelRPC;
+import amino.run.kernel.common.KernelRPCResult;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Versioned binary encoding of kernel RPCs and their return values.
+ *
+ * <p>Encoded data starts with {@link #MAGIC} and {@link #VERSION}, followed by the method names the
+ * data defines and one tagged value. Boxed primitives, strings, primitive arrays and {@link
+ * ArrayList}s are written in a compact binary form. {@link KernelRPC}s refer to their method by an
+ * id, so that a batch of RPCs carries each method name once, and a connection with a {@link
+ * MethodTable} sends each name only until the receiver knows it. Types with a registered {@link
+ * TypeCodec} are written by their codec. Any other value is written with Java serialization, so
+ * everything that could be sent before can still be sent.
+ *
+ * <p>An {@link ArrayList} is only written element by element if all of its elements can be encoded
+ * without Java serialization. Otherwise the whole list is serialized, which preserves shared
+ * references between its elements.
+ */
+public final class KernelCodec {
+    /** First byte of encoded data. Java serialization streams start with 0xAC. */
+    public static final byte MAGIC = (byte) 0xB7;
+
+    public static final byte VERSION = 2;
+
+    /* Value tags */
+    private static final int NULL = 0;
+    private static final int TRUE = 1;
+    private static final int FALSE = 2;
+    private static final int BYTE = 3;
+    private static final int SHORT = 4;
+    private static final int CHAR = 5;
+    private static final int INT = 6;
+    private static final int LONG = 7;
+    private static final int FLOAT = 8;
+    private static final int DOUBLE = 9;
+    private static final int STRING = 10;
+    private static final int BYTE_ARRAY = 11;
+    private static final int INT_ARRAY = 12;
+    private static final int LONG_ARRAY = 13;
+    private static final int DOUBLE_ARRAY = 14;
+    private static final int LIST = 15;
+    private static final int KERNEL_RPC = 16;
+    private static final int CUSTOM = 17;
+    private static final int SERIALIZED = 18;
+    private static final int APP_KERNEL_RPC = 19;
+
+    /** Ids below this are reserved for the codecs of kernel types */
+    public static final int FIRST_APP_CODEC_ID = 64;
+
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    private static final ConcurrentHashMap<Class<?>, Registration<?>> codecsByType =
+            new ConcurrentHashMap<Class<?>, Registration<?>>();
+    private static final ConcurrentHashMap<Integer, Registration<?>> codecsById =
+            new ConcurrentHashMap<Integer, Registration<?>>();
+
+    private static class Registration<T> {
+        final int id;
+        final TypeCodec<T> codec;
+
+        Registration(int id, TypeCodec<T> codec) {
+            this.id = id;
+            this.codec = codec;
+        }
+    }
+
+    static {
+        registerCodec(1, KernelOID.class, new KernelOIDCodec());
+        registerCodec(2, UUID.class, new UUIDCodec());
+        registerCodec(3, MicroServiceID.class, new MicroServiceIDCodec());
+        registerCodec(4, ReplicaID.class, new ReplicaIDCodec());
+        registerCodec(5, InetSocketAddress.class, new InetSocketAddressCodec());
+        registerCodec(6, KernelRPCResult.class, new KernelRPCResultCodec());
+    }
+
+    private KernelCodec() {}
+
+    /**
+     * Registers a codec for values of exactly the given class. Subclasses are not handled by the
+     * codec. Every kernel server must register the same codecs under the same ids.
+     *
+     * @param id codec id, at least {@link #FIRST_APP_CODEC_ID}
+     * @param type class of the values
+     * @param codec codec for the values
+     * @throws IllegalArgumentException if the id is reserved, or the id or type is already taken
+     */
+    public static <T> void register(int id, Class<T> type, TypeCodec<T> codec) {
+        if (id < FIRST_APP_CODEC_ID) {
+            throw new IllegalArgumentException(
+                    String.format(
+                            "Codec id %d is reserved. Use ids from %d.", id, FIRST_APP_CODEC_ID));
+        }
+        registerCodec(id, type, codec);
+    }
+
+    private static synchronized <T> void registerCodec(int id, Class<T> type, TypeCodec<T> codec) {
+        if (codecsById.containsKey(id) || codecsByType.containsKey(type)) {
+            throw new IllegalArgumentException(
+                    String.format("Codec %d for %s is already registered", id, type.getName()));
+        }
+        Registration<T> registration = new Registration<T>(id, codec);
+        codecsById.put(id, registration);
+        codecsByType.put(type, registration);
+    }
+
+    /**
+     * Checks whether the given bytes were produced by this codec.
+     *
+     * @param bytes encoded data
+     * @return <code>true</code> if the data starts with the codec header
+     */
+    public static boolean isEncoded(byte[] bytes) {
+        return bytes.length >= 2 && bytes[0] == MAGIC;
+    }
+
+    public static byte[] encode(Object object) throws IOException {
+        return encode(object, null);
+    }
+
+    /**
+     * Encodes an object.
+     *
+     * @param object object to encode
+     * @param methods table to intern method names of kernel RPCs, or <code>null</code> to always
+     *     send the full name
+     * @return encoded bytes
+     * @throws IOException if the object cannot be encoded
+     */
+    public static byte[] encode(Object object, MethodTable methods) throws IOException {
+        CodecOutput value = new CodecOutput(INITIAL_BUFFER_SIZE, methods);
+        writeValue(value, object);
+
+        /* The value is written first to learn the methods it defines, which precede it */
+        Map<String, Integer> definitions = value.getDefinitions();
+        CodecOutput out = new CodecOutput(value.size() + INITIAL_BUFFER_SIZE, null);
+        out.writeByte(MAGIC);
+        out.writeByte(VERSION);
+        out.writeVarInt(definitions.size());
+        for (Map.Entry<String, Integer> definition : definitions.entrySet()) {
+            out.writeVarInt(definition.getValue());
+            out.writeString(definition.getKey());
+        }
+        value.writeTo(out);
+        return out.toByteArray();
+    }
+
+    public static Object decode(byte[] bytes) throws IOException, ClassNotFoundException {
+        return decode(bytes, null);
+    }
+
+    /**
+     * Decodes an object.
+     *
+     * @param bytes encoded data
+     * @param methods table of the method names defined on the connection the data was received
+     *     from, or <code>null</code>
+     * @return decoded object
+     * @throws IOException if the data is corrupt or of an unsupported version
+     * @throws ClassNotFoundException if the class of a serialized value cannot be found
+     */
+    public static Object decode(byte[] bytes, MethodTable methods)
+            throws IOException, ClassNotFoundException {
+        CodecInput in = new CodecInput(bytes, 0, bytes.length, methods);
+        readHeader(in);
+        return readValue(in);
+    }
+
+    /**
+     * Records the method names defined by encoded data, if any. Must be called on received data in
+     * the order it was received, before the data is decoded, so that later RPCs which only carry
+     * the method id can be decoded in any order.
+     *
+     * @param bytes encoded data
+     * @param methods table of the connection the data was received from
+     * @throws IOException if the data is corrupt or of an unsupported version
+     */
+    public static void defineMethods(byte[] bytes, MethodTable methods) throws IOException {
+        CodecInput in = new CodecInput(bytes, 0, bytes.length, null);
+        readHeader(in);
+        for (Map.Entry<Integer, String> definition : in.getDefinitions().entrySet()) {
+            methods.define(definition.getKey(), definition.getValue());
+        }
+    }
+
+    /** Reads the header and the method names defined by the data. */
+    private static void readHeader(CodecInput in) throws IOException {
+        if ((byte) in.readByte() != MAGIC) {
+            throw new IOException("Data was not encoded by the kernel codec");
+        }
+        int version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported kernel codec version " + version);
+        }
+        int count = checkLength(in.readVarInt());
+        for (int i = 0; i < count; i++) {
+            int id = in.readVarInt();
+            in.getDefinitions().put(id, in.readString());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static void writeValue(CodecOutput out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+            return;
+        }
+
+        Class<?> type = value.getClass();
+        if (type == String.class) {
+            out.writeByte(STRING);
+            out.writeString((String) value);
+        } else if (type == Integer.class) {
+            out.writeByte(INT);
+            out.writeSignedVarInt((Integer) value);
+        } else if (type == Long.class) {
+            out.writeByte(LONG);
+            out.writeSignedVarLong((Long) value);
+        } else if (type == Boolean.class) {
+            out.writeByte((Boolean) value ? TRUE : FALSE);
+        } else if (type == Double.class) {
+            out.writeByte(DOUBLE);
+            out.writeLong(Double.doubleToRawLongBits((Double) value));
+        } else if (type == Float.class) {
+            out.writeByte(FLOAT);
+            out.writeInt(Float.floatToRawIntBits((Float) value));
+        } else if (type == Byte.class) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) value);
+        } else if (type == Short.class) {
+            out.writeByte(SHORT);
+            out.writeSignedVarInt((Short) value);
+        } else if (type == Character.class) {
+            out.writeByte(CHAR);
+            out.writeVarInt((Character) value);
+        } else if (type == byte[].class) {
+            byte[] array = (byte[]) value;
+            out.writeByte(BYTE_ARRAY);
+            out.writeVarInt(array.length);
+            out.writeBytes(array, 0, array.length);
+        } else if (type == int[].class) {
+            int[] array = (int[]) value;
+            out.writeByte(INT_ARRAY);
+            out.writeVarInt(array.length);
+            for (int v : array) {
+                out.writeSignedVarInt(v);
+            }
+        } else if (type == long[].class) {
+            long[] array = (long[]) value;
+            out.writeByte(LONG_ARRAY);
+            out.writeVarInt(array.length);
+            for (long v : array) {
+                out.writeSignedVarLong(v);
+            }
+        } else if (type == double[].class) {
+            double[] array = (double[]) value;
+            out.writeByte(DOUBLE_ARRAY);
+            out.writeVarInt(array.length);
+            for (double v : array) {
+                out.writeLong(Double.doubleToRawLongBits(v));
+            }
+        } else if (type == ArrayList.class && isFlat(value)) {
+            ArrayList<Object> list = (ArrayList<Object>) value;
+            out.writeByte(LIST);
+            out.writeVarInt(list.size());
+            for (Object element : list) {
+                writeValue(out, element);
+            }
+        } else if (type == KernelRPC.class) {
+            writeKernelRPC(out, (KernelRPC) value);
+        } else {
+            Registration<Object> registration = (Registration<Object>) codecsByType.get(type);
+            if (registration != null) {
+                out.writeByte(CUSTOM);
+                out.writeVarInt(registration.id);
+                registration.codec.write(out, value);
+            } else {
+                writeSerialized(out, value);
+            }
+        }
+    }
+
+    /**
+     * Checks whether a value can be written without Java serialization, so that it cannot share
+     * references with other values. Kernel RPCs count as flat: each one is invoked on its own, so
+     * references shared between the parameters of different RPCs carry no meaning.
+     */
+    private static boolean isFlat(Object value) {
+        if (value == null) {
+            return true;
+        }
+        Class<?> type = value.getClass();
+        if (type == ArrayList.class) {
+            for (Object element : (ArrayList<?>) value) {
+                if (!isFlat(element)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return type == String.class
+                || type == Integer.class
+                || type == Long.class
+                || type == Boolean.class
+                || type == Double.class
+                || type == Float.class
+                || type == Byte.class
+                || type == Short.class
+                || type == Character.class
+                || type == byte[].class
+                || type == int[].class
+                || type == long[].class
+                || type == double[].class
+                || type == KernelRPC.class
+                || codecsByType.containsKey(type);
+    }
+
+    private static void writeKernelRPC(CodecOutput out, KernelRPC rpc) throws IOException {
+        out.writeByte(rpc.isAppRPC() ? APP_KERNEL_RPC : KERNEL_RPC);
+
+        /* Method id, defined by this data unless the receiver knows it already, or 0 followed by
+        the name if the method cannot be interned */
+        String method = rpc.getMethod();
+        MethodTable methods = out.getMethods();
+        Map<String, Integer> definitions = out.getDefinitions();
+        Integer id = definitions.get(method);
+        if (id == null) {
+            if (methods == null) {
+                id = definitions.size() + 1;
+                definitions.put(method, id);
+            } else {
+                id = methods.idOf(method);
+                if (id != 0 && !methods.isConfirmed(method)) {
+                    definitions.put(method, id);
+                }
+            }
+        }
+        out.writeVarInt(id);
+        if (id == 0) {
+            out.writeString(method);
+        }
+
+        out.writeSignedVarInt(rpc.getOID().getID());
+        writeValue(out, rpc.getParams());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static KernelRPC readKernelRPC(CodecInput in, boolean appRPC)
+            throws IOException, ClassNotFoundException {
+        int id = in.readVarInt();
+        String method;
+        if (id == 0) {
+            method = in.readString();
+        } else {
+            method = in.getDefinitions().get(id);
+            MethodTable methods = in.getMethods();
+            if (method == null && methods != null) {
+                method = methods.lookup(id);
+            }
+            if (method == null) {
+                throw new IOException("Kernel RPC refers to unknown method id " + id);
+            }
+        }
+
+        KernelOID oid = new KernelOID(in.readSignedVarInt());
+        Object params = readValue(in);
+        try {
+            return new KernelRPC(oid, method, (ArrayList<Object>) params, appRPC);
+        } catch (Exception e) {
+            throw new IOException("Failed to create kernel RPC " + method, e);
+        }
+    }
+
+    private static void writeSerialized(CodecOutput out, Object value) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        try {
+            oos.writeObject(value);
+        } finally {
+            oos.close();
+        }
+        byte[] bytes = bos.toByteArray();
+        out.writeByte(SERIALIZED);
+        out.writeVarInt(bytes.length);
+        out.writeBytes(bytes, 0, bytes.length);
+    }
+
+    private static Object readSerialized(CodecInput in) throws IOException, ClassNotFoundException {
+        int length = in.readVarInt();
+        int start = in.position();
+        in.skip(length);
+        ObjectInputStream ois =
+                new ObjectInputStream(new ByteArrayInputStream(in.buffer(), start, length));
+        try {
+            return ois.readObject();
+        } finally {
+            ois.close();
+        }
+    }
+
+    static Object readValue(CodecInput in) throws IOException, ClassNotFoundException {
+        int tag = in.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case BYTE:
+                return (byte) in.readByte();
+            case SHORT:
+                return (short) in.readSignedVarInt();
+            case CHAR:
+                return (char) in.readVarInt();
+            case INT:
+                return in.readSignedVarInt();
+            case LONG:
+                return in.readSignedVarLong();
+            case FLOAT:
+                return Float.intBitsToFloat(in.readInt());
+            case DOUBLE:
+                return Double.longBitsToDouble(in.readLong());
+            case STRING:
+                return in.readString();
+            case BYTE_ARRAY:
+                return in.readBytes(in.readVarInt());
+            case INT_ARRAY:
+                {
+                    int[] array = new int[checkLength(in.readVarInt())];
+                    for (int i = 0; i < array.length; i++) {
+                        array[i] = in.readSignedVarInt();
+                    }
+                    return array;
+                }
+            case LONG_ARRAY:
+                {
+                    long[] array = new long[checkLength(in.readVarInt())];
+                    for (int i = 0; i < array.length; i++) {
+                        array[i] = in.readSignedVarLong();
+                    }
+                    return array;
+                }
+            case DOUBLE_ARRAY:
+                {
+                    double[] array = new double[checkLength(in.readVarInt())];
+                    for (int i = 0; i < array.length; i++) {
+                        array[i] = Double.longBitsToDouble(in.readLong());
+                    }
+                    return array;
+                }
+            case LIST:
+                {
+                    int size = checkLength(in.readVarInt());
+                    ArrayList<Object> list = new ArrayList<Object>(size);
+                    for (int i = 0; i < size; i++) {
+                        list.add(readValue(in));
+                    }
+                    return list;
+                }
+            case KERNEL_RPC:
+                return readKernelRPC(in, false);
+            case APP_KERNEL_RPC:
+                return readKernelRPC(in, true);
+            case CUSTOM:
+                {
+                    int id = in.readVarInt();
+                    Registration<?> registration = codecsById.get(id);
+                    if (registration == null) {
+                        throw new IOException("No kernel codec registered with id " + id);
+                    }
+                    return registration.codec.read(in);
+                }
+            case SERIALIZED:
+                return readSerialized(in);
+            default:
+                throw new IOException("Unknown kernel codec tag " + tag);
+        }
+    }
+
+    /** Guards against allocating huge arrays for corrupt lengths. */
+    private static int checkLength(int length) throws IOException {
+        if (length < 0 || length > (1 << 28)) {
+            throw new IOException("Invalid kernel codec length " + length);
+        }
+        return length;
+    }
+
+    private static class KernelOIDCodec implements TypeCodec<KernelOID> {
+        @Override
+        public void write(CodecOutput out, KernelOID value) {
+            out.writeSignedVarInt(value.getID());
+        }
+
+        @Override
+        public KernelOID read(CodecInput in) throws IOException {
+            return new KernelOID(in.readSignedVarInt());
+        }
+    }
+
+    private static class UUIDCodec implements TypeCodec<UUID> {
+        @Override
+        public void write(CodecOutput out, UUID value) {
+            out.writeLong(value.getMostSignificantBits());
+            out.writeLong(value.getLeastSignificantBits());
+        }
+
+        @Override
+        public UUID read(CodecInput in) throws IOException {
+            return new UUID(in.readLong(), in.readLong());
+        }
+    }
+
+    private static class MicroServiceIDCodec implements TypeCodec<MicroServiceID> {
+        @Override
+        public void write(CodecOutput out, MicroServiceID value) throws IOException {
+            out.writeValue(value.getID());
+        }
+
+        @Override
+        public MicroServiceID read(CodecInput in) throws IOException, ClassNotFoundException {
+            return new MicroServiceID((UUID) in.readValue());
+        }
+    }
+
+    private static class ReplicaIDCodec implements TypeCodec<ReplicaID> {
+        @Override
+        public void write(CodecOutput out, ReplicaID value) throws IOException {
+            out.writeValue(value.getOID());
+            out.writeValue(value.getID());
+        }
+
+        @Override
+        public ReplicaID read(CodecInput in) throws IOException, ClassNotFoundException {
+            MicroServiceID oid = (MicroServiceID) in.readValue();
+            return new ReplicaID(oid, (UUID) in.readValue());
+        }
+    }
+
+    private static class KernelRPCResultCodec implements TypeCodec<KernelRPCResult> {
+        @Override
+        public void write(CodecOutput out, KernelRPCResult value) throws IOException {
+            out.writeByte(value.isSuccess() ? 1 : 0);
+            out.writeValue(value.isSuccess() ? value.getValue() : value.getException());
+        }
+
+        @Override
+        public KernelRPCResult read(CodecInput in) throws IOException, ClassNotFoundException {
+            boolean success = in.readByte() != 0;
+            Object value = in.readValue();
+            return success
+                    ? KernelRPCResult.success(value)
+                    : KernelRPCResult.failure((Exception) value);
+        }
+    }
+
+    private static class InetSocketAddressCodec implements TypeCodec<InetSocketAddress> {
+        @Override
+        public void write(CodecOutput out, InetSocketAddress value) {
+            /* An empty host name stands for an address without a known host name, written as
+            just the IP address */
+            InetAddress address = value.getAddress();
+            String host = value.getHostString();
+            if (address != null && host.equals(address.getHostAddress())) {
+                host = "";
+            }
+            out.writeString(host);
+            out.writeVarInt(value.getPort());
+            if (address == null) {
+                out.writeVarInt(0);
+            } else {
+                byte[] bytes = address.getAddress();
+                out.writeVarInt(bytes.length);
+                out.writeBytes(bytes, 0, bytes.length);
+            }
+        }
+
+        @Override
+        public InetSocketAddress read(CodecInput in) throws IOException {
+            String host = in.readString();
+            int port = in.readVarInt();
+            int length = in.readVarInt();
+            if (length == 0) {
+                return InetSocketAddress.createUnresolved(host, port);
+            }
+            byte[] bytes = in.readBytes(length);
+            InetAddress address =
+                    host.isEmpty()
+                            ? InetAddress.getByAddress(bytes)
+                            : InetAddress.getByAddress(host, bytes);
+            return new InetSocketAddress(address, port);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package amino.run.common.codec;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Interns method names of kernel RPCs sent over one ordered connection. The first RPCs for a method
+ * carry its full name together with a small id; once a frame carrying the name has been written,
+ * later RPCs only carry the id. The receiving end of the connection keeps its own table of the
+ * names it has been sent.
+ *
+ * <p>A method is only referenced by id after {@link #confirm} is called for it, which the sender
+ * does after the frame defining the method has been written to the connection. Frames written
+ * before that keep carrying the definition, so a reference can never overtake its definition.
+ */
+public class MethodTable {
+    /** Limits the memory used for connections that see many different methods */
+    static final int MAX_METHODS = 1 << 16;
+
+    private final ConcurrentHashMap<String, Entry> ids = new ConcurrentHashMap<String, Entry>();
+    private final ConcurrentHashMap<Integer, String> names =
+            new ConcurrentHashMap<Integer, String>();
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    private static class Entry {
+        final int id;
+        volatile boolean confirmed;
+
+        Entry(int id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * Get the id under which the given method is sent.
+     *
+     * @param method method name
+     * @return positive id, or 0 if the method cannot be interned
+     */
+    int idOf(String method) {
+        Entry entry = ids.get(method);
+        if (entry == null) {
+            if (nextId.get() >= MAX_METHODS) {
+                return 0;
+            }
+            Entry newEntry = new Entry(nextId.incrementAndGet());
+            entry = ids.putIfAbsent(method, newEntry);
+            if (entry == null) {
+                entry = newEntry;
+            }
+        }
+        return entry.id;
+    }
+
+    boolean isConfirmed(String method) {
+        Entry entry = ids.get(method);
+        return entry != null && entry.confirmed;
+    }
+
+    /**
+     * Marks the method as known to the receiver. Must only be called once a frame defining the
+     * method has been written to the connection.
+     *
+     * @param method method name
+     */
+    public void confirm(String method) {
+        Entry entry = ids.get(method);
+        if (entry != null) {
+            entry.confirmed = true;
+        }
+    }
+
+    void define(int id, String method) {
+        names.put(id, method);
+    }
+
+    String lookup(int id) {
+        return names.get(id);
+    }
+}
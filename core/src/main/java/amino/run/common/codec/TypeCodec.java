@@ -0,0 +1,15 @@
+package amino.run.common.codec;
+
+import java.io.IOException;
+
+/**
+ * Encodes and decodes values of one type for {@link KernelCodec}. Codecs are registered with {@link
+ * KernelCodec#register} under an id that must be the same on every kernel server.
+ *
+ * @param <T> type handled by the codec
+ */
+public interface TypeCodec<T> {
+    void write(CodecOutput out, T value) throws IOException;
+
+    T read(CodecInput in) throws IOException, ClassNotFoundException;
+}
@@ -159,6 +159,107 @@ public final class AppStub extends Stub {
         return buffer.toString();
     }
 
+    /**
+     * Returns the asynchronous variant of the given method. For a method {@code T foo(...)} the
+     * stub gets a {@code CompletableFuture<T> fooAsync(...)} which makes the RPC through {@link
+     * amino.run.policy.Policy.ClientPolicy#onRPCAsync} without blocking the caller. The future
+     * completes exceptionally with the exception thrown by the microservice method, if any. No
+     * variant is generated if the class already has a method with that name.
+     *
+     * @param m Method for which asynchronous variant is needed.
+     * @return Stub implementation code for the asynchronous variant.
+     */
+    @Override
+    public String getAdditionalMethodImplementations(MethodStub m) {
+        String asyncName = m.name + "Async";
+        for (Method method : stubClass.getMethods()) {
+            if (method.getName().equals(asyncName)) {
+                return "";
+            }
+        }
+
+        String futureType =
+                "java.util.concurrent.CompletableFuture<" + getBoxedTypeName(m.retType) + ">";
+        StringBuilder buffer = new StringBuilder(EOLN);
+        StringBuilder cListParams = new StringBuilder("(");
+
+        buffer.append(indenter.indent() + "// Asynchronous implementation of " + m.name + EOLN);
+        buffer.append(indenter.indent() + "public " + futureType + " " + asyncName + "(");
+        for (int i = 0; i < m.numParams; i++) {
+            buffer.append(((i > 0) ? ", " : "") + m.paramClassNames[i] + ' ' + m.paramNames[i]);
+            cListParams.append(((i > 0) ? ", " : "") + m.paramNames[i]);
+        }
+        cListParams.append(")");
+        buffer.append(") {" + EOLN);
+
+        // Direct invocation completes synchronously
+        buffer.append(indenter.tIncrease() + "if ($__directInvocation) {" + EOLN);
+        buffer.append(
+                indenter.tIncrease(2)
+                        + futureType
+                        + " $__future = new "
+                        + futureType
+                        + "();"
+                        + EOLN);
+        buffer.append(indenter.tIncrease(2) + "try {" + EOLN);
+        if (m.retType == void.class) {
+            buffer.append(indenter.tIncrease(3) + "super." + m.name + cListParams + ";" + EOLN);
+            buffer.append(indenter.tIncrease(3) + "$__future.complete(null);" + EOLN);
+        } else {
+            buffer.append(
+                    indenter.tIncrease(3)
+                            + "$__future.complete(super."
+                            + m.name
+                            + cListParams
+                            + ");"
+                            + EOLN);
+        }
+        buffer.append(indenter.tIncrease(2) + "} catch (java.lang.Exception e) {" + EOLN);
+        buffer.append(indenter.tIncrease(3) + "$__future.completeExceptionally(e);" + EOLN);
+        buffer.append(indenter.tIncrease(2) + "}" + EOLN);
+        buffer.append(indenter.tIncrease(2) + "return $__future;" + EOLN);
+        buffer.append(indenter.tIncrease() + "}" + EOLN + EOLN);
+
+        buffer.append(
+                indenter.tIncrease()
+                        + "java.util.ArrayList<Object> $__params = new java.util.ArrayList<Object>();"
+                        + EOLN);
+        for (int i = 0; i < m.numParams; i++) {
+            buffer.append(indenter.tIncrease() + "$__params.add(" + m.paramNames[i] + ");" + EOLN);
+        }
+        buffer.append(
+                indenter.tIncrease()
+                        + "return amino.run.common.AsyncRPC.invoke($__client, \""
+                        + m.genericName
+                        + "\", $__params);"
+                        + EOLN);
+        buffer.append(indenter.indent() + "}" + EOLN);
+        return buffer.toString();
+    }
+
+    private static String getBoxedTypeName(Class<?> type) {
+        if (type == void.class) {
+            return "java.lang.Void";
+        } else if (type == boolean.class) {
+            return "java.lang.Boolean";
+        } else if (type == byte.class) {
+            return "java.lang.Byte";
+        } else if (type == char.class) {
+            return "java.lang.Character";
+        } else if (type == short.class) {
+            return "java.lang.Short";
+        } else if (type == int.class) {
+            return "java.lang.Integer";
+        } else if (type == long.class) {
+            return "java.lang.Long";
+        } else if (type == float.class) {
+            return "java.lang.Float";
+        } else if (type == double.class) {
+            return "java.lang.Double";
+        }
+        return RMIUtil.getCanonicalName(type);
+    }
+
     /**
      * Returns the stub implementation code section source for the methods
      *
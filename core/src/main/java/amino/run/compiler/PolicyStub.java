@@ -3,11 +3,18 @@ package amino.run.compiler;
 import amino.run.policy.Upcalls;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Set;
 import java.util.TreeSet;
 import org.apache.harmony.rmi.compiler.RmicUtil;
 
 public class PolicyStub extends Stub {
+    /** DM methods that are implemented by the stub itself instead of being forwarded */
+    private static final Set<String> stubImplementedMethods =
+            new HashSet<String>(Arrays.asList("onRPCAsync"));
 
     public PolicyStub(Class<?> cls) {
         super(cls);
@@ -23,7 +30,8 @@ public class PolicyStub extends Stub {
 
             for (Method m : ancestorClass.getDeclaredMethods()) {
                 // Add public methods to methods vector
-                if (Modifier.isPublic(m.getModifiers())) {
+                if (Modifier.isPublic(m.getModifiers())
+                        && !stubImplementedMethods.contains(m.getName())) {
                     ms.add(new MethodStub(m));
                 }
             }
@@ -245,13 +253,13 @@ public class PolicyStub extends Stub {
             buffer.append(indenter.indent() + "try {" + EOLN);
             buffer.append(
                     indenter.tIncrease()
-                            + getMethodRPCContent(isDMMethod)
+                            + getMethodRPCContent(isDMMethod, isOnRPC(m))
                             + EOLN); //$NON-NLS-1$ //$NON-NLS-2$
 
         } else {
             buffer.append(
                     indenter.indent()
-                            + getMethodRPCContent(isDMMethod)
+                            + getMethodRPCContent(isDMMethod, isOnRPC(m))
                             + EOLN); //$NON-NLS-1$ //$NON-NLS-2$
         }
 
@@ -297,21 +305,34 @@ public class PolicyStub extends Stub {
      * Application method.
      *
      * @param isDMMethod
+     * @param isAppRPC whether the method carries application calls
      * @return Stub code for RPC call based on method type.
      */
-    public String getMethodRPCContent(boolean isDMMethod) {
+    public String getMethodRPCContent(boolean isDMMethod, boolean isAppRPC) {
         if (isDMMethod == true) {
             return "$__result = $__makeKernelDMRPC($__method, $__params);";
         } else {
-            return "$__result = $__makeKernelRPC($__method, $__params);";
+            return "$__result = $__makeKernelRPC($__method, $__params, " + isAppRPC + ");";
         }
     }
 
+    /**
+     * Checks whether a method is {@code onRPC} of a server policy, through which the application
+     * calls of the microservice are made.
+     *
+     * @param m the method
+     * @return <code>true</code> for {@code onRPC(String, ArrayList)}
+     */
+    private static boolean isOnRPC(MethodStub m) {
+        return m.name.equals("onRPC")
+                && Arrays.equals(m.parameters, new Class<?>[] {String.class, ArrayList.class});
+    }
+
     private void addServerPolicyContent(StringBuilder buffer) {
         /* Implementation for makeRPC */
         buffer.append(
                 indenter.indent()
-                        + "public Object $__makeKernelRPC(java.lang.String method, java.util.ArrayList<Object> params) throws java.rmi.RemoteException, java.lang.Exception {"
+                        + "public Object $__makeKernelRPC(java.lang.String method, java.util.ArrayList<Object> params, boolean appRPC) throws java.rmi.RemoteException, java.lang.Exception {"
                         + EOLN);
 
         buffer.append(indenter.tIncrease() + "if ($__nextClientPolicy != null) {" + EOLN);
@@ -320,7 +341,7 @@ public class PolicyStub extends Stub {
         buffer.append(indenter.tIncrease() + "}" + EOLN + EOLN);
         buffer.append(
                 indenter.tIncrease()
-                        + "amino.run.kernel.common.KernelRPC rpc = new amino.run.kernel.common.KernelRPC($__oid, method, params);"
+                        + "amino.run.kernel.common.KernelRPC rpc = new amino.run.kernel.common.KernelRPC($__oid, method, params, appRPC);"
                         + EOLN);
         buffer.append(indenter.tIncrease() + "try {" + EOLN);
         buffer.append(
@@ -334,5 +355,67 @@ public class PolicyStub extends Stub {
         buffer.append(indenter.tIncrease(2) + "throw new java.rmi.RemoteException();" + EOLN);
         buffer.append(indenter.tIncrease() + "}" + EOLN);
         buffer.append(indenter.indent() + "}" + EOLN + EOLN);
+
+        addServerPolicyAsyncContent(buffer);
+    }
+
+    private void addServerPolicyAsyncContent(StringBuilder buffer) {
+        String onRPCName;
+        try {
+            onRPCName =
+                    stubClass.getMethod("onRPC", String.class, ArrayList.class).toGenericString();
+        } catch (NoSuchMethodException e) {
+            return;
+        }
+
+        /* Implementation for onRPCAsync. It goes through the DM chain like onRPC */
+        buffer.append(
+                indenter.indent()
+                        + "public java.util.concurrent.CompletableFuture<Object> onRPCAsync(java.lang.String method, java.util.ArrayList<Object> params) {"
+                        + EOLN);
+        buffer.append(
+                indenter.tIncrease()
+                        + "java.util.ArrayList<Object> $__params = new java.util.ArrayList<Object>();"
+                        + EOLN);
+        buffer.append(indenter.tIncrease() + "$__params.add(method);" + EOLN);
+        buffer.append(indenter.tIncrease() + "$__params.add(params);" + EOLN);
+        buffer.append(
+                indenter.tIncrease()
+                        + "return $__makeKernelRPCAsync(\""
+                        + onRPCName
+                        + "\", $__params);"
+                        + EOLN);
+        buffer.append(indenter.indent() + "}" + EOLN + EOLN);
+
+        /* Implementation for makeKernelRPCAsync */
+        buffer.append(
+                indenter.indent()
+                        + "public java.util.concurrent.CompletableFuture<Object> $__makeKernelRPCAsync(java.lang.String method, java.util.ArrayList<Object> params) {"
+                        + EOLN);
+        buffer.append(indenter.tIncrease() + "if ($__nextClientPolicy != null) {" + EOLN);
+        buffer.append(
+                indenter.tIncrease(2)
+                        + "return $__nextClientPolicy.onRPCAsync(method, params);"
+                        + EOLN);
+        buffer.append(indenter.tIncrease() + "}" + EOLN + EOLN);
+        buffer.append(indenter.tIncrease() + "amino.run.kernel.common.KernelRPC rpc;" + EOLN);
+        buffer.append(indenter.tIncrease() + "try {" + EOLN);
+        buffer.append(
+                indenter.tIncrease(2)
+                        + "rpc = new amino.run.kernel.common.KernelRPC($__oid, method, params, true);"
+                        + EOLN);
+        buffer.append(indenter.tIncrease() + "} catch (java.lang.Exception e) {" + EOLN);
+        buffer.append(
+                indenter.tIncrease(2)
+                        + "java.util.concurrent.CompletableFuture<Object> $__future = new java.util.concurrent.CompletableFuture<Object>();"
+                        + EOLN);
+        buffer.append(indenter.tIncrease(2) + "$__future.completeExceptionally(e);" + EOLN);
+        buffer.append(indenter.tIncrease(2) + "return $__future;" + EOLN);
+        buffer.append(indenter.tIncrease() + "}" + EOLN);
+        buffer.append(
+                indenter.tIncrease()
+                        + "return amino.run.kernel.common.GlobalKernelReferences.nodeServer.getKernelClient().makeKernelRPCAsync(this, rpc);"
+                        + EOLN);
+        buffer.append(indenter.indent() + "}" + EOLN + EOLN);
     }
 }
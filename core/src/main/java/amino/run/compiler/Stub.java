@@ -110,10 +110,22 @@ public abstract class Stub implements RmicConstants {
             } else {
                 buffer.append(EOLN + m.getStubImpl(true));
             }
+            buffer.append(getAdditionalMethodImplementations(m));
         }
         return buffer.toString();
     }
 
+    /**
+     * Returns code for extra stub methods generated for the given method, such as its asynchronous
+     * variant.
+     *
+     * @param m Method for which additional stub methods are needed.
+     * @return Code for the additional stub methods. Empty by default.
+     */
+    public String getAdditionalMethodImplementations(MethodStub m) {
+        return "";
+    }
+
     public abstract TreeSet<MethodStub> getMethods();
 
     public abstract String getPackageStatement();
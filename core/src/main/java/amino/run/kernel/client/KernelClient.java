@@ -2,8 +2,10 @@ package amino.run.kernel.client;
 
 import amino.run.common.MicroServiceNotFoundException;
 import amino.run.common.MicroServiceReplicaNotFoundException;
+import amino.run.common.Utils;
 import amino.run.kernel.common.GlobalKernelReferences;
 import amino.run.kernel.common.KernelOID;
+import amino.run.kernel.common.KernelObjectLocation;
 import amino.run.kernel.common.KernelObjectMigratingException;
 import amino.run.kernel.common.KernelObjectNotFoundException;
 import amino.run.kernel.common.KernelObjectStub;
@@ -12,13 +14,24 @@ import amino.run.kernel.common.KernelRPC;
 import amino.run.kernel.common.KernelRPCException;
 import amino.run.kernel.server.KernelObject;
 import amino.run.kernel.server.KernelServer;
+import amino.run.kernel.transport.KernelTransport;
+import amino.run.kernel.transport.NIOKernelTransport;
+import amino.run.kernel.transport.RMIKernelTransport;
+import amino.run.kernel.transport.TransportType;
 import amino.run.oms.OMSServer;
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.net.InetSocketAddress;
 import java.rmi.RemoteException;
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
-import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -30,76 +43,216 @@ import java.util.logging.Logger;
 public class KernelClient {
     /** Stub for the OMS */
     private OMSServer oms;
-    /** List of hostnames matched to kernel server stubs */
-    private Hashtable<InetSocketAddress, KernelServer> servers;
+    /** RMI transport. Used for control operations and as the fallback for kernel RPCs */
+    private RMIKernelTransport rmiTransport;
+    /** Transport used for kernel RPCs to remote kernel servers */
+    private KernelTransport transport;
+    /** Completes asynchronous RPCs so that callbacks never run on transport threads */
+    private ExecutorService asyncExecutor;
+    /** Locations of kernel objects looked up from the OMS */
+    private KernelObjectLocationCache locations;
+    /** Coalesces kernel RPCs to remote hosts. <code>null</code> unless batching is enabled. */
+    private volatile KernelRPCBatcher batcher;
+
+    private long batchWindowMillis;
+    private int maxBatchSize;
+    /** Whether parameters and return values of RPCs to local kernel objects are copied */
+    private volatile boolean copyLocalRPCs;
 
     private static final Logger logger = Logger.getLogger(KernelClient.class.getName());
 
+    private KernelServer getServer(InetSocketAddress host) {
+        return rmiTransport.getServer(host);
+    }
+
+    public KernelClient(OMSServer oms) {
+        this.oms = oms;
+        rmiTransport = new RMIKernelTransport();
+        transport = rmiTransport;
+        locations = new KernelObjectLocationCache(oms);
+        asyncExecutor =
+                Executors.newCachedThreadPool(
+                        new ThreadFactory() {
+                            @Override
+                            public Thread newThread(Runnable r) {
+                                Thread thread = new Thread(r, "kernel-client-async");
+                                thread.setDaemon(true);
+                                return thread;
+                            }
+                        });
+    }
+
     /**
-     * Add a host to the list of hosts that we've contacted
+     * Switch the transport used for kernel RPCs to remote kernel servers.
      *
-     * @param host
+     * @param type transport type
      */
-    private KernelServer addHost(InetSocketAddress host) {
-        try {
-            Registry registry = LocateRegistry.getRegistry(host.getHostName(), host.getPort());
-            KernelServer server = (KernelServer) registry.lookup("io.amino.run.kernelserver");
-            servers.put(host, server);
-            return server;
-        } catch (Exception e) {
-            logger.severe("Could not find MicroService server on host: " + e.toString());
+    public synchronized void setTransport(TransportType type) {
+        KernelTransport old = transport;
+        switch (type) {
+            case nio:
+                transport = new NIOKernelTransport(rmiTransport);
+                break;
+            default:
+                transport = rmiTransport;
+        }
+        resetBatcher();
+        if (old != rmiTransport) {
+            old.shutdown();
         }
-        return null;
     }
 
-    private KernelServer getServer(InetSocketAddress host) {
-        KernelServer server = servers.get(host);
-        if (server == null) {
-            server = addHost(host);
+    /**
+     * Enable or disable micro-batching of kernel RPCs to remote kernel servers. When enabled, RPCs
+     * to the same host made within the window are sent together in one round trip. This trades up
+     * to one window of latency per RPC for fewer round trips under concurrent load.
+     *
+     * @param windowMillis time to wait for more RPCs to the same host, 0 disables batching
+     * @param maxBatchSize number of RPCs after which a batch is sent without waiting
+     */
+    public synchronized void setBatching(long windowMillis, int maxBatchSize) {
+        batchWindowMillis = windowMillis;
+        this.maxBatchSize = maxBatchSize;
+        resetBatcher();
+    }
+
+    private void resetBatcher() {
+        KernelRPCBatcher old = batcher;
+        batcher =
+                (batchWindowMillis > 0)
+                        ? new KernelRPCBatcher(
+                                transport, batchWindowMillis, maxBatchSize, asyncExecutor)
+                        : null;
+        if (old != null) {
+            old.shutdown();
         }
-        return server;
     }
 
-    public KernelClient(OMSServer oms) {
-        this.oms = oms;
-        servers = new Hashtable<InetSocketAddress, KernelServer>();
+    /**
+     * Copy parameters and return values of RPCs to kernel objects on this server, so that neither
+     * side can see changes the other makes to them, as with RPCs to remote kernel servers. Off by
+     * default, in which case they are passed by reference.
+     *
+     * @param copy whether to copy
+     */
+    public void setLocalRPCCopy(boolean copy) {
+        copyLocalRPCs = copy;
     }
 
-    private Object tryMakeKernelRPC(KernelServer server, KernelRPC rpc)
-            throws KernelObjectNotFoundException, Exception {
-        Object ret = null;
+    /**
+     * Invoke an RPC on a kernel object of this server directly on the calling thread.
+     *
+     * @param rpc
+     * @return the return value of the RPC
+     * @throws Exception thrown by the invoked method, unwrapped
+     */
+    private Object makeLocalKernelRPC(KernelRPC rpc) throws Exception {
+        boolean copy = copyLocalRPCs;
+        if (copy) {
+            rpc =
+                    new KernelRPC(
+                            rpc.getOID(), rpc.getMethod(), copy(rpc.getParams()), rpc.isAppRPC());
+        }
+        Object ret;
         try {
-            ret = server.makeKernelRPC(rpc);
-        } catch (KernelRPCException e) {
-            if (!(e.getException() instanceof InvocationTargetException)) {
-                /* Not an invocation exception */
-                throw e.getException();
-            }
+            ret = GlobalKernelReferences.nodeServer.invokeLocalKernelRPC(rpc);
+        } catch (InvocationTargetException e) {
+            throw unwrap(e);
+        }
+        return copy ? copy(ret) : ret;
+    }
 
-            /* Invocation target exception wraps exception thrown by an invoked method or constructor */
-            /* If invocation exception is with any exception,including runtime, app exceptions, unwrap it
-            and throw. Else it is invocation exception with error. Throw the invocation exception as is */
-            Throwable cause = e.getException().getCause();
-            if (cause instanceof InvocationTargetException) {
-                cause = cause.getCause();
-            }
+    @SuppressWarnings("unchecked")
+    private static <T> T copy(T object) throws IOException, ClassNotFoundException {
+        return (T) Utils.toObject(Utils.toBytes(object));
+    }
 
-            throw (cause instanceof Exception) ? ((Exception) cause) : e.getException();
+    private Object makeRemoteKernelRPC(InetSocketAddress host, KernelRPC rpc) throws Exception {
+        KernelRPCBatcher batcher = this.batcher;
+        if (batcher != null) {
+            return batcher.call(host, rpc);
+        }
+        return transport.makeKernelRPC(host, rpc);
+    }
 
+    private Object tryMakeKernelRPC(InetSocketAddress host, KernelRPC rpc)
+            throws KernelObjectNotFoundException, Exception {
+        Object ret = null;
+        try {
+            // Check whether this object is local.
+            if (host.equals(GlobalKernelReferences.nodeServer.getLocalHost())) {
+                ret = makeLocalKernelRPC(rpc);
+            } else {
+                ret = makeRemoteKernelRPC(host, rpc);
+            }
+        } catch (KernelRPCException e) {
+            throw unwrap(e);
         } catch (KernelObjectMigratingException e) {
-            Thread.sleep(100);
+            // The old host held the RPC back for as long as it could; ask the OMS where it went.
             throw new KernelObjectNotFoundException(
-                    "Kernel object was migrating. Try again later.");
+                    "Kernel object was migrating. Try again later.", e);
         }
         return ret;
     }
 
+    /**
+     * Forward an RPC held back by a migrated kernel object to the server the object was moved to.
+     * Errors are passed on as they are, so that the original caller handles them.
+     *
+     * @param host new host of the kernel object
+     * @param rpc
+     * @return the return value of the RPC
+     */
+    public Object forwardKernelRPC(InetSocketAddress host, KernelRPC rpc)
+            throws RemoteException, KernelObjectNotFoundException, KernelObjectMigratingException,
+                    KernelRPCException {
+        return transport.makeKernelRPC(host, rpc);
+    }
+
+    /**
+     * Returns the exception to report to the caller for an RPC that failed inside the kernel
+     * object.
+     *
+     * @param e exception raised by the kernel server
+     * @return exception thrown by the invoked method, or the kernel exception
+     */
+    private static Exception unwrap(KernelRPCException e) {
+        return unwrap(e.getException());
+    }
+
+    /**
+     * Returns the exception to report to the caller for an exception raised by a kernel object.
+     *
+     * @param e exception raised by the kernel object
+     * @return exception thrown by the invoked method, or the given exception
+     */
+    private static Exception unwrap(Exception e) {
+        if (!(e instanceof InvocationTargetException)) {
+            /* Not an invocation exception */
+            return e;
+        }
+
+        /* Invocation target exception wraps exception thrown by an invoked method or constructor */
+        /* If invocation exception is with any exception,including runtime, app exceptions, unwrap it
+        and throw. Else it is invocation exception with error. Throw the invocation exception as is */
+        Throwable cause = e.getCause();
+        if (cause instanceof InvocationTargetException) {
+            cause = cause.getCause();
+        }
+
+        return (cause instanceof Exception) ? ((Exception) cause) : e;
+    }
+
     private Object lookupAndTryMakeKernelRPC(KernelObjectStub stub, KernelRPC rpc)
             throws KernelObjectNotFoundException, Exception {
         InetSocketAddress host, oldHost = stub.$__getHostname();
 
         try {
-            host = oms.lookupKernelObject(stub.$__getKernelOID());
+            host =
+                    locations.lookup(
+                            stub.$__getKernelOID(),
+                            oldHost,
+                            GlobalKernelReferences.nodeServer.getLocalHost());
         } catch (RemoteException e) {
             throw new KernelObjectNotFoundException("Could not find oms.");
         } catch (KernelObjectNotFoundException e) {
@@ -111,7 +264,35 @@ public class KernelClient {
         }
 
         stub.$__updateHostname(host);
-        return tryMakeKernelRPC(getServer(host), rpc);
+        return tryMakeKernelRPC(host, rpc);
+    }
+
+    /**
+     * Get the host to send RPCs for the given stub to. If the OMS notified this server that the
+     * object moved, the stub is pointed to the new host before the RPC is made.
+     *
+     * @param stub
+     * @return
+     */
+    private InetSocketAddress getHost(KernelObjectStub stub) {
+        InetSocketAddress host = stub.$__getHostname();
+        InetSocketAddress cached = locations.get(stub.$__getKernelOID());
+        if (cached != null && !cached.equals(host)) {
+            stub.$__updateHostname(cached);
+            return cached;
+        }
+        return host;
+    }
+
+    /**
+     * Update cached kernel object locations with changes pushed by the OMS.
+     *
+     * @param updates
+     */
+    public void updateKernelObjectLocations(List<KernelObjectLocation> updates) {
+        for (KernelObjectLocation location : updates) {
+            locations.update(location);
+        }
     }
 
     /**
@@ -125,20 +306,14 @@ public class KernelClient {
      */
     public Object makeKernelRPC(KernelObjectStub stub, KernelRPC rpc)
             throws KernelObjectNotFoundException, Exception {
-        InetSocketAddress host = stub.$__getHostname();
-        logger.log(Level.FINE, "Making RPC to " + host.toString() + " RPC: " + rpc.toString());
-
-        // Check whether this object is local.
-        KernelServer server;
-        if (host.equals(GlobalKernelReferences.nodeServer.getLocalHost())) {
-            server = GlobalKernelReferences.nodeServer;
-        } else {
-            server = getServer(host);
+        InetSocketAddress host = getHost(stub);
+        if (logger.isLoggable(Level.FINE)) {
+            logger.log(Level.FINE, "Making RPC to " + host + " RPC: " + rpc);
         }
 
         // Call the server
         try {
-            return tryMakeKernelRPC(server, rpc);
+            return tryMakeKernelRPC(host, rpc);
         } catch (KernelObjectNotFoundException e) {
             logger.warning(
                     String.format(
@@ -148,6 +323,89 @@ public class KernelClient {
         }
     }
 
+    /**
+     * Make an RPC to the kernel server without blocking the caller. Failures are handled the same
+     * way as in {@link #makeKernelRPC}: if the object has moved, it is located through the OMS and
+     * the RPC is retried. The returned future is completed on a kernel client thread, never on a
+     * transport I/O thread.
+     *
+     * @param stub
+     * @param rpc
+     * @return future for the return value of the RPC
+     */
+    public CompletableFuture<Object> makeKernelRPCAsync(
+            final KernelObjectStub stub, final KernelRPC rpc) {
+        InetSocketAddress host = getHost(stub);
+        if (logger.isLoggable(Level.FINE)) {
+            logger.log(Level.FINE, "Making async RPC to " + host + " RPC: " + rpc);
+        }
+
+        CompletableFuture<Object> sent;
+        if (host.equals(GlobalKernelReferences.nodeServer.getLocalHost())) {
+            sent =
+                    CompletableFuture.supplyAsync(
+                            new Supplier<Object>() {
+                                @Override
+                                public Object get() {
+                                    try {
+                                        return makeLocalKernelRPC(rpc);
+                                    } catch (Exception e) {
+                                        throw new CompletionException(e);
+                                    }
+                                }
+                            },
+                            asyncExecutor);
+        } else {
+            KernelRPCBatcher batcher = this.batcher;
+            sent =
+                    (batcher != null)
+                            ? batcher.submit(host, rpc)
+                            : transport.makeKernelRPCAsync(host, rpc);
+        }
+
+        final CompletableFuture<Object> result = new CompletableFuture<Object>();
+        sent.whenCompleteAsync(
+                new BiConsumer<Object, Throwable>() {
+                    @Override
+                    public void accept(Object ret, Throwable t) {
+                        if (t == null) {
+                            result.complete(ret);
+                            return;
+                        }
+
+                        Throwable cause = t;
+                        if (cause instanceof CompletionException && cause.getCause() != null) {
+                            cause = cause.getCause();
+                        }
+
+                        if (cause instanceof KernelRPCException) {
+                            result.completeExceptionally(unwrap((KernelRPCException) cause));
+                        } else if (cause instanceof KernelObjectNotFoundException
+                                || cause instanceof KernelObjectMigratingException) {
+                            try {
+                                result.complete(lookupAndTryMakeKernelRPC(stub, rpc));
+                            } catch (Exception e) {
+                                result.completeExceptionally(e);
+                            }
+                        } else {
+                            result.completeExceptionally(cause);
+                        }
+                    }
+                },
+                asyncExecutor);
+        return result;
+    }
+
+    /**
+     * Get the executor on which asynchronous RPCs are completed. Client policies may use it to run
+     * blocking work for asynchronous calls.
+     *
+     * @return executor of this kernel client
+     */
+    public Executor getAsyncExecutor() {
+        return asyncExecutor;
+    }
+
     public void copyObjectToServer(InetSocketAddress host, KernelOID oid, KernelObject object)
             throws RemoteException, KernelObjectNotFoundException,
                     KernelObjectStubNotCreatedException, MicroServiceNotFoundException,
@@ -0,0 +1,125 @@
+package amino.run.kernel.client;
+
+import amino.run.kernel.common.KernelOID;
+import amino.run.kernel.common.KernelObjectLocation;
+import amino.run.kernel.common.KernelObjectNotFoundException;
+import amino.run.oms.OMSServer;
+import java.net.InetSocketAddress;
+import java.rmi.RemoteException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Cache of kernel object locations looked up from the OMS. Entries are versioned, so a location
+ * pushed by the OMS or returned by a lookup only replaces an older one. Concurrent lookups of the
+ * same kernel object are coalesced into one OMS request.
+ */
+class KernelObjectLocationCache {
+    private final OMSServer oms;
+    private final ConcurrentHashMap<KernelOID, KernelObjectLocation> locations =
+            new ConcurrentHashMap<KernelOID, KernelObjectLocation>();
+    /** OMS lookups in progress */
+    private final ConcurrentHashMap<KernelOID, CompletableFuture<KernelObjectLocation>> lookups =
+            new ConcurrentHashMap<KernelOID, CompletableFuture<KernelObjectLocation>>();
+
+    KernelObjectLocationCache(OMSServer oms) {
+        this.oms = oms;
+    }
+
+    /**
+     * Get the cached host of a kernel object.
+     *
+     * @param oid
+     * @return the host, or <code>null</code> if unknown or deleted
+     */
+    InetSocketAddress get(KernelOID oid) {
+        KernelObjectLocation location = locations.get(oid);
+        return location == null ? null : location.getHost();
+    }
+
+    /**
+     * Store a location unless a newer one is cached already.
+     *
+     * @param location
+     */
+    void update(KernelObjectLocation location) {
+        KernelOID oid = location.getOID();
+        while (true) {
+            KernelObjectLocation cached = locations.get(oid);
+            if (cached == null) {
+                if (locations.putIfAbsent(oid, location) == null) {
+                    return;
+                }
+            } else if (cached.getVersion() >= location.getVersion()
+                    || locations.replace(oid, cached, location)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Find the host of a kernel object which could not be found at <code>staleHost</code>. Uses the
+     * cached location if it already points elsewhere, otherwise asks the OMS. Callers that look up
+     * the same object at the same time share one OMS request.
+     *
+     * @param oid
+     * @param staleHost host at which the object was not found
+     * @param subscriber kernel server to notify when the object moves
+     * @return host of the kernel object
+     * @throws RemoteException if the OMS could not be reached
+     * @throws KernelObjectNotFoundException if the object does not exist
+     */
+    InetSocketAddress lookup(
+            KernelOID oid, InetSocketAddress staleHost, InetSocketAddress subscriber)
+            throws RemoteException, KernelObjectNotFoundException {
+        InetSocketAddress host = get(oid);
+        if (host != null && !host.equals(staleHost)) {
+            return host;
+        }
+
+        CompletableFuture<KernelObjectLocation> lookup =
+                new CompletableFuture<KernelObjectLocation>();
+        CompletableFuture<KernelObjectLocation> current = lookups.putIfAbsent(oid, lookup);
+        if (current != null) {
+            return await(current).getHost();
+        }
+
+        try {
+            KernelObjectLocation location = oms.lookupKernelObject(oid, subscriber);
+            update(location);
+            lookup.complete(location);
+            return location.getHost();
+        } catch (RemoteException e) {
+            lookup.completeExceptionally(e);
+            throw e;
+        } catch (KernelObjectNotFoundException e) {
+            locations.remove(oid);
+            lookup.completeExceptionally(e);
+            throw e;
+        } catch (RuntimeException e) {
+            lookup.completeExceptionally(e);
+            throw e;
+        } finally {
+            lookups.remove(oid, lookup);
+        }
+    }
+
+    private static KernelObjectLocation await(CompletableFuture<KernelObjectLocation> lookup)
+            throws RemoteException, KernelObjectNotFoundException {
+        try {
+            return lookup.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while looking up kernel object", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof KernelObjectNotFoundException) {
+                throw (KernelObjectNotFoundException) cause;
+            } else if (cause instanceof RemoteException) {
+                throw (RemoteException) cause;
+            }
+            throw new RemoteException("Kernel object lookup failed", cause);
+        }
+    }
+}
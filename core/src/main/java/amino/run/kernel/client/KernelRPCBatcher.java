@@ -0,0 +1,203 @@
+package amino.run.kernel.client;
+
+import amino.run.kernel.common.KernelRPC;
+import amino.run.kernel.common.KernelRPCResult;
+import amino.run.kernel.transport.KernelTransport;
+import java.net.InetSocketAddress;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Coalesces kernel RPCs made to the same host within a short window into one {@link
+ * KernelTransport#makeKernelRPCBatch} call. The first RPC to a host opens a batch, which is sent
+ * when the window has passed or when it holds the maximum number of RPCs, whichever comes first.
+ * Every RPC of a batch succeeds or fails on its own, as if it had been sent by itself.
+ */
+class KernelRPCBatcher {
+    private static final Logger logger = Logger.getLogger(KernelRPCBatcher.class.getName());
+
+    private final KernelTransport transport;
+    private final long windowMillis;
+    private final int maxBatchSize;
+    /** Runs the batch RPCs, so that neither callers nor the timer wait on them */
+    private final Executor executor;
+    private final ScheduledExecutorService timer;
+    /** Batches that are still accepting RPCs. Guarded by itself. */
+    private final HashMap<InetSocketAddress, Batch> open = new HashMap<InetSocketAddress, Batch>();
+
+    private static class Batch {
+        final InetSocketAddress host;
+        final ArrayList<KernelRPC> rpcs = new ArrayList<KernelRPC>();
+        final ArrayList<CompletableFuture<Object>> futures =
+                new ArrayList<CompletableFuture<Object>>();
+
+        Batch(InetSocketAddress host) {
+            this.host = host;
+        }
+    }
+
+    /**
+     * @param transport transport to send batches with
+     * @param windowMillis time a batch stays open for more RPCs
+     * @param maxBatchSize number of RPCs after which a batch is sent right away
+     * @param executor executor to send batches on
+     */
+    KernelRPCBatcher(
+            KernelTransport transport, long windowMillis, int maxBatchSize, Executor executor) {
+        if (windowMillis <= 0 || maxBatchSize <= 0) {
+            throw new IllegalArgumentException(
+                    String.format(
+                            "Invalid kernel RPC batching window %d ms or batch size %d",
+                            windowMillis, maxBatchSize));
+        }
+        this.transport = transport;
+        this.windowMillis = windowMillis;
+        this.maxBatchSize = maxBatchSize;
+        this.executor = executor;
+        timer =
+                Executors.newSingleThreadScheduledExecutor(
+                        new ThreadFactory() {
+                            @Override
+                            public Thread newThread(Runnable r) {
+                                Thread thread = new Thread(r, "kernel-rpc-batcher");
+                                thread.setDaemon(true);
+                                return thread;
+                            }
+                        });
+    }
+
+    /**
+     * Adds an RPC to the open batch for the given host.
+     *
+     * @param host address of the remote kernel server
+     * @param rpc the kernel RPC
+     * @return future completed with the return value of the RPC, or with the exception the kernel
+     *     server raised for it
+     */
+    CompletableFuture<Object> submit(InetSocketAddress host, KernelRPC rpc) {
+        CompletableFuture<Object> future = new CompletableFuture<Object>();
+        Batch full = null;
+        synchronized (open) {
+            Batch batch = open.get(host);
+            if (batch == null) {
+                batch = new Batch(host);
+                open.put(host, batch);
+                schedule(batch);
+            }
+            batch.rpcs.add(rpc);
+            batch.futures.add(future);
+            if (batch.rpcs.size() >= maxBatchSize) {
+                open.remove(host);
+                full = batch;
+            }
+        }
+        if (full != null) {
+            dispatch(full);
+        }
+        return future;
+    }
+
+    /**
+     * Makes an RPC through the open batch for the given host and waits for its result.
+     *
+     * @param host address of the remote kernel server
+     * @param rpc the kernel RPC
+     * @return the return value of the RPC
+     * @throws Exception the exception the kernel server raised for the RPC, or a {@link
+     *     RemoteException} if the batch could not be sent
+     */
+    Object call(InetSocketAddress host, KernelRPC rpc) throws Exception {
+        try {
+            return submit(host, rpc).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while waiting for kernel RPC reply", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw new RemoteException("Kernel RPC to " + host + " failed", cause);
+        }
+    }
+
+    private void schedule(final Batch batch) {
+        timer.schedule(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (open) {
+                            if (open.get(batch.host) != batch) {
+                                /* Already sent because it was full */
+                                return;
+                            }
+                            open.remove(batch.host);
+                        }
+                        dispatch(batch);
+                    }
+                },
+                windowMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private void dispatch(final Batch batch) {
+        executor.execute(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        send(batch);
+                    }
+                });
+    }
+
+    private void send(Batch batch) {
+        ArrayList<KernelRPCResult> results;
+        try {
+            results = transport.makeKernelRPCBatch(batch.host, batch.rpcs);
+            if (results.size() != batch.rpcs.size()) {
+                throw new RemoteException(
+                        String.format(
+                                "Kernel server %s returned %d results for %d RPCs",
+                                batch.host, results.size(), batch.rpcs.size()));
+            }
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Kernel RPC batch to " + batch.host + " failed", e);
+            for (CompletableFuture<Object> future : batch.futures) {
+                future.completeExceptionally(e);
+            }
+            return;
+        }
+
+        for (int i = 0; i < results.size(); i++) {
+            KernelRPCResult result = results.get(i);
+            if (result.isSuccess()) {
+                batch.futures.get(i).complete(result.getValue());
+            } else {
+                batch.futures.get(i).completeExceptionally(result.getException());
+            }
+        }
+    }
+
+    /** Sends the batches that are still open and stops the timer. */
+    void shutdown() {
+        ArrayList<Batch> pending;
+        synchronized (open) {
+            pending = new ArrayList<Batch>(open.values());
+            open.clear();
+        }
+        timer.shutdownNow();
+        for (Batch batch : pending) {
+            dispatch(batch);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package amino.run.kernel.common;
+
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+
+/**
+ * Location of a kernel object as known by the OMS. Every change of location gets a higher version,
+ * so that an older location never replaces a newer one in a cache.
+ */
+public class KernelObjectLocation implements Serializable {
+    private final KernelOID oid;
+    private final InetSocketAddress host;
+    private final long version;
+
+    /**
+     * @param oid kernel object id
+     * @param host host of the kernel object, <code>null</code> if the object was deleted
+     * @param version version of the location
+     */
+    public KernelObjectLocation(KernelOID oid, InetSocketAddress host, long version) {
+        this.oid = oid;
+        this.host = host;
+        this.version = version;
+    }
+
+    public KernelOID getOID() {
+        return oid;
+    }
+
+    public InetSocketAddress getHost() {
+        return host;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public boolean isDeleted() {
+        return host == null;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s@%s(v%d)", oid, host, version);
+    }
+}
@@ -0,0 +1,25 @@
+package amino.run.kernel.common;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Thrown by a kernel object that has been migrated to another kernel server while an RPC was
+ * waiting for the migration to finish. The kernel server forwards such RPCs to the new host.
+ */
+public class KernelObjectMovedException extends KernelObjectMigratingException {
+    private final InetSocketAddress host;
+
+    public KernelObjectMovedException(InetSocketAddress host) {
+        super("Kernel object was moved to " + host);
+        this.host = host;
+    }
+
+    /**
+     * Get the kernel server the object was moved to.
+     *
+     * @return address of the new host
+     */
+    public InetSocketAddress getHost() {
+        return host;
+    }
+}
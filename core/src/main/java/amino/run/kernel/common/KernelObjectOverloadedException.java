@@ -0,0 +1,13 @@
+package amino.run.kernel.common;
+
+/**
+ * MicroService Kernel throws this exception if it rejects an RPC because the kernel object already
+ * runs and queues as many RPCs as its {@link amino.run.app.AdmissionSpec} allows. The RPC was not
+ * run, so client policies may back off and retry it, or send it to another replica.
+ */
+public class KernelObjectOverloadedException extends Exception {
+
+    public KernelObjectOverloadedException(String message) {
+        super(message);
+    }
+}
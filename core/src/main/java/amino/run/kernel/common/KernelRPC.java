@@ -14,11 +14,26 @@ public class KernelRPC implements Serializable {
     private KernelOID oid;
     private String method;
     private ArrayList<Object> params;
+    /** Made to {@code onRPC} of a server policy on behalf of the application */
+    private boolean appRPC;
 
     public KernelRPC(KernelOID oid, String method, ArrayList<Object> params) throws Exception {
+        this(oid, method, params, false);
+    }
+
+    /**
+     * @param oid the kernel object being called
+     * @param method generic name of the method
+     * @param params parameters of the method
+     * @param appRPC <code>true</code> if the RPC carries an application call, <code>false</code>
+     *     for RPCs made by policies to each other
+     */
+    public KernelRPC(KernelOID oid, String method, ArrayList<Object> params, boolean appRPC)
+            throws Exception {
         this.oid = oid;
         this.method = method;
         this.params = params;
+        this.appRPC = appRPC;
     }
 
     public KernelOID getOID() {
@@ -33,6 +48,10 @@ public class KernelRPC implements Serializable {
         return params;
     }
 
+    public boolean isAppRPC() {
+        return appRPC;
+    }
+
     @Override
     public String toString() {
         String ret = method;
@@ -55,7 +74,8 @@ public class KernelRPC implements Serializable {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         KernelRPC kernelRPC = (KernelRPC) o;
-        return Objects.equals(oid, kernelRPC.oid)
+        return appRPC == kernelRPC.appRPC
+                && Objects.equals(oid, kernelRPC.oid)
                 && Objects.equals(method, kernelRPC.method)
                 && Objects.equals(params, kernelRPC.params);
     }
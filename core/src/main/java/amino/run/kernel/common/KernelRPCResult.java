@@ -0,0 +1,43 @@
+package amino.run.kernel.common;
+
+import java.io.Serializable;
+
+/**
+ * Outcome of one kernel RPC in a batch: either the return value of the invoked method or the
+ * exception the kernel server raised for it. Entries of a batch succeed or fail independently.
+ */
+public class KernelRPCResult implements Serializable {
+    private final Object value;
+    private final Exception exception;
+
+    private KernelRPCResult(Object value, Exception exception) {
+        this.value = value;
+        this.exception = exception;
+    }
+
+    public static KernelRPCResult success(Object value) {
+        return new KernelRPCResult(value, null);
+    }
+
+    public static KernelRPCResult failure(Exception exception) {
+        return new KernelRPCResult(null, exception);
+    }
+
+    public boolean isSuccess() {
+        return exception == null;
+    }
+
+    /** @return return value of the RPC, <code>null</code> if it failed */
+    public Object getValue() {
+        return value;
+    }
+
+    /**
+     * @return exception raised for the RPC, as {@link
+     *     amino.run.kernel.server.KernelServer#makeKernelRPC} would have thrown it, or <code>null
+     *     </code> if the RPC succeeded
+     */
+    public Exception getException() {
+        return exception;
+    }
+}
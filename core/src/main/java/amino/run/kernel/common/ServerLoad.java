@@ -0,0 +1,80 @@
+package amino.run.kernel.common;
+
+import java.io.Serializable;
+
+/**
+ * Load of a kernel server, reported to the OMS with each heartbeat and used to place new
+ * microservices on servers that are less busy.
+ */
+public class ServerLoad implements Serializable {
+    /* Differences below these are noise rather than load, see relativeTo */
+    private static final double MIN_FRACTION = 0.05;
+    private static final double MIN_COUNT = 1;
+
+    private final double cpu;
+    private final double memory;
+    private final int kernelObjects;
+    private final double rpcRate;
+
+    /**
+     * @param cpu system load average per processor, 1 when every processor is busy
+     * @param memory fraction of the maximum heap in use
+     * @param kernelObjects number of kernel objects on the server
+     * @param rpcRate kernel RPCs run per second
+     */
+    public ServerLoad(double cpu, double memory, int kernelObjects, double rpcRate) {
+        this.cpu = cpu;
+        this.memory = memory;
+        this.kernelObjects = kernelObjects;
+        this.rpcRate = rpcRate;
+    }
+
+    public double getCpu() {
+        return cpu;
+    }
+
+    public double getMemory() {
+        return memory;
+    }
+
+    public int getKernelObjects() {
+        return kernelObjects;
+    }
+
+    public double getRpcRate() {
+        return rpcRate;
+    }
+
+    /**
+     * @param count kernel objects added since the load was measured
+     * @return this load with the kernel objects added
+     */
+    public ServerLoad plusKernelObjects(int count) {
+        return new ServerLoad(cpu, memory, kernelObjects + count, rpcRate);
+    }
+
+    /**
+     * Compares the load with that of another server. Each signal counts by its relative
+     * difference, so that no signal dominates by its unit.
+     *
+     * @param other load of another server
+     * @return positive if this server is more loaded than the other, negative if less loaded
+     */
+    public double relativeTo(ServerLoad other) {
+        return relative(cpu, other.cpu, MIN_FRACTION)
+                + relative(memory, other.memory, MIN_FRACTION)
+                + relative(kernelObjects, other.kernelObjects, MIN_COUNT)
+                + relative(rpcRate, other.rpcRate, MIN_COUNT);
+    }
+
+    private static double relative(double value, double other, double min) {
+        return (value - other) / Math.max(min, Math.max(value, other));
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "cpu=%.2f memory=%.2f kernelObjects=%d rpcRate=%.1f",
+                cpu, memory, kernelObjects, rpcRate);
+    }
+}
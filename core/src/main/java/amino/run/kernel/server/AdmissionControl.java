@@ -0,0 +1,128 @@
+package amino.run.kernel.server;
+
+import amino.run.app.AdmissionSpec;
+import amino.run.kernel.common.KernelObjectOverloadedException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the number of RPCs running on a kernel object as configured by an {@link AdmissionSpec}.
+ * RPCs over the limit wait in a bounded queue; RPCs which cannot be queued or wait too long are
+ * rejected so that a hot object sheds load instead of holding on to every RPC thread of the kernel
+ * server.
+ *
+ * <p>RPCs made to the object by a thread running an RPC on it, for instance by a server policy
+ * calling itself, run under the permit of the outer RPC. Otherwise they would wait for a permit
+ * their own thread holds.
+ */
+class AdmissionControl {
+    private final AdmissionSpec spec;
+    private final Semaphore permits;
+    private final AtomicInteger waiting = new AtomicInteger();
+    /** Number of RPCs running per calling thread, which holds a permit while it has any */
+    private final Map<Thread, Integer> callers = new ConcurrentHashMap<Thread, Integer>();
+
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong queueWaitNanos = new AtomicLong();
+
+    AdmissionControl(AdmissionSpec spec) {
+        spec.validate();
+        this.spec = spec;
+        permits = new Semaphore(spec.getMaxConcurrency(), spec.isFair());
+    }
+
+    AdmissionSpec getSpec() {
+        return spec;
+    }
+
+    /**
+     * Wait for a turn to run an RPC. Every successful call must be followed by {@link #release()}.
+     *
+     * @throws KernelObjectOverloadedException if the queue is full or the RPC waited too long
+     * @throws InterruptedException
+     */
+    void acquire() throws KernelObjectOverloadedException, InterruptedException {
+        Thread caller = Thread.currentThread();
+        Integer calls = callers.get(caller);
+        if (calls != null) {
+            callers.put(caller, calls + 1);
+            admitted.incrementAndGet();
+            return;
+        }
+        acquirePermit();
+        callers.put(caller, 1);
+    }
+
+    private void acquirePermit() throws KernelObjectOverloadedException, InterruptedException {
+        // Timed tryAcquire honours the fairness setting, unlike the untimed one
+        if (permits.tryAcquire(0, TimeUnit.NANOSECONDS)) {
+            admitted.incrementAndGet();
+            return;
+        }
+
+        if (waiting.incrementAndGet() > spec.getQueueDepth()) {
+            waiting.decrementAndGet();
+            rejected.incrementAndGet();
+            throw new KernelObjectOverloadedException(
+                    String.format(
+                            "Kernel object is overloaded: %d RPCs running and %d waiting.",
+                            spec.getMaxConcurrency(), spec.getQueueDepth()));
+        }
+
+        long start = System.nanoTime();
+        boolean acquired = false;
+        try {
+            if (spec.getQueueTimeoutInMs() > 0) {
+                acquired = permits.tryAcquire(spec.getQueueTimeoutInMs(), TimeUnit.MILLISECONDS);
+            } else {
+                permits.acquire();
+                acquired = true;
+            }
+        } finally {
+            waiting.decrementAndGet();
+            queued.incrementAndGet();
+            queueWaitNanos.addAndGet(System.nanoTime() - start);
+        }
+
+        if (!acquired) {
+            rejected.incrementAndGet();
+            throw new KernelObjectOverloadedException(
+                    String.format(
+                            "Kernel object is overloaded: RPC waited more than %d ms to run.",
+                            spec.getQueueTimeoutInMs()));
+        }
+        admitted.incrementAndGet();
+    }
+
+    /** Called after an RPC admitted by {@link #acquire()} returned. */
+    void release() {
+        Thread caller = Thread.currentThread();
+        int calls = callers.get(caller);
+        if (calls == 1) {
+            callers.remove(caller);
+            permits.release();
+        } else {
+            callers.put(caller, calls - 1);
+        }
+    }
+
+    /**
+     * Add the counters of this object to the given statistics.
+     *
+     * @param stats
+     */
+    void addTo(AdmissionStats stats) {
+        stats.add(
+                admitted.get(),
+                queued.get(),
+                rejected.get(),
+                TimeUnit.NANOSECONDS.toMillis(queueWaitNanos.get()),
+                waiting.get());
+    }
+}
@@ -0,0 +1,55 @@
+package amino.run.kernel.server;
+
+import java.io.Serializable;
+
+/**
+ * Admission control counters of the kernel objects on a kernel server, summed since the objects
+ * were created on the server.
+ */
+public class AdmissionStats implements Serializable {
+    private long admitted;
+    private long queued;
+    private long rejected;
+    private long queueWaitMs;
+    private int waiting;
+
+    void add(long admitted, long queued, long rejected, long queueWaitMs, int waiting) {
+        this.admitted += admitted;
+        this.queued += queued;
+        this.rejected += rejected;
+        this.queueWaitMs += queueWaitMs;
+        this.waiting += waiting;
+    }
+
+    /** @return number of RPCs that were run */
+    public long getAdmitted() {
+        return admitted;
+    }
+
+    /** @return number of RPCs that had to wait before they were run or rejected */
+    public long getQueued() {
+        return queued;
+    }
+
+    /** @return number of RPCs rejected with an overload error */
+    public long getRejected() {
+        return rejected;
+    }
+
+    /** @return total time RPCs spent waiting, in milliseconds */
+    public long getQueueWaitMs() {
+        return queueWaitMs;
+    }
+
+    /** @return number of RPCs waiting at the time the statistics were taken */
+    public int getWaiting() {
+        return waiting;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "admitted=%d queued=%d rejected=%d queueWaitMs=%d waiting=%d",
+                admitted, queued, rejected, queueWaitMs, waiting);
+    }
+}
@@ -0,0 +1,73 @@
+package amino.run.kernel.server;
+
+import java.io.Serializable;
+
+/** Statistics of one pool of a {@link KernelRPCDispatcher}, counted since the server started. */
+public class DispatchStats implements Serializable {
+    private final String pool;
+    private final int threads;
+    private final int active;
+    private final int queued;
+    private final long completed;
+    private final long rejected;
+    private final long queueWaitMs;
+
+    DispatchStats(
+            String pool,
+            int threads,
+            int active,
+            int queued,
+            long completed,
+            long rejected,
+            long queueWaitMs) {
+        this.pool = pool;
+        this.threads = threads;
+        this.active = active;
+        this.queued = queued;
+        this.completed = completed;
+        this.rejected = rejected;
+        this.queueWaitMs = queueWaitMs;
+    }
+
+    /** @return name of the pool, <code>app</code> or <code>control</code> */
+    public String getPool() {
+        return pool;
+    }
+
+    /** @return number of RPCs of the pool that may run at once, 0 if they are not bounded */
+    public int getThreads() {
+        return threads;
+    }
+
+    /** @return number of RPCs running at the time the statistics were taken */
+    public int getActive() {
+        return active;
+    }
+
+    /** @return number of RPCs waiting to run at the time the statistics were taken */
+    public int getQueued() {
+        return queued;
+    }
+
+    /** @return number of RPCs that were run */
+    public long getCompleted() {
+        return completed;
+    }
+
+    /** @return number of RPCs rejected because the queue was full */
+    public long getRejected() {
+        return rejected;
+    }
+
+    /** @return total time RPCs waited to run, in milliseconds */
+    public long getQueueWaitMs() {
+        return queueWaitMs;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s: threads=%d active=%d queued=%d completed=%d rejected=%d queueWaitMs=%d",
+                pool, threads, active, queued, completed, rejected, queueWaitMs);
+    }
+}
@@ -1,9 +1,14 @@
 package amino.run.kernel.server;
 
+import amino.run.app.AdmissionSpec;
+import amino.run.app.MicroServiceSpec;
 import amino.run.common.ObjectHandler;
 import amino.run.kernel.common.KernelObjectMigratingException;
+import amino.run.policy.Library;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.net.InetSocketAddress;
 import java.util.ArrayList;
-import java.util.concurrent.Semaphore;
 
 /**
  * A single MicroService kernel object that can receive RPCs. These are stored in the MicroService
@@ -12,56 +17,113 @@ import java.util.concurrent.Semaphore;
  * @author iyzhang
  */
 public class KernelObject extends ObjectHandler {
-
-    private static final int MAX_CONCURRENT_RPCS = 100;
-    private Boolean coalesced;
-    private Semaphore rpcCounter;
+    /** Admits RPCs and holds them back while the object is migrated */
+    private transient MigrationFence fence;
+    /** Limits the RPCs running on the object */
+    private transient volatile AdmissionControl admission;
 
     public KernelObject(Object obj) {
         super(obj);
-        coalesced = false;
-        rpcCounter = new Semaphore(MAX_CONCURRENT_RPCS, true);
+        fence = new MigrationFence();
+        admission = new AdmissionControl(getAdmissionSpec(obj));
     }
 
-    public Object invoke(String method, ArrayList<Object> params) throws Exception {
-        Object ret;
-
-        if (coalesced) {
-            // Object has been migrated to the other kernel server.
-            throw new KernelObjectMigratingException(
-                    "Object in this kernel server was migrated and is no longer valid.");
+    /**
+     * Get the admission settings of a kernel object from the spec of its microservice.
+     *
+     * @param obj object in the kernel object
+     * @return admission settings, the defaults if the microservice does not specify any
+     */
+    private static AdmissionSpec getAdmissionSpec(Object obj) {
+        if (obj instanceof Library.ServerPolicyLibrary) {
+            MicroServiceSpec spec = ((Library.ServerPolicyLibrary) obj).getSpec();
+            if (spec != null && spec.getAdmissionSpec() != null) {
+                return spec.getAdmissionSpec();
+            }
         }
+        return new AdmissionSpec();
+    }
 
-        rpcCounter.acquire();
+    /**
+     * Change the admission settings of the object. RPCs admitted under the old settings are not
+     * counted against the new ones.
+     *
+     * @param spec admission settings, or <code>null</code> for the defaults
+     */
+    public void setAdmissionSpec(AdmissionSpec spec) {
+        admission = new AdmissionControl(spec == null ? new AdmissionSpec() : spec);
+    }
 
-        // Added try finally so that, when the super.invoke(...) throws exceptions,
-        // then we safely release the rpcCounter
+    /**
+     * Invoke method on the object. While the object is being migrated, the call waits for the
+     * migration to end.
+     *
+     * @throws amino.run.kernel.common.KernelObjectMovedException if the object was moved to another
+     *     kernel server in the meantime
+     * @throws KernelObjectMigratingException if the migration did not end in time
+     * @throws amino.run.kernel.common.KernelObjectOverloadedException if the object runs and queues
+     *     as many RPCs as its admission settings allow
+     */
+    public Object invoke(String method, ArrayList<Object> params) throws Exception {
+        fence.enter();
         try {
-            ret = super.invoke(method, params);
+            AdmissionControl control = admission;
+            control.acquire();
+            try {
+                return super.invoke(method, params);
+            } finally {
+                control.release();
+            }
         } finally {
-            rpcCounter.release();
+            fence.exit();
         }
-
-        return ret;
     }
 
+    /**
+     * Stop admitting RPCs to the object and wait for the RPCs in flight to return. RPCs made by the
+     * calling thread are not waited for.
+     */
     public void coalesce() {
-        coalesced = true;
-        while (rpcCounter.availablePermits() < MAX_CONCURRENT_RPCS - 1) {
-            try {
-                Thread.sleep(10); // TODO: Quinton: Why sleep for an arbitrary amount of time here?
-                // Seems like we need to block on a semaphore here instead.
-            } catch (InterruptedException e) {
-                continue;
-            }
-        }
-
-        return;
+        fence.raise();
     }
 
+    /** Resume RPCs on this object after a migration failed. */
     public void uncoalesce() {
-        coalesced = false;
-        // reset the rpc semaphore
-        rpcCounter = new Semaphore(MAX_CONCURRENT_RPCS, true);
+        fence.lower();
+    }
+
+    /**
+     * Release the RPCs held back by {@link #coalesce()} to the kernel server the object was moved
+     * to.
+     *
+     * @param host new host of the object
+     */
+    public void moved(InetSocketAddress host) {
+        fence.moved(host);
+    }
+
+    /** @return time the last migration waited for RPCs in flight, in milliseconds */
+    public long getLastDrainMillis() {
+        return fence.getLastDrainNanos() / 1000000;
+    }
+
+    /** @return time RPCs to the object were held back by the last migration, in milliseconds */
+    public long getLastStallMillis() {
+        return fence.getLastStallNanos() / 1000000;
+    }
+
+    /** @return number of RPCs held back by the last migration */
+    public int getLastParkedRPCs() {
+        return fence.getLastParked();
+    }
+
+    void addAdmissionStats(AdmissionStats stats) {
+        admission.addTo(stats);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        fence = new MigrationFence();
+        admission = new AdmissionControl(getAdmissionSpec(getObject()));
     }
 }
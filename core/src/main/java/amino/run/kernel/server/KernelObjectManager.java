@@ -98,6 +98,24 @@ public class KernelObjectManager {
         addObject(oid, kernelObject);
     }
 
+    /**
+     * Get the admission control counters of all local kernel objects.
+     *
+     * @return summed counters
+     */
+    public AdmissionStats getAdmissionStats() {
+        AdmissionStats stats = new AdmissionStats();
+        for (KernelObject object : objects.values()) {
+            object.addAdmissionStats(stats);
+        }
+        return stats;
+    }
+
+    /** @return number of kernel objects on this server */
+    public int getObjectCount() {
+        return objects.size();
+    }
+
     /**
      * get all the kernel object Ids from the KS
      *
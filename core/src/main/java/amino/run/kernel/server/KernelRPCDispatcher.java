@@ -0,0 +1,284 @@
+package amino.run.kernel.server;
+
+import amino.run.kernel.common.KernelObjectMigratingException;
+import amino.run.kernel.common.KernelObjectNotFoundException;
+import amino.run.kernel.common.KernelObjectOverloadedException;
+import amino.run.kernel.common.KernelRPC;
+import amino.run.kernel.common.KernelRPCException;
+import amino.run.kernel.common.KernelRPCResult;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounds the number of kernel RPCs a kernel server runs at once. Application RPCs, which {@link
+ * KernelRPC#isAppRPC() carry} calls to {@code onRPC} of a server policy, are bounded separately
+ * from every other RPC. Those are made by a policy to another policy, like heartbeats, consensus
+ * and replication messages, and must not be held up behind application RPCs when the server is
+ * busy.
+ *
+ * <p>An RPC runs on the thread that received it once one of the slots of its pool is free, so no
+ * thread is left waiting for another one to run the RPC. RPCs that find all slots of their pool
+ * taken and as many RPCs as the queue capacity already waiting are rejected with {@link
+ * KernelObjectOverloadedException}. RPCs made while the thread holds a slot, for instance by a
+ * server policy to another kernel object on the same server, run without taking another slot, so
+ * that they never wait for a slot their caller holds. A pool with no slots does not bound its RPCs,
+ * which is the default.
+ *
+ * <p>The entries of a batch run concurrently, each like an RPC of its own, so that an entry waiting
+ * for another one of the same batch does not wait forever, and a slow entry does not hold up the
+ * others.
+ */
+public class KernelRPCDispatcher {
+    /** Set while the thread holds a slot */
+    private static final ThreadLocal<Boolean> holdsSlot = new ThreadLocal<Boolean>();
+
+    /** Run the entries of batches but the first, which runs on the thread that received the batch */
+    private static final ExecutorService batchWorkers =
+            Executors.newCachedThreadPool(
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "kernel-batch-rpc");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+
+    private final Pool app;
+    private final Pool control;
+
+    private static class Pool {
+        final String name;
+        final int slots;
+        final int queueCapacity;
+        /** <code>null</code> if RPCs are not bounded */
+        final Semaphore permits;
+
+        final AtomicInteger waiting = new AtomicInteger();
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong rejected = new AtomicLong();
+        final AtomicLong queueWaitNanos = new AtomicLong();
+
+        Pool(String name, int slots, int queueCapacity) {
+            if (slots < 0 || queueCapacity < 0) {
+                throw new IllegalArgumentException(
+                        String.format(
+                                "Invalid %s RPC pool size %d or queue capacity %d",
+                                name, slots, queueCapacity));
+            }
+            this.name = name;
+            this.slots = slots;
+            this.queueCapacity = queueCapacity;
+            permits = (slots == 0) ? null : new Semaphore(slots, true);
+        }
+
+        /**
+         * Wait for a free slot.
+         *
+         * @return <code>false</code> if the RPC is rejected
+         */
+        boolean acquire() throws InterruptedException {
+            if (permits.tryAcquire(0, TimeUnit.NANOSECONDS)) {
+                return true;
+            }
+            if (waiting.incrementAndGet() > queueCapacity) {
+                waiting.decrementAndGet();
+                rejected.incrementAndGet();
+                return false;
+            }
+            long start = System.nanoTime();
+            try {
+                permits.acquire();
+            } finally {
+                waiting.decrementAndGet();
+                queueWaitNanos.addAndGet(System.nanoTime() - start);
+            }
+            return true;
+        }
+
+        DispatchStats getStats() {
+            if (permits == null) {
+                return new DispatchStats(name, 0, 0, 0, completed.get(), 0, 0);
+            }
+            return new DispatchStats(
+                    name,
+                    slots,
+                    slots - permits.availablePermits(),
+                    waiting.get(),
+                    completed.get(),
+                    rejected.get(),
+                    queueWaitNanos.get() / 1000000);
+        }
+    }
+
+    /**
+     * @param appThreads application RPCs that may run at once, 0 to not bound them
+     * @param appQueueCapacity number of application RPCs that may wait for a slot
+     * @param controlThreads control RPCs that may run at once, 0 to not bound them
+     * @param controlQueueCapacity number of control RPCs that may wait for a slot
+     */
+    public KernelRPCDispatcher(
+            int appThreads, int appQueueCapacity, int controlThreads, int controlQueueCapacity) {
+        app = new Pool("app", appThreads, appQueueCapacity);
+        control = new Pool("control", controlThreads, controlQueueCapacity);
+    }
+
+    /** @return a dispatcher that does not bound RPCs */
+    public static KernelRPCDispatcher direct() {
+        return new KernelRPCDispatcher(0, 0, 0, 0);
+    }
+
+    /**
+     * Run an RPC on the calling thread once its pool has a free slot.
+     *
+     * @param rpc the kernel RPC, used to pick the pool
+     * @param task invokes the RPC on the kernel object
+     * @return the return value of the task
+     */
+    Object dispatch(KernelRPC rpc, Callable<Object> task)
+            throws RemoteException, KernelObjectNotFoundException, KernelObjectMigratingException,
+                    KernelRPCException {
+        Pool pool = rpc.isAppRPC() ? app : control;
+        if (pool.permits == null || holdsSlot.get() != null) {
+            return call(pool, task);
+        }
+
+        boolean acquired;
+        try {
+            acquired = pool.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while waiting to run kernel RPC " + rpc, e);
+        }
+        if (!acquired) {
+            String message =
+                    String.format(
+                            "Kernel server is overloaded: %d %s RPCs running and %d waiting.",
+                            pool.slots, pool.name, pool.queueCapacity);
+            throw new KernelRPCException(new KernelObjectOverloadedException(message));
+        }
+
+        holdsSlot.set(Boolean.TRUE);
+        try {
+            return call(pool, task);
+        } finally {
+            holdsSlot.remove();
+            pool.permits.release();
+        }
+    }
+
+    /**
+     * Run the RPCs of a batch concurrently and wait for all of them to return.
+     *
+     * @param rpcs the kernel RPCs of the batch
+     * @param tasks invoke the RPCs on their kernel objects, in the order of the RPCs
+     * @return the outcome of each RPC, in the order of the RPCs
+     */
+    ArrayList<KernelRPCResult> dispatchBatch(
+            List<KernelRPC> rpcs, List<? extends Callable<Object>> tasks) {
+        final boolean nested = holdsSlot.get() != null;
+        ArrayList<Future<KernelRPCResult>> futures =
+                new ArrayList<Future<KernelRPCResult>>(rpcs.size());
+        for (int i = 1; i < rpcs.size(); i++) {
+            final KernelRPC rpc = rpcs.get(i);
+            final Callable<Object> task = tasks.get(i);
+            futures.add(
+                    batchWorkers.submit(
+                            new Callable<KernelRPCResult>() {
+                                @Override
+                                public KernelRPCResult call() {
+                                    // Entries of a batch received by a slot holder share its slot
+                                    if (nested) {
+                                        holdsSlot.set(Boolean.TRUE);
+                                    }
+                                    try {
+                                        return dispatchEntry(rpc, task);
+                                    } finally {
+                                        holdsSlot.remove();
+                                    }
+                                }
+                            }));
+        }
+
+        ArrayList<KernelRPCResult> results = new ArrayList<KernelRPCResult>(rpcs.size());
+        if (!rpcs.isEmpty()) {
+            results.add(dispatchEntry(rpcs.get(0), tasks.get(0)));
+        }
+        boolean interrupted = false;
+        for (Future<KernelRPCResult> future : futures) {
+            while (true) {
+                try {
+                    results.add(future.get());
+                    break;
+                } catch (InterruptedException e) {
+                    // The entries are running already, so their results must still be collected
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return results;
+    }
+
+    private KernelRPCResult dispatchEntry(KernelRPC rpc, Callable<Object> task) {
+        try {
+            return KernelRPCResult.success(dispatch(rpc, task));
+        } catch (Exception e) {
+            return KernelRPCResult.failure(e);
+        }
+    }
+
+    private static Object call(Pool pool, Callable<Object> task)
+            throws RemoteException, KernelObjectNotFoundException, KernelObjectMigratingException,
+                    KernelRPCException {
+        try {
+            return task.call();
+        } catch (Exception e) {
+            throw rethrow(e);
+        } finally {
+            pool.completed.incrementAndGet();
+        }
+    }
+
+    private static KernelRPCException rethrow(Exception e)
+            throws RemoteException, KernelObjectNotFoundException, KernelObjectMigratingException,
+                    KernelRPCException {
+        if (e instanceof RemoteException) {
+            throw (RemoteException) e;
+        } else if (e instanceof KernelObjectNotFoundException) {
+            throw (KernelObjectNotFoundException) e;
+        } else if (e instanceof KernelObjectMigratingException) {
+            throw (KernelObjectMigratingException) e;
+        } else if (e instanceof KernelRPCException) {
+            throw (KernelRPCException) e;
+        }
+        return new KernelRPCException(e);
+    }
+
+    /** @return statistics of the app and control pools */
+    public ArrayList<DispatchStats> getStats() {
+        ArrayList<DispatchStats> stats = new ArrayList<DispatchStats>();
+        stats.add(app.getStats());
+        stats.add(control.getStats());
+        return stats;
+    }
+}
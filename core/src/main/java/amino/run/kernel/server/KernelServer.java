@@ -6,13 +6,17 @@ import amino.run.common.MicroServiceCreationException;
 import amino.run.common.MicroServiceNotFoundException;
 import amino.run.common.MicroServiceReplicaNotFoundException;
 import amino.run.kernel.common.KernelOID;
+import amino.run.kernel.common.KernelObjectLocation;
 import amino.run.kernel.common.KernelObjectMigratingException;
 import amino.run.kernel.common.KernelObjectNotFoundException;
 import amino.run.kernel.common.KernelObjectStubNotCreatedException;
 import amino.run.kernel.common.KernelRPC;
 import amino.run.kernel.common.KernelRPCException;
+import amino.run.kernel.common.KernelRPCResult;
+import java.net.InetSocketAddress;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.ArrayList;
 
 /**
  * Interface for the MicroService Kernel Server
@@ -24,6 +28,52 @@ public interface KernelServer extends Remote {
             throws RemoteException, KernelObjectNotFoundException, KernelObjectMigratingException,
                     KernelRPCException;
 
+    /**
+     * Make several kernel RPCs in one call. The RPCs are run one after the other in list order, and
+     * each one succeeds or fails on its own.
+     *
+     * @param rpcs kernel RPCs, possibly for different kernel objects on this server
+     * @return one result per RPC, in the same order
+     * @throws RemoteException
+     */
+    ArrayList<KernelRPCResult> makeKernelRPCBatch(ArrayList<KernelRPC> rpcs)
+            throws RemoteException;
+
+    /**
+     * Get the address at which this kernel server accepts kernel RPCs over a non-RMI {@link
+     * amino.run.kernel.transport.KernelTransport}.
+     *
+     * @return transport address, or <code>null</code> if this kernel server only accepts RMI
+     * @throws RemoteException
+     */
+    InetSocketAddress getTransportAddress() throws RemoteException;
+
+    /**
+     * Update the locations of kernel objects cached by this kernel server. Called by the OMS when
+     * kernel objects that this server looked up move or are deleted.
+     *
+     * @param locations new locations
+     * @throws RemoteException
+     */
+    void updateKernelObjectLocations(ArrayList<KernelObjectLocation> locations)
+            throws RemoteException;
+
+    /**
+     * Get the admission control counters of the kernel objects on this server.
+     *
+     * @return counters summed over all local kernel objects
+     * @throws RemoteException
+     */
+    AdmissionStats getAdmissionStats() throws RemoteException;
+
+    /**
+     * Get the statistics of the thread pools that run kernel RPCs received by this server.
+     *
+     * @return statistics of the app and control pools
+     * @throws RemoteException
+     */
+    ArrayList<DispatchStats> getDispatchStats() throws RemoteException;
+
     void copyKernelObject(KernelOID oid, KernelObject object)
             throws RemoteException, KernelObjectNotFoundException,
                     KernelObjectStubNotCreatedException, MicroServiceNotFoundException,
@@ -10,7 +10,10 @@ import amino.run.common.MicroServiceReplicaNotFoundException;
 import amino.run.common.Notification;
 import amino.run.kernel.client.KernelClient;
 import amino.run.kernel.common.*;
+import amino.run.kernel.transport.NIOKernelTransportServer;
+import amino.run.kernel.transport.TransportType;
 import amino.run.oms.OMSServer;
+import amino.run.oms.OMSShardRouter;
 import amino.run.policy.Library;
 import amino.run.policy.Policy;
 import amino.run.policy.PolicyContainer;
@@ -18,13 +21,17 @@ import amino.run.policy.util.ResettableTimer;
 import amino.run.runtime.EventHandler;
 import amino.run.runtime.MicroService;
 import com.google.devtools.common.options.OptionsParser;
+import java.io.IOException;
 import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
 import java.net.InetSocketAddress;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -39,6 +46,8 @@ public class KernelServerImpl implements KernelServer {
     public static String LABEL_OPT = "--labels";
     public static String KERNEL_SERVER_IP_OPT = "--kernel-server-ip";
     public static String KERNEL_SERVER_PORT_OPT = "--kernel-server-port";
+    public static String KERNEL_TRANSPORT_OPT = "--kernel-transport";
+    public static String KERNEL_TRANSPORT_PORT_OPT = "--kernel-transport-port";
     public static String DEFAULT_REGION = "default-region";
     public static String REGION_KEY = "region";
 
@@ -50,11 +59,18 @@ public class KernelServerImpl implements KernelServer {
     public static OMSServer oms;
     /** local kernel client for making RPCs */
     private KernelClient client;
+    /** listener for kernel RPCs over the NIO transport, null when only RMI is used */
+    private NIOKernelTransportServer transportServer;
+    /** runs received kernel RPCs on the app and control thread pools */
+    private volatile KernelRPCDispatcher dispatcher;
     // heartbeat period is 1/3of the heartbeat timeout period
     static final long KS_HEARTBEAT_PERIOD = OMSServer.KS_HEARTBEAT_TIMEOUT / 3;
 
     // heartbeat timer
     private ResettableTimer ksHeartbeatSendTimer;
+    // kernel RPCs run and time at the last heartbeat, to report the RPC rate
+    private long lastRPCCount;
+    private long lastRPCTime = System.currentTimeMillis();
 
     public KernelServerImpl(InetSocketAddress host, InetSocketAddress omsHost) {
         OMSServer oms = null;
@@ -77,6 +93,7 @@ public class KernelServerImpl implements KernelServer {
         this.host = host;
         objectManager = new KernelObjectManager();
         client = new KernelClient(oms);
+        dispatcher = KernelRPCDispatcher.direct();
         GlobalKernelReferences.nodeServer = this;
     }
 
@@ -88,7 +105,50 @@ public class KernelServerImpl implements KernelServer {
         return this.region;
     }
 
+    /**
+     * Start accepting kernel RPCs over the given transport, and use the same transport for kernel
+     * RPCs made from this server. RMI is always available, so nothing needs to be started for it.
+     *
+     * @param type transport type
+     * @param address local address for the transport to listen on
+     * @throws IOException if the transport could not be started
+     */
+    public void startTransport(TransportType type, InetSocketAddress address) throws IOException {
+        if (type == TransportType.nio) {
+            transportServer = new NIOKernelTransportServer(this, address);
+            transportServer.start();
+        }
+        client.setTransport(type);
+    }
+
+    /**
+     * Coalesce kernel RPCs made from this server to the same remote kernel server.
+     *
+     * @param windowMillis time to wait for more RPCs to the same host, 0 disables batching
+     * @param maxBatchSize number of RPCs after which a batch is sent without waiting
+     */
+    public void setKernelRPCBatching(long windowMillis, int maxBatchSize) {
+        client.setBatching(windowMillis, maxBatchSize);
+    }
+
+    /**
+     * Bound the number of kernel RPCs this server runs at once, separately for application RPCs and
+     * for control RPCs between policies.
+     *
+     * @param dispatcher dispatcher to run RPCs with
+     */
+    public void setDispatcher(KernelRPCDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
     /** RPC INTERFACES * */
+    @Override
+    public InetSocketAddress getTransportAddress() {
+        if (transportServer == null) {
+            return null;
+        }
+        return transportServer.getAddress();
+    }
 
     /**
      * Invoke an RPC on this kernel server. This is a public RMI interface.
@@ -97,29 +157,100 @@ public class KernelServerImpl implements KernelServer {
      * @return the return value from the method invocation
      */
     @Override
-    public Object makeKernelRPC(KernelRPC rpc)
-            throws KernelObjectNotFoundException, KernelRPCException {
+    public Object makeKernelRPC(final KernelRPC rpc)
+            throws RemoteException, KernelObjectNotFoundException, KernelObjectMigratingException,
+                    KernelRPCException {
+        return dispatcher.dispatch(
+                rpc,
+                new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        return invokeKernelRPC(rpc);
+                    }
+                });
+    }
+
+    private Object invokeKernelRPC(KernelRPC rpc)
+            throws RemoteException, KernelObjectNotFoundException, KernelObjectMigratingException,
+                    KernelRPCException {
         KernelObject object = null;
         object = objectManager.lookupObject(rpc.getOID());
 
-        logger.log(
-                Level.FINE,
-                "Invoking RPC on Kernel Object with OID: "
-                        + rpc.getOID()
-                        + "with rpc:"
-                        + rpc.getMethod()
-                        + " params: "
-                        + rpc.getParams().toString());
+        if (logger.isLoggable(Level.FINE)) {
+            logger.log(
+                    Level.FINE,
+                    "Invoking RPC on Kernel Object with OID: "
+                            + rpc.getOID()
+                            + "with rpc:"
+                            + rpc.getMethod()
+                            + " params: "
+                            + rpc.getParams().toString());
+        }
 
         Object ret = null;
         try {
             ret = object.invoke(rpc.getMethod(), rpc.getParams());
+        } catch (KernelObjectMovedException e) {
+            // The object was moved while the RPC waited for the migration. Hand it to the new host.
+            return client.forwardKernelRPC(e.getHost(), rpc);
+        } catch (KernelObjectMigratingException e) {
+            throw e;
         } catch (Exception e) {
             throw new KernelRPCException(e);
         }
         return ret;
     }
 
+    /**
+     * Invoke an RPC made from this process on a kernel object of this server. Unlike {@link
+     * #makeKernelRPC}, the RPC runs on the calling thread and exceptions of the invoked method are
+     * not wrapped in a {@link KernelRPCException}.
+     *
+     * @param rpc All of the information about the RPC, the object id, the method and arguments
+     * @return the return value from the method invocation
+     * @throws KernelObjectNotFoundException if the object is not on this server
+     * @throws java.lang.reflect.InvocationTargetException wrapping an exception thrown by the
+     *     invoked method
+     */
+    public Object invokeLocalKernelRPC(KernelRPC rpc) throws Exception {
+        KernelObject object = objectManager.lookupObject(rpc.getOID());
+        try {
+            return object.invoke(rpc.getMethod(), rpc.getParams());
+        } catch (KernelObjectMovedException e) {
+            return client.forwardKernelRPC(e.getHost(), rpc);
+        }
+    }
+
+    @Override
+    public ArrayList<KernelRPCResult> makeKernelRPCBatch(ArrayList<KernelRPC> rpcs) {
+        ArrayList<Callable<Object>> tasks = new ArrayList<Callable<Object>>(rpcs.size());
+        for (final KernelRPC rpc : rpcs) {
+            tasks.add(
+                    new Callable<Object>() {
+                        @Override
+                        public Object call() throws Exception {
+                            return invokeKernelRPC(rpc);
+                        }
+                    });
+        }
+        return dispatcher.dispatchBatch(rpcs, tasks);
+    }
+
+    @Override
+    public void updateKernelObjectLocations(ArrayList<KernelObjectLocation> locations) {
+        client.updateKernelObjectLocations(locations);
+    }
+
+    @Override
+    public AdmissionStats getAdmissionStats() {
+        return objectManager.getAdmissionStats();
+    }
+
+    @Override
+    public ArrayList<DispatchStats> getDispatchStats() {
+        return dispatcher.getStats();
+    }
+
     /**
      * Move a kernel object to this server.
      *
@@ -240,14 +371,22 @@ public class KernelServerImpl implements KernelServer {
          */
         KernelObject object = objectManager.lookupObject(oid);
 
-        /* Coalesce all the server policies in chain before moving them */
+        /* Fence off all the server policies in chain before moving them. RPCs arriving from now on
+        are held back until the move is over. */
+        List<KernelOID> chain = new ArrayList<KernelOID>();
+        List<KernelObject> objects = new ArrayList<KernelObject>();
         Policy.ServerPolicy nextPolicy = serverPolicy;
         AppObject appObject = nextPolicy.getAppObject();
-        object.coalesce();
+        chain.add(oid);
+        objects.add(object);
         while ((appObject != null) && (appObject.getObject() instanceof KernelObjectStub)) {
             nextPolicy = (Policy.ServerPolicy) appObject.getObject();
             appObject = nextPolicy.getAppObject();
-            objectManager.lookupObject(nextPolicy.$__getKernelOID()).coalesce();
+            chain.add(nextPolicy.$__getKernelOID());
+            objects.add(objectManager.lookupObject(nextPolicy.$__getKernelOID()));
+        }
+        for (KernelObject next : objects) {
+            next.coalesce();
         }
 
         logger.fine("Moving object " + oid.toString() + " to " + host.toString());
@@ -260,6 +399,7 @@ public class KernelServerImpl implements KernelServer {
                             "Failed to copy object to server oid:%d, target host:%s",
                             oid.getID(), host.getHostName());
             logger.severe(msg);
+            resume(objects);
             throw new RemoteException(msg, e);
         } catch (KernelObjectStubNotCreatedException e) {
             String msg =
@@ -267,24 +407,49 @@ public class KernelServerImpl implements KernelServer {
                             "Failed to create policy stub object on destination server. oid:%d, target host:%s",
                             oid.getID(), host.getHostName());
             logger.severe(msg);
+            resume(objects);
             throw new RemoteException(
                     "Failed to create policy stub object on destination server.", e);
+        } catch (KernelObjectNotFoundException e) {
+            resume(objects);
+            throw e;
+        } catch (MicroServiceNotFoundException e) {
+            resume(objects);
+            throw e;
+        } catch (MicroServiceReplicaNotFoundException e) {
+            resume(objects);
+            throw e;
         }
 
-        // Remove the associated KernelObjects from the local KernelServer.
-        Object objectStub = serverPolicy;
-        do {
-            serverPolicy = (Policy.ServerPolicy) objectStub;
-            appObject = serverPolicy.getAppObject();
+        /* Forward the RPCs held back to the new host and remove the associated KernelObjects from
+        the local KernelServer. onDestroy() is invoked on the local objects directly, because RPCs
+        to their kernel OIDs are now served by the new host. */
+        for (int i = 0; i < objects.size(); i++) {
+            KernelObject next = objects.get(i);
+            next.moved(host);
+            ((Policy.ServerPolicy) next.getObject()).onDestroy();
+            objectManager.removeObject(chain.get(i));
+        }
 
-            /* onDestroy() is invoked on serverStub objects. i.e., Call happens via makeKernelRPC(). If the
-            kernel object is not uncoalesced before method invocation, it throws KernelObjectMigratingException. */
-            objectManager.lookupObject(serverPolicy.$__getKernelOID()).uncoalesce();
-            serverPolicy.onDestroy();
-            objectManager.removeObject(serverPolicy.$__getKernelOID());
-        } while ((appObject != null)
-                && ((objectStub = appObject.getObject()) != null)
-                && (objectStub instanceof KernelObjectStub));
+        logger.info(
+                String.format(
+                        "Moved object %s to %s. RPCs drained in %d ms, held back for %d ms, %d RPCs forwarded.",
+                        oid,
+                        host,
+                        object.getLastDrainMillis(),
+                        object.getLastStallMillis(),
+                        object.getLastParkedRPCs()));
+    }
+
+    /**
+     * Let fenced kernel objects serve RPCs again after a failed move.
+     *
+     * @param objects
+     */
+    private void resume(List<KernelObject> objects) {
+        for (KernelObject object : objects) {
+            object.uncoalesce();
+        }
     }
 
     /**
@@ -392,10 +557,40 @@ public class KernelServerImpl implements KernelServer {
         return new MemoryStatThread();
     }
 
+    /**
+     * Measure the load of this server, reported to the OMS with the heartbeats
+     *
+     * @return load since the last measurement
+     */
+    ServerLoad measureLoad() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        // Negative if the platform has no load average
+        double cpu = Math.max(0, os.getSystemLoadAverage() / os.getAvailableProcessors());
+        Runtime runtime = Runtime.getRuntime();
+        double memory =
+                (double) (runtime.totalMemory() - runtime.freeMemory()) / runtime.maxMemory();
+
+        long rpcCount = 0;
+        for (DispatchStats stats : dispatcher.getStats()) {
+            rpcCount += stats.getCompleted();
+        }
+        long now = System.currentTimeMillis();
+        double rpcRate = (rpcCount - lastRPCCount) * 1000.0 / Math.max(1, now - lastRPCTime);
+        lastRPCCount = rpcCount;
+        lastRPCTime = now;
+        return new ServerLoad(cpu, memory, objectManager.getObjectCount(), rpcRate);
+    }
+
     /** Send HeartBeats to OMS. */
     private void sendHeartBeat(ServerInfo srvinfo) {
+        srvinfo.setLoad(measureLoad());
         try {
-            oms.receiveHeartBeat(srvinfo);
+            try {
+                oms.receiveHeartBeat(srvinfo);
+            } catch (KernelServerNotFoundException e) {
+                // The OMS restarted, or we failed over to an OMS replica that does not know us.
+                oms.registerKernelServer(srvinfo);
+            }
         } catch (Exception e) {
             logger.severe("HeartBeat failed with exception: " + e);
         }
@@ -430,7 +625,12 @@ public class KernelServerImpl implements KernelServer {
 
         try {
             // Bind server in registry
-            KernelServerImpl server = new KernelServerImpl(host, omsHost);
+            KernelServerImpl server;
+            if (ksArgs.omsShards != null) {
+                server = new KernelServerImpl(host, new OMSShardRouter(ksArgs.omsShards));
+            } else {
+                server = new KernelServerImpl(host, omsHost);
+            }
             KernelServer stub =
                     (KernelServer) UnicastRemoteObject.exportObject(server, ksArgs.servicePort);
             Registry registry = LocateRegistry.createRegistry(ksArgs.kernelServerPort);
@@ -439,6 +639,17 @@ public class KernelServerImpl implements KernelServer {
             // Register against OMS
             ServerInfo srvInfo = createServerInfo(host, ksArgs.labels);
             server.setRegion(srvInfo.getRegion());
+            server.startTransport(
+                    ksArgs.transport,
+                    new InetSocketAddress(host.getAddress(), ksArgs.transportPort));
+            server.setKernelRPCBatching(ksArgs.batchWindow, ksArgs.batchSize);
+            server.getKernelClient().setLocalRPCCopy(ksArgs.localRPCCopy);
+            server.setDispatcher(
+                    new KernelRPCDispatcher(
+                            ksArgs.appRPCThreads,
+                            ksArgs.appRPCQueue,
+                            ksArgs.controlRPCThreads,
+                            ksArgs.controlRPCQueue));
             oms.registerKernelServer(srvInfo);
 
             // Start HeartBeat timer
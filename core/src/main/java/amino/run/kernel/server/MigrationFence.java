@@ -0,0 +1,194 @@
+package amino.run.kernel.server;
+
+import amino.run.kernel.common.KernelObjectMigratingException;
+import amino.run.kernel.common.KernelObjectMovedException;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admits RPCs to a kernel object and fences them off while the object is migrated.
+ *
+ * <p>Migration raises the fence and waits for the RPCs in flight to drain. RPCs that arrive while
+ * the fence is up are parked, up to {@link #MAX_PARKED_RPCS} of them, until the migration ends. If
+ * the object was moved they are released with a {@link KernelObjectMovedException} naming the new
+ * host, otherwise they run locally as if nothing had happened.
+ *
+ * <p>Migration is usually started by the object itself, from inside an RPC. RPCs of the thread that
+ * raises the fence are therefore not waited for.
+ */
+class MigrationFence {
+    static final int MAX_PARKED_RPCS = 1000;
+    /** Longest time an RPC stays parked before it is rejected */
+    static final long PARK_TIMEOUT_MS = 5000;
+
+    private enum State {
+        OPEN,
+        RAISED,
+        MOVED
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    /** Signalled when an RPC leaves the object */
+    private final Condition rpcDone = lock.newCondition();
+    /** Signalled when the fence is lowered or the object moved */
+    private final Condition fenceLifted = lock.newCondition();
+
+    private State state = State.OPEN;
+    private InetSocketAddress movedTo;
+    private int inFlight;
+    /** Number of RPCs in flight per calling thread */
+    private final Map<Thread, Integer> callers = new HashMap<Thread, Integer>();
+
+    private int parked;
+    private int parkedTotal;
+
+    private long raisedAt;
+    private long lastDrainNanos;
+    private long lastStallNanos;
+    private int lastParked;
+
+    /**
+     * Called before an RPC is invoked on the object. Blocks while the fence is up.
+     *
+     * @throws KernelObjectMovedException if the object was moved while the RPC was parked
+     * @throws KernelObjectMigratingException if the RPC could not be parked or waited too long
+     * @throws InterruptedException
+     */
+    void enter() throws KernelObjectMigratingException, InterruptedException {
+        lock.lock();
+        try {
+            if (state == State.RAISED) {
+                park();
+            }
+            if (state == State.MOVED) {
+                throw new KernelObjectMovedException(movedTo);
+            }
+            inFlight++;
+            Thread caller = Thread.currentThread();
+            Integer calls = callers.get(caller);
+            callers.put(caller, calls == null ? 1 : calls + 1);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Called after an RPC admitted by {@link #enter()} returned. */
+    void exit() {
+        lock.lock();
+        try {
+            inFlight--;
+            Thread caller = Thread.currentThread();
+            int calls = callers.get(caller);
+            if (calls == 1) {
+                callers.remove(caller);
+            } else {
+                callers.put(caller, calls - 1);
+            }
+            rpcDone.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void park() throws KernelObjectMigratingException, InterruptedException {
+        if (parked >= MAX_PARKED_RPCS) {
+            throw new KernelObjectMigratingException(
+                    "Kernel object is migrating and too many RPCs are waiting for it.");
+        }
+
+        parked++;
+        parkedTotal++;
+        try {
+            long remaining = TimeUnit.MILLISECONDS.toNanos(PARK_TIMEOUT_MS);
+            while (state == State.RAISED) {
+                if (remaining <= 0) {
+                    throw new KernelObjectMigratingException(
+                            "Timed out waiting for kernel object migration to finish.");
+                }
+                remaining = fenceLifted.awaitNanos(remaining);
+            }
+        } finally {
+            parked--;
+        }
+    }
+
+    /** Raises the fence and blocks until the RPCs in flight on other threads have returned. */
+    void raise() {
+        lock.lock();
+        try {
+            state = State.RAISED;
+            raisedAt = System.nanoTime();
+            parkedTotal = 0;
+            Integer own = callers.get(Thread.currentThread());
+            while (inFlight > (own == null ? 0 : own)) {
+                rpcDone.awaitUninterruptibly();
+            }
+            lastDrainNanos = System.nanoTime() - raisedAt;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Lowers the fence after a failed migration. Parked RPCs run on this object. */
+    void lower() {
+        lift(State.OPEN, null);
+    }
+
+    /**
+     * Releases parked and future RPCs to the host the object was moved to.
+     *
+     * @param host new host of the object
+     */
+    void moved(InetSocketAddress host) {
+        lift(State.MOVED, host);
+    }
+
+    private void lift(State next, InetSocketAddress host) {
+        lock.lock();
+        try {
+            if (state == State.RAISED) {
+                lastStallNanos = System.nanoTime() - raisedAt;
+                lastParked = parkedTotal;
+            }
+            state = next;
+            movedTo = host;
+            fenceLifted.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** @return time the last migration waited for RPCs in flight to drain, in nanoseconds */
+    long getLastDrainNanos() {
+        lock.lock();
+        try {
+            return lastDrainNanos;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** @return time RPCs were fenced off during the last migration, in nanoseconds */
+    long getLastStallNanos() {
+        lock.lock();
+        try {
+            return lastStallNanos;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** @return number of RPCs parked during the last migration */
+    int getLastParked() {
+        lock.lock();
+        try {
+            return lastParked;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package amino.run.kernel.transport;
+
+import amino.run.common.codec.KernelCodec;
+import amino.run.common.codec.MethodTable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A message exchanged by the NIO kernel transport. On the wire each frame is laid out as
+ *
+ * <pre>
+ *     int   length of the remainder of the frame
+ *     long  correlation id, used to match replies with requests
+ *     byte  frame type
+ *     byte[] payload, encoded with {@link KernelCodec}
+ * </pre>
+ */
+class Frame {
+    static final byte REQUEST = 1;
+    static final byte REPLY = 2;
+    static final byte ERROR = 3;
+    /** Request carrying a list of kernel RPCs, answered with a list of results */
+    static final byte BATCH_REQUEST = 4;
+
+    /** Size of the length prefix */
+    static final int LENGTH_SIZE = 4;
+    /** Size of correlation id and type */
+    static final int HEADER_SIZE = 9;
+    /** Frames larger than this are considered corrupt */
+    static final int MAX_FRAME_SIZE = 256 * 1024 * 1024;
+
+    final long id;
+    final byte type;
+    final byte[] payload;
+
+    Frame(long id, byte type, byte[] payload) {
+        this.id = id;
+        this.type = type;
+        this.payload = payload;
+    }
+
+    /**
+     * Decodes the payload.
+     *
+     * @param methods method names defined on the connection the frame was received from
+     */
+    Object getPayload(MethodTable methods) throws IOException, ClassNotFoundException {
+        return KernelCodec.decode(payload, methods);
+    }
+
+    /**
+     * Encodes a frame carrying the given object, ready to be written to a channel.
+     *
+     * @param id correlation id
+     * @param type frame type
+     * @param object payload object
+     * @param methods table to intern method names of kernel RPCs, or <code>null</code>
+     * @return a buffer positioned at the start of the frame
+     * @throws IOException if the object cannot be serialized
+     */
+    static ByteBuffer encode(long id, byte type, Object object, MethodTable methods)
+            throws IOException {
+        byte[] payload = KernelCodec.encode(object, methods);
+        ByteBuffer buffer = ByteBuffer.allocate(LENGTH_SIZE + HEADER_SIZE + payload.length);
+        buffer.putInt(HEADER_SIZE + payload.length);
+        buffer.putLong(id);
+        buffer.put(type);
+        buffer.put(payload);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Returns the length of the frame body announced by the length prefix.
+     *
+     * @param buffer buffer holding at least {@link #LENGTH_SIZE} readable bytes
+     * @throws IOException if the length is out of range
+     */
+    static int bodyLength(ByteBuffer buffer) throws IOException {
+        int length = buffer.getInt(buffer.position());
+        if (length < HEADER_SIZE || length > MAX_FRAME_SIZE) {
+            throw new IOException("Invalid kernel transport frame length " + length);
+        }
+        return length;
+    }
+
+    /**
+     * Decodes a frame body (everything after the length prefix).
+     *
+     * @param body buffer positioned at the start of the body with exactly the body remaining
+     * @return decoded frame
+     */
+    static Frame decode(ByteBuffer body) {
+        long id = body.getLong();
+        byte type = body.get();
+        byte[] payload = new byte[body.remaining()];
+        body.get(payload);
+        return new Frame(id, type, payload);
+    }
+}
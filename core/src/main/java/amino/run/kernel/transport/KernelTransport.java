@@ -0,0 +1,58 @@
+package amino.run.kernel.transport;
+
+import amino.run.kernel.common.KernelObjectMigratingException;
+import amino.run.kernel.common.KernelObjectNotFoundException;
+import amino.run.kernel.common.KernelRPC;
+import amino.run.kernel.common.KernelRPCException;
+import amino.run.kernel.common.KernelRPCResult;
+import java.net.InetSocketAddress;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Transport used by {@link amino.run.kernel.client.KernelClient} to deliver {@link KernelRPC}s to
+ * remote kernel servers. {@link RMIKernelTransport} is the default and is always available as a
+ * fallback. {@link NIOKernelTransport} multiplexes many in-flight RPCs over one persistent
+ * connection per peer.
+ */
+public interface KernelTransport {
+    /**
+     * Makes a kernel RPC on the kernel server running at the given host.
+     *
+     * @param host address of the remote kernel server
+     * @param rpc the kernel RPC
+     * @return the return value from the method invocation
+     * @throws RemoteException when the kernel server cannot be contacted
+     * @throws KernelObjectNotFoundException when the kernel server cannot find the object
+     * @throws KernelObjectMigratingException when the kernel object is being migrated
+     * @throws KernelRPCException when the invocation on the kernel object fails
+     */
+    Object makeKernelRPC(InetSocketAddress host, KernelRPC rpc)
+            throws RemoteException, KernelObjectNotFoundException, KernelObjectMigratingException,
+                    KernelRPCException;
+
+    /**
+     * Makes a kernel RPC without blocking the caller. The returned future completes with the return
+     * value, or exceptionally with one of the exceptions declared by {@link #makeKernelRPC}.
+     *
+     * @param host address of the remote kernel server
+     * @param rpc the kernel RPC
+     * @return future for the return value of the method invocation
+     */
+    CompletableFuture<Object> makeKernelRPCAsync(InetSocketAddress host, KernelRPC rpc);
+
+    /**
+     * Makes several kernel RPCs on the kernel server running at the given host in one round trip.
+     *
+     * @param host address of the remote kernel server
+     * @param rpcs the kernel RPCs
+     * @return one result per RPC, in the same order
+     * @throws RemoteException when the kernel server cannot be contacted
+     */
+    ArrayList<KernelRPCResult> makeKernelRPCBatch(InetSocketAddress host, ArrayList<KernelRPC> rpcs)
+            throws RemoteException;
+
+    /** Releases connections and threads held by this transport. */
+    void shutdown();
+}
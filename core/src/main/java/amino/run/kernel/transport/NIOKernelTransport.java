@@ -0,0 +1,378 @@
+package amino.run.kernel.transport;
+
+import amino.run.common.codec.MethodTable;
+import amino.run.kernel.common.KernelObjectMigratingException;
+import amino.run.kernel.common.KernelObjectNotFoundException;
+import amino.run.kernel.common.KernelRPC;
+import amino.run.kernel.common.KernelRPCException;
+import amino.run.kernel.common.KernelRPCResult;
+import amino.run.kernel.server.KernelServer;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Kernel transport that multiplexes kernel RPCs over one persistent NIO connection per peer kernel
+ * server. Every request carries a correlation id and replies may arrive in any order, so a single
+ * connection can have many RPCs in flight at the same time.
+ *
+ * <p>The NIO endpoint of a peer is discovered once through {@link
+ * KernelServer#getTransportAddress()}. Peers which do not run a {@link NIOKernelTransportServer},
+ * or whose endpoint cannot be reached, are served by the {@link RMIKernelTransport} fallback.
+ *
+ * <p>Calls that get no reply within the reply timeout fail with a {@link RemoteException}, so that
+ * a stalled peer does not hold on to the calling thread forever.
+ */
+public class NIOKernelTransport implements KernelTransport {
+    private static final Logger logger = Logger.getLogger(NIOKernelTransport.class.getName());
+    static final long DEFAULT_REPLY_TIMEOUT_MS = 60000;
+
+    private final RMIKernelTransport fallback;
+    private final long replyTimeoutMillis;
+    /** Open connections keyed by the RMI address of the peer kernel server */
+    private final ConcurrentHashMap<InetSocketAddress, Connection> connections =
+            new ConcurrentHashMap<InetSocketAddress, Connection>();
+    /** Per-peer locks so that connecting to a slow peer does not block other peers */
+    private final ConcurrentHashMap<InetSocketAddress, Object> connectLocks =
+            new ConcurrentHashMap<InetSocketAddress, Object>();
+    /** Peers that only accept RMI */
+    private final Set<InetSocketAddress> rmiOnlyPeers =
+            Collections.newSetFromMap(new ConcurrentHashMap<InetSocketAddress, Boolean>());
+
+    private final AtomicLong nextCorrelationId = new AtomicLong();
+
+    public NIOKernelTransport(RMIKernelTransport fallback) {
+        this(fallback, DEFAULT_REPLY_TIMEOUT_MS);
+    }
+
+    /**
+     * @param fallback transport for peers which do not accept NIO connections
+     * @param replyTimeoutMillis how long a call waits for its reply
+     */
+    public NIOKernelTransport(RMIKernelTransport fallback, long replyTimeoutMillis) {
+        if (replyTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("Invalid reply timeout " + replyTimeoutMillis);
+        }
+        this.fallback = fallback;
+        this.replyTimeoutMillis = replyTimeoutMillis;
+    }
+
+    @Override
+    public Object makeKernelRPC(InetSocketAddress host, KernelRPC rpc)
+            throws RemoteException, KernelObjectNotFoundException, KernelObjectMigratingException,
+                    KernelRPCException {
+        Connection connection = getConnection(host);
+        if (connection == null) {
+            return fallback.makeKernelRPC(host, rpc);
+        }
+        return connection.call(
+                nextCorrelationId.incrementAndGet(), Frame.REQUEST, rpc, replyTimeoutMillis);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public ArrayList<KernelRPCResult> makeKernelRPCBatch(
+            InetSocketAddress host, ArrayList<KernelRPC> rpcs) throws RemoteException {
+        Connection connection = getConnection(host);
+        if (connection == null) {
+            return fallback.makeKernelRPCBatch(host, rpcs);
+        }
+        try {
+            return (ArrayList<KernelRPCResult>)
+                    connection.call(
+                            nextCorrelationId.incrementAndGet(),
+                            Frame.BATCH_REQUEST,
+                            rpcs,
+                            replyTimeoutMillis);
+        } catch (RemoteException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RemoteException("Kernel RPC batch to " + host + " failed", e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Object> makeKernelRPCAsync(InetSocketAddress host, KernelRPC rpc) {
+        Connection connection = getConnection(host);
+        if (connection == null) {
+            return fallback.makeKernelRPCAsync(host, rpc);
+        }
+        return connection.send(nextCorrelationId.incrementAndGet(), Frame.REQUEST, rpc);
+    }
+
+    /**
+     * Get an open connection to the NIO endpoint of the given peer, connecting if necessary.
+     *
+     * @param host RMI address of the peer kernel server
+     * @return the connection or <code>null</code> if RMI must be used for this peer
+     */
+    private Connection getConnection(InetSocketAddress host) {
+        Connection connection = connections.get(host);
+        if (connection != null && connection.isOpen()) {
+            return connection;
+        }
+        if (rmiOnlyPeers.contains(host)) {
+            return null;
+        }
+
+        Object lock = connectLocks.get(host);
+        if (lock == null) {
+            Object newLock = new Object();
+            lock = connectLocks.putIfAbsent(host, newLock);
+            if (lock == null) {
+                lock = newLock;
+            }
+        }
+
+        synchronized (lock) {
+            connection = connections.get(host);
+            if (connection != null && connection.isOpen()) {
+                return connection;
+            }
+
+            KernelServer server = fallback.getServer(host);
+            if (server == null) {
+                return null;
+            }
+
+            InetSocketAddress address;
+            try {
+                address = server.getTransportAddress();
+            } catch (RemoteException e) {
+                logger.log(Level.WARNING, "Could not get transport address of " + host, e);
+                return null;
+            }
+
+            if (address == null) {
+                logger.info(String.format("Kernel server %s only supports RMI.", host));
+                rmiOnlyPeers.add(host);
+                return null;
+            }
+
+            try {
+                connection = new Connection(address);
+            } catch (IOException e) {
+                logger.log(
+                        Level.WARNING,
+                        String.format(
+                                "Failed to connect to kernel transport of %s at %s. Falling back to RMI.",
+                                host, address),
+                        e);
+                return null;
+            }
+
+            connections.put(host, connection);
+            return connection;
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        for (Connection connection : connections.values()) {
+            connection.close(new RemoteException("Kernel transport was shut down."));
+        }
+        connections.clear();
+        fallback.shutdown();
+    }
+
+    /**
+     * A persistent connection to the NIO endpoint of one peer. Writers serialize on the channel
+     * while a dedicated reader thread completes pending calls by correlation id.
+     */
+    private static class Connection implements Runnable {
+        private final InetSocketAddress address;
+        private final SocketChannel channel;
+        private final Object writeLock = new Object();
+        /** Method names interned on this connection */
+        private final MethodTable methods = new MethodTable();
+
+        private final Map<Long, CompletableFuture<Object>> pending =
+                new ConcurrentHashMap<Long, CompletableFuture<Object>>();
+        private volatile boolean open = true;
+
+        Connection(InetSocketAddress address) throws IOException {
+            this.address = address;
+            channel = SocketChannel.open();
+            try {
+                channel.socket().setTcpNoDelay(true);
+                channel.socket().setKeepAlive(true);
+                channel.connect(address);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+
+            Thread reader = new Thread(this, "kernel-transport-reader-" + address);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        boolean isOpen() {
+            return open;
+        }
+
+        /**
+         * Sends a request frame carrying a kernel RPC or, for {@link Frame#BATCH_REQUEST}, a list
+         * of them. The returned future is completed by the reader thread when the reply arrives,
+         * or exceptionally if the connection fails.
+         */
+        CompletableFuture<Object> send(long id, byte type, Object request) {
+            CompletableFuture<Object> future = new CompletableFuture<Object>();
+            ByteBuffer frame;
+            try {
+                frame = Frame.encode(id, type, request, methods);
+            } catch (IOException e) {
+                future.completeExceptionally(
+                        new RemoteException("Failed to encode kernel RPC " + request, e));
+                return future;
+            }
+
+            pending.put(id, future);
+            try {
+                synchronized (writeLock) {
+                    while (frame.hasRemaining()) {
+                        channel.write(frame);
+                    }
+                }
+                // Later frames are written after this one and may refer to its methods by id
+                if (request instanceof KernelRPC) {
+                    methods.confirm(((KernelRPC) request).getMethod());
+                } else if (request instanceof List) {
+                    for (Object rpc : (List<?>) request) {
+                        methods.confirm(((KernelRPC) rpc).getMethod());
+                    }
+                }
+            } catch (IOException e) {
+                pending.remove(id);
+                RemoteException cause =
+                        new RemoteException("Failed to send kernel RPC to " + address, e);
+                close(cause);
+                future.completeExceptionally(cause);
+            }
+            return future;
+        }
+
+        Object call(long id, byte type, Object request, long timeoutMillis)
+                throws RemoteException, KernelObjectNotFoundException,
+                        KernelObjectMigratingException, KernelRPCException {
+            CompletableFuture<Object> future = send(id, type, request);
+            try {
+                return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                pending.remove(id);
+                throw new RemoteException(
+                        String.format(
+                                "Kernel RPC to %s got no reply within %d ms",
+                                address, timeoutMillis),
+                        e);
+            } catch (InterruptedException e) {
+                pending.remove(id);
+                Thread.currentThread().interrupt();
+                throw new RemoteException("Interrupted while waiting for kernel RPC reply", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof KernelObjectNotFoundException) {
+                    throw (KernelObjectNotFoundException) cause;
+                } else if (cause instanceof KernelObjectMigratingException) {
+                    throw (KernelObjectMigratingException) cause;
+                } else if (cause instanceof KernelRPCException) {
+                    throw (KernelRPCException) cause;
+                } else if (cause instanceof RemoteException) {
+                    throw (RemoteException) cause;
+                }
+                throw new RemoteException("Kernel RPC to " + address + " failed", cause);
+            }
+        }
+
+        /** Reads reply frames and completes the matching pending calls. */
+        @Override
+        public void run() {
+            ByteBuffer length = ByteBuffer.allocate(Frame.LENGTH_SIZE);
+            try {
+                while (open) {
+                    length.clear();
+                    readFully(length);
+                    length.flip();
+                    ByteBuffer body = ByteBuffer.allocate(Frame.bodyLength(length));
+                    readFully(body);
+                    body.flip();
+                    complete(Frame.decode(body));
+                }
+            } catch (IOException e) {
+                if (open) {
+                    logger.log(
+                            Level.WARNING,
+                            "Kernel transport connection to " + address + " failed",
+                            e);
+                }
+                close(
+                        new RemoteException(
+                                "Kernel transport connection to " + address + " closed", e));
+            }
+        }
+
+        private void complete(Frame frame) {
+            CompletableFuture<Object> future = pending.remove(frame.id);
+            if (future == null) {
+                logger.warning(
+                        String.format(
+                                "Dropped reply %d from %s with no pending call",
+                                frame.id, address));
+                return;
+            }
+
+            try {
+                Object payload = frame.getPayload(null);
+                if (frame.type == Frame.REPLY) {
+                    future.complete(payload);
+                } else {
+                    future.completeExceptionally((Throwable) payload);
+                }
+            } catch (Exception e) {
+                future.completeExceptionally(
+                        new RemoteException(
+                                "Failed to decode kernel RPC reply from " + address, e));
+            }
+        }
+
+        private void readFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException("Connection closed by peer");
+                }
+            }
+        }
+
+        void close(RemoteException cause) {
+            open = false;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Failed to close kernel transport channel", e);
+            }
+
+            Iterator<CompletableFuture<Object>> it = pending.values().iterator();
+            while (it.hasNext()) {
+                it.next().completeExceptionally(cause);
+                it.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package amino.run.kernel.transport;
+
+import amino.run.common.codec.KernelCodec;
+import amino.run.common.codec.MethodTable;
+import amino.run.kernel.common.KernelObjectOverloadedException;
+import amino.run.kernel.common.KernelRPC;
+import amino.run.kernel.common.KernelRPCException;
+import amino.run.kernel.common.KernelRPCResult;
+import amino.run.kernel.server.KernelServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Server side of the NIO kernel transport. A single selector thread accepts connections from peer
+ * kernel servers and reads request frames; each request is invoked on the kernel server from a
+ * worker thread and its reply is queued back to the selector thread for writing. Replies are sent
+ * as soon as they are ready, so a slow RPC does not hold back the other RPCs on the connection.
+ *
+ * <p>The number of worker threads is bounded, and so is the number of requests waiting for one.
+ * Requests beyond that are answered right away with a {@link KernelObjectOverloadedException}
+ * instead of holding on to more threads.
+ */
+public class NIOKernelTransportServer implements Runnable {
+    private static final Logger logger = Logger.getLogger(NIOKernelTransportServer.class.getName());
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    static final int DEFAULT_MAX_WORKERS = 256;
+    static final int DEFAULT_MAX_QUEUED_REQUESTS = 1024;
+    /** How long idle worker threads are kept */
+    private static final long WORKER_KEEP_ALIVE_SECONDS = 60;
+
+    private final KernelServer server;
+    private final InetSocketAddress bindAddress;
+    private final int maxWorkers;
+    private final int maxQueuedRequests;
+    private ServerSocketChannel serverChannel;
+    private Selector selector;
+    private ExecutorService workers;
+    private Thread selectorThread;
+    private volatile boolean running;
+    /** Connections that have replies waiting to be written */
+    private final Queue<SelectionKey> pendingWrites = new ConcurrentLinkedQueue<SelectionKey>();
+
+    /**
+     * @param server kernel server on which received RPCs are invoked
+     * @param bindAddress local address to listen on. Port 0 picks any free port.
+     */
+    public NIOKernelTransportServer(KernelServer server, InetSocketAddress bindAddress) {
+        this(server, bindAddress, DEFAULT_MAX_WORKERS, DEFAULT_MAX_QUEUED_REQUESTS);
+    }
+
+    /**
+     * @param server kernel server on which received RPCs are invoked
+     * @param bindAddress local address to listen on. Port 0 picks any free port.
+     * @param maxWorkers number of requests that may be invoked at once
+     * @param maxQueuedRequests number of requests that may wait for a worker
+     */
+    public NIOKernelTransportServer(
+            KernelServer server,
+            InetSocketAddress bindAddress,
+            int maxWorkers,
+            int maxQueuedRequests) {
+        if (maxWorkers <= 0 || maxQueuedRequests <= 0) {
+            throw new IllegalArgumentException(
+                    String.format(
+                            "Invalid number of kernel transport workers %d or queued requests %d",
+                            maxWorkers, maxQueuedRequests));
+        }
+        this.server = server;
+        this.bindAddress = bindAddress;
+        this.maxWorkers = maxWorkers;
+        this.maxQueuedRequests = maxQueuedRequests;
+    }
+
+    public void start() throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.socket().bind(bindAddress);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        ThreadPoolExecutor pool =
+                new ThreadPoolExecutor(
+                        maxWorkers,
+                        maxWorkers,
+                        WORKER_KEEP_ALIVE_SECONDS,
+                        TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>(maxQueuedRequests),
+                        new ThreadFactory() {
+                            @Override
+                            public Thread newThread(Runnable r) {
+                                Thread thread = new Thread(r, "kernel-transport-worker");
+                                thread.setDaemon(true);
+                                return thread;
+                            }
+                        });
+        pool.allowCoreThreadTimeOut(true);
+        workers = pool;
+        running = true;
+        selectorThread = new Thread(this, "kernel-transport-selector");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+        logger.info("Kernel transport listening at " + getAddress());
+    }
+
+    /**
+     * Get the address peers should connect to.
+     *
+     * @return the bound address of this transport server
+     */
+    public InetSocketAddress getAddress() {
+        return new InetSocketAddress(
+                bindAddress.getAddress(), serverChannel.socket().getLocalPort());
+    }
+
+    public void shutdown() {
+        running = false;
+        if (selector != null) {
+            selector.wakeup();
+        }
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select();
+                registerPendingWrites();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+
+                    try {
+                        if (key.isAcceptable()) {
+                            accept();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            read(key);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            write(key);
+                        }
+                    } catch (IOException e) {
+                        logger.log(Level.FINE, "Closing kernel transport connection", e);
+                        closeConnection(key);
+                    }
+                }
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Kernel transport selector failed", e);
+            }
+        }
+
+        for (SelectionKey key : selector.keys()) {
+            closeConnection(key);
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Failed to close kernel transport selector", e);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        channel.register(selector, SelectionKey.OP_READ, new ConnectionState());
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        ConnectionState state = (ConnectionState) key.attachment();
+
+        if (channel.read(state.readBuffer) < 0) {
+            closeConnection(key);
+            return;
+        }
+
+        ByteBuffer buffer = state.readBuffer;
+        buffer.flip();
+        while (buffer.remaining() >= Frame.LENGTH_SIZE) {
+            int length = Frame.bodyLength(buffer);
+            if (buffer.remaining() < Frame.LENGTH_SIZE + length) {
+                if (buffer.capacity() < Frame.LENGTH_SIZE + length) {
+                    // Grow the buffer so that the whole frame fits
+                    ByteBuffer larger = ByteBuffer.allocate(Frame.LENGTH_SIZE + length);
+                    larger.put(buffer);
+                    state.readBuffer = larger;
+                    return;
+                }
+                break;
+            }
+
+            buffer.getInt();
+            ByteBuffer body = buffer.slice();
+            body.limit(length);
+            buffer.position(buffer.position() + length);
+            Frame frame = Frame.decode(body);
+            // Method definitions must be recorded in arrival order, before frames are dispatched
+            KernelCodec.defineMethods(frame.payload, state.methods);
+            dispatch(key, frame);
+        }
+        buffer.compact();
+    }
+
+    private void dispatch(final SelectionKey key, final Frame frame) {
+        try {
+            workers.execute(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            ConnectionState state = (ConnectionState) key.attachment();
+                            reply(key, invoke(frame, state.methods));
+                        }
+                    });
+        } catch (RejectedExecutionException e) {
+            String message =
+                    String.format(
+                            "Kernel transport is overloaded: %d requests running and %d waiting.",
+                            maxWorkers, maxQueuedRequests);
+            KernelRPCException overloaded =
+                    new KernelRPCException(new KernelObjectOverloadedException(message));
+            reply(key, encodeReply(frame.id, Frame.ERROR, overloaded));
+        }
+    }
+
+    /** Queue a reply for the selector thread to write. */
+    private void reply(SelectionKey key, ByteBuffer reply) {
+        if (reply == null) {
+            return;
+        }
+        ConnectionState state = (ConnectionState) key.attachment();
+        state.writeQueue.add(reply);
+        pendingWrites.add(key);
+        selector.wakeup();
+    }
+
+    @SuppressWarnings("unchecked")
+    private ByteBuffer invoke(Frame frame, MethodTable methods) {
+        Object result;
+        byte type;
+        try {
+            if (frame.type == Frame.BATCH_REQUEST) {
+                ArrayList<KernelRPC> rpcs = (ArrayList<KernelRPC>) frame.getPayload(methods);
+                ArrayList<KernelRPCResult> results = server.makeKernelRPCBatch(rpcs);
+                result = results;
+            } else {
+                KernelRPC rpc = (KernelRPC) frame.getPayload(methods);
+                result = server.makeKernelRPC(rpc);
+            }
+            type = Frame.REPLY;
+        } catch (Exception e) {
+            result = e;
+            type = Frame.ERROR;
+        }
+        return encodeReply(frame.id, type, result);
+    }
+
+    private static ByteBuffer encodeReply(long id, byte type, Object result) {
+        try {
+            return Frame.encode(id, type, result, null);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to encode reply for kernel RPC " + id, e);
+            try {
+                return Frame.encode(
+                        id,
+                        Frame.ERROR,
+                        new RemoteException("Failed to encode kernel RPC reply: " + e),
+                        null);
+            } catch (IOException ex) {
+                logger.log(Level.SEVERE, "Dropping reply for kernel RPC " + id, ex);
+                return null;
+            }
+        }
+    }
+
+    private void registerPendingWrites() {
+        SelectionKey key;
+        while ((key = pendingWrites.poll()) != null) {
+            if (key.isValid()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            }
+        }
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        ConnectionState state = (ConnectionState) key.attachment();
+
+        ByteBuffer buffer;
+        while ((buffer = state.writeQueue.peek()) != null) {
+            channel.write(buffer);
+            if (buffer.hasRemaining()) {
+                // Socket buffer is full; wait for the next writable event
+                return;
+            }
+            state.writeQueue.poll();
+        }
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+    }
+
+    private void closeConnection(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Failed to close kernel transport channel", e);
+        }
+    }
+
+    /** Per-connection buffers, attached to the selection key of the connection. */
+    private static class ConnectionState {
+        ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        final Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<ByteBuffer>();
+        /** Method names interned by the peer on this connection */
+        final MethodTable methods = new MethodTable();
+    }
+}
@@ -0,0 +1,121 @@
+package amino.run.kernel.transport;
+
+import amino.run.kernel.common.KernelObjectMigratingException;
+import amino.run.kernel.common.KernelObjectNotFoundException;
+import amino.run.kernel.common.KernelRPC;
+import amino.run.kernel.common.KernelRPCException;
+import amino.run.kernel.common.KernelRPCResult;
+import amino.run.kernel.server.KernelServer;
+import java.net.InetSocketAddress;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
+
+/**
+ * Kernel transport that makes one blocking {@code java.rmi} call per kernel RPC. Kernel server
+ * stubs are looked up in the registry of each host once and cached.
+ */
+public class RMIKernelTransport implements KernelTransport {
+    private static final Logger logger = Logger.getLogger(RMIKernelTransport.class.getName());
+
+    /** List of hostnames matched to kernel server stubs */
+    private Hashtable<InetSocketAddress, KernelServer> servers;
+    /** Threads that wait on RMI calls made through {@link #makeKernelRPCAsync} */
+    private ExecutorService asyncExecutor;
+
+    public RMIKernelTransport() {
+        servers = new Hashtable<InetSocketAddress, KernelServer>();
+        asyncExecutor =
+                Executors.newCachedThreadPool(
+                        new ThreadFactory() {
+                            @Override
+                            public Thread newThread(Runnable r) {
+                                Thread thread = new Thread(r, "rmi-kernel-transport-async");
+                                thread.setDaemon(true);
+                                return thread;
+                            }
+                        });
+    }
+
+    /**
+     * Add a host to the list of hosts that we've contacted
+     *
+     * @param host
+     */
+    private KernelServer addHost(InetSocketAddress host) {
+        try {
+            Registry registry = LocateRegistry.getRegistry(host.getHostName(), host.getPort());
+            KernelServer server = (KernelServer) registry.lookup("io.amino.run.kernelserver");
+            servers.put(host, server);
+            return server;
+        } catch (Exception e) {
+            logger.severe("Could not find MicroService server on host: " + e.toString());
+        }
+        return null;
+    }
+
+    /**
+     * Get the RMI stub of the kernel server running at the given host.
+     *
+     * @param host
+     * @return kernel server stub or <code>null</code> if the host could not be contacted
+     */
+    public KernelServer getServer(InetSocketAddress host) {
+        KernelServer server = servers.get(host);
+        if (server == null) {
+            server = addHost(host);
+        }
+        return server;
+    }
+
+    @Override
+    public Object makeKernelRPC(InetSocketAddress host, KernelRPC rpc)
+            throws RemoteException, KernelObjectNotFoundException, KernelObjectMigratingException,
+                    KernelRPCException {
+        KernelServer server = getServer(host);
+        if (server == null) {
+            throw new RemoteException("Could not find kernel server on host: " + host);
+        }
+        return server.makeKernelRPC(rpc);
+    }
+
+    @Override
+    public ArrayList<KernelRPCResult> makeKernelRPCBatch(
+            InetSocketAddress host, ArrayList<KernelRPC> rpcs) throws RemoteException {
+        KernelServer server = getServer(host);
+        if (server == null) {
+            throw new RemoteException("Could not find kernel server on host: " + host);
+        }
+        return server.makeKernelRPCBatch(rpcs);
+    }
+
+    @Override
+    public CompletableFuture<Object> makeKernelRPCAsync(
+            final InetSocketAddress host, final KernelRPC rpc) {
+        final CompletableFuture<Object> future = new CompletableFuture<Object>();
+        asyncExecutor.execute(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            future.complete(makeKernelRPC(host, rpc));
+                        } catch (Exception e) {
+                            future.completeExceptionally(e);
+                        }
+                    }
+                });
+        return future;
+    }
+
+    @Override
+    public void shutdown() {
+        servers.clear();
+    }
+}
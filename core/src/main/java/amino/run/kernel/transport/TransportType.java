@@ -0,0 +1,7 @@
+package amino.run.kernel.transport;
+
+/** Kernel transports that can be selected with the kernel server startup options. */
+public enum TransportType {
+    rmi,
+    nio
+}
@@ -1,22 +1,39 @@
 package amino.run.oms;
 
 import amino.run.kernel.common.KernelOID;
+import amino.run.kernel.common.KernelObjectLocation;
 import amino.run.kernel.common.KernelObjectNotFoundException;
+import java.io.Serializable;
 import java.net.InetSocketAddress;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Tracks all kernel objects in this application.
  *
+ * <p>The locations are serializable, so that they can be snapshotted and restored along with the
+ * rest of the OMS state. Subscriptions are kept by each OMS instance for the kernel servers that
+ * looked objects up there, and are not part of the state.
+ *
  * @author iyzhang
  */
-public class GlobalKernelObjectManager {
-    private ConcurrentHashMap<KernelOID, InetSocketAddress> kernelObjects;
+public class GlobalKernelObjectManager implements Serializable {
+    private ConcurrentHashMap<KernelOID, KernelObjectLocation> kernelObjects;
+    /** Kernel servers to notify when a kernel object moves */
+    private transient ConcurrentHashMap<KernelOID, Set<InetSocketAddress>> subscribers;
+
     private Random oidGenerator;
+    /** Source of location versions. Shared by all objects, so versions only ever increase. */
+    private final AtomicLong versions = new AtomicLong();
+
+    private transient volatile KernelObjectLocationListener listener;
 
     /**
      * Randomly generate a new kernel object id
@@ -28,10 +45,20 @@ public class GlobalKernelObjectManager {
     }
 
     public GlobalKernelObjectManager() {
-        kernelObjects = new ConcurrentHashMap<KernelOID, InetSocketAddress>();
+        kernelObjects = new ConcurrentHashMap<KernelOID, KernelObjectLocation>();
+        subscribers = new ConcurrentHashMap<KernelOID, Set<InetSocketAddress>>();
         oidGenerator = new Random(new Date().getTime());
     }
 
+    /**
+     * Set the listener which pushes location changes to subscribed kernel servers.
+     *
+     * @param listener
+     */
+    public void setLocationListener(KernelObjectLocationListener listener) {
+        this.listener = listener;
+    }
+
     /**
      * Register a new kernel object
      *
@@ -40,10 +67,23 @@ public class GlobalKernelObjectManager {
      */
     public KernelOID register(InetSocketAddress host) {
         KernelOID oid = generateKernelOID();
-        kernelObjects.put(oid, host);
+        kernelObjects.put(oid, new KernelObjectLocation(oid, host, versions.incrementAndGet()));
         return oid;
     }
 
+    /**
+     * Register a new kernel object with an id chosen by the caller
+     *
+     * @param oid
+     * @param host
+     * @return <code>false</code> if the id is already taken
+     */
+    public boolean add(KernelOID oid, InetSocketAddress host) {
+        return kernelObjects.putIfAbsent(
+                        oid, new KernelObjectLocation(oid, host, versions.incrementAndGet()))
+                == null;
+    }
+
     /**
      * Move a kernel object by registering a new host for this object
      *
@@ -54,7 +94,10 @@ public class GlobalKernelObjectManager {
     public void register(KernelOID oid, InetSocketAddress host)
             throws KernelObjectNotFoundException {
         if (lookup(oid) != null) {
-            kernelObjects.put(oid, host);
+            KernelObjectLocation location =
+                    new KernelObjectLocation(oid, host, versions.incrementAndGet());
+            kernelObjects.put(oid, location);
+            notifySubscribers(location, subscribers.get(oid));
         }
     }
 
@@ -70,6 +113,9 @@ public class GlobalKernelObjectManager {
         InetSocketAddress oidHost = lookup(oid);
         if (oidHost.equals(host)) {
             kernelObjects.remove(oid);
+            notifySubscribers(
+                    new KernelObjectLocation(oid, null, versions.incrementAndGet()),
+                    subscribers.remove(oid));
         } else {
             throw new KernelObjectNotFoundException(
                     "Kernel oid's host address"
@@ -87,11 +133,82 @@ public class GlobalKernelObjectManager {
      * @throws KernelObjectNotFoundException
      */
     public InetSocketAddress lookup(KernelOID oid) throws KernelObjectNotFoundException {
-        InetSocketAddress host = kernelObjects.get(oid);
-        if (host == null) {
+        return lookupLocation(oid).getHost();
+    }
+
+    /**
+     * Find the versioned location of a kernel object, and subscribe the given kernel server to
+     * changes of the location.
+     *
+     * @param oid
+     * @param subscriber kernel server to notify when the object moves, or <code>null</code>
+     * @return
+     * @throws KernelObjectNotFoundException
+     */
+    public KernelObjectLocation lookup(KernelOID oid, InetSocketAddress subscriber)
+            throws KernelObjectNotFoundException {
+        if (subscriber != null) {
+            Set<InetSocketAddress> set = subscribers.get(oid);
+            if (set == null) {
+                Set<InetSocketAddress> newSet =
+                        Collections.newSetFromMap(
+                                new ConcurrentHashMap<InetSocketAddress, Boolean>());
+                set = subscribers.putIfAbsent(oid, newSet);
+                if (set == null) {
+                    set = newSet;
+                }
+            }
+            set.add(subscriber);
+        }
+
+        // Look up after subscribing, so that a concurrent move is either seen or notified
+        KernelObjectLocation location = kernelObjects.get(oid);
+        if (location == null) {
+            subscribers.remove(oid);
+            throw new KernelObjectNotFoundException("Not a valid kernel object id.");
+        }
+        return location;
+    }
+
+    /**
+     * Stop notifying the given kernel server of location changes, for example because it can no
+     * longer be reached.
+     *
+     * @param subscriber
+     */
+    public void unsubscribe(InetSocketAddress subscriber) {
+        for (Set<InetSocketAddress> set : subscribers.values()) {
+            set.remove(subscriber);
+        }
+    }
+
+    /**
+     * Replace the locations of all kernel objects with those of the given manager, for example
+     * one restored from a snapshot. Subscriptions are kept.
+     *
+     * @param snapshot
+     */
+    public void restore(GlobalKernelObjectManager snapshot) {
+        kernelObjects.keySet().retainAll(snapshot.kernelObjects.keySet());
+        kernelObjects.putAll(snapshot.kernelObjects);
+        versions.set(snapshot.versions.get());
+    }
+
+    private KernelObjectLocation lookupLocation(KernelOID oid)
+            throws KernelObjectNotFoundException {
+        KernelObjectLocation location = kernelObjects.get(oid);
+        if (location == null) {
             throw new KernelObjectNotFoundException("Not a valid kernel object id.");
         }
-        return host;
+        return location;
+    }
+
+    private void notifySubscribers(KernelObjectLocation location, Set<InetSocketAddress> set) {
+        KernelObjectLocationListener listener = this.listener;
+        if (listener == null || set == null || set.isEmpty()) {
+            return;
+        }
+        listener.onLocationChanged(location, new HashSet<InetSocketAddress>(set));
     }
 
     /**
@@ -7,6 +7,7 @@ import amino.run.common.MicroServiceReplicaNotFoundException;
 import amino.run.common.ReplicaID;
 import amino.run.kernel.common.KernelOID;
 import amino.run.runtime.EventHandler;
+import java.io.Serializable;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
@@ -17,7 +18,7 @@ import java.util.Random;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicInteger;
 
-public class InstanceManager {
+public class InstanceManager implements Serializable {
     private MicroServiceID oid;
     private String name;
     private AtomicInteger referenceCount;
@@ -144,6 +145,16 @@ public class InstanceManager {
         return rid;
     }
 
+    /**
+     * Adds a replica with an id chosen by the caller to this microservice instance
+     *
+     * @param rid
+     * @param dispatcher
+     */
+    public void addReplica(ReplicaID rid, EventHandler dispatcher) {
+        replicaDispatchers.put(rid, dispatcher);
+    }
+
     /**
      * Removes the replica from this microservice instance
      *
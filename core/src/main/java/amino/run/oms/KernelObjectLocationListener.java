@@ -0,0 +1,16 @@
+package amino.run.oms;
+
+import amino.run.kernel.common.KernelObjectLocation;
+import java.net.InetSocketAddress;
+import java.util.Set;
+
+/** Receives the changes of kernel object locations from {@link GlobalKernelObjectManager}. */
+public interface KernelObjectLocationListener {
+    /**
+     * Called when a kernel object moved or was deleted.
+     *
+     * @param location new location of the kernel object
+     * @param subscribers kernel servers which looked up the kernel object
+     */
+    void onLocationChanged(KernelObjectLocation location, Set<InetSocketAddress> subscribers);
+}
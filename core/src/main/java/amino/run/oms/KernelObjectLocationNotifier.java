@@ -0,0 +1,104 @@
+package amino.run.oms;
+
+import amino.run.kernel.common.KernelObjectLocation;
+import amino.run.kernel.server.KernelServer;
+import java.net.InetSocketAddress;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pushes changes of kernel object locations to the kernel servers that looked the objects up.
+ * Changes are sent in the background and batched per kernel server, so moving many objects at once
+ * costs one RPC per subscribed server rather than one per object. Kernel servers that cannot be
+ * reached are unsubscribed; they fall back to looking up objects when an RPC fails.
+ */
+public class KernelObjectLocationNotifier implements KernelObjectLocationListener {
+    private static final Logger logger =
+            Logger.getLogger(KernelObjectLocationNotifier.class.getName());
+
+    private final KernelServerManager serverManager;
+    private final GlobalKernelObjectManager objectManager;
+    /** Changes not yet sent, by kernel server */
+    private final Map<InetSocketAddress, ArrayList<KernelObjectLocation>> pending =
+            new HashMap<InetSocketAddress, ArrayList<KernelObjectLocation>>();
+
+    private final ExecutorService executor =
+            Executors.newCachedThreadPool(
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "kernel-object-location-notifier");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+
+    public KernelObjectLocationNotifier(
+            KernelServerManager serverManager, GlobalKernelObjectManager objectManager) {
+        this.serverManager = serverManager;
+        this.objectManager = objectManager;
+    }
+
+    @Override
+    public void onLocationChanged(
+            KernelObjectLocation location, Set<InetSocketAddress> subscribers) {
+        for (final InetSocketAddress host : subscribers) {
+            boolean schedule = false;
+            synchronized (pending) {
+                ArrayList<KernelObjectLocation> locations = pending.get(host);
+                if (locations == null) {
+                    locations = new ArrayList<KernelObjectLocation>();
+                    pending.put(host, locations);
+                    schedule = true;
+                }
+                locations.add(location);
+            }
+
+            if (schedule) {
+                executor.execute(
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                send(host);
+                            }
+                        });
+            }
+        }
+    }
+
+    private void send(InetSocketAddress host) {
+        ArrayList<KernelObjectLocation> locations;
+        synchronized (pending) {
+            locations = pending.remove(host);
+        }
+        if (locations == null) {
+            return;
+        }
+
+        KernelServer server = serverManager.getServer(host);
+        if (server == null) {
+            objectManager.unsubscribe(host);
+            return;
+        }
+
+        try {
+            server.updateKernelObjectLocations(locations);
+        } catch (RemoteException e) {
+            logger.log(
+                    Level.WARNING,
+                    String.format(
+                            "Failed to send %d kernel object locations to %s. Unsubscribing it.",
+                            locations.size(), host),
+                    e);
+            objectManager.unsubscribe(host);
+        }
+    }
+}
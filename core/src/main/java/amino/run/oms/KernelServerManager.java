@@ -5,6 +5,7 @@ import amino.run.app.NodeSelectorSpec;
 import amino.run.kernel.common.GlobalKernelReferences;
 import amino.run.kernel.common.KernelServerNotFoundException;
 import amino.run.kernel.common.ServerInfo;
+import amino.run.kernel.common.ServerLoad;
 import amino.run.kernel.server.KernelServer;
 import amino.run.policy.util.ResettableTimer;
 import java.net.InetSocketAddress;
@@ -14,12 +15,17 @@ import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 /**
  * Manages MicroService kernel servers. Tracks which servers are up, which regions each server
  * belongs to, etc.
  *
+ * <p>Servers are indexed by label to select them for a node selector, and new microservices are
+ * placed on the less loaded of two servers picked at random among those selected, by the load the
+ * servers report with their heartbeats.
+ *
  * @author iyzhang
  */
 public class KernelServerManager {
@@ -28,18 +34,38 @@ public class KernelServerManager {
         private ServerInfo config; // Registration information of kernel server
         private ResettableTimer heartBeatTimer; // HeartBeat timer
         private KernelServer remoteRef; // Remote reference to kernel server
+        private volatile ServerLoad load; // Load at the last heartbeat, null if not known
+        private final AtomicInteger placed = new AtomicInteger(); // Placements since then
 
         private KernelServerInfo(
                 ServerInfo config, KernelServer remoteRef, ResettableTimer heartBeatTimer) {
             this.config = config;
             this.heartBeatTimer = heartBeatTimer;
             this.remoteRef = remoteRef;
+            this.load = config.getLoad();
+        }
+
+        /** @return load at the last heartbeat, with the microservices placed since */
+        private ServerLoad getLoad() {
+            ServerLoad last = load;
+            if (last == null) {
+                last = new ServerLoad(0, 0, 0, 0);
+            }
+            return last.plusKernelObjects(placed.get());
+        }
+
+        private void setLoad(ServerLoad load) {
+            if (load != null) {
+                this.load = load;
+                placed.set(0);
+            }
         }
     }
 
     private static final Logger logger = Logger.getLogger(KernelServerManager.class.getName());
     private ConcurrentHashMap<InetSocketAddress, KernelServerInfo> servers;
     private ConcurrentHashMap<String, ArrayList<InetSocketAddress>> regions;
+    private final LabelIndex labelIndex = new LabelIndex();
     private static final Random randgen = new Random();
 
     public KernelServerManager() {
@@ -60,6 +86,7 @@ public class KernelServerManager {
         String region = srvInfo.getRegion();
         KernelServerInfo kernelServerInfo = servers.remove(host);
         kernelServerInfo.heartBeatTimer.cancel();
+        labelIndex.remove(host, kernelServerInfo.config.getLabels());
 
         // Removing from the regions map
         ArrayList<InetSocketAddress> serversInRegion = regions.get(region);
@@ -102,7 +129,9 @@ public class KernelServerManager {
                 servers.put(host, new KernelServerInfo(info, server, heartBeatTimer));
         if (oldServer != null) {
             oldServer.heartBeatTimer.cancel();
+            labelIndex.remove(host, oldServer.config.getLabels());
         }
+        labelIndex.add(host, info.getLabels());
 
         logger.info(String.format("Registered new kernel server: %s in region %s", host, region));
     }
@@ -117,6 +146,7 @@ public class KernelServerManager {
         KernelServerInfo kernelServerInfo = servers.get(host);
         if (kernelServerInfo != null) {
             kernelServerInfo.heartBeatTimer.reset();
+            kernelServerInfo.setLoad(srvinfo.getLoad());
             return;
         }
 
@@ -132,13 +162,7 @@ public class KernelServerManager {
      * @return a list of {@code InetSocketAddress}
      */
     public List<InetSocketAddress> getServers(NodeSelectorSpec spec) {
-        List<InetSocketAddress> nodes = new ArrayList<InetSocketAddress>();
-        for (Map.Entry<InetSocketAddress, KernelServerInfo> entry : servers.entrySet()) {
-            if (entry.getValue().config.matchNodeSelectorSpec(spec)) {
-                nodes.add(entry.getKey());
-            }
-        }
-        return nodes;
+        return new ArrayList<InetSocketAddress>(labelIndex.select(spec));
     }
 
     public ArrayList<String> getRegions() {
@@ -177,8 +201,29 @@ public class KernelServerManager {
             logger.severe("Could not find kernel server for the given requirements");
             return null;
         }
-        // In future we can consider some other specific things to select the
-        // best one among the list
-        return hosts.get(randgen.nextInt(hosts.size()));
+        /* Picking the least loaded of all servers would send every placement between two
+        heartbeats to the same server, so pick the less loaded of two random servers. */
+        InetSocketAddress host = hosts.get(randgen.nextInt(hosts.size()));
+        if (hosts.size() > 1) {
+            int other = randgen.nextInt(hosts.size() - 1);
+            if (hosts.get(other).equals(host)) {
+                other = hosts.size() - 1;
+            }
+            host = lessLoaded(host, hosts.get(other));
+        }
+        KernelServerInfo info = servers.get(host);
+        if (info != null) {
+            info.placed.incrementAndGet();
+        }
+        return host;
+    }
+
+    private InetSocketAddress lessLoaded(InetSocketAddress host, InetSocketAddress other) {
+        KernelServerInfo info = servers.get(host);
+        KernelServerInfo otherInfo = servers.get(other);
+        if (info == null || otherInfo == null) {
+            return info == null ? other : host;
+        }
+        return info.getLoad().relativeTo(otherInfo.getLoad()) <= 0 ? host : other;
     }
 }
@@ -0,0 +1,124 @@
+package amino.run.oms;
+
+import amino.run.app.NodeSelectorSpec;
+import amino.run.app.NodeSelectorTerm;
+import amino.run.app.Requirement;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index of kernel servers by their labels. Node selectors are evaluated as unions and
+ * intersections of the servers carrying the labels they name, rather than by matching the labels
+ * of every server. Matches {@link amino.run.kernel.common.ServerInfo#matchNodeSelectorSpec}.
+ */
+class LabelIndex {
+    /** Servers by label key and label value */
+    private final Map<String, Map<String, Set<InetSocketAddress>>> index =
+            new HashMap<String, Map<String, Set<InetSocketAddress>>>();
+
+    private final Set<InetSocketAddress> servers = new HashSet<InetSocketAddress>();
+
+    synchronized void add(InetSocketAddress host, Map<String, String> labels) {
+        servers.add(host);
+        for (Map.Entry<String, String> label : labels.entrySet()) {
+            Map<String, Set<InetSocketAddress>> values = index.get(label.getKey());
+            if (values == null) {
+                values = new HashMap<String, Set<InetSocketAddress>>();
+                index.put(label.getKey(), values);
+            }
+            Set<InetSocketAddress> hosts = values.get(label.getValue());
+            if (hosts == null) {
+                hosts = new HashSet<InetSocketAddress>();
+                values.put(label.getValue(), hosts);
+            }
+            hosts.add(host);
+        }
+    }
+
+    synchronized void remove(InetSocketAddress host, Map<String, String> labels) {
+        servers.remove(host);
+        for (Map.Entry<String, String> label : labels.entrySet()) {
+            Map<String, Set<InetSocketAddress>> values = index.get(label.getKey());
+            if (values == null) {
+                continue;
+            }
+            Set<InetSocketAddress> hosts = values.get(label.getValue());
+            if (hosts != null && hosts.remove(host) && hosts.isEmpty()) {
+                values.remove(label.getValue());
+                if (values.isEmpty()) {
+                    index.remove(label.getKey());
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the servers matching a node selector. A server matches if it meets all requirements
+     * of any term. All servers match if the selector is <code>null</code> or has no terms.
+     *
+     * @param spec node selector
+     * @return matching servers
+     */
+    synchronized Set<InetSocketAddress> select(NodeSelectorSpec spec) {
+        if (spec == null || spec.getNodeSelectorTerms().isEmpty()) {
+            return new HashSet<InetSocketAddress>(servers);
+        }
+        Set<InetSocketAddress> selected = new HashSet<InetSocketAddress>();
+        for (NodeSelectorTerm term : spec.getNodeSelectorTerms()) {
+            selected.addAll(select(term.getMatchRequirements()));
+        }
+        return selected;
+    }
+
+    private Set<InetSocketAddress> select(List<Requirement> requirements) {
+        Set<InetSocketAddress> selected = null;
+        for (Requirement requirement : requirements) {
+            Set<InetSocketAddress> matching = select(requirement);
+            if (selected == null) {
+                selected = matching;
+            } else {
+                selected.retainAll(matching);
+            }
+            if (selected.isEmpty()) {
+                break;
+            }
+        }
+        return selected == null ? new HashSet<InetSocketAddress>() : selected;
+    }
+
+    private Set<InetSocketAddress> select(Requirement requirement) {
+        Set<InetSocketAddress> matching = new HashSet<InetSocketAddress>();
+        Map<String, Set<InetSocketAddress>> values = index.get(requirement.getKey());
+        if (values == null) {
+            return matching;
+        }
+        switch (requirement.getOperator()) {
+            case Equal:
+            case In:
+                for (String value : requirement.getValues()) {
+                    Set<InetSocketAddress> hosts = values.get(value);
+                    if (hosts != null) {
+                        matching.addAll(hosts);
+                    }
+                }
+                break;
+            case NotIn:
+                for (Map.Entry<String, Set<InetSocketAddress>> value : values.entrySet()) {
+                    if (!requirement.getValues().contains(value.getKey())) {
+                        matching.addAll(value.getValue());
+                    }
+                }
+                break;
+            case Exists:
+                for (Set<InetSocketAddress> hosts : values.values()) {
+                    matching.addAll(hosts);
+                }
+                break;
+        }
+        return matching;
+    }
+}
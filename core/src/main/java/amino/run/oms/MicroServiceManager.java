@@ -8,14 +8,20 @@ import amino.run.common.MicroServiceReplicaNotFoundException;
 import amino.run.common.ReplicaID;
 import amino.run.kernel.common.KernelOID;
 import amino.run.runtime.EventHandler;
+import java.io.Serializable;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 
-public class MicroServiceManager {
+/**
+ * Tracks microservices and their replicas. Names are indexed separately from the microservices,
+ * as the OMS shard that resolves a name need not be the one that tracks the named microservice
+ * (see {@link OMSShardMap}).
+ */
+public class MicroServiceManager implements Serializable {
     private ConcurrentHashMap<MicroServiceID, InstanceManager> microServices;
-    private ConcurrentHashMap<String, InstanceManager> microServicesByName;
+    private ConcurrentHashMap<String, MicroServiceID> microServicesByName;
 
     /**
      * Generate a new, globally unique microservice id
@@ -28,7 +34,7 @@ public class MicroServiceManager {
 
     public MicroServiceManager() {
         microServices = new ConcurrentHashMap<MicroServiceID, InstanceManager>();
-        microServicesByName = new ConcurrentHashMap<String, InstanceManager>();
+        microServicesByName = new ConcurrentHashMap<String, MicroServiceID>();
     }
 
     private InstanceManager getInstance(MicroServiceID microServiceId)
@@ -50,11 +56,20 @@ public class MicroServiceManager {
      */
     public MicroServiceID addInstance(EventHandler dispatcher) {
         MicroServiceID oid = generateMicroServiceID();
-        InstanceManager instance = new InstanceManager(oid, dispatcher);
-        microServices.put(oid, instance);
+        addInstance(oid, dispatcher);
         return oid;
     }
 
+    /**
+     * Adds a microservice with an id chosen by the caller
+     *
+     * @param microServiceId
+     * @param dispatcher
+     */
+    public void addInstance(MicroServiceID microServiceId, EventHandler dispatcher) {
+        microServices.put(microServiceId, new InstanceManager(microServiceId, dispatcher));
+    }
+
     /**
      * Adds the group policy dispatcher to microservice
      *
@@ -126,20 +141,38 @@ public class MicroServiceManager {
     }
 
     /**
-     * Remove an instance of a microservice
+     * Add a replica with an id chosen by the caller to a microservice
+     *
+     * @param replicaId
+     * @param dispatcher
+     * @throws MicroServiceNotFoundException
+     */
+    public void addReplica(ReplicaID replicaId, EventHandler dispatcher)
+            throws MicroServiceNotFoundException {
+        InstanceManager instance = getInstance(replicaId.getOID());
+        synchronized (instance) {
+            if (instance.getReferenceCount() == 0) {
+                /* MicroService object could have been deleted in another thread */
+                throw new MicroServiceNotFoundException("MicroService object is deleted.");
+            }
+            instance.addReplica(replicaId, dispatcher);
+        }
+    }
+
+    /**
+     * Remove an instance of a microservice. Its name, if any, is left to {@link
+     * #unRegisterName(String, MicroServiceID)}.
      *
      * @param microServiceId
+     * @return name of the microservice, <code>null</code> if it has none
      * @throws MicroServiceNotFoundException
      */
-    public void removeInstance(MicroServiceID microServiceId)
+    public String removeInstance(MicroServiceID microServiceId)
             throws MicroServiceNotFoundException, RemoteException {
         InstanceManager instanceManager = getInstance(microServiceId);
         instanceManager.clear();
-
-        if (instanceManager.getName() != null) {
-            microServicesByName.remove(instanceManager.getName());
-        }
         microServices.remove(microServiceId);
+        return instanceManager.getName();
     }
 
     /**
@@ -153,34 +186,69 @@ public class MicroServiceManager {
     }
 
     /**
-     * Sets the name of a microservice
+     * Sets the name of a microservice. The name must have been registered for the microservice
+     * with {@link #registerName(String, MicroServiceID)} before.
      *
      * @param microServiceId
      * @param name
+     * @return <code>false</code> if the microservice was deleted meanwhile
      * @throws MicroServiceNotFoundException
      */
-    public void setInstanceName(MicroServiceID microServiceId, String name)
+    public boolean setInstanceName(MicroServiceID microServiceId, String name)
             throws MicroServiceNotFoundException, MicroServiceNameModificationException {
         InstanceManager instance = getInstance(microServiceId);
 
-        /* Object name is not allowed to change once set. Because reference count are updated based
-        on attachByName and detachByName. And name change would affect it */
-        if (instance.getName() != null) {
-            throw new MicroServiceNameModificationException(microServiceId, instance.getName());
+        synchronized (instance) {
+            /* Object name is not allowed to change once set. Because reference count are updated
+            based on attachByName and detachByName. And name change would affect it */
+            if (instance.getName() != null) {
+                throw new MicroServiceNameModificationException(
+                        microServiceId, instance.getName());
+            }
+            if (instance.getReferenceCount() == 0) {
+                return false;
+            }
+            instance.setName(name);
+            return true;
         }
+    }
 
+    /**
+     * Gets the name of a microservice
+     *
+     * @param microServiceId
+     * @return name, <code>null</code> if the microservice has none
+     * @throws MicroServiceNotFoundException
+     */
+    public String getInstanceName(MicroServiceID microServiceId)
+            throws MicroServiceNotFoundException {
+        return getInstance(microServiceId).getName();
+    }
+
+    /**
+     * Reserves a name for a microservice, which may be tracked by another OMS shard
+     *
+     * @param name
+     * @param microServiceId
+     * @throws MicroServiceNameModificationException if the name is used for another microservice
+     */
+    public void registerName(String name, MicroServiceID microServiceId)
+            throws MicroServiceNameModificationException {
         /* This name is already used for some other microservice */
-        InstanceManager otherInstance = microServicesByName.get(name);
-        if (otherInstance != null) {
-            throw new MicroServiceNameModificationException(otherInstance.getOid(), name);
+        MicroServiceID other = microServicesByName.putIfAbsent(name, microServiceId);
+        if (other != null && !other.equals(microServiceId)) {
+            throw new MicroServiceNameModificationException(other, name);
         }
+    }
 
-        synchronized (instance) {
-            if (instance.getReferenceCount() != 0) {
-                microServicesByName.put(name, instance);
-                instance.setName(name);
-            }
-        }
+    /**
+     * Releases the name of a microservice
+     *
+     * @param name
+     * @param microServiceId
+     */
+    public void unRegisterName(String name, MicroServiceID microServiceId) {
+        microServicesByName.remove(name, microServiceId);
     }
 
     /**
@@ -260,12 +328,12 @@ public class MicroServiceManager {
      * @throws MicroServiceNotFoundException
      */
     public MicroServiceID getMicroServiceByName(String name) throws MicroServiceNotFoundException {
-        InstanceManager instance = microServicesByName.get(name);
-        if (instance == null) {
+        MicroServiceID microServiceId = microServicesByName.get(name);
+        if (microServiceId == null) {
             throw new MicroServiceNotFoundException("Not a valid MicroService object id.");
         }
 
-        return instance.getOid();
+        return microServiceId;
     }
 
     /**
@@ -295,4 +363,17 @@ public class MicroServiceManager {
             throws MicroServiceNotFoundException {
         return getInstance(microServiceId).decrRefCountAndGet();
     }
+
+    /**
+     * Replace all microservices and names with those of the given manager, for example one
+     * restored from a snapshot.
+     *
+     * @param snapshot
+     */
+    public void restore(MicroServiceManager snapshot) {
+        microServices.keySet().retainAll(snapshot.microServices.keySet());
+        microServices.putAll(snapshot.microServices);
+        microServicesByName.keySet().retainAll(snapshot.microServicesByName.keySet());
+        microServicesByName.putAll(snapshot.microServicesByName);
+    }
 }
@@ -0,0 +1,75 @@
+package amino.run.oms;
+
+import amino.run.policy.util.consensus.raft.AlreadyVotedException;
+import amino.run.policy.util.consensus.raft.CandidateBehindException;
+import amino.run.policy.util.consensus.raft.InvalidLogIndex;
+import amino.run.policy.util.consensus.raft.InvalidTermException;
+import amino.run.policy.util.consensus.raft.LogEntry;
+import amino.run.policy.util.consensus.raft.PrevLogTermMismatch;
+import amino.run.policy.util.consensus.raft.RaftRuntimeException;
+import amino.run.policy.util.consensus.raft.RemoteRaftServer;
+import java.io.Serializable;
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Another replica of an OMS shard, as seen by the local RAFT server. Failures to reach the replica
+ * surface as {@link RaftRuntimeException}s, which the RAFT server retries with its next heartbeat.
+ * Serializable, so that a replica can tell the caller of a write which replica leads the shard.
+ */
+public class OMSRaftPeer implements RemoteRaftServer, Serializable {
+    private final OMSReplica replica;
+
+    public OMSRaftPeer(OMSReplica replica) {
+        this.replica = replica;
+    }
+
+    @Override
+    public int appendEntries(
+            int term,
+            UUID leader,
+            int prevLogIndex,
+            int prevLogTerm,
+            List<LogEntry> entries,
+            int leaderCommit)
+            throws InvalidTermException, PrevLogTermMismatch, InvalidLogIndex {
+        try {
+            return replica.appendEntries(
+                    term, leader, prevLogIndex, prevLogTerm, entries, leaderCommit);
+        } catch (RemoteException e) {
+            throw new RaftRuntimeException("Failed to reach OMS replica", e);
+        }
+    }
+
+    @Override
+    public int installSnapshot(
+            int term, UUID leader, int lastIncludedIndex, int lastIncludedTerm, byte[] data)
+            throws InvalidTermException {
+        try {
+            return replica.installSnapshot(term, leader, lastIncludedIndex, lastIncludedTerm, data);
+        } catch (RemoteException e) {
+            throw new RaftRuntimeException("Failed to reach OMS replica", e);
+        }
+    }
+
+    @Override
+    public int requestVote(int term, UUID candidate, int lastLogIndex, int lastLogTerm)
+            throws InvalidTermException, AlreadyVotedException, CandidateBehindException {
+        try {
+            return replica.requestVote(term, candidate, lastLogIndex, lastLogTerm);
+        } catch (RemoteException e) {
+            throw new RaftRuntimeException("Failed to reach OMS replica", e);
+        }
+    }
+
+    @Override
+    public Object applyToStateMachine(Object operation) throws Exception {
+        return replica.applyToStateMachine(operation);
+    }
+
+    @Override
+    public int readIndex() throws Exception {
+        return replica.readIndex();
+    }
+}
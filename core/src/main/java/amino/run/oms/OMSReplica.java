@@ -0,0 +1,42 @@
+package amino.run.oms;
+
+import amino.run.policy.util.consensus.raft.AlreadyVotedException;
+import amino.run.policy.util.consensus.raft.CandidateBehindException;
+import amino.run.policy.util.consensus.raft.InvalidLogIndex;
+import amino.run.policy.util.consensus.raft.InvalidTermException;
+import amino.run.policy.util.consensus.raft.LogEntry;
+import amino.run.policy.util.consensus.raft.PrevLogTermMismatch;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Remote methods through which the replicas of an OMS shard run RAFT among themselves. See {@link
+ * amino.run.policy.util.consensus.raft.RemoteRaftServer} for the methods.
+ */
+public interface OMSReplica extends Remote {
+    /** @return RAFT id of the replica */
+    UUID getRaftServerId() throws RemoteException;
+
+    int appendEntries(
+            int term,
+            UUID leader,
+            int prevLogIndex,
+            int prevLogTerm,
+            List<LogEntry> entries,
+            int leaderCommit)
+            throws RemoteException, InvalidTermException, PrevLogTermMismatch, InvalidLogIndex;
+
+    int installSnapshot(
+            int term, UUID leader, int lastIncludedIndex, int lastIncludedTerm, byte[] data)
+            throws RemoteException, InvalidTermException;
+
+    int requestVote(int term, UUID candidate, int lastLogIndex, int lastLogTerm)
+            throws RemoteException, InvalidTermException, AlreadyVotedException,
+                    CandidateBehindException;
+
+    Object applyToStateMachine(Object operation) throws Exception;
+
+    int readIndex() throws Exception;
+}
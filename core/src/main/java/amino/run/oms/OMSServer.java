@@ -2,11 +2,14 @@ package amino.run.oms;
 
 import amino.run.app.MicroServiceSpec;
 import amino.run.app.NodeSelectorSpec;
+import amino.run.common.AppObjectStub;
 import amino.run.common.MicroServiceID;
+import amino.run.common.MicroServiceNameModificationException;
 import amino.run.common.MicroServiceNotFoundException;
 import amino.run.common.MicroServiceReplicaNotFoundException;
 import amino.run.common.ReplicaID;
 import amino.run.kernel.common.KernelOID;
+import amino.run.kernel.common.KernelObjectLocation;
 import amino.run.kernel.common.KernelObjectNotCreatedException;
 import amino.run.kernel.common.KernelObjectNotFoundException;
 import amino.run.kernel.common.KernelServerNotFoundException;
@@ -34,6 +37,19 @@ public interface OMSServer extends Remote {
     InetSocketAddress lookupKernelObject(KernelOID oid)
             throws RemoteException, KernelObjectNotFoundException;
 
+    /**
+     * Find the versioned location of a kernel object, and have the OMS push later changes of the
+     * location to the given kernel server.
+     *
+     * @param oid kernel object id
+     * @param subscriber kernel server to notify when the object moves, or <code>null</code>
+     * @return location of the kernel object
+     * @throws RemoteException
+     * @throws KernelObjectNotFoundException
+     */
+    KernelObjectLocation lookupKernelObject(KernelOID oid, InetSocketAddress subscriber)
+            throws RemoteException, KernelObjectNotFoundException;
+
     ArrayList<String> getRegions() throws RemoteException;
 
     List<InetSocketAddress> getServers(NodeSelectorSpec spec) throws RemoteException;
@@ -66,4 +82,45 @@ public interface OMSServer extends Remote {
 
     void unRegisterReplica(ReplicaID replicaId)
             throws RemoteException, MicroServiceNotFoundException;
+
+    // Called by OMS instances on the shard that tracks a microservice or name, see OMSShardMap.
+
+    /**
+     * Set the stub of a microservice that a kernel server created for another OMS instance.
+     *
+     * @param microServiceId
+     * @param stub
+     * @throws RemoteException
+     * @throws MicroServiceNotFoundException
+     */
+    void setMicroServiceStub(MicroServiceID microServiceId, AppObjectStub stub)
+            throws RemoteException, MicroServiceNotFoundException;
+
+    /**
+     * Acquire the stub of a microservice, and count the reference to it.
+     *
+     * @param microServiceId
+     * @return stub of the microservice
+     * @throws RemoteException
+     * @throws MicroServiceNotFoundException
+     */
+    AppObjectStub attachTo(MicroServiceID microServiceId)
+            throws RemoteException, MicroServiceNotFoundException;
+
+    /**
+     * Reserve a name for a microservice.
+     *
+     * @param name
+     * @param microServiceId
+     * @throws RemoteException
+     * @throws MicroServiceNameModificationException if the name is used for another microservice
+     */
+    void registerMicroServiceName(String name, MicroServiceID microServiceId)
+            throws RemoteException, MicroServiceNameModificationException;
+
+    MicroServiceID lookupMicroServiceName(String name)
+            throws RemoteException, MicroServiceNotFoundException;
+
+    void unRegisterMicroServiceName(String name, MicroServiceID microServiceId)
+            throws RemoteException;
 }
@@ -13,16 +13,30 @@ import amino.run.common.MicroServiceReplicaNotFoundException;
 import amino.run.common.ReplicaID;
 import amino.run.kernel.common.GlobalKernelReferences;
 import amino.run.kernel.common.KernelOID;
+import amino.run.kernel.common.KernelObjectLocation;
 import amino.run.kernel.common.KernelObjectNotCreatedException;
 import amino.run.kernel.common.KernelObjectNotFoundException;
 import amino.run.kernel.common.KernelServerNotFoundException;
 import amino.run.kernel.common.ServerInfo;
 import amino.run.kernel.server.KernelServer;
 import amino.run.kernel.server.KernelServerImpl;
+import amino.run.oms.OMSStateMachine.Operation;
+import amino.run.oms.OMSStateMachine.Target;
 import amino.run.policy.Policy;
+import amino.run.policy.util.consensus.raft.AlreadyVotedException;
+import amino.run.policy.util.consensus.raft.CandidateBehindException;
+import amino.run.policy.util.consensus.raft.InvalidLogIndex;
+import amino.run.policy.util.consensus.raft.InvalidTermException;
+import amino.run.policy.util.consensus.raft.LeaderException;
+import amino.run.policy.util.consensus.raft.LogEntry;
+import amino.run.policy.util.consensus.raft.PrevLogTermMismatch;
+import amino.run.policy.util.consensus.raft.RemoteRaftServer;
+import amino.run.policy.util.consensus.raft.Server;
 import amino.run.runtime.EventHandler;
 import amino.run.runtime.MicroService;
 import com.google.devtools.common.options.OptionsParser;
+import java.io.File;
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
@@ -32,6 +46,8 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.json.JSONException;
@@ -39,25 +55,272 @@ import org.json.JSONException;
 /**
  * OMSServer for tracking objects in MicroService
  *
+ * <p>The OMS may be split into shards (see {@link OMSShardMap}), each tracking its share of the
+ * kernel objects, microservices and names. Calls for ids of other shards are passed on to them.
+ * The replicas of a shard keep the same kernel object and microservice registries by RAFT, which
+ * also saves the registries so that a restarted OMS gets them back. Kernel servers are tracked by
+ * every OMS instance from their heartbeats.
+ *
  * @author iyzhang
  */
-public class OMSServerImpl implements OMSServer, Registry {
+public class OMSServerImpl implements OMSServer, Registry, OMSReplica {
 
     private static final Logger logger = Logger.getLogger(OMSServerImpl.class.getName());
+    /** Size in bytes after which a new RAFT log segment is started */
+    private static final long LOG_SEGMENT_SIZE = 16L * 1024 * 1024;
+    /** How long a call waits for the replicas of the shard to elect a leader */
+    private static final long LEADER_WAIT_MILLIS = 3L * Server.LEADER_HEARTBEAT_TIMEOUT;
+
+    private static final long RETRY_MILLIS = 100;
+
     private GlobalKernelObjectManager kernelObjectManager;
     private KernelServerManager serverManager;
     private MicroServiceManager objectManager;
+    /** Applies changes to the kernel object and microservice registries */
+    private OMSStateMachine stateMachine;
+
+    /** Shards of the OMS, <code>null</code> if it is not sharded */
+    private OMSShardMap shardMap;
+    /** Index of the shard of this OMS instance */
+    private int shard;
+    /** Reaches the other shards, <code>null</code> if the OMS is not sharded */
+    private OMSShardRouter router;
+    /** Replicas of the shard besides this OMS instance */
+    private List<InetSocketAddress> peers = Collections.emptyList();
+    /** Replicates and saves the registries, <code>null</code> to keep them in memory only */
+    private Server raftServer;
 
     public static String OMS_IP_OPT = "--oms-ip";
     public static String OMS_PORT_OPT = "--oms-port";
     public static String SERVICE_PORT = "--service-port";
+    public static String OMS_SHARDS_OPT = "--oms-shards";
+    public static String OMS_LOG_DIR_OPT = "--oms-log-dir";
 
     /** CONSTRUCTOR * */
-    // TODO Should receive a List of servers
     public OMSServerImpl() throws JSONException {
         kernelObjectManager = new GlobalKernelObjectManager();
         serverManager = new KernelServerManager();
+        kernelObjectManager.setLocationListener(
+                new KernelObjectLocationNotifier(serverManager, kernelObjectManager));
         objectManager = new MicroServiceManager();
+        stateMachine = new OMSStateMachine(kernelObjectManager, objectManager);
+    }
+
+    /**
+     * Creates a replica of a shard of the OMS. Replication starts with {@link
+     * #startReplication()}.
+     *
+     * @param shardMap shards of the OMS
+     * @param host address of this OMS instance, as given in the shard map
+     * @param logDirectory directory in which the registries are saved, and restored from when
+     *     the OMS restarts; <code>null</code> to keep them in memory only
+     * @throws IOException if the saved registries could not be read
+     */
+    public OMSServerImpl(OMSShardMap shardMap, InetSocketAddress host, File logDirectory)
+            throws JSONException, IOException {
+        this();
+        shard = shardMap.getShard(host);
+        if (shard < 0) {
+            throw new IllegalArgumentException(host + " is not in OMS shard map " + shardMap);
+        }
+        if (shardMap.size() > 1) {
+            this.shardMap = shardMap;
+            router = new OMSShardRouter(shardMap);
+        }
+        peers = new ArrayList<InetSocketAddress>(shardMap.getReplicas(shard));
+        peers.remove(host);
+
+        if (logDirectory != null) {
+            raftServer =
+                    new Server(
+                            stateMachine,
+                            logDirectory,
+                            LOG_SEGMENT_SIZE,
+                            Server.DEFAULT_SNAPSHOT_THRESHOLD);
+        } else if (!peers.isEmpty()) {
+            raftServer = new Server(stateMachine);
+        }
+    }
+
+    /**
+     * Starts replicating the registries of the shard, once all replicas of the shard can be
+     * reached. Returns right away; calls wait for the replicas to elect a leader.
+     */
+    public void startReplication() {
+        if (raftServer == null) {
+            return;
+        }
+        Thread thread =
+                new Thread(
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                if (connectPeers()) {
+                                    raftServer.start();
+                                    logger.info("[OMS] Replicating shard " + shard);
+                                }
+                            }
+                        },
+                        "oms-replication");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Stops replicating the registries of the shard, and closes the saved registries. */
+    public void stopReplication() {
+        if (raftServer != null) {
+            raftServer.close();
+        }
+    }
+
+    /** Adds the other replicas of the shard to the RAFT group, waiting for them to come up. */
+    private boolean connectPeers() {
+        for (InetSocketAddress peer : peers) {
+            while (true) {
+                try {
+                    OMSReplica replica =
+                            (OMSReplica)
+                                    LocateRegistry.getRegistry(peer.getHostName(), peer.getPort())
+                                            .lookup(OMSShardRouter.OMS_NAME);
+                    raftServer.addServer(replica.getRaftServerId(), new OMSRaftPeer(replica));
+                    break;
+                } catch (Exception e) {
+                    logger.fine("[OMS] Waiting for replica " + peer + ": " + e);
+                }
+                try {
+                    Thread.sleep(Server.LEADER_HEARTBEAT_TIMEOUT / 3);
+                } catch (InterruptedException e) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean isLocal(KernelOID oid) {
+        return router == null || shardMap.shardOf(oid) == shard;
+    }
+
+    private boolean isLocal(MicroServiceID microServiceId) {
+        return router == null || shardMap.shardOf(microServiceId) == shard;
+    }
+
+    private boolean isLocalName(String name) {
+        return router == null || shardMap.shardOf(name) == shard;
+    }
+
+    /** Generates a kernel object id tracked by this shard */
+    private KernelOID newKernelOID() {
+        while (true) {
+            KernelOID oid = new KernelOID(ThreadLocalRandom.current().nextInt());
+            if (isLocal(oid)) {
+                return oid;
+            }
+        }
+    }
+
+    /** Generates a microservice id tracked by this shard */
+    private MicroServiceID newMicroServiceID() {
+        while (true) {
+            MicroServiceID microServiceId = new MicroServiceID(UUID.randomUUID());
+            if (isLocal(microServiceId)) {
+                return microServiceId;
+            }
+        }
+    }
+
+    /**
+     * Applies a change to the registries on all replicas of the shard.
+     *
+     * @param expected type of the exceptions of the change that are passed on to the caller
+     * @param target registry to change
+     * @param method method of the registry
+     * @param args arguments of the method
+     * @return result of the method
+     * @throws E if the method threw it
+     * @throws RemoteException if the change could not be replicated
+     */
+    private <E extends Exception> Object write(
+            Class<E> expected, Target target, String method, Object... args)
+            throws E, RemoteException {
+        Operation operation = new Operation(target, method, args);
+        try {
+            if (raftServer == null) {
+                return stateMachine.apply(operation);
+            }
+            long deadline = System.currentTimeMillis() + LEADER_WAIT_MILLIS;
+            while (true) {
+                try {
+                    return raftServer.applyToStateMachine(operation);
+                } catch (LeaderException e) {
+                    RemoteRaftServer leader = e.getLeader();
+                    if (leader != null) {
+                        try {
+                            return leader.applyToStateMachine(operation);
+                        } catch (LeaderException ignored) {
+                            // Leadership moved on meanwhile.
+                        } catch (RemoteException ignored) {
+                            // The leader is gone; wait for the next one.
+                        }
+                    }
+                    awaitLeader(deadline, e);
+                }
+            }
+        } catch (Exception e) {
+            throw failure(e, expected);
+        }
+    }
+
+    /**
+     * Reads the registries. The result reflects all changes applied to the shard before.
+     *
+     * @see #write(Class, Target, String, Object...)
+     */
+    private <E extends Exception> Object read(
+            Class<E> expected, Target target, String method, Object... args)
+            throws E, RemoteException {
+        Operation operation = new Operation(target, method, args);
+        try {
+            if (raftServer == null) {
+                return stateMachine.apply(operation);
+            }
+            long deadline = System.currentTimeMillis() + LEADER_WAIT_MILLIS;
+            while (true) {
+                try {
+                    return raftServer.read(operation);
+                } catch (LeaderException e) {
+                    awaitLeader(deadline, e);
+                }
+            }
+        } catch (Exception e) {
+            throw failure(e, expected);
+        }
+    }
+
+    private static void awaitLeader(long deadline, LeaderException e)
+            throws LeaderException, InterruptedException {
+        if (System.currentTimeMillis() >= deadline) {
+            throw e;
+        }
+        Thread.sleep(RETRY_MILLIS);
+    }
+
+    /**
+     * Throws the given exception if it is of the given type or unchecked, and returns it as a
+     * {@link RemoteException} otherwise.
+     */
+    private static <E extends Exception> RemoteException failure(Exception e, Class<E> type)
+            throws E {
+        if (type.isInstance(e)) {
+            throw type.cast(e);
+        }
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        }
+        if (e instanceof RemoteException) {
+            return (RemoteException) e;
+        }
+        return new RemoteException("[OMS] Failed to access the registries", e);
     }
 
     /** KERNEL METHODS * */
@@ -67,16 +330,23 @@ public class OMSServerImpl implements OMSServer, Registry {
      * @return a new unique kernel object ID
      */
     public KernelOID registerKernelObject(InetSocketAddress host) throws RemoteException {
-        KernelOID oid = kernelObjectManager.register(host);
+        KernelOID oid;
+        do {
+            oid = newKernelOID();
+        } while (!(Boolean) write(RemoteException.class, Target.KERNEL_OBJECTS, "add", oid, host));
         logger.info("[OMS] Registering " + oid.toString() + " on host " + host.toString());
         return oid;
     }
 
     /** Register a new host for this kernel object. Used to move a kernel object */
     public void registerKernelObject(KernelOID oid, InetSocketAddress host)
-            throws KernelObjectNotFoundException {
+            throws RemoteException, KernelObjectNotFoundException {
+        if (!isLocal(oid)) {
+            router.registerKernelObject(oid, host);
+            return;
+        }
         logger.info("[OMS] Registering new host for " + oid.toString() + " on " + host.toString());
-        kernelObjectManager.register(oid, host);
+        write(KernelObjectNotFoundException.class, Target.KERNEL_OBJECTS, "register", oid, host);
     }
 
     /**
@@ -88,9 +358,13 @@ public class OMSServerImpl implements OMSServer, Registry {
      * @throws KernelObjectNotFoundException
      */
     public void unRegisterKernelObject(KernelOID oid, InetSocketAddress host)
-            throws KernelObjectNotFoundException {
+            throws RemoteException, KernelObjectNotFoundException {
+        if (!isLocal(oid)) {
+            router.unRegisterKernelObject(oid, host);
+            return;
+        }
         logger.info("[OMS] UnRegistering " + oid.toString() + " on host " + host.toString());
-        kernelObjectManager.unRegister(oid, host);
+        write(KernelObjectNotFoundException.class, Target.KERNEL_OBJECTS, "unRegister", oid, host);
     }
 
     /**
@@ -99,12 +373,39 @@ public class OMSServerImpl implements OMSServer, Registry {
      * @return the host IP address
      */
     public InetSocketAddress lookupKernelObject(KernelOID oid)
-            throws KernelObjectNotFoundException {
-        InetSocketAddress ko = kernelObjectManager.lookup(oid);
+            throws RemoteException, KernelObjectNotFoundException {
+        if (!isLocal(oid)) {
+            return router.lookupKernelObject(oid);
+        }
+        InetSocketAddress ko =
+                (InetSocketAddress)
+                        read(
+                                KernelObjectNotFoundException.class,
+                                Target.KERNEL_OBJECTS,
+                                "lookup",
+                                oid);
         logger.info("[OMS] Found host for " + oid.toString() + " host: " + ko);
         return ko;
     }
 
+    @Override
+    public KernelObjectLocation lookupKernelObject(KernelOID oid, InetSocketAddress subscriber)
+            throws RemoteException, KernelObjectNotFoundException {
+        if (!isLocal(oid)) {
+            return router.lookupKernelObject(oid, subscriber);
+        }
+        KernelObjectLocation location =
+                (KernelObjectLocation)
+                        read(
+                                KernelObjectNotFoundException.class,
+                                Target.KERNEL_OBJECTS,
+                                "lookup",
+                                oid,
+                                subscriber);
+        logger.info("[OMS] Found location for " + oid.toString() + ": " + location);
+        return location;
+    }
+
     @Override
     public void registerKernelServer(ServerInfo info) throws RemoteException, NotBoundException {
         serverManager.registerKernelServer(info);
@@ -167,7 +468,7 @@ public class OMSServerImpl implements OMSServer, Registry {
         try {
             AppObjectStub appObjStub = server.createMicroService(spec, args);
             assert appObjStub != null;
-            objectManager.setInstanceObjectStub(appObjStub.$__getMicroServiceId(), appObjStub);
+            setMicroServiceStub(appObjStub.$__getMicroServiceId(), appObjStub);
             return appObjStub.$__getMicroServiceId();
         } catch (Exception e) {
             throw new MicroServiceCreationException(
@@ -176,10 +477,20 @@ public class OMSServerImpl implements OMSServer, Registry {
     }
 
     @Override
-    public AppObjectStub acquireStub(MicroServiceID id) throws MicroServiceNotFoundException {
+    public AppObjectStub acquireStub(MicroServiceID id)
+            throws RemoteException, MicroServiceNotFoundException {
+        if (!isLocal(id)) {
+            return router.acquireStub(id);
+        }
 
         try {
-            AppObjectStub appObjStub = objectManager.getInstanceObjectStub(id);
+            AppObjectStub appObjStub =
+                    (AppObjectStub)
+                            read(
+                                    MicroServiceNotFoundException.class,
+                                    Target.MICROSERVICES,
+                                    "getInstanceObjectStub",
+                                    id);
             appObjStub.$__initialize(false);
             return appObjStub;
         } catch (Exception e) {
@@ -190,27 +501,92 @@ public class OMSServerImpl implements OMSServer, Registry {
 
     @Override
     public void setName(MicroServiceID id, String name)
-            throws MicroServiceNotFoundException, MicroServiceNameModificationException {
-        objectManager.setInstanceName(id, name);
+            throws RemoteException, MicroServiceNotFoundException,
+                    MicroServiceNameModificationException {
+        if (!isLocal(id)) {
+            router.setName(id, name);
+            return;
+        }
+
+        /* Object name is not allowed to change once set. Because reference count are updated based
+        on attachByName and detachByName. And name change would affect it */
+        String oldName =
+                (String)
+                        read(
+                                MicroServiceNotFoundException.class,
+                                Target.MICROSERVICES,
+                                "getInstanceName",
+                                id);
+        if (oldName != null) {
+            throw new MicroServiceNameModificationException(id, oldName);
+        }
+
+        /* Reserve the name with the shard that resolves it, then name the microservice */
+        registerMicroServiceName(name, id);
+        boolean named = false;
+        try {
+            named =
+                    (Boolean)
+                            write(
+                                    Exception.class,
+                                    Target.MICROSERVICES,
+                                    "setInstanceName",
+                                    id,
+                                    name);
+        } catch (MicroServiceNotFoundException e) {
+            throw e;
+        } catch (MicroServiceNameModificationException e) {
+            throw e;
+        } catch (Exception e) {
+            throw failure(e, RemoteException.class);
+        } finally {
+            if (!named) {
+                unRegisterMicroServiceName(name, id);
+            }
+        }
     }
 
     @Override
-    public AppObjectStub attachTo(String name) throws MicroServiceNotFoundException {
-        MicroServiceID microServiceId = objectManager.getMicroServiceByName(name);
+    public AppObjectStub attachTo(String name)
+            throws RemoteException, MicroServiceNotFoundException {
+        return attachTo(lookupMicroServiceName(name));
+    }
+
+    @Override
+    public AppObjectStub attachTo(MicroServiceID microServiceId)
+            throws RemoteException, MicroServiceNotFoundException {
+        if (!isLocal(microServiceId)) {
+            return router.attachTo(microServiceId);
+        }
         AppObjectStub appObjStub = acquireStub(microServiceId);
-        objectManager.incrRefCountAndGet(microServiceId);
+        write(
+                MicroServiceNotFoundException.class,
+                Target.MICROSERVICES,
+                "incrRefCountAndGet",
+                microServiceId);
         return appObjStub;
     }
 
     @Override
-    public boolean detachFrom(String name) throws MicroServiceNotFoundException {
-        return delete(objectManager.getMicroServiceByName(name));
+    public boolean detachFrom(String name) throws RemoteException, MicroServiceNotFoundException {
+        return delete(lookupMicroServiceName(name));
     }
 
     @Override
-    public boolean delete(MicroServiceID microServiceId) throws MicroServiceNotFoundException {
+    public boolean delete(MicroServiceID microServiceId)
+            throws RemoteException, MicroServiceNotFoundException {
+        if (!isLocal(microServiceId)) {
+            return router.delete(microServiceId);
+        }
 
-        if (objectManager.decrRefCountAndGet(microServiceId) != 0) {
+        int refCount =
+                (Integer)
+                        write(
+                                MicroServiceNotFoundException.class,
+                                Target.MICROSERVICES,
+                                "decrRefCountAndGet",
+                                microServiceId);
+        if (refCount != 0) {
             return true;
         }
 
@@ -219,9 +595,15 @@ public class OMSServerImpl implements OMSServer, Registry {
             /* Get the kernel object Id of root group policy and delete the group policy object. This leads to
             successive deletion of complete multiDM tree. Deletion includes all the server policy objects of all group
             policy objects in the DM chain and finally those group policy objects too. */
-            KernelOID groupOid = objectManager.getRootGroupId(microServiceId);
+            KernelOID groupOid =
+                    (KernelOID)
+                            read(
+                                    MicroServiceNotFoundException.class,
+                                    Target.MICROSERVICES,
+                                    "getRootGroupId",
+                                    microServiceId);
             deleteGroupPolicy(microServiceId, groupOid);
-            objectManager.removeInstance(microServiceId);
+            removeMicroService(microServiceId);
             logger.log(
                     Level.FINE, String.format("Removed microservice with oid %s", microServiceId));
         } catch (Exception e) {
@@ -248,19 +630,25 @@ public class OMSServerImpl implements OMSServer, Registry {
     @Override
     public Policy.GroupPolicy createGroupPolicy(
             Class<?> policyClass, MicroServiceID microServiceId, MicroServiceSpec spec)
-            throws ClassNotFoundException, KernelObjectNotCreatedException,
+            throws RemoteException, ClassNotFoundException, KernelObjectNotCreatedException,
                     MicroServiceNotFoundException {
-        final Policy.GroupPolicy group =
+        if (!isLocal(microServiceId)) {
+            return router.createGroupPolicy(policyClass, microServiceId, spec);
+        }
+        Policy.GroupPolicy group =
                 MicroService.createGroupPolicy(policyClass, microServiceId, spec);
+        // A plain list, as the handler is saved along with the registries.
+        ArrayList<Object> policies = new ArrayList<Object>();
+        policies.add(group);
         EventHandler groupHandler =
-                new EventHandler(
-                        GlobalKernelReferences.nodeServer.getLocalHost(),
-                        new ArrayList() {
-                            {
-                                add(group);
-                            }
-                        });
-        objectManager.addGroupDispatcher(microServiceId, group.$__getKernelOID(), groupHandler);
+                new EventHandler(GlobalKernelReferences.nodeServer.getLocalHost(), policies);
+        write(
+                MicroServiceNotFoundException.class,
+                Target.MICROSERVICES,
+                "addGroupDispatcher",
+                microServiceId,
+                group.$__getKernelOID(),
+                groupHandler);
         return group;
     }
 
@@ -272,8 +660,17 @@ public class OMSServerImpl implements OMSServer, Registry {
      * @throws MicroServiceNotFoundException
      */
     public void deleteGroupPolicy(MicroServiceID microServiceId, KernelOID groupOid)
-            throws MicroServiceNotFoundException {
-        objectManager.removeGroupDispatcher(microServiceId, groupOid);
+            throws RemoteException, MicroServiceNotFoundException {
+        if (!isLocal(microServiceId)) {
+            router.deleteGroupPolicy(microServiceId, groupOid);
+            return;
+        }
+        write(
+                MicroServiceNotFoundException.class,
+                Target.MICROSERVICES,
+                "removeGroupDispatcher",
+                microServiceId,
+                groupOid);
         MicroService.deleteGroupPolicy(groupOid);
         return;
     }
@@ -298,11 +695,27 @@ public class OMSServerImpl implements OMSServer, Registry {
         System.setProperty("java.rmi.server.hostname", omsArgs.omsIP);
 
         try {
-            OMSServerImpl oms = new OMSServerImpl();
+            OMSServerImpl oms;
+            if (omsArgs.omsShards == null && omsArgs.omsLogDir.isEmpty()) {
+                oms = new OMSServerImpl();
+            } else {
+                InetSocketAddress omsHost = new InetSocketAddress(omsArgs.omsIP, omsArgs.omsPort);
+                OMSShardMap shardMap = omsArgs.omsShards;
+                if (shardMap == null) {
+                    shardMap =
+                            new OMSShardMap(
+                                    Collections.singletonList(
+                                            Collections.singletonList(omsHost)));
+                }
+                File logDirectory =
+                        omsArgs.omsLogDir.isEmpty() ? null : new File(omsArgs.omsLogDir);
+                oms = new OMSServerImpl(shardMap, omsHost, logDirectory);
+            }
             OMSServer omsStub =
                     (OMSServer) UnicastRemoteObject.exportObject(oms, omsArgs.servicePort);
             java.rmi.registry.Registry registry = LocateRegistry.createRegistry(omsArgs.omsPort);
-            registry.rebind("io.amino.run.oms", omsStub);
+            registry.rebind(OMSShardRouter.OMS_NAME, omsStub);
+            oms.startReplication();
 
             /* Create an instance of kernel server and export kernel server service */
             KernelServer localKernelServer =
@@ -336,7 +749,9 @@ public class OMSServerImpl implements OMSServer, Registry {
      */
     @Override
     public MicroServiceID registerMicroService() throws RemoteException {
-        return objectManager.addInstance(null);
+        MicroServiceID microServiceId = newMicroServiceID();
+        write(RemoteException.class, Target.MICROSERVICES, "addInstance", microServiceId, null);
+        return microServiceId;
     }
 
     /**
@@ -349,8 +764,18 @@ public class OMSServerImpl implements OMSServer, Registry {
      */
     @Override
     public ReplicaID registerReplica(MicroServiceID microServiceId)
-            throws MicroServiceNotFoundException {
-        return objectManager.addReplica(microServiceId, null);
+            throws RemoteException, MicroServiceNotFoundException {
+        if (!isLocal(microServiceId)) {
+            return router.registerReplica(microServiceId);
+        }
+        ReplicaID replicaId = new ReplicaID(microServiceId, UUID.randomUUID());
+        write(
+                MicroServiceNotFoundException.class,
+                Target.MICROSERVICES,
+                "addReplica",
+                replicaId,
+                null);
+        return replicaId;
     }
 
     /**
@@ -366,7 +791,24 @@ public class OMSServerImpl implements OMSServer, Registry {
     public void setReplicaDispatcher(ReplicaID replicaId, EventHandler dispatcher)
             throws RemoteException, MicroServiceNotFoundException,
                     MicroServiceReplicaNotFoundException {
-        objectManager.setReplicaDispatcher(replicaId, dispatcher);
+        if (!isLocal(replicaId.getOID())) {
+            router.setReplicaDispatcher(replicaId, dispatcher);
+            return;
+        }
+        try {
+            write(
+                    Exception.class,
+                    Target.MICROSERVICES,
+                    "setReplicaDispatcher",
+                    replicaId,
+                    dispatcher);
+        } catch (MicroServiceNotFoundException e) {
+            throw e;
+        } catch (MicroServiceReplicaNotFoundException e) {
+            throw e;
+        } catch (Exception e) {
+            throw failure(e, RemoteException.class);
+        }
     }
 
     /**
@@ -378,7 +820,26 @@ public class OMSServerImpl implements OMSServer, Registry {
      */
     public void unRegisterMicroService(MicroServiceID microServiceId)
             throws RemoteException, MicroServiceNotFoundException {
-        objectManager.removeInstance(microServiceId);
+        if (!isLocal(microServiceId)) {
+            router.unRegisterMicroService(microServiceId);
+            return;
+        }
+        removeMicroService(microServiceId);
+    }
+
+    /** Removes a microservice of this shard, and releases its name */
+    private void removeMicroService(MicroServiceID microServiceId)
+            throws RemoteException, MicroServiceNotFoundException {
+        String name =
+                (String)
+                        write(
+                                MicroServiceNotFoundException.class,
+                                Target.MICROSERVICES,
+                                "removeInstance",
+                                microServiceId);
+        if (name != null) {
+            unRegisterMicroServiceName(name, microServiceId);
+        }
     }
 
     /**
@@ -388,39 +849,164 @@ public class OMSServerImpl implements OMSServer, Registry {
      * @throws RemoteException
      * @throws MicroServiceNotFoundException
      */
-    public void unRegisterReplica(ReplicaID replicaId) throws MicroServiceNotFoundException {
-        objectManager.removeReplica(replicaId);
+    public void unRegisterReplica(ReplicaID replicaId)
+            throws RemoteException, MicroServiceNotFoundException {
+        if (!isLocal(replicaId.getOID())) {
+            router.unRegisterReplica(replicaId);
+            return;
+        }
+        write(
+                MicroServiceNotFoundException.class,
+                Target.MICROSERVICES,
+                "removeReplica",
+                replicaId);
+    }
+
+    @Override
+    public void setMicroServiceStub(MicroServiceID microServiceId, AppObjectStub stub)
+            throws RemoteException, MicroServiceNotFoundException {
+        if (!isLocal(microServiceId)) {
+            router.setMicroServiceStub(microServiceId, stub);
+            return;
+        }
+        write(
+                MicroServiceNotFoundException.class,
+                Target.MICROSERVICES,
+                "setInstanceObjectStub",
+                microServiceId,
+                stub);
+    }
+
+    @Override
+    public void registerMicroServiceName(String name, MicroServiceID microServiceId)
+            throws RemoteException, MicroServiceNameModificationException {
+        if (!isLocalName(name)) {
+            router.registerMicroServiceName(name, microServiceId);
+            return;
+        }
+        write(
+                MicroServiceNameModificationException.class,
+                Target.MICROSERVICES,
+                "registerName",
+                name,
+                microServiceId);
+    }
+
+    @Override
+    public MicroServiceID lookupMicroServiceName(String name)
+            throws RemoteException, MicroServiceNotFoundException {
+        if (!isLocalName(name)) {
+            return router.lookupMicroServiceName(name);
+        }
+        return (MicroServiceID)
+                read(
+                        MicroServiceNotFoundException.class,
+                        Target.MICROSERVICES,
+                        "getMicroServiceByName",
+                        name);
+    }
+
+    @Override
+    public void unRegisterMicroServiceName(String name, MicroServiceID microServiceId)
+            throws RemoteException {
+        if (!isLocalName(name)) {
+            router.unRegisterMicroServiceName(name, microServiceId);
+            return;
+        }
+        write(RemoteException.class, Target.MICROSERVICES, "unRegisterName", name, microServiceId);
     }
 
     /**
-     * get all the microservices in the system
+     * get all the microservices of this shard
      *
      * @return Returns ArrayList<MicroServiceID>
      * @throws RemoteException
      */
+    @SuppressWarnings("unchecked")
     public ArrayList<MicroServiceID> getAllMicroServices() throws RemoteException {
-        ArrayList<MicroServiceID> arr = objectManager.getAllMicroServices();
+        ArrayList<MicroServiceID> arr =
+                (ArrayList<MicroServiceID>)
+                        read(RemoteException.class, Target.MICROSERVICES, "getAllMicroServices");
         return arr;
     }
 
     /**
-     * get all the Replicas of a MicroService
+     * get all the Replicas of a MicroService of this shard
      *
      * @return Returns ArrayList<EventHandler>
      * @throws RemoteException
      */
-    public EventHandler[] getReplicasById(MicroServiceID oid) throws MicroServiceNotFoundException {
-        return objectManager.getReplicasById(oid);
+    public EventHandler[] getReplicasById(MicroServiceID oid)
+            throws RemoteException, MicroServiceNotFoundException {
+        return (EventHandler[])
+                read(
+                        MicroServiceNotFoundException.class,
+                        Target.MICROSERVICES,
+                        "getReplicasById",
+                        oid);
     }
 
     /**
-     * get all the kernel object Ids in the oms system
+     * get all the kernel object Ids of this shard
      *
      * @return Returns ArrayList<KernelOID>
      * @throws RemoteException
      */
+    @SuppressWarnings("unchecked")
     public ArrayList<KernelOID> getAllKernelObjects() throws RemoteException {
-        return kernelObjectManager.getAllKernelObjects();
+        return (ArrayList<KernelOID>)
+                read(RemoteException.class, Target.KERNEL_OBJECTS, "getAllKernelObjects");
+    }
+
+    /** REPLICATION METHODS * */
+    private Server replication() throws RemoteException {
+        if (raftServer == null) {
+            throw new RemoteException("[OMS] Shard " + shard + " is not replicated");
+        }
+        return raftServer;
+    }
+
+    @Override
+    public UUID getRaftServerId() throws RemoteException {
+        return replication().getMyServerID();
+    }
+
+    @Override
+    public int appendEntries(
+            int term,
+            UUID leader,
+            int prevLogIndex,
+            int prevLogTerm,
+            List<LogEntry> entries,
+            int leaderCommit)
+            throws RemoteException, InvalidTermException, PrevLogTermMismatch, InvalidLogIndex {
+        return replication()
+                .appendEntries(term, leader, prevLogIndex, prevLogTerm, entries, leaderCommit);
+    }
+
+    @Override
+    public int installSnapshot(
+            int term, UUID leader, int lastIncludedIndex, int lastIncludedTerm, byte[] data)
+            throws RemoteException, InvalidTermException {
+        return replication()
+                .installSnapshot(term, leader, lastIncludedIndex, lastIncludedTerm, data);
+    }
+
+    @Override
+    public int requestVote(int term, UUID candidate, int lastLogIndex, int lastLogTerm)
+            throws RemoteException, InvalidTermException, AlreadyVotedException,
+                    CandidateBehindException {
+        return replication().requestVote(term, candidate, lastLogIndex, lastLogTerm);
+    }
+
+    @Override
+    public Object applyToStateMachine(Object operation) throws Exception {
+        return replication().applyToStateMachine(operation);
+    }
+
+    @Override
+    public int readIndex() throws Exception {
+        return replication().readIndex();
     }
 
     private static void printUsage(OptionsParser parser) {
@@ -0,0 +1,118 @@
+package amino.run.oms;
+
+import amino.run.common.MicroServiceID;
+import amino.run.kernel.common.KernelOID;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Partitioning of the OMS state over several OMS shards. Kernel objects are assigned to shards by
+ * {@link KernelOID}, microservices and their replicas by {@link MicroServiceID} and microservice
+ * names by the name, so that any OMS instance or kernel server finds the shard of an id without
+ * asking. Each shard is a group of OMS replicas that keep the same state.
+ */
+public class OMSShardMap implements Serializable {
+    private static final String SHARD_SEPARATOR = ";";
+    private static final String REPLICA_SEPARATOR = ",";
+    private static final String PORT_SEPARATOR = ":";
+
+    /** Addresses of the replicas of each shard */
+    private final List<List<InetSocketAddress>> shards;
+
+    public OMSShardMap(List<List<InetSocketAddress>> shards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("OMS shard map has no shards");
+        }
+        List<List<InetSocketAddress>> copy = new ArrayList<List<InetSocketAddress>>();
+        for (List<InetSocketAddress> replicas : shards) {
+            if (replicas.isEmpty()) {
+                throw new IllegalArgumentException("OMS shard has no replicas");
+            }
+            copy.add(Collections.unmodifiableList(new ArrayList<InetSocketAddress>(replicas)));
+        }
+        this.shards = Collections.unmodifiableList(copy);
+    }
+
+    /**
+     * Parses a shard map of the form <code>host:port,host:port;host:port</code>, where shards are
+     * separated by semicolons and the replicas of a shard by commas.
+     *
+     * @param spec shard map
+     * @return shard map
+     * @throws IllegalArgumentException if the shard map is malformed
+     */
+    public static OMSShardMap parse(String spec) {
+        List<List<InetSocketAddress>> shards = new ArrayList<List<InetSocketAddress>>();
+        for (String shard : spec.split(SHARD_SEPARATOR)) {
+            List<InetSocketAddress> replicas = new ArrayList<InetSocketAddress>();
+            for (String replica : shard.split(REPLICA_SEPARATOR)) {
+                replica = replica.trim();
+                int idx = replica.lastIndexOf(PORT_SEPARATOR);
+                if (idx <= 0) {
+                    throw new IllegalArgumentException(
+                            "OMS replicas must be given as host:port, not " + replica);
+                }
+                try {
+                    replicas.add(
+                            new InetSocketAddress(
+                                    replica.substring(0, idx),
+                                    Integer.parseInt(replica.substring(idx + 1))));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid OMS replica port in " + replica);
+                }
+            }
+            shards.add(replicas);
+        }
+        return new OMSShardMap(shards);
+    }
+
+    /** @return number of shards */
+    public int size() {
+        return shards.size();
+    }
+
+    /**
+     * @param shard shard index
+     * @return addresses of the replicas of the shard
+     */
+    public List<InetSocketAddress> getReplicas(int shard) {
+        return shards.get(shard);
+    }
+
+    /**
+     * @param replica address of an OMS instance
+     * @return index of the shard the OMS instance is a replica of, -1 if none
+     */
+    public int getShard(InetSocketAddress replica) {
+        for (int i = 0; i < shards.size(); i++) {
+            if (shards.get(i).contains(replica)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public int shardOf(KernelOID oid) {
+        return Math.floorMod(oid.getID(), shards.size());
+    }
+
+    public int shardOf(MicroServiceID microServiceId) {
+        return Math.floorMod(microServiceId.getID().hashCode(), shards.size());
+    }
+
+    /**
+     * @param name microservice name
+     * @return index of the shard that resolves the name
+     */
+    public int shardOf(String name) {
+        return Math.floorMod(name.hashCode(), shards.size());
+    }
+
+    @Override
+    public String toString() {
+        return "OMSShardMap{" + shards + '}';
+    }
+}
@@ -0,0 +1,335 @@
+package amino.run.oms;
+
+import amino.run.app.MicroServiceSpec;
+import amino.run.app.NodeSelectorSpec;
+import amino.run.app.Registry;
+import amino.run.common.AppObjectStub;
+import amino.run.common.MicroServiceCreationException;
+import amino.run.common.MicroServiceID;
+import amino.run.common.MicroServiceNameModificationException;
+import amino.run.common.MicroServiceNotFoundException;
+import amino.run.common.MicroServiceReplicaNotFoundException;
+import amino.run.common.ReplicaID;
+import amino.run.kernel.common.KernelOID;
+import amino.run.kernel.common.KernelObjectLocation;
+import amino.run.kernel.common.KernelObjectNotCreatedException;
+import amino.run.kernel.common.KernelObjectNotFoundException;
+import amino.run.kernel.common.KernelServerNotFoundException;
+import amino.run.kernel.common.ServerInfo;
+import amino.run.policy.Policy;
+import amino.run.runtime.EventHandler;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Client side of a sharded OMS. Sends each call to the shard that tracks the kernel object,
+ * microservice or name the call is about, as given by the {@link OMSShardMap}, so that every OMS
+ * instance only serves its share of the lookups. Calls that create ids go to a random shard, which
+ * picks an id it tracks. Kernel servers register and send heartbeats to every shard, as every shard
+ * places microservices on and pushes kernel object locations to any kernel server.
+ *
+ * <p>Within a shard, calls go to one replica at a time, and move on to the next replica when the
+ * current one cannot be reached, for example because it restarted.
+ */
+public class OMSShardRouter implements OMSServer, Registry {
+    private static final Logger logger = Logger.getLogger(OMSShardRouter.class.getName());
+    static final String OMS_NAME = "io.amino.run.oms";
+
+    private final OMSShardMap shardMap;
+    /** Stub for each shard, implementing both {@link OMSServer} and {@link Registry} */
+    private final OMSServer[] shards;
+
+    public OMSShardRouter(OMSShardMap shardMap) {
+        this.shardMap = shardMap;
+        shards = new OMSServer[shardMap.size()];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] =
+                    (OMSServer)
+                            Proxy.newProxyInstance(
+                                    OMSServer.class.getClassLoader(),
+                                    new Class<?>[] {OMSServer.class, Registry.class},
+                                    new ReplicaFailover(shardMap.getReplicas(i)));
+        }
+    }
+
+    public OMSShardMap getShardMap() {
+        return shardMap;
+    }
+
+    private OMSServer shard(KernelOID oid) {
+        return shards[shardMap.shardOf(oid)];
+    }
+
+    private OMSServer shard(MicroServiceID microServiceId) {
+        return shards[shardMap.shardOf(microServiceId)];
+    }
+
+    private OMSServer shardOfName(String name) {
+        return shards[shardMap.shardOf(name)];
+    }
+
+    private OMSServer anyShard() {
+        return shards[ThreadLocalRandom.current().nextInt(shards.length)];
+    }
+
+    private static Registry registry(OMSServer shard) {
+        return (Registry) shard;
+    }
+
+    @Override
+    public KernelOID registerKernelObject(InetSocketAddress host) throws RemoteException {
+        return anyShard().registerKernelObject(host);
+    }
+
+    @Override
+    public void registerKernelObject(KernelOID oid, InetSocketAddress host)
+            throws RemoteException, KernelObjectNotFoundException {
+        shard(oid).registerKernelObject(oid, host);
+    }
+
+    @Override
+    public void unRegisterKernelObject(KernelOID oid, InetSocketAddress host)
+            throws RemoteException, KernelObjectNotFoundException {
+        shard(oid).unRegisterKernelObject(oid, host);
+    }
+
+    @Override
+    public InetSocketAddress lookupKernelObject(KernelOID oid)
+            throws RemoteException, KernelObjectNotFoundException {
+        return shard(oid).lookupKernelObject(oid);
+    }
+
+    @Override
+    public KernelObjectLocation lookupKernelObject(KernelOID oid, InetSocketAddress subscriber)
+            throws RemoteException, KernelObjectNotFoundException {
+        return shard(oid).lookupKernelObject(oid, subscriber);
+    }
+
+    @Override
+    public ArrayList<String> getRegions() throws RemoteException {
+        return anyShard().getRegions();
+    }
+
+    @Override
+    public List<InetSocketAddress> getServers(NodeSelectorSpec spec) throws RemoteException {
+        return anyShard().getServers(spec);
+    }
+
+    @Override
+    public void registerKernelServer(ServerInfo info) throws RemoteException, NotBoundException {
+        for (OMSServer shard : shards) {
+            shard.registerKernelServer(info);
+        }
+    }
+
+    /**
+     * Sends the heartbeat to every shard, and registers the kernel server again with shards that
+     * lost track of it, for example because the replica they were reached at changed.
+     */
+    @Override
+    public void receiveHeartBeat(ServerInfo srvinfo) throws RemoteException {
+        RemoteException failure = null;
+        for (OMSServer shard : shards) {
+            try {
+                try {
+                    shard.receiveHeartBeat(srvinfo);
+                } catch (KernelServerNotFoundException e) {
+                    shard.registerKernelServer(srvinfo);
+                }
+            } catch (NotBoundException e) {
+                failure = new RemoteException("Failed to register kernel server", e);
+            } catch (RemoteException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public Policy.GroupPolicy createGroupPolicy(
+            Class<?> policyClass, MicroServiceID microServiceId, MicroServiceSpec spec)
+            throws RemoteException, ClassNotFoundException, KernelObjectNotCreatedException,
+                    MicroServiceNotFoundException {
+        return shard(microServiceId).createGroupPolicy(policyClass, microServiceId, spec);
+    }
+
+    @Override
+    public void deleteGroupPolicy(MicroServiceID microServiceId, KernelOID groupOid)
+            throws RemoteException, MicroServiceNotFoundException {
+        shard(microServiceId).deleteGroupPolicy(microServiceId, groupOid);
+    }
+
+    @Override
+    public MicroServiceID registerMicroService() throws RemoteException {
+        return anyShard().registerMicroService();
+    }
+
+    @Override
+    public ReplicaID registerReplica(MicroServiceID microServiceId)
+            throws RemoteException, MicroServiceNotFoundException {
+        return shard(microServiceId).registerReplica(microServiceId);
+    }
+
+    @Override
+    public void setReplicaDispatcher(ReplicaID replicaId, EventHandler dispatcher)
+            throws RemoteException, MicroServiceNotFoundException,
+                    MicroServiceReplicaNotFoundException {
+        shard(replicaId.getOID()).setReplicaDispatcher(replicaId, dispatcher);
+    }
+
+    @Override
+    public MicroServiceID create(String spec, Object... args)
+            throws RemoteException, MicroServiceCreationException {
+        return registry(anyShard()).create(spec, args);
+    }
+
+    @Override
+    public AppObjectStub acquireStub(MicroServiceID microServiceId)
+            throws RemoteException, MicroServiceNotFoundException {
+        return registry(shard(microServiceId)).acquireStub(microServiceId);
+    }
+
+    @Override
+    public AppObjectStub attachTo(String name)
+            throws RemoteException, MicroServiceNotFoundException {
+        return registry(shardOfName(name)).attachTo(name);
+    }
+
+    @Override
+    public boolean detachFrom(String name) throws RemoteException, MicroServiceNotFoundException {
+        return registry(shardOfName(name)).detachFrom(name);
+    }
+
+    @Override
+    public void setName(MicroServiceID id, String name)
+            throws RemoteException, MicroServiceNotFoundException,
+                    MicroServiceNameModificationException {
+        registry(shard(id)).setName(id, name);
+    }
+
+    @Override
+    public boolean delete(MicroServiceID id) throws RemoteException, MicroServiceNotFoundException {
+        return shard(id).delete(id);
+    }
+
+    @Override
+    public void unRegisterMicroService(MicroServiceID microServiceId)
+            throws RemoteException, MicroServiceNotFoundException {
+        shard(microServiceId).unRegisterMicroService(microServiceId);
+    }
+
+    @Override
+    public void unRegisterReplica(ReplicaID replicaId)
+            throws RemoteException, MicroServiceNotFoundException {
+        shard(replicaId.getOID()).unRegisterReplica(replicaId);
+    }
+
+    @Override
+    public void setMicroServiceStub(MicroServiceID microServiceId, AppObjectStub stub)
+            throws RemoteException, MicroServiceNotFoundException {
+        shard(microServiceId).setMicroServiceStub(microServiceId, stub);
+    }
+
+    @Override
+    public AppObjectStub attachTo(MicroServiceID microServiceId)
+            throws RemoteException, MicroServiceNotFoundException {
+        return shard(microServiceId).attachTo(microServiceId);
+    }
+
+    @Override
+    public void registerMicroServiceName(String name, MicroServiceID microServiceId)
+            throws RemoteException, MicroServiceNameModificationException {
+        shardOfName(name).registerMicroServiceName(name, microServiceId);
+    }
+
+    @Override
+    public MicroServiceID lookupMicroServiceName(String name)
+            throws RemoteException, MicroServiceNotFoundException {
+        return shardOfName(name).lookupMicroServiceName(name);
+    }
+
+    @Override
+    public void unRegisterMicroServiceName(String name, MicroServiceID microServiceId)
+            throws RemoteException {
+        shardOfName(name).unRegisterMicroServiceName(name, microServiceId);
+    }
+
+    /**
+     * Invokes calls on the replicas of a shard. Sticks to the replica that answered the last call,
+     * and tries the others in turn when it cannot be reached.
+     */
+    private static class ReplicaFailover implements InvocationHandler {
+        private final List<InetSocketAddress> replicas;
+        /** Stubs of the replicas, looked up when first used and again after a failure */
+        private final Object[] stubs;
+
+        private volatile int current;
+
+        private ReplicaFailover(List<InetSocketAddress> replicas) {
+            this.replicas = replicas;
+            this.stubs = new Object[replicas.size()];
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                return method.invoke(this, args);
+            }
+
+            RemoteException failure = null;
+            int first = current;
+            for (int i = 0; i < replicas.size(); i++) {
+                int index = (first + i) % replicas.size();
+                try {
+                    Object result = method.invoke(getStub(index), args);
+                    current = index;
+                    return result;
+                } catch (InvocationTargetException e) {
+                    if (!(e.getCause() instanceof RemoteException)) {
+                        throw e.getCause();
+                    }
+                    failure = (RemoteException) e.getCause();
+                } catch (RemoteException e) {
+                    failure = e;
+                } catch (NotBoundException e) {
+                    failure = new RemoteException("OMS not bound at " + replicas.get(index), e);
+                }
+                logger.log(
+                        Level.WARNING,
+                        String.format(
+                                "Failed to call %s on OMS replica %s",
+                                method.getName(), replicas.get(index)),
+                        failure);
+                resetStub(index);
+            }
+            throw failure;
+        }
+
+        private synchronized Object getStub(int index) throws RemoteException, NotBoundException {
+            if (stubs[index] == null) {
+                InetSocketAddress replica = replicas.get(index);
+                stubs[index] =
+                        LocateRegistry.getRegistry(replica.getHostName(), replica.getPort())
+                                .lookup(OMS_NAME);
+            }
+            return stubs[index];
+        }
+
+        private synchronized void resetStub(int index) {
+            stubs[index] = null;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package amino.run.oms;
+
+import amino.run.common.Utils;
+import amino.run.policy.util.consensus.raft.StateMachineApplier;
+import java.io.Serializable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Kernel object and microservice registries of an OMS shard, driven by operations that every
+ * replica of the shard applies in the same order (see {@link
+ * amino.run.policy.util.consensus.raft.Server}). Operations carry any ids they create, so that all
+ * replicas end up with the same state.
+ */
+public class OMSStateMachine implements StateMachineApplier {
+    /** Registry an operation applies to */
+    public enum Target {
+        KERNEL_OBJECTS,
+        MICROSERVICES
+    }
+
+    /** Invocation of a method of one of the registries */
+    public static class Operation implements Serializable {
+        private final Target target;
+        private final String method;
+        private final Object[] args;
+
+        public Operation(Target target, String method, Object... args) {
+            this.target = target;
+            this.method = method;
+            this.args = args;
+        }
+
+        @Override
+        public String toString() {
+            return "Operation{" + target + "." + method + Arrays.toString(args) + '}';
+        }
+    }
+
+    private final GlobalKernelObjectManager kernelObjectManager;
+    private final MicroServiceManager objectManager;
+    /** Public methods of the registries, by target and name */
+    private final ConcurrentHashMap<String, List<Method>> methods =
+            new ConcurrentHashMap<String, List<Method>>();
+
+    public OMSStateMachine(
+            GlobalKernelObjectManager kernelObjectManager, MicroServiceManager objectManager) {
+        this.kernelObjectManager = kernelObjectManager;
+        this.objectManager = objectManager;
+    }
+
+    @Override
+    public Object apply(Object operation) throws Exception {
+        Operation op = (Operation) operation;
+        Object target =
+                op.target == Target.KERNEL_OBJECTS ? kernelObjectManager : objectManager;
+        try {
+            return findMethod(op, target.getClass()).invoke(target, op.args);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw (Exception) cause;
+        }
+    }
+
+    @Override
+    public byte[] snapshot() throws Exception {
+        return Utils.toBytes(new Object[] {kernelObjectManager, objectManager});
+    }
+
+    @Override
+    public void restore(byte[] snapshot) throws Exception {
+        Object[] state = (Object[]) Utils.toObject(snapshot);
+        kernelObjectManager.restore((GlobalKernelObjectManager) state[0]);
+        objectManager.restore((MicroServiceManager) state[1]);
+    }
+
+    /** Finds the method of the given name whose parameters accept the arguments. */
+    private Method findMethod(Operation op, Class<?> cls) throws NoSuchMethodException {
+        String key = op.target + "." + op.method;
+        List<Method> candidates = methods.get(key);
+        if (candidates == null) {
+            candidates = new ArrayList<Method>();
+            for (Method method : cls.getMethods()) {
+                if (method.getName().equals(op.method)) {
+                    candidates.add(method);
+                }
+            }
+            methods.put(key, candidates);
+        }
+
+        for (Method method : candidates) {
+            Class<?>[] types = method.getParameterTypes();
+            if (types.length != op.args.length) {
+                continue;
+            }
+            boolean match = true;
+            for (int i = 0; i < types.length && match; i++) {
+                match = op.args[i] == null || types[i].isInstance(op.args[i]);
+            }
+            if (match) {
+                return method;
+            }
+        }
+        throw new NoSuchMethodException("No method for " + op);
+    }
+}
@@ -2,6 +2,7 @@ package amino.run.policy;
 
 import amino.run.common.MicroServiceNotFoundException;
 import amino.run.common.MicroServiceReplicaNotFoundException;
+import amino.run.kernel.common.GlobalKernelReferences;
 import amino.run.policy.transaction.IllegalComponentException;
 import amino.run.policy.transaction.TransactionContext;
 import amino.run.policy.transaction.TwoPCClient;
@@ -10,10 +11,23 @@ import java.rmi.RemoteException;
 import java.util.ArrayList;
 import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public abstract class DefaultUpcallImpl extends Library {
 
     public abstract static class ClientPolicy extends ClientPolicyLibrary {
+        private static final Logger logger = Logger.getLogger(ClientPolicy.class.getName());
+
+        /** Whether a client policy class replaces the default {@link #onRPC} behavior */
+        private static final ConcurrentHashMap<Class<?>, Boolean> customOnRPC =
+                new ConcurrentHashMap<Class<?>, Boolean>();
+
         public Object onRPC(String method, ArrayList<Object> params) throws Exception {
             // only transaction-capable SO is allowed in TwoPC transaction -- change of the original
             // behavior
@@ -33,6 +47,92 @@ public abstract class DefaultUpcallImpl extends Library {
             return ret;
         }
 
+        /**
+         * Asynchronous variant of {@link #onRPC}, used by the {@code fooAsync} methods of app
+         * stubs. With the default client behavior the RPC is forwarded to the server policy without
+         * blocking the caller. Policies that override {@link #onRPC} keep their semantics: their
+         * {@code onRPC} runs on a kernel client thread, unless it has to run in the caller's
+         * transaction, in which case it runs on the calling thread.
+         *
+         * @param method The name of the method to be invoked.
+         * @param params the parameters to be passed to the remote method invocation.
+         * @return future for the return value of the remote method invocation
+         */
+        public CompletableFuture<Object> onRPCAsync(
+                final String method, final ArrayList<Object> params) {
+            if (this.hasTransaction()) {
+                CompletableFuture<Object> future = new CompletableFuture<Object>();
+                try {
+                    future.complete(onRPC(method, params));
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+                return future;
+            }
+
+            if (hasCustomOnRPC()) {
+                return CompletableFuture.supplyAsync(
+                        new Supplier<Object>() {
+                            @Override
+                            public Object get() {
+                                try {
+                                    return onRPC(method, params);
+                                } catch (Exception e) {
+                                    throw new CompletionException(e);
+                                }
+                            }
+                        },
+                        GlobalKernelReferences.nodeServer.getKernelClient().getAsyncExecutor());
+            }
+
+            Policy.ServerPolicy server;
+            try {
+                server = getServer();
+            } catch (RemoteException e) {
+                CompletableFuture<Object> future = new CompletableFuture<Object>();
+                future.completeExceptionally(e);
+                return future;
+            }
+
+            return server.onRPCAsync(method, params)
+                    .whenComplete(
+                            new BiConsumer<Object, Throwable>() {
+                                @Override
+                                public void accept(Object ret, Throwable t) {
+                                    if (t instanceof CompletionException) {
+                                        t = t.getCause();
+                                    }
+                                    if (!(t instanceof RemoteException)) {
+                                        return;
+                                    }
+                                    try {
+                                        setServer(getGroup().onRefRequest());
+                                    } catch (RemoteException e) {
+                                        logger.log(
+                                                Level.WARNING,
+                                                "Failed to refresh server policy",
+                                                e);
+                                    }
+                                }
+                            });
+        }
+
+        private boolean hasCustomOnRPC() {
+            Class<?> cl = getClass();
+            Boolean custom = customOnRPC.get(cl);
+            if (custom == null) {
+                try {
+                    custom =
+                            cl.getMethod("onRPC", String.class, ArrayList.class).getDeclaringClass()
+                                    != DefaultUpcallImpl.ClientPolicy.class;
+                } catch (NoSuchMethodException e) {
+                    custom = true;
+                }
+                customOnRPC.put(cl, custom);
+            }
+            return custom;
+        }
+
         /**
          * Set the remote server policy in cache.
          *
@@ -69,6 +169,25 @@ public abstract class DefaultUpcallImpl extends Library {
             return appObject.invoke(method, params);
         }
 
+        /**
+         * Asynchronous variant of {@link #onRPC}. Server policy stubs override it to make the
+         * kernel RPC without blocking the caller; invoked on the server policy itself, it runs
+         * {@link #onRPC} on the calling thread.
+         *
+         * @param method
+         * @param params
+         * @return future for the return value of {@link #onRPC}
+         */
+        public CompletableFuture<Object> onRPCAsync(String method, ArrayList<Object> params) {
+            CompletableFuture<Object> future = new CompletableFuture<Object>();
+            try {
+                future.complete(onRPC(method, params));
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+            return future;
+        }
+
         /* This function is here just to generate the stub for this function in all server policies */
         @Override
         public Policy.ServerPolicy replicate(String region) throws RemoteException {
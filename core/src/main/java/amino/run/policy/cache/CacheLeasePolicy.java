@@ -2,12 +2,19 @@ package amino.run.policy.cache;
 
 import amino.run.common.AppObject;
 import amino.run.common.MicroServiceNotAvailableException;
+import amino.run.common.Utils;
 import amino.run.kernel.common.KernelObjectNotFoundException;
 import amino.run.policy.DefaultPolicy;
+import java.io.IOException;
 import java.io.Serializable;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -15,49 +22,94 @@ import java.util.logging.Logger;
 /**
  * A caching policy between the mobile device and the server that uses leases for writing.
  *
+ * <p>Clients that only invoke methods annotated with {@link
+ * amino.run.runtime.annotations.Immutable} share read leases, and any number of them may cache the
+ * object at once. A client that invokes another method takes the exclusive write lease. To grant
+ * it, the server recalls the read leases: it stops renewing them and granting new ones, and tells
+ * the writer when to ask again, by which time they have been released or have expired. Clients
+ * don't learn about recalls before they contact the server, so the duration of read leases bounds
+ * how long a writer waits.
+ *
+ * <p>The write lease holder invokes methods on its cached copy of the object, and ships its changes
+ * to the server when it renews or releases the lease, as an {@link ObjectDelta} of the serialized
+ * object. Immutable methods don't mark the copy dirty. A dirty lease is renewed shortly before it
+ * expires, so that changes reach the server before the lease can be granted to another client.
+ *
  * @author iyzhang
  */
 public class CacheLeasePolicy extends DefaultPolicy {
     public static final long DEFAULT_LEASE_PERIOD = 10 * 1000; // milliseconds
-    /** stick in some buffer to account for differences in time * */
-    static final int LEASE_BUFFER =
-            1 * 1000; // milliseconds TODO: Quinton.  This won't work.  Don't rely on clocks
-    // being in sync.
-    // Rather rely on server sending back a duration.  Both client and server expire after that
-    // duration.
-    // The lease on the server is then guaranteed to expire before the lease on the client, by
-    // exactly the amount of
-    // network latency between the client and the server, which is typically less than 1 sec.
+    /**
+     * The server sends back the duration of a lease rather than a time, and clients time it from
+     * when they asked for it, so clocks need not be in sync. The server keeps a lease for this much
+     * longer than the duration, which covers the network latency between the client and the
+     * server.
+     */
+    static final int LEASE_BUFFER = 1 * 1000; // milliseconds
+
+    /** Read leases are shared by any number of clients, write leases are exclusive. */
+    public enum LeaseMode {
+        READ,
+        WRITE
+    }
 
     /**
-     * Object representing a lease. Includes a lease ID, a timeout for the lease and the cached app
-     * object
+     * Object representing a lease. Includes a lease ID, the mode and duration of the lease and the
+     * cached app object
      *
      * @author iyzhang
      */
     public static class CacheLease implements Serializable {
         public static final UUID NO_LEASE = new UUID(0L, 0L); // This is an invalid UUID
         private UUID lease;
-        private Date leaseTimeout;
+        private LeaseMode mode;
+        private long duration;
         private AppObject cachedObject;
+        private long retryAfter;
 
-        public CacheLease(UUID lease, Date leaseTimeout, AppObject cachedObject) {
+        public CacheLease(UUID lease, LeaseMode mode, long duration, AppObject cachedObject) {
             this.lease = lease;
-            this.leaseTimeout = leaseTimeout;
+            this.mode = mode;
+            this.duration = duration;
             this.cachedObject = cachedObject;
         }
 
+        /**
+         * @param retryAfter milliseconds after which the client should ask again
+         * @return a reply telling the client that the write lease is being freed for it
+         */
+        static CacheLease retryAfter(long retryAfter) {
+            CacheLease cachelease = new CacheLease(NO_LEASE, LeaseMode.WRITE, 0, null);
+            cachelease.retryAfter = retryAfter;
+            return cachelease;
+        }
+
+        /** @return <code>false</code> if the client should ask again after {@link #getRetryAfter} */
+        public boolean isGranted() {
+            return !lease.equals(NO_LEASE);
+        }
+
         public UUID getLease() {
             return lease;
         }
 
-        public Date getLeaseTimeout() {
-            return leaseTimeout;
+        public LeaseMode getMode() {
+            return mode;
+        }
+
+        /** @return duration of the lease in milliseconds */
+        public long getDuration() {
+            return duration;
         }
 
         public AppObject getCachedObject() {
             return cachedObject;
         }
+
+        /** @return milliseconds after which to ask again for a lease that was not granted */
+        public long getRetryAfter() {
+            return retryAfter;
+        }
     }
 
     /**
@@ -67,61 +119,179 @@ public class CacheLeasePolicy extends DefaultPolicy {
      * @author iyzhang
      */
     public static class ClientPolicy extends DefaultClientPolicy {
+        private static final Logger logger = Logger.getLogger(ClientPolicy.class.getName());
+        /** Renews dirty leases of all clients before they expire. */
+        private static final Timer renewalTimer = new Timer("cache-lease-renewal", true);
+
         protected UUID lease = CacheLease.NO_LEASE;
+        protected LeaseMode leaseMode = LeaseMode.WRITE;
         protected Date leaseTimeout;
         protected AppObject cachedObject = null;
+        /** Serialized cached object as of the latest sync, which deltas are computed against. */
+        protected transient byte[] syncedState;
+        /** Whether a mutable method was invoked on the cached object since the latest sync. */
+        protected boolean dirty;
+
+        private long leasePeriod = DEFAULT_LEASE_PERIOD;
+        private transient TimerTask renewal;
+        /** Whether methods are immutable, as learned from cached objects */
+        private final Map<String, Boolean> immutableMethods = new HashMap<String, Boolean>();
 
         protected Boolean leaseStillValid() {
-            System.out.println("Lease: " + lease.toString());
             if (!lease.equals(CacheLease.NO_LEASE)) {
-                Date currentTime = new Date();
-                System.out.println(
-                        "Lease timeout: "
-                                + leaseTimeout.toString()
-                                + " current time: "
-                                + currentTime.toString());
-                return leaseTimeout.compareTo(currentTime) > 0;
+                return leaseTimeout.compareTo(new Date()) > 0;
             } else {
                 return false;
             }
         }
 
-        protected void sync() throws Exception {
-            ((ServerPolicy) getServer()).syncObject(lease, cachedObject.getObject());
+        /**
+         * Ships the changes made to the cached object since the latest sync to the server.
+         *
+         * @throws LeaseExpiredException if another client got the lease in the meantime, in which
+         *     case the changes are lost
+         */
+        protected synchronized void sync() throws Exception {
+            if (cachedObject == null) {
+                return;
+            }
+            cancelRenewal();
+            byte[] state = Utils.toBytes(cachedObject.getObject());
+            ObjectDelta delta =
+                    syncedState == null
+                            ? ObjectDelta.full(state)
+                            : ObjectDelta.diff(syncedState, state);
+            if (!delta.isEmpty()) {
+                ServerPolicy server = (ServerPolicy) getServer();
+                try {
+                    if (!server.syncDelta(lease, delta)) {
+                        // The server serialized its copy differently from ours.
+                        server.syncDelta(lease, ObjectDelta.full(state));
+                    }
+                } catch (LeaseExpiredException e) {
+                    discardLease();
+                    throw e;
+                }
+            }
+            syncedState = state;
+            dirty = false;
         }
 
         @Override
-        public Object onRPC(String method, ArrayList<Object> params) throws Exception {
-            Object ret = null;
-            if (!leaseStillValid()) {
-                getNewLease(CacheLeasePolicy.DEFAULT_LEASE_PERIOD);
+        public synchronized Object onRPC(String method, ArrayList<Object> params)
+                throws Exception {
+            Boolean immutable = immutableMethods.get(method);
+            // Until we have seen the object, hope that a read lease will do.
+            acquireLease(Boolean.FALSE.equals(immutable) ? LeaseMode.WRITE : LeaseMode.READ);
+            if (immutable == null) {
+                immutable = cachedObject.isImmutableMethod(method);
+                immutableMethods.put(method, immutable);
+                if (!immutable) {
+                    acquireLease(LeaseMode.WRITE);
+                }
             }
-            ret = cachedObject.invoke(method, params);
-            if (true) { // TODO: isMutable?
-                sync();
+            if (!immutable && !dirty) {
+                dirty = true;
+                scheduleRenewal();
+            }
+            return cachedObject.invoke(method, params);
+        }
+
+        private void acquireLease(LeaseMode mode) throws Exception {
+            if (!leaseStillValid() || (mode == LeaseMode.WRITE && leaseMode == LeaseMode.READ)) {
+                getNewLease(mode, CacheLeasePolicy.DEFAULT_LEASE_PERIOD);
+            }
+        }
+
+        /** Renew the lease, and with it sync the cached object, shortly before it expires. */
+        private void scheduleRenewal() {
+            cancelRenewal();
+            renewal =
+                    new TimerTask() {
+                        @Override
+                        public void run() {
+                            synchronized (ClientPolicy.this) {
+                                if (renewal != this || !dirty) {
+                                    return;
+                                }
+                                try {
+                                    getNewLease(LeaseMode.WRITE, leasePeriod);
+                                } catch (Exception e) {
+                                    logger.log(Level.WARNING, "Failed to renew lease " + lease, e);
+                                }
+                            }
+                        }
+                    };
+            long delay = leaseTimeout.getTime() - LEASE_BUFFER - System.currentTimeMillis();
+            renewalTimer.schedule(renewal, Math.max(0, delay));
+        }
+
+        private void cancelRenewal() {
+            if (renewal != null) {
+                renewal.cancel();
+                renewal = null;
             }
-            return ret;
         }
 
         protected void getNewLease(long timeoutMillisec) throws Exception {
+            getNewLease(LeaseMode.WRITE, timeoutMillisec);
+        }
+
+        /**
+         * Get a new lease, or renew or upgrade the current one.
+         *
+         * @param mode mode of the lease
+         * @param timeoutMillisec requested duration of the lease
+         * @throws LeaseNotAvailableException if another client holds or waits for the write lease,
+         *     in which case the current lease is lost too
+         */
+        protected synchronized void getNewLease(LeaseMode mode, long timeoutMillisec)
+                throws Exception {
+            leasePeriod = timeoutMillisec;
             try {
+                ServerPolicy server = (ServerPolicy) getServer();
+                if (leaseMode == LeaseMode.WRITE && !lease.equals(CacheLease.NO_LEASE)) {
+                    if (dirty) {
+                        mode = LeaseMode.WRITE; // Our changes are synced with the write lease.
+                    } else if (mode == LeaseMode.READ) {
+                        // Let other clients read too.
+                        try {
+                            server.releaseLease(lease);
+                        } catch (LeaseExpiredException e) {
+                            logger.log(Level.FINE, "Write lease " + lease + " already expired");
+                        }
+                        discardLease();
+                    }
+                }
+
+                long requested = System.currentTimeMillis();
                 CacheLease cachelease = null;
-                if (!lease.equals(CacheLease.NO_LEASE)) {
-                    cachelease = ((ServerPolicy) getServer()).getLease(lease, timeoutMillisec);
+                if (mode == LeaseMode.READ) {
+                    cachelease = server.getReadLease(lease, timeoutMillisec);
                 } else {
-                    cachelease = ((ServerPolicy) getServer()).getLease(timeoutMillisec);
+                    if (dirty) {
+                        sync();
+                    }
+                    cachelease = getWriteLease(server, timeoutMillisec);
                 }
 
                 if (cachelease == null) {
+                    discardLease();
                     throw new LeaseNotAvailableException("Could not get lease.");
                 }
 
                 // If we have a new lease, then the object might have changed
                 if (!cachelease.getLease().equals(lease)) {
                     cachedObject = cachelease.getCachedObject();
+                    syncedState =
+                            cachelease.getMode() == LeaseMode.WRITE
+                                    ? Utils.toBytes(cachedObject.getObject())
+                                    : null;
+                    dirty = false;
                 }
                 lease = cachelease.getLease();
-                leaseTimeout = cachelease.getLeaseTimeout();
+                leaseMode = cachelease.getMode();
+                leaseTimeout = new Date(requested + cachelease.getDuration());
             } catch (RemoteException e) {
                 throw new MicroServiceNotAvailableException(
                         "Could not contact MicroService server.", e);
@@ -131,15 +301,48 @@ public class CacheLeasePolicy extends DefaultPolicy {
             }
         }
 
-        protected void releaseCurrentLease() throws Exception {
+        /**
+         * Get the write lease, or renew or upgrade the current lease. While the server recalls read
+         * leases for us, we wait on our side and ask again when it tells us to.
+         *
+         * @return the lease, or <code>null</code> if another client holds the write lease
+         */
+        private CacheLease getWriteLease(ServerPolicy server, long timeoutMillisec)
+                throws Exception {
+            while (true) {
+                CacheLease cachelease;
+                if (!lease.equals(CacheLease.NO_LEASE)) {
+                    // Renews our write lease, or upgrades our read lease
+                    cachelease = server.getLease(lease, timeoutMillisec);
+                } else {
+                    cachelease = server.getLease(timeoutMillisec);
+                }
+                if (cachelease == null || cachelease.isGranted()) {
+                    return cachelease;
+                }
+                Thread.sleep(cachelease.getRetryAfter());
+            }
+        }
+
+        protected synchronized void releaseCurrentLease() throws Exception {
             try {
+                if (dirty) {
+                    sync();
+                }
                 ((ServerPolicy) getServer()).releaseLease(lease);
             } finally {
-                lease = CacheLease.NO_LEASE;
-                leaseTimeout = new Date(0L); // The beginning of time.
-                cachedObject = null;
+                discardLease();
             }
         }
+
+        private void discardLease() {
+            cancelRenewal();
+            lease = CacheLease.NO_LEASE;
+            leaseTimeout = new Date(0L); // The beginning of time.
+            cachedObject = null;
+            syncedState = null;
+            dirty = false;
+        }
     }
 
     /**
@@ -151,6 +354,15 @@ public class CacheLeasePolicy extends DefaultPolicy {
         private static final Logger logger = Logger.getLogger(ServerPolicy.class.getName());
         private UUID lease;
         private Date leaseTimeout;
+        /** Serialized object as granted with the current lease, or as last synced by its holder */
+        private byte[] leasedState;
+        /** Read leases, and when the server forgets them */
+        private final Map<UUID, Long> readLeases = new HashMap<UUID, Long>();
+        /**
+         * Until when read leases are recalled, which lasts until a writer can come back for the
+         * write lease after they are gone
+         */
+        private long recalledUntil;
 
         public ServerPolicy() {
             lease = CacheLease.NO_LEASE;
@@ -165,11 +377,13 @@ public class CacheLeasePolicy extends DefaultPolicy {
             return new Date(currentTime.getTime() + leasePeriodMillisec);
         }
 
-        private CacheLease getNewLease(long timeoutMillisec) {
+        private CacheLease getNewLease(long timeoutMillisec) throws IOException {
             // Always generate a positive lease id
             lease = UUID.randomUUID();
             leaseTimeout = generateTimeout(timeoutMillisec);
-            return new CacheLease(lease, leaseTimeout, getAppObject());
+            AppObject object = getAppObject();
+            leasedState = Utils.toBytes(object.getObject());
+            return new CacheLease(lease, LeaseMode.WRITE, timeoutMillisec, object);
         }
 
         private Boolean leaseStillValid() {
@@ -181,25 +395,72 @@ public class CacheLeasePolicy extends DefaultPolicy {
             }
         }
 
-        public CacheLease getLease(long timeoutMillisec) throws Exception {
+        /**
+         * Forget read leases that expired.
+         *
+         * @return milliseconds until the next read lease expires, 0 if none is left
+         */
+        private long expireReadLeases() {
+            long now = System.currentTimeMillis();
+            long next = 0;
+            Iterator<Long> it = readLeases.values().iterator();
+            while (it.hasNext()) {
+                long remaining = it.next() - now;
+                if (remaining <= 0) {
+                    it.remove();
+                } else if (next == 0 || remaining < next) {
+                    next = remaining;
+                }
+            }
+            return next;
+        }
+
+        /**
+         * Recall all read leases but the given one, and grant the write lease once they are gone.
+         * The server does not wait for them: the client is told when to ask again instead.
+         *
+         * @param readLease read lease of the client, or {@link CacheLease#NO_LEASE}
+         * @param timeoutMillisec duration of the lease
+         * @return the lease, a {@link CacheLease#retryAfter} reply while read leases are left, or
+         *     <code>null</code> if another client got the lease in the meantime
+         */
+        private CacheLease getWriteLease(UUID readLease, long timeoutMillisec) throws Exception {
+            readLeases.remove(readLease);
+            long remaining = expireReadLeases();
+            if (remaining > 0) {
+                long latest = 0;
+                for (long expiry : readLeases.values()) {
+                    latest = Math.max(latest, expiry);
+                }
+                recalledUntil = Math.max(recalledUntil, latest + LEASE_BUFFER);
+                // Ask again when the next read lease expires, or earlier in case it is released
+                return CacheLease.retryAfter(Math.min(remaining, LEASE_BUFFER));
+            }
+            recalledUntil = 0;
+            CacheLease cachelease = getNewLease(timeoutMillisec);
+            logger.log(
+                    Level.INFO,
+                    "Granted lease "
+                            + cachelease.getLease().toString()
+                            + " on object "
+                            + cachelease.getCachedObject().toString()
+                            + " for "
+                            + timeoutMillisec
+                            + " ms");
+            return cachelease;
+        }
+
+        public synchronized CacheLease getLease(long timeoutMillisec) throws Exception {
             if (leaseStillValid()) {
                 logger.log(Level.INFO, "Someone else holds the lease.");
                 return null;
             } else {
-                CacheLease cachelease = getNewLease(timeoutMillisec);
-                logger.log(
-                        Level.INFO,
-                        "Granted lease "
-                                + cachelease.getLease().toString()
-                                + " on object "
-                                + cachelease.getCachedObject().toString()
-                                + " until "
-                                + cachelease.getLeaseTimeout().toString());
-                return cachelease;
+                return getWriteLease(CacheLease.NO_LEASE, timeoutMillisec);
             }
         }
 
-        public CacheLease getLease(UUID lease, long timeoutMillisec) throws Exception {
+        public synchronized CacheLease getLease(UUID lease, long timeoutMillisec)
+                throws Exception {
             logger.log(
                     Level.INFO,
                     "Get lease " + lease.toString() + " currentlease: " + this.lease.toString());
@@ -207,21 +468,56 @@ public class CacheLeasePolicy extends DefaultPolicy {
             if (this.lease.equals(lease)) {
                 // This person still has the lease, so just return it and renew the lease
                 leaseTimeout = generateTimeout(timeoutMillisec);
-                return new CacheLease(lease, leaseTimeout, null);
+                return new CacheLease(lease, LeaseMode.WRITE, timeoutMillisec, null);
             } else if (leaseStillValid()) {
                 // Someone else has a valid lease still, so this person can't have it
                 return null;
             } else {
-                // Someone else's lease expired, so you can have a new lease
-                return getNewLease(timeoutMillisec);
+                // Someone else's lease expired, or this person upgrades a read lease, so you can
+                // have a new lease
+                return getWriteLease(lease, timeoutMillisec);
             }
         }
 
-        public void releaseLease(UUID lease) throws Exception {
+        /**
+         * Get a new read lease, or renew one.
+         *
+         * @param lease read lease to renew, or {@link CacheLease#NO_LEASE}
+         * @param timeoutMillisec duration of the lease
+         * @return the lease, with the object unless it is renewed, or <code>null</code> if a
+         *     client holds or waits for the write lease
+         */
+        public synchronized CacheLease getReadLease(UUID lease, long timeoutMillisec)
+                throws Exception {
+            expireReadLeases();
+            if (System.currentTimeMillis() < recalledUntil || leaseStillValid()) {
+                readLeases.remove(lease); // Recalled
+                return null;
+            }
+
+            long expiry = System.currentTimeMillis() + timeoutMillisec + LEASE_BUFFER;
+            if (readLeases.containsKey(lease)) {
+                readLeases.put(lease, expiry);
+                return new CacheLease(lease, LeaseMode.READ, timeoutMillisec, null);
+            }
+            if (!this.lease.equals(CacheLease.NO_LEASE)) {
+                // The write lease expired; its holder can no longer sync.
+                this.lease = CacheLease.NO_LEASE;
+                this.leaseTimeout = new Date(0L);
+                this.leasedState = null;
+            }
+            UUID readLease = UUID.randomUUID();
+            readLeases.put(readLease, expiry);
+            logger.log(Level.FINE, "Granted read lease " + readLease);
+            return new CacheLease(readLease, LeaseMode.READ, timeoutMillisec, getAppObject());
+        }
+
+        public synchronized void releaseLease(UUID lease) throws Exception {
             if (this.lease.equals(lease)) {
                 this.lease = CacheLease.NO_LEASE;
                 this.leaseTimeout = new Date(0L);
-            } else {
+                this.leasedState = null;
+            } else if (readLeases.remove(lease) == null) {
                 throw new LeaseExpiredException(
                         "Attempt to release expired server lease "
                                 + lease
@@ -230,8 +526,36 @@ public class CacheLeasePolicy extends DefaultPolicy {
             }
         }
 
-        public void syncObject(UUID lease, Serializable object) throws Exception {
+        public synchronized void syncObject(UUID lease, Serializable object) throws Exception {
             appObject.setObject(object);
+            leasedState = null; // Deltas against earlier versions no longer apply.
+        }
+
+        /**
+         * Applies the changes the lease holder made to its cached copy of the object.
+         *
+         * @param lease lease of the client
+         * @param delta changes, computed against the version the client was granted or last synced
+         * @return <code>false</code> if the delta was computed against a different version than
+         *     the server's, in which case the client should send a full delta instead
+         * @throws LeaseExpiredException if the client no longer holds the lease
+         */
+        public synchronized boolean syncDelta(UUID lease, ObjectDelta delta) throws Exception {
+            if (!this.lease.equals(lease)) {
+                throw new LeaseExpiredException(
+                        "Attempt to sync with expired server lease "
+                                + lease
+                                + " Current server lease is "
+                                + this.lease);
+            }
+            if (!delta.appliesTo(leasedState)) {
+                logger.log(Level.FINE, "Received " + delta + " for a different version");
+                return false;
+            }
+            byte[] state = delta.apply(leasedState);
+            appObject.setObject((Serializable) Utils.toObject(state));
+            leasedState = state;
+            return true;
         }
     }
 
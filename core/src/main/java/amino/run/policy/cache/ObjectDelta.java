@@ -0,0 +1,137 @@
+package amino.run.policy.cache;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Difference between two serialized versions of an object, so that a client holding a cached copy
+ * only ships the bytes that changed. The delta consists of the bytes between the longest common
+ * prefix and the longest common suffix of the two versions, which is small when a method changes a
+ * few fields of a large object.
+ *
+ * <p>A delta carries the checksum of the version it was computed against, so that it is only
+ * applied to that very version. A full delta replaces any version.
+ */
+public class ObjectDelta implements Serializable {
+    private static final long FULL = -1L;
+
+    /** Checksum of the version the delta applies to, {@link #FULL} for full deltas */
+    private final long baseChecksum;
+
+    private final int baseLength;
+    private final int prefixLength;
+    private final int suffixLength;
+    private final byte[] replacement;
+
+    private ObjectDelta(
+            long baseChecksum,
+            int baseLength,
+            int prefixLength,
+            int suffixLength,
+            byte[] replacement) {
+        this.baseChecksum = baseChecksum;
+        this.baseLength = baseLength;
+        this.prefixLength = prefixLength;
+        this.suffixLength = suffixLength;
+        this.replacement = replacement;
+    }
+
+    /**
+     * Computes the delta that turns one version of an object into another.
+     *
+     * @param base serialized version known to the receiver
+     * @param target serialized new version
+     * @return delta
+     */
+    public static ObjectDelta diff(byte[] base, byte[] target) {
+        int max = Math.min(base.length, target.length);
+        int prefix = 0;
+        while (prefix < max && base[prefix] == target[prefix]) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < max - prefix
+                && base[base.length - 1 - suffix] == target[target.length - 1 - suffix]) {
+            suffix++;
+        }
+        return new ObjectDelta(
+                checksum(base),
+                base.length,
+                prefix,
+                suffix,
+                Arrays.copyOfRange(target, prefix, target.length - suffix));
+    }
+
+    /**
+     * @param target serialized version
+     * @return a delta that replaces any version with the given one
+     */
+    public static ObjectDelta full(byte[] target) {
+        return new ObjectDelta(FULL, 0, 0, 0, target);
+    }
+
+    public boolean isFull() {
+        return baseChecksum == FULL;
+    }
+
+    /** @return whether both versions are the same */
+    public boolean isEmpty() {
+        return !isFull() && replacement.length == 0 && prefixLength + suffixLength == baseLength;
+    }
+
+    /** @return number of bytes of the new version carried by the delta */
+    public int size() {
+        return replacement.length;
+    }
+
+    /**
+     * @param base serialized version, <code>null</code> if unknown
+     * @return whether the delta can be applied to the given version
+     */
+    public boolean appliesTo(byte[] base) {
+        return isFull()
+                || (base != null && base.length == baseLength && checksum(base) == baseChecksum);
+    }
+
+    /**
+     * Applies the delta.
+     *
+     * @param base serialized version the delta was computed against; ignored for full deltas
+     * @return serialized new version
+     * @throws IllegalArgumentException if the delta does not apply to the given version
+     */
+    public byte[] apply(byte[] base) {
+        if (isFull()) {
+            return replacement;
+        }
+        if (!appliesTo(base)) {
+            throw new IllegalArgumentException("Delta does not apply to the given version");
+        }
+        byte[] target = new byte[prefixLength + replacement.length + suffixLength];
+        System.arraycopy(base, 0, target, 0, prefixLength);
+        System.arraycopy(replacement, 0, target, prefixLength, replacement.length);
+        System.arraycopy(
+                base,
+                base.length - suffixLength,
+                target,
+                prefixLength + replacement.length,
+                suffixLength);
+        return target;
+    }
+
+    private static long checksum(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return crc.getValue();
+    }
+
+    @Override
+    public String toString() {
+        return "ObjectDelta{"
+                + (isFull() ? "full" : "prefix=" + prefixLength + ", suffix=" + suffixLength)
+                + ", size="
+                + replacement.length
+                + '}';
+    }
+}
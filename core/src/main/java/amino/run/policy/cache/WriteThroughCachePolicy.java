@@ -1,25 +1,73 @@
 package amino.run.policy.cache;
 
 import amino.run.common.AppObject;
+import amino.run.common.DispatchTable;
+import amino.run.common.Utils;
 import amino.run.policy.DefaultPolicy;
+import amino.run.policy.Policy;
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
 
 /**
- * <code><WriteThroughCache</code> directs write operations onto cached object and through to remote
- * object before confirming write completion. Read operations will be invoked on cached object
- * directly.
+ * <code><WriteThroughCache</code> directs write operations through to remote object before
+ * confirming write completion. Read operations will be invoked on cached object directly. Methods
+ * annotated with {@link amino.run.runtime.annotations.Immutable} are reads, all others are writes.
  *
- * <p>State changes on remote object caused by one client will not automatically invalidate to
- * cached objects on other clients. Therefore <code>WriteThroughCache</code> may contain staled
- * object.
+ * <p>The server stamps its object with a version that grows with every write. A client checks the
+ * version before serving a read once its cached object has not been validated for {@link
+ * Config#getMaxStalenessInMillis()}, and fetches the object again only if the version changed. So
+ * writes by other clients are seen within the max staleness, and a client's own writes right away.
  *
  * @author terryz
  */
 public class WriteThroughCachePolicy extends DefaultPolicy {
+    public static final long DEFAULT_MAX_STALENESS_IN_MILLIS = 1000;
+
+    /** Configuration for WriteThroughCachePolicy. */
+    public static class Config implements PolicyConfig {
+        /** How long a cached object may serve reads without checking its version; 0 to always */
+        private long maxStalenessInMillis = DEFAULT_MAX_STALENESS_IN_MILLIS;
+
+        public long getMaxStalenessInMillis() {
+            return maxStalenessInMillis;
+        }
+
+        public void setMaxStalenessInMillis(long maxStalenessInMillis) {
+            this.maxStalenessInMillis = maxStalenessInMillis;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Config config = (Config) o;
+            return maxStalenessInMillis == config.maxStalenessInMillis;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(maxStalenessInMillis);
+        }
+    }
 
     public static class ClientPolicy extends DefaultClientPolicy {
-        // TODO: Add a timeout for cachedObject
+        private static final Logger logger = Logger.getLogger(ClientPolicy.class.getName());
+        private static final long NO_VERSION = -1;
+
         private AppObject cachedObject = null;
+        /** Version of the server's object that the cached object is at least as new as */
+        private long cachedVersion = NO_VERSION;
+        /** When the cached object was last known to be current */
+        private long validatedAt;
+
+        private long maxStalenessInMillis = NO_VERSION;
+        /** Whether methods are immutable, as learned from their declaring classes */
+        private final Map<String, Boolean> immutableMethods =
+                new ConcurrentHashMap<String, Boolean>();
 
         @Override
         public Object onRPC(String method, ArrayList<Object> params) throws Exception {
@@ -30,18 +78,44 @@ public class WriteThroughCachePolicy extends DefaultPolicy {
 
             if (isMethodMutable(context.getAppMethod(), context.getAppParams())) {
                 ret = getServer().onRPC(method, params);
-                cachedObject = ((ServerPolicy) getServer()).getObject();
-            } else {
-                if (cachedObject == null) {
-                    cachedObject = ((ServerPolicy) getServer()).getObject();
+                synchronized (this) {
+                    // The cached object misses our write, so fetch it again for the next read.
+                    cachedVersion = NO_VERSION;
+                    validatedAt = 0;
                 }
-
-                ret = cachedObject.invoke(method, params);
+            } else {
+                ret = getCachedObject().invoke(method, params);
             }
 
             return ret;
         }
 
+        /**
+         * Returns the cached object, after fetching it again if it may be staler than allowed and
+         * the server's object changed.
+         */
+        private synchronized AppObject getCachedObject() throws Exception {
+            ServerPolicy server = (ServerPolicy) getServer();
+            if (maxStalenessInMillis == NO_VERSION) {
+                maxStalenessInMillis = server.getMaxStalenessInMillis();
+            }
+            long now = System.currentTimeMillis();
+            if (cachedObject != null
+                    && cachedVersion != NO_VERSION
+                    && now - validatedAt < maxStalenessInMillis) {
+                return cachedObject;
+            }
+
+            // Read the version first, so that the object fetched is at least that new.
+            long version = server.getVersion();
+            if (cachedObject == null || version != cachedVersion) {
+                cachedObject = server.getObject();
+                cachedVersion = version;
+            }
+            validatedAt = now;
+            return cachedObject;
+        }
+
         /**
          * Determines if the given method is immutable.
          *
@@ -50,15 +124,89 @@ public class WriteThroughCachePolicy extends DefaultPolicy {
          * @return <code>true</code> if the method is immutable; <code>false</code> otherwise
          */
         boolean isMethodMutable(String method, ArrayList<Object> params) {
-            // TODO: Need to determine based on annotations on methods
-            return true;
+            Boolean immutable = immutableMethods.get(method);
+            if (immutable == null) {
+                immutable = isImmutable(method);
+                immutableMethods.put(method, immutable);
+            }
+            return !immutable;
+        }
+
+        /**
+         * Looks up the annotations of a method in the class declaring it, which the client has as
+         * the superclass of its stub, so that classifying a method does not fetch the object.
+         * Methods of classes that cannot be loaded are taken to be writes, which is always safe.
+         *
+         * @param method generic string of the method
+         */
+        private static boolean isImmutable(String method) {
+            int paren = method.indexOf('(');
+            if (paren < 0) {
+                return false;
+            }
+            String qualifiedName = method.substring(method.lastIndexOf(' ', paren) + 1, paren);
+            int dot = qualifiedName.lastIndexOf('.');
+            if (dot < 0) {
+                return false;
+            }
+
+            Class<?> clazz;
+            try {
+                clazz = Class.forName(qualifiedName.substring(0, dot));
+            } catch (ClassNotFoundException e) {
+                logger.warning(
+                        String.format(
+                                "Class of method %s not found. Treating it as a write.", method));
+                return false;
+            }
+            DispatchTable table = DispatchTable.forPublicMethods(clazz);
+            int slot = table.slotOf(method);
+            return slot >= 0 && Utils.isImmutableMethod(table.getMethod(slot));
         }
     }
 
     public static class ServerPolicy extends DefaultServerPolicy {
+        /** Incremented by every write */
+        private final AtomicLong version = new AtomicLong();
+
+        private long maxStalenessInMillis = DEFAULT_MAX_STALENESS_IN_MILLIS;
+
+        @Override
+        public void onCreate(Policy.GroupPolicy group) {
+            super.onCreate(group);
+            if (getSpec() != null) {
+                Config config = (Config) getPolicyConfig(Config.class.getName());
+                if (config != null) {
+                    maxStalenessInMillis = config.getMaxStalenessInMillis();
+                }
+            }
+        }
+
+        @Override
+        public Object onRPC(String method, ArrayList<Object> params) throws Exception {
+            if (appObject.isImmutableMethod(method)) {
+                return super.onRPC(method, params);
+            }
+            try {
+                return super.onRPC(method, params);
+            } finally {
+                // Even a write that failed may have changed the object.
+                version.incrementAndGet();
+            }
+        }
+
         public AppObject getObject() {
             return getAppObject();
         }
+
+        /** @return version of the object, which grows with every write */
+        public long getVersion() {
+            return version.get();
+        }
+
+        public long getMaxStalenessInMillis() {
+            return maxStalenessInMillis;
+        }
     }
 
     public static class GroupPolicy extends DefaultGroupPolicy {}
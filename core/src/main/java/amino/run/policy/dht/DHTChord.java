@@ -1,12 +1,15 @@
 package amino.run.policy.dht;
 
+import amino.run.common.ReplicaID;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.Iterator;
-import java.util.Random;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.TreeSet;
 
 /**
@@ -15,13 +18,24 @@ import java.util.TreeSet;
  * <p>For instruction on chord and virtual nodes, please take a look at the original <a
  * href="https://pdos.csail.mit.edu/papers/chord:sigcomm01/chord_sigcomm.pdf">chord paper</a>.
  *
+ * <p>The ids of the virtual nodes of a server are derived from its replica id, so that the same
+ * servers always make up the same ring, and adding or removing a server only moves the key ranges
+ * of its own virtual nodes.
+ *
+ * <p>Every key is replicated on the servers of the {@code replicationFactor} first distinct virtual
+ * nodes starting at the node responsible for it, the first of which is its primary.
+ *
+ * <p>Chords handed out are not changed anymore. Changes are made to a {@link #copy()}, which has a
+ * higher epoch, so that holders of a chord can tell which of two chords is newer.
+ *
  * @see <a href="https://pdos.csail.mit.edu/papers/chord:sigcomm01/chord_sigcomm.pdf">chord
  *     paper</a>
  */
 public class DHTChord implements Serializable {
     private int virtualNodeFactor = 20;
+    private int replicationFactor = 1;
+    private long epoch;
     private TreeSet<DHTNode> nodes = new TreeSet<DHTNode>(new DHTNodeComparator());
-    private static Random generator = new Random(System.currentTimeMillis());
 
     /** Default chord constructor */
     public DHTChord() {}
@@ -61,11 +75,11 @@ public class DHTChord implements Serializable {
             throw new NullPointerException("server must not be null");
         }
 
+        ReplicaID replicaId = server.getReplicaId();
         synchronized (nodes) {
             for (int i = 0; i < virtualNodeFactor; i++) {
-                DHTKey id = new DHTKey(Integer.toString(generator.nextInt(Integer.MAX_VALUE)));
-                DHTNode node = new DHTNode(id, server);
-                nodes.add(node);
+                // On a hash collision, the virtual node already in the chord keeps its place.
+                nodes.add(new DHTNode(virtualNodeId(replicaId, i), server, replicaId));
             }
         }
     }
@@ -76,25 +90,130 @@ public class DHTChord implements Serializable {
      * @param server
      */
     public void remove(DHTPolicy.ServerPolicy server) {
+        ReplicaID replicaId = server.getReplicaId();
         synchronized (nodes) {
-            Iterator iterator = nodes.iterator();
-            while (iterator.hasNext()) {
-                DHTNode node = (DHTNode) iterator.next();
-                if (node.server == server) {
-                    iterator.remove();
+            for (int i = 0; i < virtualNodeFactor; i++) {
+                DHTNode node = getVirtualNode(replicaId, i);
+                if (node != null) {
+                    nodes.remove(node);
                 }
             }
         }
     }
 
+    /**
+     * @param replicaId replica id of a server
+     * @return whether the server is in the chord
+     */
+    public boolean contains(ReplicaID replicaId) {
+        synchronized (nodes) {
+            for (int i = 0; i < virtualNodeFactor; i++) {
+                if (getVirtualNode(replicaId, i) != null) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * @param replicaId replica id of a server
+     * @param key key
+     * @return whether the server is a replica of the key
+     */
+    public boolean isResponsible(ReplicaID replicaId, DHTKey key) {
+        for (DHTNode node : getReplicaNodes(key)) {
+            if (replicaId.equals(node.replicaId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param replicaId replica id of a server
+     * @param key key
+     * @return whether the server is the primary replica of the key
+     */
+    public boolean isPrimary(ReplicaID replicaId, DHTKey key) {
+        synchronized (nodes) {
+            return !nodes.isEmpty() && replicaId.equals(getResponsibleNode(key).replicaId);
+        }
+    }
+
+    /**
+     * @param key key
+     * @return nodes of the distinct servers replicating the key, the primary first. There are
+     *     fewer than {@code replicationFactor} when the chord has fewer servers.
+     */
+    public List<DHTNode> getReplicaNodes(DHTKey key) {
+        List<DHTNode> replicas = new ArrayList<DHTNode>(replicationFactor);
+        synchronized (nodes) {
+            if (nodes.isEmpty()) {
+                return replicas;
+            }
+            DHTNode primary = getResponsibleNode(key);
+            replicas.add(primary);
+            Set<ReplicaID> servers = new HashSet<ReplicaID>();
+            servers.add(primary.replicaId);
+            addReplicaNodes(nodes.tailSet(primary, false), servers, replicas);
+            addReplicaNodes(nodes.headSet(primary, false), servers, replicas);
+        }
+        return replicas;
+    }
+
+    private void addReplicaNodes(
+            Iterable<DHTNode> successors, Set<ReplicaID> servers, List<DHTNode> replicas) {
+        for (DHTNode node : successors) {
+            if (replicas.size() == replicationFactor) {
+                return;
+            }
+            if (servers.add(node.replicaId)) {
+                replicas.add(node);
+            }
+        }
+    }
+
+    /**
+     * @return a chord with the same virtual nodes and the next epoch, which can be changed
+     *     independently
+     */
+    public DHTChord copy() {
+        DHTChord copy = new DHTChord(virtualNodeFactor);
+        copy.replicationFactor = replicationFactor;
+        copy.epoch = epoch + 1;
+        synchronized (nodes) {
+            copy.nodes.addAll(nodes);
+        }
+        return copy;
+    }
+
+    private static DHTKey virtualNodeId(ReplicaID replicaId, int index) {
+        return new DHTKey(replicaId.getID() + "#" + index);
+    }
+
+    /** @return the virtual node of the given server, <code>null</code> if not in the chord */
+    private DHTNode getVirtualNode(ReplicaID replicaId, int index) {
+        DHTKey id = virtualNodeId(replicaId, index);
+        DHTNode node = nodes.floor(new DHTNode(id, null));
+        if (node != null && node.id.compareTo(id) == 0 && replicaId.equals(node.replicaId)) {
+            return node;
+        }
+        return null;
+    }
+
     private void readObject(ObjectInputStream inputStream)
             throws ClassNotFoundException, IOException {
         virtualNodeFactor = inputStream.readInt();
+        replicationFactor = inputStream.readInt();
+        epoch = inputStream.readLong();
         nodes = (TreeSet<DHTNode>) inputStream.readObject();
     }
 
     private void writeObject(ObjectOutputStream outputStream) throws IOException {
         outputStream.writeInt(virtualNodeFactor);
+        outputStream.writeInt(replicationFactor);
+        outputStream.writeLong(epoch);
         synchronized (nodes) {
             outputStream.writeObject(nodes);
         }
@@ -115,6 +234,29 @@ public class DHTChord implements Serializable {
         return responsibleNode;
     }
 
+    public int getReplicationFactor() {
+        return replicationFactor;
+    }
+
+    /**
+     * Sets the number of servers each key is replicated on.
+     *
+     * @param replicationFactor replication factor, greater than zero
+     */
+    public void setReplicationFactor(int replicationFactor) {
+        if (replicationFactor <= 0) {
+            throw new IllegalArgumentException(
+                    String.format(
+                            "Invalid replication factor %s. It must be greater than 0.",
+                            replicationFactor));
+        }
+        this.replicationFactor = replicationFactor;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
     public TreeSet<DHTNode> getNodes() {
         return this.nodes;
     }
@@ -0,0 +1,18 @@
+package amino.run.policy.dht;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Derives the key of a call to a microservice under {@link DHTPolicy}, which decides the shard that
+ * serves the call. It is set by class name in {@link DHTPolicy.Config#setKeyExtractor(String)} and
+ * needs a public constructor without parameters.
+ */
+public interface DHTKeyExtractor extends Serializable {
+    /**
+     * @param method app method name
+     * @param params app method parameters
+     * @return key of the call, <code>null</code> if the call has none
+     */
+    String getKey(String method, List<Object> params);
+}
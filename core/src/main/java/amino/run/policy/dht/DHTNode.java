@@ -1,16 +1,23 @@
 package amino.run.policy.dht;
 
+import amino.run.common.ReplicaID;
 import java.io.Serializable;
 
 public class DHTNode implements Comparable<DHTNode>, Serializable {
     public DHTKey id;
     public DHTPolicy.ServerPolicy server;
+    public ReplicaID replicaId;
 
     public DHTNode(DHTKey id, DHTPolicy.ServerPolicy server) {
         this.id = id;
         this.server = server;
     }
 
+    public DHTNode(DHTKey id, DHTPolicy.ServerPolicy server, ReplicaID replicaId) {
+        this(id, server);
+        this.replicaId = replicaId;
+    }
+
     public DHTKey getId() {
         return id;
     }
@@ -3,22 +3,79 @@ package amino.run.policy.dht;
 import amino.run.common.MicroServiceNotFoundException;
 import amino.run.common.MicroServiceReplicaNotFoundException;
 import amino.run.common.NoKernelServerFoundException;
+import amino.run.common.ReplicaID;
+import amino.run.kernel.common.KernelObjectStub;
 import amino.run.policy.DefaultPolicy;
 import amino.run.policy.Policy;
+import java.io.Serializable;
 import java.net.InetSocketAddress;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+/**
+ * Spreads the keys of a microservice over shards placed on a {@link DHTChord}. The key of a call is
+ * derived by the {@link DHTKeyExtractor} set in {@link Config}, by default the string form of its
+ * first parameter.
+ *
+ * <p>Clients route calls with their own copy of the chord. A shard redirects calls on keys it does
+ * not serve with its chord, which the client adopts if it is of a later epoch than its own.
+ *
+ * <p>Shards can be added and removed while the microservice is in use, see {@link
+ * GroupPolicy#addShard(String)} and {@link GroupPolicy#removeShard(ReplicaID)}. If the microservice
+ * implements {@link DHTStore}, the entries whose key changes shard are streamed to their new shard
+ * first, while the old shard keeps serving them. Rebalancing works on the app object of the DHT
+ * server policy, so DHTPolicy must be the innermost DM of the microservice for it.
+ */
 public class DHTPolicy extends DefaultPolicy {
     private static final int DEFAULT_NUM_OF_SHARDS = 3;
+    /** Number of entries shipped to another shard at once during rebalancing */
+    private static final int HAND_OFF_BATCH_SIZE = 100;
+    /** Number of times a call follows a redirect to another shard before giving up */
+    private static final int MAX_REDIRECTS = 3;
+    /** Time a write waits for the write quorum of replicas before it fails */
+    private static final long WRITE_QUORUM_TIMEOUT_MILLIS = 10 * 1000;
+
+    private static final int DEFAULT_REPLICATION_FACTOR = 1;
+    private static final int DEFAULT_QUORUM = 1;
+
+    private static final ThreadFactory threadFactory =
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "dht-replication");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            };
+    /** Runs reads from replicas in parallel, and repairs */
+    private static final ExecutorService executor = Executors.newCachedThreadPool(threadFactory);
 
     /** Configuration for DHT Policy. */
     public static class Config implements PolicyConfig {
         private int numOfShards = DEFAULT_NUM_OF_SHARDS;
+        private String keyExtractor = FirstParameterKeyExtractor.class.getName();
+        private int replicationFactor = DEFAULT_REPLICATION_FACTOR;
+        private int readQuorum = DEFAULT_QUORUM;
+        private int writeQuorum = DEFAULT_QUORUM;
 
         public int getNumOfShards() {
             return numOfShards;
@@ -28,46 +85,842 @@ public class DHTPolicy extends DefaultPolicy {
             this.numOfShards = numOfShards;
         }
 
+        public int getReplicationFactor() {
+            return replicationFactor;
+        }
+
+        /**
+         * @param replicationFactor number of shards every key is replicated on. Keys are only
+         *     replicated if the app object is a {@link DHTStore}.
+         */
+        public void setReplicationFactor(int replicationFactor) {
+            this.replicationFactor = replicationFactor;
+        }
+
+        public int getReadQuorum() {
+            return readQuorum;
+        }
+
+        /**
+         * @param readQuorum number of replicas a read is served by, the newest value winning.
+         *     Reads see all completed writes when read and write quorum add up to more than the
+         *     replication factor.
+         */
+        public void setReadQuorum(int readQuorum) {
+            this.readQuorum = readQuorum;
+        }
+
+        public int getWriteQuorum() {
+            return writeQuorum;
+        }
+
+        /** @param writeQuorum number of replicas that apply a write before it completes */
+        public void setWriteQuorum(int writeQuorum) {
+            this.writeQuorum = writeQuorum;
+        }
+
+        public String getKeyExtractor() {
+            return keyExtractor;
+        }
+
+        /** @param keyExtractor class name of the {@link DHTKeyExtractor} to use */
+        public void setKeyExtractor(String keyExtractor) {
+            this.keyExtractor = keyExtractor;
+        }
+
         @Override
         public boolean equals(Object o) {
             if (this == o) return true;
             if (o == null || getClass() != o.getClass()) return false;
             Config config = (Config) o;
-            return numOfShards == config.numOfShards;
+            return numOfShards == config.numOfShards
+                    && replicationFactor == config.replicationFactor
+                    && readQuorum == config.readQuorum
+                    && writeQuorum == config.writeQuorum
+                    && Objects.equals(keyExtractor, config.keyExtractor);
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(numOfShards);
+            return Objects.hash(
+                    numOfShards, keyExtractor, replicationFactor, readQuorum, writeQuorum);
+        }
+    }
+
+    /** Uses the string form of the first parameter as key, the default {@link DHTKeyExtractor}. */
+    public static class FirstParameterKeyExtractor implements DHTKeyExtractor {
+        @Override
+        public String getKey(String method, List<Object> params) {
+            return params.isEmpty() || params.get(0) == null ? null : params.get(0).toString();
+        }
+    }
+
+    /**
+     * @param config configuration, <code>null</code> for the default one
+     * @return key extractor set in the configuration
+     */
+    private static DHTKeyExtractor newKeyExtractor(Config config) {
+        if (config == null || config.getKeyExtractor() == null) {
+            return new FirstParameterKeyExtractor();
+        }
+        try {
+            return (DHTKeyExtractor)
+                    Class.forName(config.getKeyExtractor()).getDeclaredConstructor().newInstance();
+        } catch (Exception e) {
+            throw new IllegalArgumentException(
+                    "Invalid key extractor " + config.getKeyExtractor(), e);
         }
     }
 
     public static class ClientPolicy extends DefaultClientPolicy {
         private static final Logger logger = Logger.getLogger(ClientPolicy.class.getName());
-        private DHTChord dhtChord;
+        /** Routing table, replaced by later epochs that shards redirect with */
+        private volatile DHTChord dhtChord;
+
+        private volatile DHTKeyExtractor keyExtractor;
+        private volatile int readQuorum = DEFAULT_QUORUM;
+        /** Whether the shards replicate keys, as learned from the shards */
+        private volatile Boolean replicated;
+        /** Whether methods are immutable, as learned from the shards */
+        private final Map<String, Boolean> immutableMethods =
+                new ConcurrentHashMap<String, Boolean>();
 
         @Override
         public Object onRPC(String method, ArrayList<Object> params) throws Exception {
             // Get app method name and params
             AppContext context = extractAppContext(method, params);
 
-            DHTKey key = new DHTKey(context.getAppParams().get(0).toString());
             if (dhtChord == null) {
-                dhtChord = ((GroupPolicy) getGroup()).getChord();
+                GroupPolicy group = (GroupPolicy) getGroup();
+                keyExtractor = group.getKeyExtractor();
+                readQuorum = group.getReadQuorum();
+                dhtChord = group.getChord();
+            }
+            String appKey = keyExtractor.getKey(context.getAppMethod(), context.getAppParams());
+            if (appKey == null) {
+                throw new IllegalArgumentException(
+                        "No DHT key for " + context.getAppMethod() + " " + context.getAppParams());
+            }
+            DHTKey key = new DHTKey(appKey);
+
+            for (int redirects = 0; ; redirects++) {
+                DHTChord chord = dhtChord;
+                List<DHTNode> replicas = chord.getReplicaNodes(key);
+                logger.fine("Responsible node for: " + key + " is: " + replicas.get(0).id);
+                try {
+                    if (replicas.size() > 1
+                            && isReplicated(replicas.get(0))
+                            && isImmutable(replicas.get(0), method)) {
+                        return read(appKey, replicas, method, params);
+                    }
+                    return replicas.get(0).server.onRPC(method, params);
+                } catch (DHTRedirectException e) {
+                    // A shard behind our epoch will redirect us again, so give up right away.
+                    if (redirects == MAX_REDIRECTS || e.getChord().getEpoch() <= chord.getEpoch()) {
+                        throw e;
+                    }
+                    logger.fine(
+                            String.format(
+                                    "Redirected from chord epoch %d to %d",
+                                    chord.getEpoch(), e.getChord().getEpoch()));
+                    synchronized (this) {
+                        if (dhtChord.getEpoch() < e.getChord().getEpoch()) {
+                            dhtChord = e.getChord();
+                        }
+                    }
+                }
+            }
+        }
+
+        private boolean isReplicated(DHTNode node) throws RemoteException {
+            if (replicated == null) {
+                replicated = node.server.isReplicated();
+            }
+            return replicated;
+        }
+
+        private boolean isImmutable(DHTNode node, String method) throws RemoteException {
+            Boolean immutable = immutableMethods.get(method);
+            if (immutable == null) {
+                immutable = node.server.isImmutableMethod(method);
+                immutableMethods.put(method, immutable);
+            }
+            return immutable;
+        }
+
+        /**
+         * Reads from the read quorum of randomly chosen replicas, and returns the newest value.
+         * Replicas that returned an older one are repaired in the background.
+         */
+        private Object read(
+                final String key,
+                List<DHTNode> replicas,
+                final String method,
+                final ArrayList<Object> params)
+                throws Exception {
+            List<DHTNode> candidates = new ArrayList<DHTNode>(replicas);
+            Collections.shuffle(candidates, ThreadLocalRandom.current());
+            int quorum = Math.min(readQuorum, candidates.size());
+
+            CompletionService<Reply> replies = new ExecutorCompletionService<Reply>(executor);
+            int asked = 0;
+            for (; asked < quorum; asked++) {
+                submitRead(replies, candidates.get(asked), method, params);
+            }
+            List<Reply> answers = new ArrayList<Reply>(quorum);
+            Throwable failure = null;
+            for (int pending = quorum; answers.size() < quorum && pending > 0; pending--) {
+                try {
+                    answers.add(replies.take().get());
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof DHTRedirectException) {
+                        throw (DHTRedirectException) e.getCause();
+                    }
+                    failure = e.getCause();
+                    logger.log(Level.FINE, "Replica failed to serve read of " + key, failure);
+                    if (asked < candidates.size()) {
+                        submitRead(replies, candidates.get(asked++), method, params);
+                        pending++;
+                    }
+                }
+            }
+            if (answers.size() < quorum) {
+                throw new DHTQuorumException(
+                        String.format(
+                                "Only %d of %d replicas read key %s",
+                                answers.size(), quorum, key),
+                        failure);
+            }
+
+            Reply newest = answers.get(0);
+            for (Reply answer : answers) {
+                if (answer.value.getVersion() > newest.value.getVersion()) {
+                    newest = answer;
+                }
             }
+            for (final Reply answer : answers) {
+                if (answer.value.getVersion() < newest.value.getVersion()) {
+                    executor.execute(
+                            new Runnable() {
+                                @Override
+                                public void run() {
+                                    try {
+                                        answer.node.server.repair(key);
+                                    } catch (Exception e) {
+                                        logger.log(Level.FINE, "Failed to repair " + key, e);
+                                    }
+                                }
+                            });
+                }
+            }
+            return newest.value.getValue();
+        }
+
+        private static void submitRead(
+                CompletionService<Reply> replies,
+                final DHTNode node,
+                final String method,
+                final ArrayList<Object> params) {
+            replies.submit(
+                    new Callable<Reply>() {
+                        @Override
+                        public Reply call() throws Exception {
+                            return new Reply(node, node.server.read(method, params));
+                        }
+                    });
+        }
+
+        /** Value read from a replica. */
+        private static class Reply {
+            final DHTNode node;
+            final DHTVersionedValue value;
 
-            DHTNode node = dhtChord.getResponsibleNode(key);
-            logger.fine("Responsible node for: " + key + " is: " + node.id);
-            return node.server.onRPC(method, params);
+            Reply(DHTNode node, DHTVersionedValue value) {
+                this.node = node;
+                this.value = value;
+            }
         }
     }
 
-    public static class ServerPolicy extends DefaultServerPolicy {}
+    /**
+     * A shard. It serves the keys it is a replica of on its chord. Writes to a key go to its
+     * primary, which numbers them, applies them and forwards them to the other replicas of the key.
+     * The primary returns once the write quorum of replicas, itself included, applied the write. A
+     * replica that missed writes catches up from the primary if the app object is a {@link
+     * DHTStore}.
+     *
+     * <p>When the app object is a {@link DHTStore}, the shard also hands off entries to other
+     * shards when the group changes the chord:
+     *
+     * <ol>
+     *   <li>{@link #prepareHandOff} tells the shard the new chord. It keeps serving keys of both.
+     *   <li>{@link #handOff} copies the entries of keys it is the primary of to the shards that
+     *       become their replicas. Writes to those entries meanwhile are remembered.
+     *   <li>{@link #commitHandOff} blocks calls briefly to copy the entries written since, switch
+     *       to the new chord and drop the entries it is no replica of anymore. Calls on them are
+     *       redirected from now on.
+     * </ol>
+     */
+    public static class ServerPolicy extends DefaultServerPolicy {
+        private static final Logger logger = Logger.getLogger(ServerPolicy.class.getName());
+
+        /** Chord this shard serves keys of, <code>null</code> until the group assigns one */
+        private volatile DHTChord chord;
+        /** Chord being rebalanced to */
+        private volatile DHTChord nextChord;
+        /** Keys written since their entries were handed off to a shard of {@link #nextChord} */
+        private final Set<String> dirtyKeys =
+                Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        /** Held shared by calls and exclusively to switch chords */
+        private final ReentrantReadWriteLock chordLock = new ReentrantReadWriteLock();
+        /** Version of every key written, which also serializes writes to the key */
+        private final ConcurrentHashMap<String, KeyState> keyStates =
+                new ConcurrentHashMap<String, KeyState>();
+        /** One thread per replica, so that each replica receives the writes to a key in order */
+        private final ConcurrentHashMap<ReplicaID, ExecutorService> forwarders =
+                new ConcurrentHashMap<ReplicaID, ExecutorService>();
+
+        private DHTKeyExtractor keyExtractor = new FirstParameterKeyExtractor();
+        private int writeQuorum = DEFAULT_QUORUM;
+
+        @Override
+        public void onCreate(Policy.GroupPolicy group) {
+            super.onCreate(group);
+            if (getSpec() != null) {
+                Config config = (Config) getPolicyConfig(Config.class.getName());
+                keyExtractor = newKeyExtractor(config);
+                if (config != null) {
+                    writeQuorum = config.getWriteQuorum();
+                }
+            }
+        }
+
+        @Override
+        public void onDestroy() {
+            super.onDestroy();
+            for (ExecutorService forwarder : forwarders.values()) {
+                forwarder.shutdownNow();
+            }
+        }
+
+        @Override
+        public Object onRPC(String method, ArrayList<Object> params) throws Exception {
+            if (chord == null || getStore() == null) {
+                return super.onRPC(method, params);
+            }
+            String key = getKey(method, params);
+            if (key == null) {
+                return super.onRPC(method, params);
+            }
+
+            boolean write = !appObject.isImmutableMethod(method);
+            chordLock.readLock().lock();
+            try {
+                checkServes(key, write);
+                if (!write) {
+                    return super.onRPC(method, params);
+                }
+
+                KeyState state = getKeyState(key);
+                synchronized (state) {
+                    Object ret = super.onRPC(method, params);
+                    state.version++;
+                    if (nextChord != null) {
+                        dirtyKeys.add(key);
+                    }
+                    forward(key, state.version, method, params);
+                    return ret;
+                }
+            } finally {
+                chordLock.readLock().unlock();
+            }
+        }
+
+        /**
+         * Reads a key.
+         *
+         * @param method immutable app method
+         * @param params app method parameters
+         * @return return value of the method, with the version of the key it was read at
+         */
+        public DHTVersionedValue read(String method, ArrayList<Object> params) throws Exception {
+            String key = (chord == null || getStore() == null) ? null : getKey(method, params);
+            if (key == null) {
+                return new DHTVersionedValue(0, super.onRPC(method, params));
+            }
+
+            chordLock.readLock().lock();
+            try {
+                checkServes(key, false);
+                return new DHTVersionedValue(getVersion(key), super.onRPC(method, params));
+            } finally {
+                chordLock.readLock().unlock();
+            }
+        }
+
+        /** @return whether the shard replicates keys, which it does for {@link DHTStore}s only */
+        public boolean isReplicated() {
+            return getStore() != null;
+        }
+
+        /**
+         * @param method app method name
+         * @return whether the method is annotated {@link amino.run.runtime.annotations.Immutable}
+         */
+        public boolean isImmutableMethod(String method) {
+            return appObject.isImmutableMethod(method);
+        }
+
+        /**
+         * Applies a write forwarded by the primary of the key.
+         *
+         * @param key key
+         * @param version version of the key after the write
+         * @param method app method
+         * @param params app method parameters
+         * @return whether the write was applied; <code>false</code> if this replica missed earlier
+         *     writes and catches up from the primary instead
+         */
+        public boolean applyWrite(
+                final String key, long version, String method, ArrayList<Object> params)
+                throws Exception {
+            KeyState state = getKeyState(key);
+            synchronized (state) {
+                if (version <= state.version) {
+                    return true;
+                }
+                if (version > state.version + 1 && getStore() != null) {
+                    executor.execute(
+                            new Runnable() {
+                                @Override
+                                public void run() {
+                                    try {
+                                        repair(key);
+                                    } catch (Exception e) {
+                                        logger.log(Level.WARNING, "Failed to repair " + key, e);
+                                    }
+                                }
+                            });
+                    return false;
+                }
+                state.version = version;
+                super.onRPC(method, params);
+                return true;
+            }
+        }
+
+        /**
+         * Catches up on the given key from its primary, if the app object is a {@link DHTStore}.
+         *
+         * @param key key
+         */
+        public void repair(String key) throws RemoteException {
+            DHTChord current = chord;
+            if (getStore() == null || current == null) {
+                return;
+            }
+            DHTNode primary = current.getResponsibleNode(new DHTKey(key));
+            if (getReplicaId().equals(primary.replicaId)) {
+                return;
+            }
+            DHTVersionedValue entry = primary.server.getVersionedEntry(key);
+            if (entry == null) {
+                return;
+            }
+            HashMap<String, DHTVersionedValue> entries = new HashMap<String, DHTVersionedValue>();
+            entries.put(key, entry);
+            receiveEntries(entries);
+        }
+
+        /**
+         * @param key key
+         * @return the entry of the key with its version, if the app object is a {@link DHTStore}
+         */
+        public DHTVersionedValue getVersionedEntry(String key) {
+            DHTStore store = getStore();
+            if (store == null) {
+                return null;
+            }
+            KeyState state = keyStates.get(key);
+            if (state == null) {
+                return new DHTVersionedValue(0, store.getEntry(key));
+            }
+            synchronized (state) {
+                return new DHTVersionedValue(state.version, store.getEntry(key));
+            }
+        }
+
+        /**
+         * Makes the shard serve the keys the given chord assigns to it, and drops all other
+         * entries. Used for shards that were created as copies of another shard.
+         *
+         * @param chord chord
+         */
+        public void assignChord(DHTChord chord) {
+            DHTStore store = getStore();
+            chordLock.writeLock().lock();
+            try {
+                if (store != null) {
+                    for (String key : store.keys()) {
+                        if (!chord.isResponsible(getReplicaId(), new DHTKey(key))) {
+                            store.removeEntry(key);
+                        }
+                    }
+                }
+                this.chord = chord;
+                this.nextChord = null;
+                dropMovedAway();
+            } finally {
+                chordLock.writeLock().unlock();
+            }
+        }
+
+        /**
+         * Starts rebalancing to the given chord.
+         *
+         * @param chord chord
+         */
+        public void prepareHandOff(DHTChord chord) {
+            dirtyKeys.clear();
+            nextChord = chord;
+        }
+
+        /** Copies the entries to the shards that become replicas of them on the new chord. */
+        public void handOff() throws RemoteException {
+            DHTStore store = getStore();
+            if (store == null || chord == null || nextChord == null) {
+                return;
+            }
+            HandOff handOff = new HandOff();
+            for (String key : store.keys()) {
+                for (DHTNode replica : getNewReplicas(key)) {
+                    handOff.add(replica, key, getVersionedEntry(key));
+                }
+            }
+            handOff.flush();
+            logger.info(
+                    String.format(
+                            "Shard %s handed off %d entries", getReplicaId(), handOff.size()));
+        }
+
+        /**
+         * Copies the entries written during {@link #handOff} again, switches to the new chord and
+         * drops the entries it is no replica of anymore.
+         */
+        public void commitHandOff() throws RemoteException {
+            DHTStore store = getStore();
+            chordLock.writeLock().lock();
+            try {
+                if (store != null && chord != null && nextChord != null) {
+                    HandOff handOff = new HandOff();
+                    for (String key : dirtyKeys) {
+                        for (DHTNode replica : getNewReplicas(key)) {
+                            handOff.add(replica, key, getVersionedEntry(key));
+                        }
+                    }
+                    handOff.flush();
+                    for (String key : store.keys()) {
+                        if (!nextChord.isResponsible(getReplicaId(), new DHTKey(key))) {
+                            store.removeEntry(key);
+                        }
+                    }
+                }
+                if (nextChord != null) {
+                    chord = nextChord;
+                    nextChord = null;
+                    dropMovedAway();
+                }
+                dirtyKeys.clear();
+            } finally {
+                chordLock.writeLock().unlock();
+            }
+        }
+
+        /**
+         * Stores entries handed off by another shard, unless this shard has a later version.
+         *
+         * @param entries entries by key, a <code>null</code> value removes the entry
+         */
+        public void receiveEntries(HashMap<String, DHTVersionedValue> entries) {
+            DHTStore store = getStore();
+            if (store == null) {
+                return;
+            }
+            for (Map.Entry<String, DHTVersionedValue> entry : entries.entrySet()) {
+                KeyState state = getKeyState(entry.getKey());
+                synchronized (state) {
+                    if (entry.getValue().getVersion() < state.version) {
+                        continue;
+                    }
+                    if (entry.getValue().getValue() == null) {
+                        store.removeEntry(entry.getKey());
+                    } else {
+                        store.putEntry(entry.getKey(), (Serializable) entry.getValue().getValue());
+                    }
+                    state.version = entry.getValue().getVersion();
+                }
+            }
+        }
+
+        /**
+         * Forgets the versions of keys this shard is no replica of on its chord anymore, and stops
+         * forwarding writes to shards that left the chord. Called with the chord lock held.
+         */
+        private void dropMovedAway() {
+            Iterator<String> keys = keyStates.keySet().iterator();
+            while (keys.hasNext()) {
+                if (!chord.isResponsible(getReplicaId(), new DHTKey(keys.next()))) {
+                    keys.remove();
+                }
+            }
+            Iterator<Map.Entry<ReplicaID, ExecutorService>> it = forwarders.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<ReplicaID, ExecutorService> forwarder = it.next();
+                if (!chord.contains(forwarder.getKey())) {
+                    it.remove();
+                    forwarder.getValue().shutdown();
+                }
+            }
+        }
+
+        /**
+         * Derives the key of a call. The method and parameters are unwrapped from the calls of the
+         * DMs this one is nested in first, like the client policy does, so that both derive the
+         * same key.
+         *
+         * @return key of the call, <code>null</code> if it has none
+         */
+        @SuppressWarnings("unchecked")
+        private String getKey(String method, ArrayList<Object> params) {
+            for (int depth = getProcessedPolicies().size() - 1; depth > 0; depth--) {
+                method = (String) params.get(0);
+                params = (ArrayList<Object>) params.get(1);
+            }
+            return keyExtractor.getKey(method, params);
+        }
+
+        /** @return number of writes applied to the key, 0 if it was never written here */
+        private long getVersion(String key) {
+            KeyState state = keyStates.get(key);
+            return state == null ? 0 : state.version;
+        }
+
+        /**
+         * Throws a redirect unless this shard serves the given key, either on its chord or on the
+         * one being rebalanced to.
+         */
+        private void checkServes(String key, boolean write) throws DHTRedirectException {
+            DHTKey dhtKey = new DHTKey(key);
+            DHTChord next = nextChord;
+            if (serves(chord, dhtKey, write) || (next != null && serves(next, dhtKey, write))) {
+                return;
+            }
+            throw new DHTRedirectException(
+                    String.format("Shard %s does not serve key %s", getReplicaId(), key), chord);
+        }
+
+        private boolean serves(DHTChord chord, DHTKey key, boolean write) {
+            return write
+                    ? chord.isPrimary(getReplicaId(), key)
+                    : chord.isResponsible(getReplicaId(), key);
+        }
+
+        /**
+         * Forwards a write to the other replicas of the key, and waits until enough of them
+         * applied it to make up the write quorum.
+         */
+        private void forward(
+                final String key,
+                final long version,
+                final String method,
+                final ArrayList<Object> params)
+                throws DHTQuorumException, InterruptedException {
+            DHTKey dhtKey = new DHTKey(key);
+            // During rebalancing, this shard may be the primary on the next chord only.
+            DHTChord current = chord.isPrimary(getReplicaId(), dhtKey) ? chord : nextChord;
+            List<DHTNode> replicas = new ArrayList<DHTNode>();
+            for (DHTNode replica : current.getReplicaNodes(dhtKey)) {
+                if (!getReplicaId().equals(replica.replicaId)) {
+                    replicas.add(replica);
+                }
+            }
+            if (replicas.isEmpty()) {
+                return;
+            }
+
+            final WriteQuorum quorum =
+                    new WriteQuorum(Math.min(writeQuorum - 1, replicas.size()), replicas.size());
+            for (final DHTNode replica : replicas) {
+                getForwarder(replica.replicaId)
+                        .execute(
+                                new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        quorum.done(applyOn(replica, key, version, method, params));
+                                    }
+                                });
+            }
+            if (!quorum.await(WRITE_QUORUM_TIMEOUT_MILLIS)) {
+                throw new DHTQuorumException(
+                        String.format(
+                                "Write to key %s did not reach write quorum %d",
+                                key, writeQuorum));
+            }
+        }
+
+        /** @return whether the given replica applied the write */
+        private boolean applyOn(
+                DHTNode replica,
+                String key,
+                long version,
+                String method,
+                ArrayList<Object> params) {
+            try {
+                return replica.server.applyWrite(key, version, method, params);
+            } catch (Exception e) {
+                logger.log(
+                        Level.WARNING,
+                        String.format(
+                                "Replica %s failed to apply write to %s", replica.replicaId, key),
+                        e);
+                return false;
+            }
+        }
+
+        private ExecutorService getForwarder(ReplicaID replicaId) {
+            ExecutorService forwarder = forwarders.get(replicaId);
+            if (forwarder == null) {
+                forwarder = Executors.newSingleThreadExecutor(threadFactory);
+                ExecutorService existing = forwarders.putIfAbsent(replicaId, forwarder);
+                if (existing != null) {
+                    forwarder.shutdown();
+                    forwarder = existing;
+                }
+            }
+            return forwarder;
+        }
+
+        private KeyState getKeyState(String key) {
+            KeyState state = keyStates.get(key);
+            if (state == null) {
+                state = new KeyState();
+                KeyState existing = keyStates.putIfAbsent(key, state);
+                if (existing != null) {
+                    state = existing;
+                }
+            }
+            return state;
+        }
+
+        /**
+         * @param key key
+         * @return the nodes of shards that become replicas of the key on the new chord, if this
+         *     shard is the primary of the key
+         */
+        private List<DHTNode> getNewReplicas(String key) {
+            DHTKey dhtKey = new DHTKey(key);
+            List<DHTNode> replicas = new ArrayList<DHTNode>();
+            if (!chord.isPrimary(getReplicaId(), dhtKey)) {
+                return replicas;
+            }
+            for (DHTNode replica : nextChord.getReplicaNodes(dhtKey)) {
+                if (!chord.isResponsible(replica.replicaId, dhtKey)) {
+                    replicas.add(replica);
+                }
+            }
+            return replicas;
+        }
+
+        private DHTStore getStore() {
+            if (appObject != null && appObject.getObject() instanceof DHTStore) {
+                return (DHTStore) appObject.getObject();
+            }
+            return null;
+        }
+
+        /** Number of writes applied to a key. */
+        private static class KeyState {
+            volatile long version;
+        }
+
+        /** Replicas that applied a write, counted until the quorum is reached or impossible. */
+        private static class WriteQuorum {
+            private final int needed;
+            private int pending;
+            private int applied;
+
+            WriteQuorum(int needed, int pending) {
+                this.needed = needed;
+                this.pending = pending;
+            }
+
+            synchronized void done(boolean applied) {
+                pending--;
+                if (applied) {
+                    this.applied++;
+                }
+                notifyAll();
+            }
+
+            /**
+             * @param timeoutMillis time to wait for the quorum
+             * @return whether the quorum was reached in time
+             */
+            synchronized boolean await(long timeoutMillis) throws InterruptedException {
+                long deadline = System.currentTimeMillis() + timeoutMillis;
+                long remaining = timeoutMillis;
+                while (applied < needed && applied + pending >= needed && remaining > 0) {
+                    wait(remaining);
+                    remaining = deadline - System.currentTimeMillis();
+                }
+                return applied >= needed;
+            }
+        }
+
+        /** Entries on their way to other shards, shipped in batches. */
+        private static class HandOff {
+            private final Map<ReplicaID, DHTNode> owners = new HashMap<ReplicaID, DHTNode>();
+            private final Map<ReplicaID, HashMap<String, DHTVersionedValue>> batches =
+                    new HashMap<ReplicaID, HashMap<String, DHTVersionedValue>>();
+            private int size;
+
+            void add(DHTNode owner, String key, DHTVersionedValue value) throws RemoteException {
+                HashMap<String, DHTVersionedValue> batch = batches.get(owner.replicaId);
+                if (batch == null) {
+                    batch = new HashMap<String, DHTVersionedValue>();
+                    batches.put(owner.replicaId, batch);
+                    owners.put(owner.replicaId, owner);
+                }
+                batch.put(key, value);
+                size++;
+                if (batch.size() == HAND_OFF_BATCH_SIZE) {
+                    owner.server.receiveEntries(batch);
+                    batches.remove(owner.replicaId);
+                }
+            }
+
+            void flush() throws RemoteException {
+                for (Map.Entry<ReplicaID, HashMap<String, DHTVersionedValue>> batch :
+                        batches.entrySet()) {
+                    owners.get(batch.getKey()).server.receiveEntries(batch.getValue());
+                }
+                batches.clear();
+            }
+
+            int size() {
+                return size;
+            }
+        }
+    }
 
     public static class GroupPolicy extends DefaultGroupPolicy {
         private static final Logger logger = Logger.getLogger(GroupPolicy.class.getName());
         private int numOfShards = DEFAULT_NUM_OF_SHARDS;
-        private DHTChord dhtChord;
+        /** Chord clients are given. Replaced rather than changed once handed out. */
+        private volatile DHTChord dhtChord;
+
+        private DHTKeyExtractor keyExtractor;
+        private int readQuorum = DEFAULT_QUORUM;
 
         @Override
         public void onCreate(String region, Policy.ServerPolicy server) throws RemoteException {
@@ -78,7 +931,23 @@ public class DHTPolicy extends DefaultPolicy {
             Config config = (Config) getPolicyConfig(Config.class.getName());
             if (config != null) {
                 this.numOfShards = config.getNumOfShards();
+                int replicationFactor = config.getReplicationFactor();
+                if (config.getReadQuorum() <= 0
+                        || config.getReadQuorum() > replicationFactor
+                        || config.getWriteQuorum() <= 0
+                        || config.getWriteQuorum() > replicationFactor) {
+                    throw new IllegalArgumentException(
+                            String.format(
+                                    "Read quorum %d and write quorum %d must be between 1 and "
+                                            + "replication factor %d",
+                                    config.getReadQuorum(),
+                                    config.getWriteQuorum(),
+                                    replicationFactor));
+                }
+                dhtChord.setReplicationFactor(replicationFactor);
+                this.readQuorum = config.getReadQuorum();
             }
+            keyExtractor = newKeyExtractor(config);
 
             try {
                 pin(server, getAddress(region));
@@ -110,6 +979,11 @@ public class DHTPolicy extends DefaultPolicy {
                     InetSocketAddress address = getAddress(region);
                     replicate(server, address, region);
                 }
+
+                // Shards start as copies of the first one; each keeps only its own entries.
+                for (Policy.ServerPolicy shard : getServers()) {
+                    ((ServerPolicy) shard).assignChord(dhtChord);
+                }
             } catch (RemoteException e) {
                 throw new Error(
                         "Could not create new group policy because the oms is not available.");
@@ -125,19 +999,98 @@ public class DHTPolicy extends DefaultPolicy {
         @Override
         protected void addServer(Policy.ServerPolicy server) {
             super.addServer(server);
-            dhtChord.add((ServerPolicy) server);
+            DHTChord chord = dhtChord.copy();
+            chord.add((ServerPolicy) server);
+            dhtChord = chord;
         }
 
         @Override
         protected void removeServer(Policy.ServerPolicy server) {
             super.removeServer(server);
-            dhtChord.remove((ServerPolicy) server);
+            DHTChord chord = dhtChord.copy();
+            chord.remove((ServerPolicy) server);
+            dhtChord = chord;
+        }
+
+        /**
+         * Adds a shard in the given region, and moves the entries it is responsible for to it from
+         * the other shards.
+         *
+         * @param region region
+         * @throws NoKernelServerFoundException
+         * @throws RemoteException
+         * @throws MicroServiceNotFoundException
+         * @throws MicroServiceReplicaNotFoundException
+         */
+        public synchronized void addShard(String region)
+                throws NoKernelServerFoundException, RemoteException,
+                        MicroServiceNotFoundException, MicroServiceReplicaNotFoundException {
+            List<Policy.ServerPolicy> shards = getServers();
+            if (shards.isEmpty()) {
+                throw new IllegalStateException("no shard to create the new shard from");
+            }
+
+            ServerPolicy shard = (ServerPolicy) shards.get(0).replicate(region);
+            pin(shard, getAddress(region));
+            super.addServer(shard);
+
+            DHTChord chord = dhtChord.copy();
+            chord.add(shard);
+            shard.assignChord(chord);
+            rebalance(chord, shards);
+            logger.info(String.format("Added shard %s in region %s", shard.getReplicaId(), region));
+        }
+
+        /**
+         * Moves the entries of the given shard to the other shards, and removes it.
+         *
+         * @param shardId replica id of the shard
+         * @throws RemoteException
+         */
+        public synchronized void removeShard(ReplicaID shardId) throws RemoteException {
+            ServerPolicy shard = (ServerPolicy) getServer(shardId);
+            if (shard == null) {
+                throw new IllegalArgumentException("no shard " + shardId);
+            }
+
+            DHTChord chord = dhtChord.copy();
+            chord.remove(shard);
+            rebalance(chord, getServers());
+            terminate(shard);
+            logger.info(String.format("Removed shard %s", shardId));
+        }
+
+        /**
+         * Moves entries between the given shards to match the given chord, and hands out the chord
+         * to clients afterwards. Shards keep serving calls meanwhile, and redirect calls on entries
+         * they handed off.
+         */
+        private void rebalance(DHTChord chord, List<Policy.ServerPolicy> shards)
+                throws RemoteException {
+            for (Policy.ServerPolicy shard : shards) {
+                ((ServerPolicy) shard).prepareHandOff(chord);
+            }
+            for (Policy.ServerPolicy shard : shards) {
+                ((ServerPolicy) shard).handOff();
+            }
+            for (Policy.ServerPolicy shard : shards) {
+                ((ServerPolicy) shard).commitHandOff();
+            }
+            dhtChord = chord;
         }
 
         public DHTChord getChord() {
             return this.dhtChord;
         }
 
+        public DHTKeyExtractor getKeyExtractor() {
+            return keyExtractor;
+        }
+
+        public int getReadQuorum() {
+            return readQuorum;
+        }
+
         @Override
         public Policy.ServerPolicy onRefRequest() {
             // TODO
@@ -165,8 +1118,27 @@ public class DHTPolicy extends DefaultPolicy {
                 throw new NoKernelServerFoundException();
             }
 
-            // TODO: this behavior may need to be changed since it always returns the first address.
-            return addressList.get(0);
+            // Prefer the kernel server with the fewest shards, so that replicas of a key end up on
+            // different kernel servers.
+            Map<InetSocketAddress, Integer> shardCounts = new HashMap<InetSocketAddress, Integer>();
+            for (Policy.ServerPolicy shard : getServers()) {
+                InetSocketAddress host = ((KernelObjectStub) shard).$__getHostname();
+                Integer count = shardCounts.get(host);
+                shardCounts.put(host, count == null ? 1 : count + 1);
+            }
+            InetSocketAddress address = null;
+            int fewest = Integer.MAX_VALUE;
+            for (InetSocketAddress candidate : addressList) {
+                Integer count = shardCounts.get(candidate);
+                if (count == null) {
+                    return candidate;
+                }
+                if (count < fewest) {
+                    fewest = count;
+                    address = candidate;
+                }
+            }
+            return address;
         }
     }
 }
@@ -0,0 +1,12 @@
+package amino.run.policy.dht;
+
+/** Thrown when fewer replicas of a key than its read or write quorum could serve a call. */
+public class DHTQuorumException extends Exception {
+    public DHTQuorumException(String s) {
+        super(s);
+    }
+
+    public DHTQuorumException(String s, Throwable cause) {
+        super(s, cause);
+    }
+}
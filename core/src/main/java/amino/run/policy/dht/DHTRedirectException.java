@@ -0,0 +1,18 @@
+package amino.run.policy.dht;
+
+/**
+ * Thrown by a shard for calls on keys it is not responsible for, because the ring changed since the
+ * client got its copy. Carries the ring that the shard follows.
+ */
+public class DHTRedirectException extends Exception {
+    private final DHTChord chord;
+
+    public DHTRedirectException(String s, DHTChord chord) {
+        super(s);
+        this.chord = chord;
+    }
+
+    public DHTChord getChord() {
+        return chord;
+    }
+}
@@ -0,0 +1,24 @@
+package amino.run.policy.dht;
+
+import java.io.Serializable;
+import java.util.Set;
+
+/**
+ * Implemented by microservices under {@link DHTPolicy} whose entries can be moved between shards
+ * when shards are added or removed. A key is the identifier that {@link DHTPolicy} hashes onto the
+ * ring, i.e. the string form of the first parameter of the methods.
+ *
+ * <p>Entries are moved while the shard keeps serving calls, so implementations must be thread
+ * safe.
+ */
+public interface DHTStore {
+    /** @return a snapshot of the keys of all entries in this shard */
+    Set<String> keys();
+
+    /** @return value of the given key, <code>null</code> if there is none */
+    Serializable getEntry(String key);
+
+    void putEntry(String key, Serializable value);
+
+    void removeEntry(String key);
+}
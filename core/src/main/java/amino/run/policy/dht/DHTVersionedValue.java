@@ -0,0 +1,23 @@
+package amino.run.policy.dht;
+
+import java.io.Serializable;
+
+/** A value of a key together with the version of the key it was read at. */
+public class DHTVersionedValue implements Serializable {
+    private final long version;
+    private final Object value;
+
+    public DHTVersionedValue(long version, Object value) {
+        this.version = version;
+        this.value = value;
+    }
+
+    /** @return number of writes to the key the value reflects at least */
+    public long getVersion() {
+        return version;
+    }
+
+    public Object getValue() {
+        return value;
+    }
+}
@@ -2,6 +2,7 @@ package amino.run.policy.replication;
 
 import amino.run.common.MicroServiceNotFoundException;
 import amino.run.common.MicroServiceReplicaNotFoundException;
+import amino.run.common.Utils;
 import amino.run.policy.DefaultPolicy;
 import amino.run.policy.Policy;
 import amino.run.policy.util.consensus.raft.AlreadyVotedException;
@@ -14,12 +15,15 @@ import amino.run.policy.util.consensus.raft.PrevLogTermMismatch;
 import amino.run.policy.util.consensus.raft.RemoteRaftServer;
 import amino.run.policy.util.consensus.raft.Server;
 import amino.run.policy.util.consensus.raft.StateMachineApplier;
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
 import java.lang.reflect.InvocationTargetException;
 import java.net.InetSocketAddress;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -30,6 +34,71 @@ import java.util.logging.Logger;
  * replicas, using RAFT algorithm. *
  */
 public class ConsensusRSMPolicy extends DefaultPolicy {
+    /** Configuration for ConsensusRSMPolicy. */
+    public static class Config implements PolicyConfig {
+        /**
+         * Directory in which each replica saves its RAFT state and log, in a subdirectory of its
+         * own. <code>null</code> to keep them in memory only.
+         */
+        private String logDirectory;
+
+        private long segmentSize = DEFAULT_SEGMENT_SIZE;
+        private int snapshotThreshold = Server.DEFAULT_SNAPSHOT_THRESHOLD;
+        /** How the leader confirms its leadership before serving an {@code @Immutable} method. */
+        private Server.ReadMode readMode = Server.ReadMode.READ_INDEX;
+
+        public String getLogDirectory() {
+            return logDirectory;
+        }
+
+        public void setLogDirectory(String logDirectory) {
+            this.logDirectory = logDirectory;
+        }
+
+        public long getSegmentSize() {
+            return segmentSize;
+        }
+
+        public void setSegmentSize(long segmentSize) {
+            this.segmentSize = segmentSize;
+        }
+
+        public int getSnapshotThreshold() {
+            return snapshotThreshold;
+        }
+
+        public void setSnapshotThreshold(int snapshotThreshold) {
+            this.snapshotThreshold = snapshotThreshold;
+        }
+
+        public Server.ReadMode getReadMode() {
+            return readMode;
+        }
+
+        public void setReadMode(Server.ReadMode readMode) {
+            this.readMode = readMode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Config config = (Config) o;
+            return segmentSize == config.segmentSize
+                    && snapshotThreshold == config.snapshotThreshold
+                    && readMode == config.readMode
+                    && Objects.equals(logDirectory, config.logDirectory);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(logDirectory, segmentSize, snapshotThreshold, readMode);
+        }
+    }
+
+    /** Size in bytes after which a new RAFT log segment is started. */
+    public static final long DEFAULT_SEGMENT_SIZE = 16L * 1024 * 1024;
+
     public static class RPC implements Serializable {
         String method;
         ArrayList<Object> params;
@@ -141,6 +210,14 @@ public class ConsensusRSMPolicy extends DefaultPolicy {
                     term, leader, prevLogIndex, prevLogTerm, entries, leaderCommit);
         }
 
+        @Override
+        public int installSnapshot(
+                int term, UUID leader, int lastIncludedIndex, int lastIncludedTerm, byte[] data)
+                throws InvalidTermException {
+            return raftServer.installSnapshot(
+                    term, leader, lastIncludedIndex, lastIncludedTerm, data);
+        }
+
         @Override
         public int requestVote(int term, UUID candidate, int lastLogIndex, int lastLogTerm)
                 throws InvalidTermException, AlreadyVotedException, CandidateBehindException {
@@ -152,10 +229,42 @@ public class ConsensusRSMPolicy extends DefaultPolicy {
             return raftServer.applyToStateMachine(operation);
         }
 
+        @Override
+        public int readIndex() throws Exception {
+            return raftServer.readIndex();
+        }
+
         @Override
         public void onCreate(Policy.GroupPolicy group) {
             super.onCreate(group);
-            raftServer = new Server(this);
+            Config config = null;
+            if (getSpec() != null) {
+                config = (Config) getPolicyConfig(Config.class.getName());
+            }
+            if (config == null || config.getLogDirectory() == null) {
+                raftServer = new Server(this);
+            } else {
+                openRaftServer(config);
+            }
+            if (config != null) {
+                raftServer.setReadMode(config.getReadMode());
+            }
+        }
+
+        private void openRaftServer(Config config) {
+            // Each replica is a separate kernel object, so its id tells the replicas apart.
+            File directory =
+                    new File(config.getLogDirectory(), "raft-" + $__getKernelOID().getID());
+            try {
+                raftServer =
+                        new Server(
+                                this,
+                                directory,
+                                config.getSegmentSize(),
+                                config.getSnapshotThreshold());
+            } catch (IOException e) {
+                throw new Error("Failed to open raft log in " + directory, e);
+            }
         }
 
         /**
@@ -180,10 +289,8 @@ public class ConsensusRSMPolicy extends DefaultPolicy {
             this.raftServer.start();
         }
 
-        // TODO: This method should be thread safe
-        // We should not have multiple threads calling apply concurrently
-        // If we implement log compaction in the future, we also need to
-        // ensure snapshot operation and apply operation are synchronized.
+        // The raft server calls apply, snapshot and restore on one thread at a time, and apply
+        // in log order. Reads of immutable methods may run concurrently with one another.
         public Object apply(Object operation) throws Exception {
             RPC rpc = (RPC) operation;
             logger.fine(String.format("Applying %s(%s)", rpc.method, rpc.params));
@@ -194,8 +301,22 @@ public class ConsensusRSMPolicy extends DefaultPolicy {
             return super.onRPC(rpc.method, rpc.params);
         }
 
+        @Override
+        public byte[] snapshot() throws Exception {
+            return Utils.toBytes(appObject.getObject());
+        }
+
+        @Override
+        public void restore(byte[] snapshot) throws Exception {
+            appObject.setObject((Serializable) Utils.toObject(snapshot));
+        }
+
         @Override
         public Object onRPC(String method, ArrayList<Object> params) throws Exception {
+            if (appObject.isImmutableMethod(method)) {
+                // Served from the local state machine without going through the log.
+                return raftServer.read(new RPC(method, params));
+            }
             return raftServer.applyToStateMachine(
                     new RPC(
                             method,
@@ -206,7 +327,7 @@ public class ConsensusRSMPolicy extends DefaultPolicy {
         public void onDestroy() {
             super.onDestroy();
             if (raftServer != null) {
-                raftServer.stop();
+                raftServer.close();
             }
         }
     }
@@ -12,15 +12,19 @@ import amino.run.policy.scalability.masterslave.MethodInvocationRequest;
 import amino.run.policy.scalability.masterslave.MethodInvocationResponse;
 import amino.run.policy.scalability.masterslave.ReplicationRequest;
 import amino.run.policy.scalability.masterslave.ReplicationResponse;
+import amino.run.policy.scalability.masterslave.Topology;
 import java.io.Serializable;
 import java.lang.reflect.Method;
 import java.net.InetSocketAddress;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -34,9 +38,23 @@ public abstract class LoadBalancedMasterSlaveBase extends DefaultPolicy {
     /** Base implementation of client side policy */
     public abstract static class ClientPolicy extends DefaultClientPolicy {
         private static final Logger logger = Logger.getLogger(ClientPolicy.class.getName());
+
+        /** Generic strings of the immutable methods of each class */
+        private static final ConcurrentHashMap<Class<?>, Set<String>> immutableMethods =
+                new ConcurrentHashMap<Class<?>, Set<String>>();
+
         private final AtomicLong SeqGenerator = new AtomicLong();
         private transient UUID CLIENT_ID;
 
+        /** Last topology fetched from the group, <code>null</code> until the first RPC */
+        private transient volatile Topology topology;
+
+        /**
+         * Largest log index this client has seen in a response. Reads ask for replicas that have
+         * committed it, so that they observe the writes and reads this client made earlier.
+         */
+        private transient volatile long largestSeenIndex;
+
         public ClientPolicy() {}
 
         @Override
@@ -50,22 +68,23 @@ public abstract class LoadBalancedMasterSlaveBase extends DefaultPolicy {
                 CLIENT_ID = UUID.randomUUID();
             }
 
-            GroupPolicy group = (GroupPolicy) getGroup();
-            MethodInvocationRequest.MethodType type = MethodInvocationRequest.MethodType.MUTABLE;
+            boolean immutable = isImmutable(getServer().getClass(), method);
+            MethodInvocationRequest.MethodType type =
+                    immutable
+                            ? MethodInvocationRequest.MethodType.IMMUTABLE
+                            : MethodInvocationRequest.MethodType.MUTABLE;
+            Topology current = topology;
+            if (current == null) {
+                current = refreshTopology();
+            }
 
             do {
-                ServerPolicy server = (ServerPolicy) getServer();
-                if (isImmutable(server.getClass(), method)) {
-                    server = group.getRandomServer();
-                    type = MethodInvocationRequest.MethodType.IMMUTABLE;
-                } else {
-                    server = group.getMaster();
-                }
-
+                ServerPolicy server = immutable ? current.getRandomServer() : current.getMaster();
                 if (server == null) {
                     logger.log(Level.INFO, "failed to get server with {0} MAX_RETRY", retryCnt);
                     Thread.sleep(waitInMilliseconds);
                     waitInMilliseconds <<= 1;
+                    current = refreshTopology();
                     continue;
                 }
 
@@ -75,16 +94,42 @@ public abstract class LoadBalancedMasterSlaveBase extends DefaultPolicy {
                                 SeqGenerator.getAndAdd(1L),
                                 method,
                                 params,
-                                type);
+                                type,
+                                immutable ? largestSeenIndex : 0L);
+
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.log(
+                            Level.FINE,
+                            String.format(
+                                    "Sending request to server %s in topology epoch %d",
+                                    ((KernelObjectStub) server).$__getHostname(),
+                                    current.getEpoch()));
+                }
+                MethodInvocationResponse response;
+                try {
+                    response = server.onRPC(request);
+                } catch (RuntimeException e) {
+                    // The server could not be reached; it may have failed or moved
+                    logger.log(
+                            Level.WARNING,
+                            String.format(
+                                    "failed to send request %s to server %s in topology epoch %d",
+                                    request,
+                                    ((KernelObjectStub) server).$__getHostname(),
+                                    current.getEpoch()),
+                            e);
+                    if (retryCnt == MAX_RETRY) {
+                        throw e;
+                    }
+                    Thread.sleep(waitInMilliseconds);
+                    waitInMilliseconds <<= 1;
+                    current = refreshTopology();
+                    continue;
+                }
 
-                logger.log(
-                        Level.INFO,
-                        String.format(
-                                "Sending request to master server %s",
-                                ((KernelObjectStub) server).$__getHostname()));
-                MethodInvocationResponse response = server.onRPC(request);
                 switch (response.getReturnCode()) {
                     case SUCCESS:
+                        updateLargestSeenIndex(response.getIndex());
                         return response.getResult();
                     case FAILURE:
                         logger.log(
@@ -95,21 +140,51 @@ public abstract class LoadBalancedMasterSlaveBase extends DefaultPolicy {
                     case REDIRECT:
                         Thread.sleep(waitInMilliseconds);
                         waitInMilliseconds <<= 1;
+                        current = refreshTopology();
                 }
             } while (++retryCnt <= MAX_RETRY);
 
             throw new Exception(String.format("failed to execute method %s after retries", method));
         }
 
-        private boolean isImmutable(Class clazz, String method) {
-            Method[] methods = clazz.getMethods();
-            for (Method m : methods) {
-                if (m.toGenericString().equals(method)) {
-                    return Utils.isImmutableMethod(m);
+        private synchronized void updateLargestSeenIndex(long index) {
+            if (index > largestSeenIndex) {
+                largestSeenIndex = index;
+            }
+        }
+
+        /**
+         * Fetches the current topology from the group and caches it for later RPCs, unless an RPC
+         * running concurrently cached a newer one in the meantime.
+         *
+         * @return the newest topology known to this client
+         */
+        private Topology refreshTopology() throws RemoteException {
+            return keepNewerTopology(((GroupPolicy) getGroup()).getTopology());
+        }
+
+        private synchronized Topology keepNewerTopology(Topology fetched) {
+            Topology cached = topology;
+            if (cached != null && cached.getEpoch() > fetched.getEpoch()) {
+                return cached;
+            }
+            topology = fetched;
+            return fetched;
+        }
+
+        private static boolean isImmutable(Class<?> clazz, String method) {
+            Set<String> methods = immutableMethods.get(clazz);
+            if (methods == null) {
+                methods = new HashSet<String>();
+                for (Method m : clazz.getMethods()) {
+                    if (Utils.isImmutableMethod(m)) {
+                        methods.add(m.toGenericString());
+                    }
                 }
+                immutableMethods.putIfAbsent(clazz, methods);
             }
 
-            return false;
+            return methods.contains(method);
         }
     }
 
@@ -169,6 +244,9 @@ public abstract class LoadBalancedMasterSlaveBase extends DefaultPolicy {
         private Lock masterLock;
         private Map<String, String> nodeLabels;
 
+        /** Increased whenever the master or the set of replicas changes */
+        private final AtomicLong epoch = new AtomicLong();
+
         @Override
         public void onCreate(String region, Policy.ServerPolicy server) throws RemoteException {
             super.onCreate(region, server);
@@ -278,15 +356,51 @@ public abstract class LoadBalancedMasterSlaveBase extends DefaultPolicy {
         public boolean obtainLock(String serverId, long masterLeaseTimeoutInMillis) {
             if (masterLock == null) {
                 masterLock = new Lock(serverId, masterLeaseTimeoutInMillis);
+                epoch.incrementAndGet();
                 return true;
             }
 
-            return masterLock.obtain(serverId);
+            String previous = masterLock.getClientId();
+            if (!masterLock.obtain(serverId)) {
+                return false;
+            }
+            if (!serverId.equals(previous)) {
+                epoch.incrementAndGet();
+            }
+            return true;
+        }
+
+        @Override
+        protected void addServer(Policy.ServerPolicy server) {
+            super.addServer(server);
+            epoch.incrementAndGet();
+        }
+
+        @Override
+        protected void removeServer(Policy.ServerPolicy server) {
+            super.removeServer(server);
+            epoch.incrementAndGet();
+        }
+
+        /**
+         * Returns the current master and replicas. Client policies cache the topology and only ask
+         * for a new one when a server redirects a request or cannot be reached.
+         *
+         * @return the current topology
+         */
+        public Topology getTopology() throws RemoteException {
+            // Read the epoch first so that a change made while the topology is collected makes the
+            // next topology newer than this one
+            long current = epoch.get();
+            ArrayList<ServerPolicy> servers = new ArrayList<ServerPolicy>();
+            for (Policy.ServerPolicy server : getServers()) {
+                servers.add((ServerPolicy) server);
+            }
+            return new Topology(current, getMaster(), servers);
         }
 
         /** @return master server, or <code>null</code> if no master available */
         public ServerPolicy getMaster() throws RemoteException {
-            // TODO: cache master to avoid calling group policy remotely for RPC
             if (masterLock != null) {
                 ArrayList<Policy.ServerPolicy> servers = getServers();
                 for (Policy.ServerPolicy server : servers) {
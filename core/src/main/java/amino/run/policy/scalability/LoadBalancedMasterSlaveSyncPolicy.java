@@ -11,6 +11,7 @@ import amino.run.policy.scalability.masterslave.Processor;
 import amino.run.policy.scalability.masterslave.ReplicationRequest;
 import amino.run.policy.scalability.masterslave.ReplicationResponse;
 import amino.run.policy.scalability.masterslave.RequestReplicator;
+import amino.run.policy.scalability.masterslave.ResponseCache;
 import amino.run.policy.scalability.masterslave.StateManager;
 import java.io.Serializable;
 import java.util.logging.Level;
@@ -39,6 +40,7 @@ public class LoadBalancedMasterSlaveSyncPolicy extends LoadBalancedMasterSlaveBa
         private transient Committer commitExecutor;
         private transient StateManager stateMgr;
         private transient Processor processor;
+        private transient ResponseCache responseCache;
 
         @Override
         public void onCreate(Policy.GroupPolicy group) {
@@ -55,7 +57,9 @@ public class LoadBalancedMasterSlaveSyncPolicy extends LoadBalancedMasterSlaveBa
 
             commitExecutor = new Committer(appObject, 0L, config);
             commitExecutor.open();
-            processor = new Processor(config, groupPolicy, commitExecutor, replicator);
+            responseCache = new ResponseCache(config);
+            processor =
+                    new Processor(config, groupPolicy, commitExecutor, replicator, responseCache);
             processor.open();
 
             Context context = new Context(groupPolicy, config, commitExecutor, replicator);
@@ -100,7 +104,13 @@ public class LoadBalancedMasterSlaveSyncPolicy extends LoadBalancedMasterSlaveBa
 
             for (LogEntry entry : request.getEntries()) {
                 // TODO (Terry): apply write async
-                commitExecutor.applyWriteSync(entry.getRequest(), entry.getIndex());
+                MethodInvocationResponse response =
+                        commitExecutor.applyWriteSync(entry.getRequest(), entry.getIndex());
+                // Remembered in case this slave becomes master and the client retries
+                responseCache.record(
+                        entry.getRequest(),
+                        new MethodInvocationResponse(
+                                response.getReturnCode(), response.getResult(), entry.getIndex()));
             }
 
             return new ReplicationResponse(ReplicationResponse.ReturnCode.SUCCESS, null);
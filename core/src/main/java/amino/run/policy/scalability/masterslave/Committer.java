@@ -1,6 +1,7 @@
 package amino.run.policy.scalability.masterslave;
 
 import static amino.run.policy.scalability.masterslave.MethodInvocationResponse.ReturnCode.FAILURE;
+import static amino.run.policy.scalability.masterslave.MethodInvocationResponse.ReturnCode.REDIRECT;
 import static amino.run.policy.scalability.masterslave.MethodInvocationResponse.ReturnCode.SUCCESS;
 
 import amino.run.common.AppObject;
@@ -15,12 +16,13 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * Committer applies method invocation requests onto App objects. It synchronizes all reads and
- * writes to the App object.
+ * Committer applies method invocation requests onto App objects. Writes are applied one at a time
+ * in log order and exclude all other access to the App object; reads run concurrently.
  *
  * @author terryz
  */
@@ -37,6 +39,12 @@ public class Committer implements Closeable {
     private final Configuration config;
     private ExecutorService executor;
 
+    /** Taken to read the App object and held exclusively to write it */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** Notified whenever a log entry is committed */
+    private final Object commitMonitor = new Object();
+
     // TODO (Terry): remove indexOfLargestCommittedEntry from constructor
     public Committer(AppObject appObject, long indexOfLargestCommittedEntry, Configuration config) {
         this.appObject = appObject;
@@ -72,7 +80,10 @@ public class Committer implements Closeable {
     }
 
     /**
-     * Invokes read operation on <code>appObject</code>.
+     * Invokes read operation on <code>appObject</code> on the calling thread. Reads run
+     * concurrently with each other and are only held up by writes being applied. A read waits up to
+     * {@link Configuration#getReadWaitTimeoutInMillis()} for the log entry given by {@link
+     * MethodInvocationRequest#getMinIndex()} to be committed, and is redirected if it is not.
      *
      * @param request
      * @return
@@ -83,37 +94,64 @@ public class Committer implements Closeable {
             return new MethodInvocationResponse(FAILURE, new Exception("executor not initialized"));
         }
 
-        Future<Object> future =
-                executor.submit(
-                        new Callable<Object>() {
-                            @Override
-                            public Object call() throws Exception {
-                                synchronized (appObject) {
-                                    try {
-                                        Object result =
-                                                appObject.invoke(
-                                                        request.getMethodName(),
-                                                        request.getParams());
-                                        logger.log(
-                                                Level.FINER,
-                                                "result for request {0}: {1}",
-                                                new Object[] {request, result});
-                                        return result;
-                                    } catch (Exception e) {
-                                        logger.log(
-                                                Level.SEVERE,
-                                                String.format(
-                                                        "failed to invoke write request %s on app object: "
-                                                                + "%s",
-                                                        request, e),
-                                                e);
-                                        throw e;
-                                    }
-                                }
-                            }
-                        });
+        try {
+            if (!awaitCommitted(request.getMinIndex(), config.getReadWaitTimeoutInMillis())) {
+                logger.log(
+                        Level.FINE,
+                        "redirect request {0} because entry {1} is not committed",
+                        new Object[] {request, getIndexOfLargestCommittedEntry()});
+                return new MethodInvocationResponse(REDIRECT, null);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            AminoRunException ex =
+                    new AminoRunException("Method invocation on app object was interrupted", e);
+            return new MethodInvocationResponse(FAILURE, ex);
+        }
 
-        return createResponse(request, future);
+        lock.readLock().lock();
+        try {
+            Object result = appObject.invoke(request.getMethodName(), request.getParams());
+            logger.log(Level.FINER, "result for request {0}: {1}", new Object[] {request, result});
+            return new MethodInvocationResponse(SUCCESS, result, getIndexOfLargestCommittedEntry());
+        } catch (Exception e) {
+            // Method invocation on application object failed.
+            // This is caused by application errors, not MicroService errors
+            AppExecutionException ex =
+                    new AppExecutionException("method invocation on app object failed", e);
+            logger.log(
+                    Level.FINE,
+                    String.format("failed to process request %s on %s: %s", request, appObject, ex),
+                    ex);
+            return new MethodInvocationResponse(FAILURE, ex);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Waits for the given log entry to be committed
+     *
+     * @param index index of the log entry
+     * @param timeoutInMillis the maximum time to wait
+     * @return <code>true</code> if the entry was committed; <code>false</code> otherwise
+     */
+    private boolean awaitCommitted(long index, long timeoutInMillis) throws InterruptedException {
+        if (index <= indexOfLargestCommittedEntry) {
+            return true;
+        }
+
+        long deadline = System.currentTimeMillis() + timeoutInMillis;
+        synchronized (commitMonitor) {
+            while (index > indexOfLargestCommittedEntry) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                commitMonitor.wait(remaining);
+            }
+        }
+        return true;
     }
 
     /**
@@ -158,27 +196,28 @@ public class Committer implements Closeable {
                             logger.log(Level.SEVERE, msg);
                             throw new IllegalStateException(msg);
                         } else {
-                            synchronized (appObject) {
-                                try {
-                                    Object result =
-                                            appObject.invoke(
-                                                    request.getMethodName(), request.getParams());
-                                    markCommitted(entryIndex);
-                                    logger.log(
-                                            Level.FINER,
-                                            "result for request {0}: {1}",
-                                            new Object[] {request, result});
-                                    return result;
-                                } catch (Exception e) {
-                                    logger.log(
-                                            Level.SEVERE,
-                                            String.format(
-                                                    "failed to invoke write request %s on app object: "
-                                                            + "%s",
-                                                    request, e),
-                                            e);
-                                    throw e;
-                                }
+                            lock.writeLock().lock();
+                            try {
+                                Object result =
+                                        appObject.invoke(
+                                                request.getMethodName(), request.getParams());
+                                markCommitted(entryIndex);
+                                logger.log(
+                                        Level.FINER,
+                                        "result for request {0}: {1}",
+                                        new Object[] {request, result});
+                                return result;
+                            } catch (Exception e) {
+                                logger.log(
+                                        Level.SEVERE,
+                                        String.format(
+                                                "failed to invoke write request %s on app object: "
+                                                        + "%s",
+                                                request, e),
+                                        e);
+                                throw e;
+                            } finally {
+                                lock.writeLock().unlock();
                             }
                         }
                     }
@@ -193,9 +232,12 @@ public class Committer implements Closeable {
      * @param largestCommittedIndex
      */
     public void updateObject(Serializable object, long largestCommittedIndex) {
-        synchronized (appObject) {
+        lock.writeLock().lock();
+        try {
             appObject.setObject(object);
             markCommitted(largestCommittedIndex);
+        } finally {
+            lock.writeLock().unlock();
         }
     }
 
@@ -205,8 +247,11 @@ public class Committer implements Closeable {
      * @param server destination server
      */
     public void syncObject(LoadBalancedMasterSlaveBase.ServerPolicy server) {
-        synchronized (appObject) {
+        lock.readLock().lock();
+        try {
             server.syncObject(appObject.getObject(), getIndexOfLargestCommittedEntry());
+        } finally {
+            lock.readLock().unlock();
         }
     }
 
@@ -244,10 +289,19 @@ public class Committer implements Closeable {
         }
 
         setIndexOfLargestCommittedEntry(index);
+        synchronized (commitMonitor) {
+            commitMonitor.notifyAll();
+        }
     }
 
-    private MethodInvocationResponse createResponse(
-            MethodInvocationRequest request, Future future) {
+    /**
+     * Waits for the given invocation of a request and wraps its result in a response
+     *
+     * @param request the invoked request
+     * @param future a future of the result, or <code>null</code> if the committer is not open
+     * @return method invocation response
+     */
+    MethodInvocationResponse createResponse(MethodInvocationRequest request, Future future) {
         MethodInvocationResponse response;
 
         if (future == null) {
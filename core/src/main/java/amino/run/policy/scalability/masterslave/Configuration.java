@@ -21,6 +21,31 @@ public class Configuration {
     /** */
     private long initDelayLimitInMillis = 200;
 
+    /** Specifies the maximum number of log entries the master sends to the slave in one request */
+    private int maxReplicationBatchSize = 64;
+
+    /**
+     * Specifies how long the master waits for more log entries before it replicates a batch that
+     * is not full. With 0, a batch holds the entries committed while the previous batch was being
+     * replicated.
+     */
+    private long replicationBatchLingerInMillis = 0;
+
+    /**
+     * Specifies how long a replica waits to commit the log entry a read must observe before it
+     * redirects the read to another replica
+     */
+    private long readWaitTimeoutInMillis = 100;
+
+    /** Specifies the maximum number of clients whose responses are remembered for retries */
+    private int responseCacheMaxClients = 10000;
+
+    /** Specifies how long the responses of a client that sends no requests are remembered */
+    private long responseCacheTtlInMillis = 10 * 60 * 1000;
+
+    /** Specifies the number of latest requests of each client whose responses are remembered */
+    private int responseCacheWindowSize = 64;
+
     public long getMasterLeaseTimeoutInMillis() {
         return masterLeaseTimeoutInMillis;
     }
@@ -37,6 +62,30 @@ public class Configuration {
         return random.nextLong() % initDelayLimitInMillis;
     }
 
+    public int getMaxReplicationBatchSize() {
+        return maxReplicationBatchSize;
+    }
+
+    public long getReplicationBatchLingerInMillis() {
+        return replicationBatchLingerInMillis;
+    }
+
+    public long getReadWaitTimeoutInMillis() {
+        return readWaitTimeoutInMillis;
+    }
+
+    public int getResponseCacheMaxClients() {
+        return responseCacheMaxClients;
+    }
+
+    public long getResponseCacheTtlInMillis() {
+        return responseCacheTtlInMillis;
+    }
+
+    public int getResponseCacheWindowSize() {
+        return responseCacheWindowSize;
+    }
+
     public Configuration setMasterLeaseTimeoutInMillis(long masterLeaseTimeoutInMillis) {
         if (masterLeaseTimeoutInMillis <= 0) {
             throw new IllegalArgumentException(
@@ -81,4 +130,67 @@ public class Configuration {
         this.initDelayLimitInMillis = initDelayLimitInMillis;
         return this;
     }
+
+    public Configuration setMaxReplicationBatchSize(int maxReplicationBatchSize) {
+        if (maxReplicationBatchSize <= 0) {
+            throw new IllegalArgumentException(
+                    String.format("invalid maxReplicationBatchSize(%s)", maxReplicationBatchSize));
+        }
+
+        this.maxReplicationBatchSize = maxReplicationBatchSize;
+        return this;
+    }
+
+    public Configuration setReplicationBatchLingerInMillis(long replicationBatchLingerInMillis) {
+        if (replicationBatchLingerInMillis < 0) {
+            throw new IllegalArgumentException(
+                    String.format(
+                            "negative replicationBatchLingerInMillis(%s)",
+                            replicationBatchLingerInMillis));
+        }
+
+        this.replicationBatchLingerInMillis = replicationBatchLingerInMillis;
+        return this;
+    }
+
+    public Configuration setReadWaitTimeoutInMillis(long readWaitTimeoutInMillis) {
+        if (readWaitTimeoutInMillis < 0) {
+            throw new IllegalArgumentException(
+                    String.format("negative readWaitTimeoutInMillis(%s)", readWaitTimeoutInMillis));
+        }
+
+        this.readWaitTimeoutInMillis = readWaitTimeoutInMillis;
+        return this;
+    }
+
+    public Configuration setResponseCacheMaxClients(int responseCacheMaxClients) {
+        if (responseCacheMaxClients <= 0) {
+            throw new IllegalArgumentException(
+                    String.format("invalid responseCacheMaxClients(%s)", responseCacheMaxClients));
+        }
+
+        this.responseCacheMaxClients = responseCacheMaxClients;
+        return this;
+    }
+
+    public Configuration setResponseCacheTtlInMillis(long responseCacheTtlInMillis) {
+        if (responseCacheTtlInMillis <= 0) {
+            throw new IllegalArgumentException(
+                    String.format(
+                            "invalid responseCacheTtlInMillis(%s)", responseCacheTtlInMillis));
+        }
+
+        this.responseCacheTtlInMillis = responseCacheTtlInMillis;
+        return this;
+    }
+
+    public Configuration setResponseCacheWindowSize(int responseCacheWindowSize) {
+        if (responseCacheWindowSize <= 0) {
+            throw new IllegalArgumentException(
+                    String.format("invalid responseCacheWindowSize(%s)", responseCacheWindowSize));
+        }
+
+        this.responseCacheWindowSize = responseCacheWindowSize;
+        return this;
+    }
 }
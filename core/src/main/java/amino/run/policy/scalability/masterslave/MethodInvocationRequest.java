@@ -24,17 +24,34 @@ public final class MethodInvocationRequest implements Serializable {
     private final ArrayList<Object> params;
     private final MethodType methodType;
 
+    /**
+     * Index of the log entry an immutable request must observe. A replica only serves the request
+     * once it has committed this entry; 0 if any replica may serve it.
+     */
+    private final long minIndex;
+
     public MethodInvocationRequest(
             String clientId,
             Long requestId,
             String methodName,
             ArrayList<Object> params,
             MethodType methodType) {
+        this(clientId, requestId, methodName, params, methodType, 0L);
+    }
+
+    public MethodInvocationRequest(
+            String clientId,
+            Long requestId,
+            String methodName,
+            ArrayList<Object> params,
+            MethodType methodType,
+            long minIndex) {
         this.clientId = clientId;
         this.requestId = requestId;
         this.methodName = methodName;
         this.methodType = methodType;
         this.params = params;
+        this.minIndex = minIndex;
     }
 
     public final String getClientId() {
@@ -57,6 +74,10 @@ public final class MethodInvocationRequest implements Serializable {
         return methodType;
     }
 
+    public final long getMinIndex() {
+        return minIndex;
+    }
+
     public final boolean isImmutable() {
         return getMethodType() != null && getMethodType() == IMMUTABLE;
     }
@@ -73,6 +94,7 @@ public final class MethodInvocationRequest implements Serializable {
         sb.append(", methodName='").append(methodName).append('\'');
         sb.append(", params=").append(params);
         sb.append(", methodType=").append(methodType);
+        sb.append(", minIndex=").append(minIndex);
         sb.append('}');
         return sb.toString();
     }
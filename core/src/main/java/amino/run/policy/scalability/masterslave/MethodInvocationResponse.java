@@ -29,9 +29,20 @@ public class MethodInvocationResponse implements Serializable {
     /** Method invocation result */
     private Object result;
 
+    /**
+     * Index of the log entry of a write, or of the last log entry committed when a read was served;
+     * 0 if unknown
+     */
+    private final long index;
+
     public MethodInvocationResponse(ReturnCode returnCode, Object result) {
+        this(returnCode, result, 0L);
+    }
+
+    public MethodInvocationResponse(ReturnCode returnCode, Object result, long index) {
         this.returnCode = returnCode;
         this.result = result;
+        this.index = index;
     }
 
     public ReturnCode getReturnCode() {
@@ -42,6 +53,10 @@ public class MethodInvocationResponse implements Serializable {
         return result;
     }
 
+    public long getIndex() {
+        return index;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -61,6 +76,7 @@ public class MethodInvocationResponse implements Serializable {
         final StringBuilder sb = new StringBuilder("MethodInvocationResponse{");
         sb.append("returnCode=").append(returnCode);
         sb.append(", result=").append(result);
+        sb.append(", index=").append(index);
         sb.append('}');
         return sb.toString();
     }
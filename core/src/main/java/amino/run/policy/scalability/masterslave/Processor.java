@@ -7,22 +7,31 @@ import amino.run.runtime.exception.AminoRunException;
 import amino.run.runtime.exception.AppExecutionException;
 import java.io.Closeable;
 import java.io.IOException;
-import java.io.Serializable;
-import java.util.Arrays;
-import java.util.Map;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * A thread safe processor that handles method invocation requests on master.
  *
+ * <p>Write requests are assigned log indices and handed to the {@link Committer} in the order they
+ * arrive, one at a time, on the processor thread. Their log entries then wait to be replicated to
+ * the slave. A separate replication thread sends all waiting entries, up to {@link
+ * Configuration#getMaxReplicationBatchSize()}, in one {@link ReplicationRequest} and releases their
+ * responses once the slave acknowledges it, while the entries of the next batch are being
+ * collected. A batch waits {@link Configuration#getReplicationBatchLingerInMillis()} for more
+ * entries before it is sent unless it is full.
+ *
  * @author terryz
  */
 public class Processor implements Closeable {
@@ -32,19 +41,38 @@ public class Processor implements Closeable {
     private final Committer commitExecutor;
     private final Replicator replicator;
     private volatile ExecutorService processor;
-    // TODO: retire map entries
-    private final Map<String, CachedResult> cachedResults;
+    private volatile ExecutorService replication;
+    private final ResponseCache responseCache;
+
+    /** Entries committed on master and waiting to be replicated, in index order */
+    private final LinkedBlockingQueue<PendingEntry> pendingEntries =
+            new LinkedBlockingQueue<PendingEntry>();
+
+    /** Whether a task draining {@link #pendingEntries} is queued or running */
+    private final AtomicBoolean replicating = new AtomicBoolean();
+
+    /** Index of the last log entry assigned; only used on the processor thread */
+    private long indexOfLastAssignedEntry = -1;
 
     public Processor(
             Configuration config,
             LoadBalancedMasterSlaveBase.GroupPolicy group,
             Committer commitExecutor,
             Replicator replicator) {
+        this(config, group, commitExecutor, replicator, new ResponseCache(config));
+    }
+
+    public Processor(
+            Configuration config,
+            LoadBalancedMasterSlaveBase.GroupPolicy group,
+            Committer commitExecutor,
+            Replicator replicator,
+            ResponseCache responseCache) {
         this.config = config;
         this.group = group;
         this.commitExecutor = commitExecutor;
         this.replicator = replicator;
-        this.cachedResults = new ConcurrentHashMap<String, CachedResult>();
+        this.responseCache = responseCache;
     }
 
     /**
@@ -53,6 +81,7 @@ public class Processor implements Closeable {
      */
     public void open() {
         this.processor = Executors.newSingleThreadExecutor();
+        this.replication = Executors.newSingleThreadExecutor();
     }
 
     /**
@@ -87,78 +116,169 @@ public class Processor implements Closeable {
     }
 
     /**
-     * Processes the given method invocation request asynchronously
+     * Processes the given method invocation request asynchronously. The future of a write request
+     * completes once its log entry has been replicated to the slave, or replication failed.
      *
      * @param request method invocation request
      * @return a future of the method invocation response
      */
-    public Future<MethodInvocationResponse> processAsync(MethodInvocationRequest request) {
+    public Future<MethodInvocationResponse> processAsync(final MethodInvocationRequest request) {
         if (processor == null) {
             logger.log(Level.WARNING, "processor is not initialized");
             return null;
         }
 
-        return processor.submit(
-                new RequestProcessor(group, commitExecutor, replicator, request, cachedResults));
+        final CompletableFuture<MethodInvocationResponse> response =
+                new CompletableFuture<MethodInvocationResponse>();
+        processor.submit(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            sequence(request, response);
+                        } catch (Exception e) {
+                            response.completeExceptionally(e);
+                        }
+                    }
+                });
+        return response;
     }
 
-    private static class RequestProcessor implements Callable<MethodInvocationResponse> {
-        private MethodInvocationRequest request;
-        private final LoadBalancedMasterSlaveBase.GroupPolicy group;
-        private Committer commitExecutor;
-        private Replicator replicator;
-        private Map<String, CachedResult> cachedResults;
-
-        public RequestProcessor(
-                LoadBalancedMasterSlaveBase.GroupPolicy group,
-                Committer commitExecutor,
-                Replicator replicator,
-                MethodInvocationRequest request,
-                Map<String, CachedResult> cachedResults) {
-            this.request = request;
-            this.group = group;
-            this.commitExecutor = commitExecutor;
-            this.replicator = replicator;
-            this.cachedResults = cachedResults;
+    /**
+     * Assigns a log index to the given write request, commits it and queues its entry for
+     * replication. Runs on the processor thread.
+     */
+    private void sequence(
+            MethodInvocationRequest request, CompletableFuture<MethodInvocationResponse> response)
+            throws Exception {
+        if (request.isImmutable()) {
+            response.complete(commitExecutor.applyRead(request));
+            return;
         }
 
-        @Override
-        public MethodInvocationResponse call() throws Exception {
-            if (request.isImmutable()) {
-                return commitExecutor.applyRead(request);
-            }
+        CompletableFuture<MethodInvocationResponse> cached;
+        try {
+            cached = responseCache.putIfAbsent(request, response);
+        } catch (IllegalStateException e) {
+            logger.log(Level.WARNING, e.getMessage());
+            throw e;
+        }
+        if (cached != null) {
+            forward(cached, response);
+            return;
+        }
 
-            if (!cachedResults.containsKey(request.getClientId())) {
-                cachedResults.put(request.getClientId(), new CachedResult());
-            }
-            CachedResult cachedResult = cachedResults.get(request.getClientId());
-
-            if (request.getRequestId() < cachedResult.getRequestId()) {
-                String msg = String.format("forbidden to rerun old request %s", request);
-                logger.log(Level.WARNING, msg);
-                throw new Exception(msg);
-            } else if (request.getRequestId() == cachedResult.getRequestId()) {
-                return cachedResult.getInvocationResponse();
+        // Entries assigned earlier may not have been committed yet. The committed index moves
+        // past them when the object is synced from another master.
+        long index =
+                Math.max(indexOfLastAssignedEntry, commitExecutor.getIndexOfLargestCommittedEntry())
+                        + 1;
+        LogEntry entry = LogEntry.newBuilder().request(request).index(index).build();
+        Future<Object> result = commitExecutor.applyWriteAsync(request, index);
+        indexOfLastAssignedEntry = index;
+
+        pendingEntries.add(new PendingEntry(entry, result, response));
+        if (replicating.compareAndSet(false, true)) {
+            replication.submit(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            replicatePendingEntries();
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Replicates pending entries in batches until none are left. Runs on the replication thread.
+     */
+    private void replicatePendingEntries() {
+        int maxBatchSize = config.getMaxReplicationBatchSize();
+        long lingerInMillis = config.getReplicationBatchLingerInMillis();
+        while (true) {
+            if (lingerInMillis > 0 && pendingEntries.size() < maxBatchSize) {
+                try {
+                    Thread.sleep(lingerInMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
             }
 
-            long largestCommittedIndex = commitExecutor.getIndexOfLargestCommittedEntry();
-            LogEntry entry =
-                    LogEntry.newBuilder().request(request).index(largestCommittedIndex + 1).build();
+            List<PendingEntry> batch = new ArrayList<PendingEntry>();
+            pendingEntries.drainTo(batch, maxBatchSize);
+            if (batch.isEmpty()) {
+                replicating.set(false);
+                // An entry queued after the queue was found empty may not have scheduled a drain
+                if (pendingEntries.isEmpty() || !replicating.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
 
-            MethodInvocationResponse response =
-                    commitExecutor.applyWriteSync(request, entry.getIndex());
+            replicate(batch);
+        }
+    }
 
-            ReplicationRequest replicationRequest =
-                    new ReplicationRequest(largestCommittedIndex, Arrays.asList(entry));
+    private void replicate(List<PendingEntry> batch) {
+        List<LogEntry> entries = new ArrayList<LogEntry>(batch.size());
+        for (PendingEntry pending : batch) {
+            entries.add(pending.entry);
+        }
+        ReplicationRequest replicationRequest =
+                new ReplicationRequest(entries.get(0).getIndex() - 1, entries);
 
-            ReplicationResponse rr = replicator.replicateInSync(replicationRequest);
-            if (rr != null && rr.getReturnCode() == ReplicationResponse.ReturnCode.TRACEBACK) {
+        // Replication is best effort; responses are released even if it failed.
+        ReplicationResponse rr = replicator.replicateInSync(replicationRequest);
+        if (rr != null && rr.getReturnCode() == ReplicationResponse.ReturnCode.TRACEBACK) {
+            try {
                 commitExecutor.syncObject(group.getSlave());
+            } catch (Exception e) {
+                logger.log(
+                        Level.WARNING,
+                        String.format("failed to sync object to slave: %s", e.getMessage()));
             }
+        }
+
+        for (PendingEntry pending : batch) {
+            MethodInvocationResponse response =
+                    commitExecutor.createResponse(pending.entry.getRequest(), pending.result);
+            pending.response.complete(
+                    new MethodInvocationResponse(
+                            response.getReturnCode(),
+                            response.getResult(),
+                            pending.entry.getIndex()));
+        }
+    }
 
-            cachedResult.update(request.getClientId(), request.getRequestId(), response);
+    private static void forward(
+            CompletableFuture<MethodInvocationResponse> from,
+            final CompletableFuture<MethodInvocationResponse> to) {
+        from.whenComplete(
+                new BiConsumer<MethodInvocationResponse, Throwable>() {
+                    @Override
+                    public void accept(MethodInvocationResponse response, Throwable t) {
+                        if (t != null) {
+                            to.completeExceptionally(t);
+                        } else {
+                            to.complete(response);
+                        }
+                    }
+                });
+    }
 
-            return response;
+    /** A log entry committed on master and waiting to be replicated */
+    private static final class PendingEntry {
+        final LogEntry entry;
+        final Future<Object> result;
+        final CompletableFuture<MethodInvocationResponse> response;
+
+        PendingEntry(
+                LogEntry entry,
+                Future<Object> result,
+                CompletableFuture<MethodInvocationResponse> response) {
+            this.entry = entry;
+            this.result = result;
+            this.response = response;
         }
     }
 
@@ -182,6 +302,25 @@ public class Processor implements Closeable {
                         e);
             }
         }
+
+        if (replication != null) {
+            replication.shutdown();
+            try {
+                if (!replication.awaitTermination(
+                        config.getShutdownGracePeriodInMillis(), TimeUnit.MILLISECONDS)) {
+                    logger.log(
+                            Level.SEVERE,
+                            "replication shut down time out after {0} milliseconds",
+                            config.getShutdownGracePeriodInMillis());
+                }
+                replication = null;
+            } catch (Exception e) {
+                logger.log(
+                        Level.SEVERE,
+                        String.format("got exception during replication shut down: %s", e),
+                        e);
+            }
+        }
     }
 
     @Override
@@ -189,29 +328,4 @@ public class Processor implements Closeable {
         close();
         super.finalize();
     }
-
-    private static final class CachedResult implements Serializable {
-        private volatile String clientId;
-        private volatile long requestId = -1;
-        private volatile MethodInvocationResponse invocationResponse;
-
-        public void update(
-                String clientId, long requestId, MethodInvocationResponse invocationResponse) {
-            this.clientId = clientId;
-            this.requestId = requestId;
-            this.invocationResponse = invocationResponse;
-        }
-
-        public String getClientId() {
-            return clientId;
-        }
-
-        public long getRequestId() {
-            return requestId;
-        }
-
-        public MethodInvocationResponse getInvocationResponse() {
-            return invocationResponse;
-        }
-    }
 }
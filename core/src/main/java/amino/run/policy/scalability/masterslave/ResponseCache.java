@@ -0,0 +1,170 @@
+package amino.run.policy.scalability.masterslave;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Remembers the responses of the latest write requests of each client so that a request retried by
+ * a client is answered with its original response instead of being run again.
+ *
+ * <p>For each client the responses of the last {@link Configuration#getResponseCacheWindowSize()}
+ * request IDs are kept, so that a client may have several requests in flight. Requests older than
+ * the window are rejected. Clients are forgotten once they have not sent a request for {@link
+ * Configuration#getResponseCacheTtlInMillis()}, or when more than {@link
+ * Configuration#getResponseCacheMaxClients()} clients are remembered, least recently active first.
+ *
+ * <p>Slaves record the responses of the log entries they apply, so a slave that becomes master
+ * still recognizes the requests the previous master answered.
+ */
+public class ResponseCache {
+    private final int maxClients;
+    private final long ttlInMillis;
+    private final int windowSize;
+
+    /** Windows of clients, least recently active first */
+    private final LinkedHashMap<String, Window> windows;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /** Responses of the latest requests of one client */
+    private static final class Window {
+        final TreeMap<Long, CompletableFuture<MethodInvocationResponse>> responses =
+                new TreeMap<Long, CompletableFuture<MethodInvocationResponse>>();
+        long largestRequestId = -1;
+        long lastAccessTimestamp;
+    }
+
+    public ResponseCache(Configuration config) {
+        this.maxClients = config.getResponseCacheMaxClients();
+        this.ttlInMillis = config.getResponseCacheTtlInMillis();
+        this.windowSize = config.getResponseCacheWindowSize();
+        this.windows =
+                new LinkedHashMap<String, Window>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, Window> eldest) {
+                        if (size() > maxClients) {
+                            evictions++;
+                            return true;
+                        }
+                        return false;
+                    }
+                };
+    }
+
+    /**
+     * Returns the response recorded for the given request, or records the given response if there
+     * is none.
+     *
+     * @param request method invocation request
+     * @param response the response of the request if it has not been seen before
+     * @return the response recorded earlier, or <code>null</code> if the request has not been seen
+     * @throws IllegalStateException if the request is older than the requests remembered for its
+     *     client
+     */
+    public synchronized CompletableFuture<MethodInvocationResponse> putIfAbsent(
+            MethodInvocationRequest request, CompletableFuture<MethodInvocationResponse> response) {
+        Window window = getWindow(request.getClientId());
+        long requestId = request.getRequestId();
+        CompletableFuture<MethodInvocationResponse> cached = window.responses.get(requestId);
+        if (cached != null) {
+            hits++;
+            return cached;
+        }
+
+        if (requestId <= window.largestRequestId - windowSize) {
+            throw new IllegalStateException(
+                    String.format("forbidden to rerun old request %s", request));
+        }
+
+        misses++;
+        put(window, requestId, response);
+        return null;
+    }
+
+    /**
+     * Records the response of a log entry applied on a slave, unless it is older than the requests
+     * remembered for its client.
+     *
+     * @param request method invocation request of the log entry
+     * @param response the response of the request
+     */
+    public synchronized void record(
+            MethodInvocationRequest request, MethodInvocationResponse response) {
+        Window window = getWindow(request.getClientId());
+        long requestId = request.getRequestId();
+        if (requestId > window.largestRequestId - windowSize) {
+            put(window, requestId, CompletableFuture.completedFuture(response));
+        }
+    }
+
+    private Window getWindow(String clientId) {
+        long now = System.currentTimeMillis();
+        expire(now);
+
+        Window window = windows.get(clientId);
+        if (window == null) {
+            window = new Window();
+            windows.put(clientId, window);
+        }
+        window.lastAccessTimestamp = now;
+        return window;
+    }
+
+    private void put(
+            Window window, long requestId, CompletableFuture<MethodInvocationResponse> response) {
+        window.responses.put(requestId, response);
+        if (requestId > window.largestRequestId) {
+            window.largestRequestId = requestId;
+            window.responses.headMap(requestId - windowSize, true).clear();
+        }
+    }
+
+    /** Forgets clients that have not sent a request within the TTL */
+    private void expire(long now) {
+        Iterator<Window> it = windows.values().iterator();
+        while (it.hasNext()) {
+            if (now - it.next().lastAccessTimestamp <= ttlInMillis) {
+                // Windows are ordered by last access; the rest are younger
+                break;
+            }
+            it.remove();
+            evictions++;
+        }
+    }
+
+    /** @return number of clients remembered */
+    public synchronized int size() {
+        return windows.size();
+    }
+
+    /** @return number of requests answered with a recorded response */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /** @return number of requests seen for the first time */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /** @return number of clients forgotten because of the TTL or the size limit */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        final StringBuilder sb = new StringBuilder("ResponseCache{");
+        sb.append("clients=").append(windows.size());
+        sb.append(", hits=").append(hits);
+        sb.append(", misses=").append(misses);
+        sb.append(", evictions=").append(evictions);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,54 @@
+package amino.run.policy.scalability.masterslave;
+
+import amino.run.policy.scalability.LoadBalancedMasterSlaveBase;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Master and replicas of a master/slave group as seen by the group policy at one point in time.
+ * Client policies keep a topology to pick the server of a request without asking the group policy
+ * every time, and fetch a new one when a server redirects the request or cannot be reached. The
+ * epoch is increased by the group policy every time the master or the set of replicas changes.
+ */
+public class Topology implements Serializable {
+    private final long epoch;
+    private final LoadBalancedMasterSlaveBase.ServerPolicy master;
+    private final ArrayList<LoadBalancedMasterSlaveBase.ServerPolicy> servers;
+
+    public Topology(
+            long epoch,
+            LoadBalancedMasterSlaveBase.ServerPolicy master,
+            List<LoadBalancedMasterSlaveBase.ServerPolicy> servers) {
+        this.epoch = epoch;
+        this.master = master;
+        this.servers = new ArrayList<LoadBalancedMasterSlaveBase.ServerPolicy>(servers);
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /** @return master server, or <code>null</code> if there was no master */
+    public LoadBalancedMasterSlaveBase.ServerPolicy getMaster() {
+        return master;
+    }
+
+    public List<LoadBalancedMasterSlaveBase.ServerPolicy> getServers() {
+        return servers;
+    }
+
+    /** @return a randomly chosen server, or <code>null</code> if there are no servers */
+    public LoadBalancedMasterSlaveBase.ServerPolicy getRandomServer() {
+        if (servers.isEmpty()) {
+            return null;
+        }
+        return servers.get(ThreadLocalRandom.current().nextInt(servers.size()));
+    }
+
+    @Override
+    public String toString() {
+        return "Topology{epoch=" + epoch + ", master=" + master + ", servers=" + servers + '}';
+    }
+}
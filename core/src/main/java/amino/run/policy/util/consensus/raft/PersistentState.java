@@ -1,19 +1,87 @@
 package amino.run.policy.util.consensus.raft;
 
-import java.util.ArrayList;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.List;
 import java.util.UUID;
 
 /**
- * Created by quinton on 3/30/18. * Persistent state on all servers. //TODO Make persistent, restore
- * on start. All methods are thread-safe, and use optimistic concurrency for updates.
+ * Created by quinton on 3/30/18. * Persistent state on all servers. All methods are thread-safe,
+ * and use optimistic concurrency for updates.
+ *
+ * <p>If the state has a directory, the current term, vote and latest snapshot are saved to files
+ * in it whenever they change, and the log is kept in segment files next to them (see {@link
+ * RaftLog}), so that the state is restored when a server is started again with the same directory.
+ * Otherwise the state is kept in memory only.
  */
 class PersistentState {
+    private static final String STATE_FILE = "state";
+    private static final String SNAPSHOT_FILE = "snapshot";
+
     PersistentState() {
         this.currentTerm = 0;
         this.votedFor = NO_LEADER;
-        this.log = new ArrayList<LogEntry>();
+        this.log = new RaftLog();
         this.myServerID = UUID.randomUUID();
+        this.directory = null;
+    }
+
+    /**
+     * Restores the state saved in the given directory, or creates it if there is none.
+     *
+     * @param directory directory of the state
+     * @param segmentSize size in bytes after which a new log segment is started
+     * @throws IOException if the saved state could not be read
+     */
+    PersistentState(File directory, long segmentSize) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create raft state directory " + directory);
+        }
+        this.directory = directory;
+
+        File stateFile = new File(directory, STATE_FILE);
+        if (stateFile.exists()) {
+            DataInputStream in = new DataInputStream(new FileInputStream(stateFile));
+            try {
+                this.myServerID = new UUID(in.readLong(), in.readLong());
+                this.currentTerm = in.readInt();
+                this.votedFor = new UUID(in.readLong(), in.readLong());
+            } finally {
+                in.close();
+            }
+        } else {
+            this.myServerID = UUID.randomUUID();
+            this.currentTerm = 0;
+            this.votedFor = NO_LEADER;
+            saveState();
+        }
+
+        File snapshotFile = new File(directory, SNAPSHOT_FILE);
+        if (snapshotFile.exists()) {
+            DataInputStream in = new DataInputStream(new FileInputStream(snapshotFile));
+            try {
+                int index = in.readInt();
+                int term = in.readInt();
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                this.snapshot = new Snapshot(index, term, data);
+            } finally {
+                in.close();
+            }
+        }
+
+        this.log =
+                new RaftLog(
+                        directory,
+                        segmentSize,
+                        snapshot == null ? INVALID_INDEX : snapshot.index,
+                        snapshot == null ? INVALID_INDEX : snapshot.term);
     }
     ////////////////////////////////////////////////////////////////////////////////////////////////
     // Constants
@@ -22,8 +90,12 @@ class PersistentState {
     public static final UUID NO_LEADER = new UUID(0L, 0L);
     private volatile Integer currentTerm = -1;
     private volatile UUID votedFor = NO_LEADER;
-    private volatile List<LogEntry>
-            log; // TODO: Garbage collection - log growth currently unbounded.
+    private final RaftLog log;
+    /** Latest snapshot, <code>null</code> if none has been taken */
+    private volatile Snapshot snapshot;
+    /** <code>null</code> if the state is kept in memory only */
+    private final File directory;
+
     public final UUID myServerID;
 
     /**
@@ -49,6 +121,7 @@ class PersistentState {
         synchronized (this.currentTerm) {
             if (this.currentTerm == preconditionTerm) {
                 this.currentTerm = term;
+                saveState();
             }
             return this.currentTerm;
         }
@@ -66,6 +139,7 @@ class PersistentState {
         synchronized (this.currentTerm) {
             if (this.currentTerm == preconditionTerm) {
                 this.currentTerm++;
+                saveState();
             }
             return this.currentTerm;
         }
@@ -89,6 +163,7 @@ class PersistentState {
         synchronized (this.votedFor) {
             if (this.votedFor.equals(preconditionVotedFor)) {
                 this.votedFor = votedFor;
+                saveState();
                 return votedFor;
             } else {
                 return this.votedFor;
@@ -96,15 +171,91 @@ class PersistentState {
         }
     }
 
-    List<LogEntry> log() {
-        synchronized (log) {
-            return this.log;
-        }
+    RaftLog log() {
+        return this.log;
     }
 
+    /** Replaces the entries of the log. For unit tests only. */
     void setLog(List<LogEntry> newLog) {
+        log.reset(newLog);
+    }
+
+    /** @return the latest snapshot, or <code>null</code> if none has been taken */
+    Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Saves a snapshot, and discards the log entries it covers.
+     *
+     * @param snapshot snapshot of the state machine
+     */
+    void setSnapshot(Snapshot snapshot) {
         synchronized (log) {
-            this.log = newLog;
+            if (this.snapshot != null && this.snapshot.index >= snapshot.index) {
+                return;
+            }
+            if (directory != null) {
+                try {
+                    File tmp = new File(directory, SNAPSHOT_FILE + ".tmp");
+                    FileOutputStream file = new FileOutputStream(tmp);
+                    DataOutputStream out = new DataOutputStream(file);
+                    try {
+                        out.writeInt(snapshot.index);
+                        out.writeInt(snapshot.term);
+                        out.writeInt(snapshot.data.length);
+                        out.write(snapshot.data);
+                        out.flush();
+                        file.getFD().sync();
+                    } finally {
+                        out.close();
+                    }
+                    replace(tmp, new File(directory, SNAPSHOT_FILE));
+                } catch (IOException e) {
+                    throw new RaftRuntimeException("Failed to save raft snapshot " + snapshot, e);
+                }
+            }
+            this.snapshot = snapshot;
+            log.compact(snapshot.index, snapshot.term);
         }
     }
+
+    /** Saves the current term and vote, if the state is persistent. */
+    private synchronized void saveState() {
+        if (directory == null) {
+            return;
+        }
+        try {
+            File tmp = new File(directory, STATE_FILE + ".tmp");
+            FileOutputStream file = new FileOutputStream(tmp);
+            DataOutputStream out = new DataOutputStream(file);
+            try {
+                out.writeLong(myServerID.getMostSignificantBits());
+                out.writeLong(myServerID.getLeastSignificantBits());
+                out.writeInt(currentTerm);
+                out.writeLong(votedFor.getMostSignificantBits());
+                out.writeLong(votedFor.getLeastSignificantBits());
+                out.flush();
+                file.getFD().sync();
+            } finally {
+                out.close();
+            }
+            replace(tmp, new File(directory, STATE_FILE));
+        } catch (IOException e) {
+            throw new RaftRuntimeException("Failed to save raft state in " + directory, e);
+        }
+    }
+
+    private static void replace(File source, File target) throws IOException {
+        Files.move(
+                source.toPath(),
+                target.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Closes the log files. */
+    void close() {
+        log.close();
+    }
 }
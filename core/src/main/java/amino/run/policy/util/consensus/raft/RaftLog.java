@@ -0,0 +1,499 @@
+package amino.run.policy.util.consensus.raft;
+
+import static amino.run.policy.util.consensus.raft.PersistentState.INVALID_INDEX;
+
+import amino.run.common.Utils;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Log of a RAFT server. Entries are numbered from 0, and those after the last snapshot are kept in
+ * memory. If the log has a directory, entries are also appended to segment files in it, so that
+ * they survive restarts. Each segment is named after the index of its first entry, and a new one is
+ * started once the current one is larger than the segment size. Segments whose entries are all
+ * covered by a snapshot are deleted.
+ *
+ * <p>Each entry is written as its length, the CRC32 of its bytes and its serialized bytes. An entry
+ * torn by a crash in the middle of a write is dropped, along with everything after it, when the log
+ * is opened again. Appended entries are only durable once {@link #sync()} returns, and entries
+ * appended concurrently are made durable by a single sync.
+ *
+ * <p>All methods are thread-safe.
+ */
+class RaftLog {
+    private static final Logger logger = Logger.getLogger(RaftLog.class.getName());
+
+    static final String SEGMENT_SUFFIX = ".log";
+    static final long DEFAULT_SEGMENT_SIZE = 16L * 1024 * 1024;
+
+    /** Length and CRC32 of an entry */
+    private static final int HEADER_SIZE = 8;
+
+    /** <code>null</code> if the log is kept in memory only */
+    private final File directory;
+
+    private final long segmentSize;
+
+    /** Index and term of the last entry covered by the snapshot */
+    private int snapshotIndex = INVALID_INDEX;
+
+    private int snapshotTerm = INVALID_INDEX;
+
+    /** Entries after the snapshot */
+    private final ArrayList<LogEntry> entries = new ArrayList<LogEntry>();
+
+    private final ArrayList<Segment> segments = new ArrayList<Segment>();
+
+    /** Segments written to since they were last synced */
+    private final Set<Segment> unsynced = new HashSet<Segment>();
+
+    private final Object syncLock = new Object();
+    private volatile int syncedIndex = INVALID_INDEX;
+    /** Incremented when entries are truncated, so that a sync started before is not trusted */
+    private long truncations;
+
+    /** Segment file holding consecutive entries */
+    private static class Segment {
+        final int firstIndex;
+        final File file;
+        final FileChannel channel;
+        /** Position of each entry in the file */
+        final ArrayList<Long> positions = new ArrayList<Long>();
+
+        long size;
+
+        Segment(int firstIndex, File file) throws IOException {
+            this.firstIndex = firstIndex;
+            this.file = file;
+            this.channel = new RandomAccessFile(file, "rw").getChannel();
+        }
+
+        int lastIndex() {
+            return firstIndex + positions.size() - 1;
+        }
+
+        void delete() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.warning("Failed to close " + file + ": " + e);
+            }
+            if (!file.delete()) {
+                logger.warning("Failed to delete " + file);
+            }
+        }
+    }
+
+    /** Creates a log kept in memory only. */
+    RaftLog() {
+        this.directory = null;
+        this.segmentSize = DEFAULT_SEGMENT_SIZE;
+    }
+
+    /**
+     * Opens the log in the given directory, creating it if it does not exist.
+     *
+     * @param directory directory of the segment files
+     * @param segmentSize size in bytes after which a new segment is started
+     * @param snapshotIndex index of the last entry covered by the latest snapshot
+     * @param snapshotTerm term of the last entry covered by the latest snapshot
+     * @throws IOException if the segments could not be read
+     */
+    RaftLog(File directory, long segmentSize, int snapshotIndex, int snapshotTerm)
+            throws IOException {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("Invalid segment size " + segmentSize);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create raft log directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.snapshotIndex = snapshotIndex;
+        this.snapshotTerm = snapshotTerm;
+        recover();
+        syncedIndex = lastIndex();
+    }
+
+    /** Reads the entries after the snapshot from the segment files. */
+    private void recover() throws IOException {
+        File[] files =
+                directory.listFiles(
+                        new FilenameFilter() {
+                            @Override
+                            public boolean accept(File dir, String name) {
+                                return name.endsWith(SEGMENT_SUFFIX);
+                            }
+                        });
+        Arrays.sort(files);
+
+        boolean torn = false;
+        for (File file : files) {
+            int firstIndex =
+                    Integer.parseInt(
+                            file.getName().substring(0, file.getName().indexOf(SEGMENT_SUFFIX)));
+            if (torn || firstIndex > lastIndex() + 1) {
+                // Follows a torn entry or a gap, so it can't be trusted.
+                logger.warning("Deleting raft log segment " + file);
+                file.delete();
+                continue;
+            }
+
+            Segment segment = new Segment(firstIndex, file);
+            int index = firstIndex;
+            long position = 0;
+            long length = segment.channel.size();
+            while (position < length) {
+                LogEntry entry = read(segment.channel, position, length);
+                if (entry == null) {
+                    logger.warning(
+                            String.format(
+                                    "Dropping torn raft log entry %d at %s:%d",
+                                    index, file, position));
+                    segment.channel.truncate(position);
+                    torn = true;
+                    break;
+                }
+                segment.positions.add(position);
+                if (index > snapshotIndex) {
+                    // Segments may start before the snapshot, and a later segment
+                    // replaces any entries of an earlier one it overlaps.
+                    truncateEntries(index);
+                    entries.add(entry);
+                }
+                position = segment.channel.position();
+                index++;
+            }
+            segment.size = position;
+
+            if (segment.positions.isEmpty() || segment.lastIndex() <= snapshotIndex) {
+                segment.delete();
+            } else {
+                segments.add(segment);
+            }
+        }
+    }
+
+    /** @return the entry at the given position, or <code>null</code> if it is torn */
+    private static LogEntry read(FileChannel channel, long position, long length)
+            throws IOException {
+        if (length - position < HEADER_SIZE) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        channel.read(header, position);
+        header.flip();
+        int size = header.getInt();
+        int crc = header.getInt();
+        if (size < 0 || length - position - HEADER_SIZE < size) {
+            return null;
+        }
+        ByteBuffer data = ByteBuffer.allocate(size);
+        channel.read(data, position + HEADER_SIZE);
+        if (crc != crc(data.array())) {
+            return null;
+        }
+        channel.position(position + HEADER_SIZE + size);
+        try {
+            return (LogEntry) Utils.toObject(data.array());
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Failed to read raft log entry", e);
+        }
+    }
+
+    private static int crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return (int) crc.getValue();
+    }
+
+    /** @return index of the last entry, or of the last entry covered by the snapshot */
+    synchronized int lastIndex() {
+        return snapshotIndex + entries.size();
+    }
+
+    /** @return number of entries, including those covered by the snapshot */
+    synchronized int size() {
+        return lastIndex() + 1;
+    }
+
+    synchronized boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /** @return index of the first entry that is not covered by the snapshot */
+    synchronized int firstIndex() {
+        return snapshotIndex + 1;
+    }
+
+    synchronized int getSnapshotIndex() {
+        return snapshotIndex;
+    }
+
+    synchronized int getSnapshotTerm() {
+        return snapshotTerm;
+    }
+
+    /**
+     * @param index index of an entry after the snapshot
+     * @return the entry
+     * @throws IndexOutOfBoundsException if there is no such entry, or it is covered by the snapshot
+     */
+    synchronized LogEntry get(int index) {
+        if (index <= snapshotIndex || index > lastIndex()) {
+            throw new IndexOutOfBoundsException(
+                    String.format(
+                            "Index %d is not in the raft log (%d, %d]",
+                            index, snapshotIndex, lastIndex()));
+        }
+        return entries.get(index - snapshotIndex - 1);
+    }
+
+    /**
+     * @param index index of an entry, of the last entry covered by the snapshot, or {@link
+     *     PersistentState#INVALID_INDEX}
+     * @return term of the entry, or {@link PersistentState#INVALID_INDEX} before the first entry
+     */
+    synchronized int term(int index) {
+        if (index == snapshotIndex) {
+            return snapshotTerm;
+        }
+        return get(index).term;
+    }
+
+    /** @return term of the last entry, or {@link PersistentState#INVALID_INDEX} if there is none */
+    synchronized int lastTerm() {
+        return term(lastIndex());
+    }
+
+    /**
+     * @param fromIndex index of the first entry, after the snapshot
+     * @param toIndex index after the last entry
+     * @return a copy of the entries
+     */
+    synchronized List<LogEntry> subList(int fromIndex, int toIndex) {
+        if (fromIndex <= snapshotIndex) {
+            throw new IndexOutOfBoundsException(
+                    String.format(
+                            "Index %d is covered by the snapshot at %d", fromIndex, snapshotIndex));
+        }
+        return new ArrayList<LogEntry>(
+                entries.subList(fromIndex - snapshotIndex - 1, toIndex - snapshotIndex - 1));
+    }
+
+    /**
+     * Appends an entry. It is not durable until {@link #sync()} returns.
+     *
+     * @param entry log entry
+     * @return index of the entry
+     */
+    synchronized int add(LogEntry entry) {
+        write(entry);
+        entries.add(entry);
+        return lastIndex();
+    }
+
+    /** Appends entries. They are not durable until {@link #sync()} returns. */
+    synchronized void addAll(List<LogEntry> newEntries) {
+        for (LogEntry entry : newEntries) {
+            add(entry);
+        }
+    }
+
+    private void write(LogEntry entry) {
+        if (directory == null) {
+            return;
+        }
+        int index = lastIndex() + 1;
+        try {
+            Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            if (segment == null || segment.size >= segmentSize) {
+                segment =
+                        new Segment(
+                                index,
+                                new File(
+                                        directory,
+                                        String.format("%020d%s", index, SEGMENT_SUFFIX)));
+                segment.channel.truncate(0);
+                segments.add(segment);
+            }
+
+            byte[] data = Utils.toBytes(entry);
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + data.length);
+            buffer.putInt(data.length).putInt(crc(data)).put(data);
+            buffer.flip();
+            long position = segment.size;
+            while (buffer.hasRemaining()) {
+                position += segment.channel.write(buffer, position);
+            }
+            segment.positions.add(segment.size);
+            segment.size = position;
+            unsynced.add(segment);
+        } catch (IOException e) {
+            throw new RaftRuntimeException("Failed to append raft log entry " + index, e);
+        }
+    }
+
+    /**
+     * Deletes the entry at the given index and all that follow it.
+     *
+     * @param index index of the first entry to delete, after the snapshot
+     */
+    synchronized void truncate(int index) {
+        if (index <= snapshotIndex) {
+            throw new IndexOutOfBoundsException(
+                    String.format(
+                            "Index %d is covered by the snapshot at %d", index, snapshotIndex));
+        }
+        if (index > lastIndex()) {
+            return;
+        }
+        truncateEntries(index);
+        truncations++;
+        if (syncedIndex >= index) {
+            syncedIndex = index - 1;
+        }
+
+        try {
+            while (!segments.isEmpty()) {
+                Segment segment = segments.get(segments.size() - 1);
+                if (segment.firstIndex >= index) {
+                    segments.remove(segments.size() - 1);
+                    unsynced.remove(segment);
+                    segment.delete();
+                    continue;
+                }
+                if (segment.lastIndex() >= index) {
+                    int count = index - segment.firstIndex;
+                    segment.size = segment.positions.get(count);
+                    segment.positions.subList(count, segment.positions.size()).clear();
+                    segment.channel.truncate(segment.size);
+                    unsynced.add(segment);
+                }
+                break;
+            }
+        } catch (IOException e) {
+            throw new RaftRuntimeException("Failed to truncate raft log at " + index, e);
+        }
+    }
+
+    private void truncateEntries(int index) {
+        if (index <= lastIndex()) {
+            entries.subList(index - snapshotIndex - 1, entries.size()).clear();
+        }
+    }
+
+    /** Replaces all entries. For unit tests only. */
+    synchronized void reset(List<LogEntry> newEntries) {
+        if (lastIndex() > snapshotIndex) {
+            truncate(snapshotIndex + 1);
+        }
+        addAll(newEntries);
+    }
+
+    /**
+     * Discards the entries covered by a snapshot. If the snapshot covers entries the log does not
+     * have, or the entry at its index has a different term, the whole log is discarded.
+     *
+     * @param index index of the last entry covered by the snapshot
+     * @param term term of the last entry covered by the snapshot
+     */
+    synchronized void compact(int index, int term) {
+        if (index <= snapshotIndex) {
+            return;
+        }
+        if (index > lastIndex() || get(index).term != term) {
+            truncateEntries(snapshotIndex + 1);
+        } else {
+            entries.subList(0, index - snapshotIndex).clear();
+        }
+        snapshotIndex = index;
+        snapshotTerm = term;
+        if (syncedIndex < index) {
+            syncedIndex = index;
+        }
+
+        while (!segments.isEmpty()) {
+            Segment segment = segments.get(0);
+            if (segment.lastIndex() > index && entries.size() > 0) {
+                break;
+            }
+            segments.remove(0);
+            unsynced.remove(segment);
+            segment.delete();
+        }
+    }
+
+    /**
+     * Makes all entries appended so far durable. Concurrent callers share the same sync, so a
+     * caller whose entries were synced by another one returns without syncing again.
+     */
+    void sync() {
+        if (syncedIndex >= lastIndex()) {
+            return;
+        }
+
+        /* The segments to sync are collected under syncLock. Otherwise a caller could take the
+        segment an earlier caller had collected but not forced yet off the unsynced set, force only
+        the segment entries rolled over to, and mark the entries of both as durable. */
+        synchronized (syncLock) {
+            int index;
+            long truncationsBefore;
+            Segment[] dirty;
+            synchronized (this) {
+                index = lastIndex();
+                truncationsBefore = truncations;
+                if (syncedIndex >= index) {
+                    return;
+                }
+                dirty = unsynced.toArray(new Segment[unsynced.size()]);
+                unsynced.clear();
+            }
+
+            for (Segment segment : dirty) {
+                try {
+                    segment.channel.force(false);
+                } catch (ClosedChannelException e) {
+                    // Deleted by compaction or truncation in the meantime.
+                } catch (IOException e) {
+                    throw new RaftRuntimeException("Failed to sync raft log " + segment.file, e);
+                }
+            }
+            synchronized (this) {
+                if (syncedIndex < index && truncations == truncationsBefore) {
+                    syncedIndex = index;
+                }
+            }
+        }
+    }
+
+    /** @return index of the last entry that is durable */
+    int getSyncedIndex() {
+        return syncedIndex;
+    }
+
+    /** Closes the segment files. */
+    synchronized void close() {
+        for (Segment segment : segments) {
+            try {
+                segment.channel.close();
+            } catch (IOException e) {
+                logger.warning("Failed to close " + segment.file + ": " + e);
+            }
+        }
+        segments.clear();
+        unsynced.clear();
+    }
+}
@@ -5,4 +5,8 @@ public class RaftRuntimeException extends RuntimeException {
     public RaftRuntimeException(String s) {
         super(s);
     }
+
+    public RaftRuntimeException(String s, Throwable cause) {
+        super(s, cause);
+    }
 }
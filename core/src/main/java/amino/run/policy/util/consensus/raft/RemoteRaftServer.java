@@ -35,6 +35,23 @@ public interface RemoteRaftServer {
             int leaderCommit)
             throws InvalidTermException, PrevLogTermMismatch, InvalidLogIndex;
 
+    /**
+     * installSnapshot is invoked by leader to send a snapshot to a follower that is missing log
+     * entries the leader has already discarded.
+     *
+     * @param term leader’s term
+     * @param leader so follower can redirect clients
+     * @param lastIncludedIndex the snapshot replaces all entries up through and including this
+     *     index
+     * @param lastIncludedTerm term of lastIncludedIndex
+     * @param data serialized state machine
+     * @return currentTerm, for leader to update itself
+     * @throws InvalidTermException
+     */
+    int installSnapshot(
+            int term, UUID leader, int lastIncludedIndex, int lastIncludedTerm, byte[] data)
+            throws InvalidTermException;
+
     /**
      * Invoked by candidates to gather votes.
      *
@@ -59,4 +76,13 @@ public interface RemoteRaftServer {
      * @throws java.lang.Exception
      */
     Object applyToStateMachine(Object operation) throws java.lang.Exception;
+
+    /**
+     * readIndex is invoked by followers before serving a read, to learn the index up to which they
+     * must apply the log for the read to be linearizable.
+     *
+     * @return leader's commitIndex, once it confirmed that it is still the leader
+     * @throws java.lang.Exception a LeaderException if the server is not the leader
+     */
+    int readIndex() throws java.lang.Exception;
 }
@@ -4,17 +4,23 @@ import static amino.run.policy.util.consensus.raft.PersistentState.INVALID_INDEX
 import static amino.run.policy.util.consensus.raft.PersistentState.NO_LEADER;
 
 import amino.run.policy.util.ResettableTimer;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TimerTask;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -32,6 +38,9 @@ public class Server
     /** How long we wait for a heartbeat from the leader before starting a new leader election. */
     public static final int LEADER_HEARTBEAT_TIMEOUT = 3000; // milliseconds
 
+    /** Number of entries applied since the latest snapshot after which a new one is taken. */
+    public static final int DEFAULT_SNAPSHOT_THRESHOLD = 10000;
+
     /** If we don't receive a heartbeat from the leader, start an election. */
     ResettableTimer leaderHeartbeatReceiveTimer;
 
@@ -42,6 +51,23 @@ public class Server
         CANDIDATE
     };
 
+    /** How the leader confirms that it is still the leader before serving a read. */
+    public enum ReadMode {
+        /** Exchange a round of heartbeats with a majority of servers for every read. */
+        READ_INDEX,
+        /**
+         * Serve reads without exchanging heartbeats while a majority of servers acknowledged the
+         * leader within the lease. Relies on clocks drifting less than {@link #LEASE_MARGIN}.
+         */
+        LEASE
+    }
+
+    /**
+     * Fraction of {@link #LEADER_HEARTBEAT_TIMEOUT} by which a leader lease is shorter than the
+     * time followers wait before starting an election, to allow for clock drift.
+     */
+    static final double LEASE_MARGIN = 0.1;
+
     private static final Logger logger = Logger.getLogger(Server.class.getCanonicalName());
 
     // Avoid creating a new empty log segment for each heartbeat, to reduce garbage collection.
@@ -56,19 +82,64 @@ public class Server
     StateMachineApplier applier; // Delegate to apply state changes.
 
     /**
-     * Constructor
+     * Held while committed log entries are applied to the state machine, or it is snapshotted or
+     * restored.
+     */
+    private final Object applyLock = new Object();
+
+    /** Number of entries applied since the latest snapshot after which a new one is taken. */
+    private final int snapshotThreshold;
+
+    /** Held to write to the state machine, and to read from it without going through the log. */
+    private final ReentrantReadWriteLock stateMachineLock = new ReentrantReadWriteLock();
+
+    /** Notified when log entries have been applied. */
+    private final Object appliedMonitor = new Object();
+
+    private volatile ReadMode readMode = ReadMode.READ_INDEX;
+
+    /** When we last heard from the leader, see {@link System#nanoTime()}. */
+    private volatile long lastLeaderContactNanos;
+
+    /**
+     * Constructor for a server whose state is kept in memory only.
      *
      * <p>Note that the constructor does not start the RAFT algorithm. To do that, call addServer()
      * for each server, and then call start()
      */
     public Server(StateMachineApplier applier) {
+        this(applier, new PersistentState(), DEFAULT_SNAPSHOT_THRESHOLD);
+    }
+
+    /**
+     * Constructor for a server whose state is saved in a directory, and restored from it if it was
+     * saved before.
+     *
+     * @param applier state machine
+     * @param directory directory of the persistent state and log
+     * @param segmentSize size in bytes after which a new log segment is started
+     * @param snapshotThreshold number of entries applied since the latest snapshot after which a
+     *     new one is taken
+     * @throws IOException if the saved state could not be read
+     */
+    public Server(
+            StateMachineApplier applier, File directory, long segmentSize, int snapshotThreshold)
+            throws IOException {
+        this(applier, new PersistentState(directory, segmentSize), snapshotThreshold);
+    }
+
+    private Server(StateMachineApplier applier, PersistentState pState, int snapshotThreshold) {
+        if (snapshotThreshold <= 0) {
+            throw new IllegalArgumentException("Invalid snapshot threshold " + snapshotThreshold);
+        }
         /** Delegate applier, leader, follower and candidate behaviour. */
         this.applier = applier;
-        this.pState = new PersistentState();
+        this.pState = pState;
         this.vState = new VolatileState();
         this.leader = new Leader();
         this.follower = new Follower();
         this.candidate = new Candidate();
+        this.snapshotThreshold = snapshotThreshold;
     }
 
     public UUID getMyServerID() {
@@ -77,6 +148,7 @@ public class Server
 
     public void start() {
         // TODO: Perform a pre-flight check.
+        restoreSnapshot();
         /** Start off being a follower. */
         this.become(State.FOLLOWER, vState.getState());
     }
@@ -85,6 +157,25 @@ public class Server
         this.become(State.NONE, vState.getState());
     }
 
+    public ReadMode getReadMode() {
+        return readMode;
+    }
+
+    /**
+     * Set how reads are confirmed. All servers of a group must use the same mode, as followers
+     * only refuse to vote for a new leader while the lease of the current one may be valid in
+     * {@link ReadMode#LEASE} mode.
+     */
+    public void setReadMode(ReadMode readMode) {
+        this.readMode = readMode;
+    }
+
+    /** Stop the server, and close its persistent state. */
+    public void close() {
+        stop();
+        pState.close();
+    }
+
     /**
      * Transition to a new state if current state is preconditionState, i.e. optimistic concurrency.
      *
@@ -175,67 +266,152 @@ public class Server
         synchronized (leaderHeartbeatReceiveTimer) {
             leaderHeartbeatReceiveTimer.reset(); // This is a heartbeat from the leader.
         }
+        lastLeaderContactNanos = System.nanoTime();
 
+        RaftLog log = pState.log();
         synchronized (pState) {
             /**
              * 2. Reply false if log doesn’t contain an entry at prevLogIndex whose term matches
              * prevLogTerm (§5.3)
              */
-            LogEntry prevLogEntry;
-            if (prevLogIndex >= 0) {
-                try {
-                    prevLogEntry = pState.log().get(prevLogIndex);
-                } catch (IndexOutOfBoundsException e) {
-                    throw new InvalidLogIndex(
-                            "Attempt to append entry with invalid previous log index: "
-                                    + prevLogIndex,
-                            prevLogIndex);
-                }
+            if (prevLogIndex > log.lastIndex()) {
+                throw new InvalidLogIndex(
+                        "Attempt to append entry with invalid previous log index: " + prevLogIndex,
+                        prevLogIndex);
+            }
 
+            // Entries up to the snapshot are committed, so they match the leader's.
+            if (prevLogIndex >= 0 && prevLogIndex >= log.getSnapshotIndex()) {
+                int actualTerm = log.term(prevLogIndex);
                 /* Need to check for the prev log term */
-                if (prevLogEntry.term != prevLogTerm) {
+                if (actualTerm != prevLogTerm) {
                     throw new PrevLogTermMismatch(
                             "Attempt to append entry with invalid previous log term.  Requested term "
                                     + prevLogTerm
                                     + ", actual term: "
-                                    + prevLogEntry.term,
+                                    + actualTerm,
                             prevLogIndex,
-                            prevLogEntry.term,
+                            actualTerm,
                             prevLogTerm);
                 }
             }
 
             /**
              * 3. If an existing entry conflicts with a new one (same index but different terms),
-             * delete the existing entry and all that follow it (§5.3)
+             * delete the existing entry and all that follow it (§5.3) 4. Append any new entries not
+             * already in the log
              */
             int logIndex = prevLogIndex;
-
-            /* Delete the existing conflicting entries and append the new entries */
-            if (pState.log().size() - 1 >= ++logIndex) {
-                logger.fine(
-                        String.format(
-                                "%s: Removing conflicting log entries. Current log size=%d, Current commit index=%d. Replacing logs starting from index=%d",
-                                pState.myServerID,
-                                pState.log().size(),
-                                this.vState.getCommitIndex(),
-                                logIndex));
-                pState.setLog(pState.log().subList(0, logIndex));
+            for (LogEntry entry : entries) {
+                if (++logIndex <= log.getSnapshotIndex()) {
+                    continue;
+                }
+                if (logIndex <= log.lastIndex()) {
+                    if (log.term(logIndex) == entry.term) {
+                        continue;
+                    }
+                    logger.fine(
+                            String.format(
+                                    "%s: Removing conflicting log entries. Current log size=%d, Current commit index=%d. Replacing logs starting from index=%d",
+                                    pState.myServerID,
+                                    log.size(),
+                                    this.vState.getCommitIndex(),
+                                    logIndex));
+                    log.truncate(logIndex);
+                }
+                log.add(entry);
             }
 
-            // entries is non null. Could be empty or with some entries in it
-            pState.log().addAll(entries);
-
             /**
-             * 4. If leaderCommit > commitIndex, set commitIndex = min(leaderCommit, index of last
+             * 5. If leaderCommit > commitIndex, set commitIndex = min(leaderCommit, index of last
              * new entry)
              */
             if (leaderCommit > vState.getCommitIndex()) {
                 vState.setCommitIndex(
-                        Math.min(leaderCommit, pState.log().size() - 1), vState.getCommitIndex());
+                        Math.min(leaderCommit, prevLogIndex + entries.size()),
+                        vState.getCommitIndex());
             }
         }
 
+        // The leader counts the entries as stored once we reply.
+        log.sync();
+        applyCommitted();
+
+        return pState.getCurrentTerm();
+    }
+
+    /**
+     * installSnapshot is invoked by leader to send a snapshot to a follower that is missing log
+     * entries the leader has already discarded.
+     *
+     * @param term leader’s term
+     * @param leader so follower can redirect clients
+     * @param lastIncludedIndex the snapshot replaces all entries up through and including this
+     *     index
+     * @param lastIncludedTerm term of lastIncludedIndex
+     * @param data serialized state machine
+     * @return currentTerm, for leader to update itself
+     */
+    public int installSnapshot(
+            int term, UUID leader, int lastIncludedIndex, int lastIncludedTerm, byte[] data)
+            throws InvalidTermException {
+        logger.info(
+                String.format(
+                        "%s: received InstallSnapshot request from leader %s, term %d, lastIncludedIndex=%d, lastIncludedTerm=%d, size=%d",
+                        pState.myServerID,
+                        leader,
+                        term,
+                        lastIncludedIndex,
+                        lastIncludedTerm,
+                        data.length));
+
+        respondToRemoteTerm(term);
+
+        /** 1. Reply immediately if term < currentTerm */
+        if (term < pState.getCurrentTerm()) {
+            throw new InvalidTermException(
+                    "Server: Attempt to install snapshot from prior leader term "
+                            + term
+                            + ", current term "
+                            + pState.getCurrentTerm(),
+                    pState.getCurrentTerm());
+        }
+
+        vState.setCurrentLeader(leader);
+        synchronized (leaderHeartbeatReceiveTimer) {
+            leaderHeartbeatReceiveTimer.reset(); // This is a heartbeat from the leader.
+        }
+        lastLeaderContactNanos = System.nanoTime();
+
+        synchronized (applyLock) {
+            if (lastIncludedIndex <= vState.getLastApplied()) {
+                return pState.getCurrentTerm(); // We already have everything it covers.
+            }
+            /**
+             * 2. Save snapshot file, discard any existing or partial snapshot with a smaller index.
+             * 3. If existing log entry has same index and term as snapshot’s last included entry,
+             * retain log entries following it. 4. Discard the entire log otherwise. 5. Reset state
+             * machine using snapshot contents.
+             */
+            stateMachineLock.writeLock().lock();
+            try {
+                applier.restore(data);
+            } catch (java.lang.Exception e) {
+                throw new RaftRuntimeException("Failed to restore snapshot", e);
+            } finally {
+                stateMachineLock.writeLock().unlock();
+            }
+            synchronized (pState) {
+                pState.setSnapshot(new Snapshot(lastIncludedIndex, lastIncludedTerm, data));
+                vState.setLastApplied(lastIncludedIndex, vState.getLastApplied());
+                int commitIndex;
+                while ((commitIndex = vState.getCommitIndex()) < lastIncludedIndex) {
+                    vState.setCommitIndex(lastIncludedIndex, commitIndex);
+                }
+            }
+            notifyApplied();
+        }
+
         applyCommitted();
 
         return pState.getCurrentTerm();
@@ -259,6 +435,20 @@ public class Server
                 String.format(
                         "%s received vote request from %s (term=%d, lastLogIndex=%d, lastLogTerm=%d)",
                         pState.myServerID, candidate, term, lastLogIndex, lastLogTerm));
+        if (readMode == ReadMode.LEASE
+                && vState.getState() == State.FOLLOWER
+                && !vState.getCurrentLeader().equals(NO_LEADER)
+                && !candidate.equals(vState.getCurrentLeader())
+                && System.nanoTime() - lastLeaderContactNanos
+                        < TimeUnit.MILLISECONDS.toNanos(LEADER_HEARTBEAT_TIMEOUT)) {
+            // The lease of the current leader may still be valid, so it may still be serving
+            // reads. Don't even update our term (see §6 of the RAFT paper).
+            throw new AlreadyVotedException(
+                    String.format(
+                            "Request to vote for %s but heard from leader %s within the election timeout (current term = %d)",
+                            candidate, vState.getCurrentLeader(), pState.getCurrentTerm()),
+                    pState.getCurrentTerm());
+        }
         if (!candidate.equals(
                 pState.myServerID)) { // We sometimes vote for ourselves, to that's not considered a
             // request from a remote server.
@@ -274,7 +464,7 @@ public class Server
             localLogSize = pState.log().size();
             myLastLogIndex = this.lastLogIndex();
             if (myLastLogIndex != -1) {
-                myLastLogTerm = pState.log().get(myLastLogIndex).term;
+                myLastLogTerm = pState.log().term(myLastLogIndex);
             }
         }
 
@@ -322,36 +512,135 @@ public class Server
 
     /**
      * Apply log entries that have been committed but not yet applied. • If commitIndex >
-     * lastApplied: increment lastApplied, apply log[lastApplied] to state machine (§5.3)
+     * lastApplied: increment lastApplied, apply log[lastApplied] to state machine (§5.3). On the
+     * leader, the result of each entry is returned to the client waiting for it.
      */
     void applyCommitted() {
-        int lastApplied;
-        while (vState.getCommitIndex() > (lastApplied = vState.getLastApplied())) {
-            LogEntry entry;
-            synchronized (pState) {
-                entry = pState.log().get(vState.incrementLastApplied(lastApplied));
+        // Entries must be applied one at a time and in order, by whichever thread gets here first.
+        synchronized (applyLock) {
+            int lastApplied;
+            boolean applied = false;
+            while (vState.getCommitIndex() > (lastApplied = vState.getLastApplied())) {
+                LogEntry entry;
+                int logIndex;
+                synchronized (pState) {
+                    logIndex = vState.incrementLastApplied(lastApplied);
+                    entry = pState.log().get(logIndex);
+                }
+                logger.fine(pState.myServerID + ": Applying " + entry);
+                Object returnVal = null;
+                java.lang.Exception exception = null;
+                stateMachineLock.writeLock().lock();
+                try {
+                    if (entry.operation != null) { // null for the no-ops of new leaders
+                        returnVal = applier.apply(entry.operation);
+                    }
+                } catch (java.lang.Exception e) {
+                    logger.warning(
+                            String.format(
+                                    "Operation %s generated exception %s on replica.  "
+                                            + "This should generally not be a problem, as the same exception should be "
+                                            + "generated on the master and all other replicas, and returned to the client "
+                                            + "for appropriate action (e.g. retry)",
+                                    entry, e));
+                    exception = e;
+                } finally {
+                    stateMachineLock.writeLock().unlock();
+                }
+                applied = true;
+                leader.applied(logIndex, returnVal, exception);
+                if (logIndex - pState.log().getSnapshotIndex() >= snapshotThreshold) {
+                    takeSnapshot(logIndex, entry.term);
+                }
+                // Note that is doesn't matter what the result of the call is.
+                // As long as we execute them all in the same order on all servers.
+                // We could try to return a failure if the method call throws an exception,
+                // but chances are that it will throw the same exception on the master (as all
+                // replicas run method calls in the same sequence).  So in the absence of external
+                // side effects that succeed on some replicas and fail on others, this is safe.
+                // If we want to deal with external side effects we need to layer a transaction
+                // protocol on top of Server.  We can do that later.
+            }
+            if (applied) {
+                notifyApplied();
+            }
+        }
+    }
+
+    private void notifyApplied() {
+        synchronized (appliedMonitor) {
+            appliedMonitor.notifyAll();
+        }
+    }
+
+    /**
+     * Wait until the log entry at the given index has been applied.
+     *
+     * @param logIndex
+     * @param timeoutMillis
+     * @return <code>true</code> if it was applied in time, else <code>false</code>
+     * @throws InterruptedException
+     */
+    boolean awaitApplied(int logIndex, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (appliedMonitor) {
+            while (vState.getLastApplied() < logIndex) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                appliedMonitor.wait(remaining);
             }
-            logger.fine(pState.myServerID + ": Applying " + entry);
+        }
+        return true;
+    }
+
+    /**
+     * Snapshot the state machine, and discard the log entries the snapshot covers. Must be called
+     * with applyLock held, right after the entry at logIndex was applied.
+     *
+     * @param logIndex index of the last applied entry
+     * @param term term of the last applied entry
+     */
+    private void takeSnapshot(int logIndex, int term) {
+        try {
+            long start = System.currentTimeMillis();
+            Snapshot snapshot = new Snapshot(logIndex, term, applier.snapshot());
+            pState.setSnapshot(snapshot);
+            logger.info(
+                    String.format(
+                            "%s: Took %s in %d ms",
+                            pState.myServerID, snapshot, System.currentTimeMillis() - start));
+        } catch (java.lang.Exception e) {
+            // Keep the log, and try again after the next entry is applied.
+            logger.warning(
+                    String.format(
+                            "%s: Failed to take snapshot at log index %d: %s",
+                            pState.myServerID, logIndex, e));
+        }
+    }
+
+    /** Restore the state machine from the latest snapshot, if it has not been applied yet. */
+    private void restoreSnapshot() {
+        synchronized (applyLock) {
+            Snapshot snapshot = pState.getSnapshot();
+            if (snapshot == null || snapshot.index <= vState.getLastApplied()) {
+                return;
+            }
+            logger.info(String.format("%s: Restoring %s", pState.myServerID, snapshot));
+            stateMachineLock.writeLock().lock();
             try {
-                applier.apply(entry.operation);
+                applier.restore(snapshot.data);
             } catch (java.lang.Exception e) {
-                logger.warning(
-                        String.format(
-                                "Operation %s generated exception %s on replica.  "
-                                        + "This should generally not be a problem, as the same exception should be "
-                                        + "generated on the master and all other replicas, and returned to the client "
-                                        + "for appropriate action (e.g. retry)",
-                                entry, e));
+                throw new RaftRuntimeException("Failed to restore " + snapshot, e);
+            } finally {
+                stateMachineLock.writeLock().unlock();
+            }
+            vState.setLastApplied(snapshot.index, vState.getLastApplied());
+            int commitIndex;
+            while ((commitIndex = vState.getCommitIndex()) < snapshot.index) {
+                vState.setCommitIndex(snapshot.index, commitIndex);
             }
-            // Note that is doesn't matter what the result of the call is.
-            // As long as we execute them all in the same order on all servers.
-            // We could try to return a failure if the method call throws an exception,
-            // but chances are that it will throw the same exception on the master (as all replicas
-            // run method calls in the same sequence).  So in the absence of external side effects
-            // that
-            // succeed on some replicas and fail on others, this is safe.
-            // If we want to deal with external side effects we need to layer a transaction protocol
-            // on top of Server.  We can do that later.
         }
     }
 
@@ -378,30 +667,89 @@ public class Server
         }
     }
 
-    private int lastLogIndex() {
-        synchronized (pState.log()) {
-            return pState.log().size() - 1;
+    /**
+     * Apply a read-only operation to the state machine without appending it to the log. The result
+     * is linearizable: the operation sees the effects of all operations committed before it was
+     * received. The leader serves it once it confirmed that it is still the leader (see {@link
+     * ReadMode}). A follower serves it once it applied the log up to the commit index of the
+     * leader at the time of the read.
+     *
+     * @param operation to apply, i.e. a method invocation that does not change the state machine
+     * @return result of the method invocation
+     * @throws java.lang.Exception either an exception thrown by the method invocation, or a
+     *     LeaderException if the read should be sent to the leader.
+     */
+    public Object read(Object operation) throws java.lang.Exception {
+        logger.fine(String.format("%s: read(%s)", pState.myServerID, operation));
+        int readIndex;
+        RemoteRaftServer currentLeader;
+        if (vState.getState() == State.LEADER) {
+            readIndex = readIndex();
+        } else if (vState.getState() == State.FOLLOWER
+                && (currentLeader = getCurrentLeader()) != null) {
+            readIndex = currentLeader.readIndex();
+        } else {
+            throw new LeaderException(
+                    String.format("Current Leader is %s", vState.getCurrentLeader()),
+                    getCurrentLeader());
+        }
+
+        if (!awaitApplied(readIndex, LEADER_HEARTBEAT_TIMEOUT)) {
+            throw new LeaderException(
+                    String.format(
+                            "%s is behind the commit index %d of leader %s",
+                            pState.myServerID, readIndex, vState.getCurrentLeader()),
+                    getCurrentLeader());
+        }
+        stateMachineLock.readLock().lock();
+        try {
+            return applier.apply(operation);
+        } finally {
+            stateMachineLock.readLock().unlock();
         }
     }
 
+    /**
+     * Invoked by followers to learn the index up to which they must apply the log before serving a
+     * read, after the leader confirmed that it is still the leader.
+     *
+     * @return commit index of the leader
+     * @throws java.lang.Exception a LeaderException if we are not the leader.
+     */
+    public int readIndex() throws java.lang.Exception {
+        if (vState.getState() != State.LEADER) {
+            throw new LeaderException(
+                    String.format("Current Leader is %s", vState.getCurrentLeader()),
+                    getCurrentLeader());
+        }
+        int readIndex = leader.readIndex();
+        if (readMode == ReadMode.LEASE) {
+            // No heartbeat carried our commit index to the follower; don't keep it waiting for one.
+            leader.signalReplicators();
+        }
+        return readIndex;
+    }
+
+    private int lastLogIndex() {
+        return pState.log().lastIndex();
+    }
+
     private int prevLogIndex() {
         return Math.max(lastLogIndex() - 1, INVALID_INDEX);
     }
 
     private int lastLogTerm() {
-        if (pState.log().isEmpty()) {
-            return -1;
-        } else {
-            return pState.log().get(pState.log().size() - 1).term;
-        }
+        return pState.log().lastTerm();
     }
 
     private int prevLogTerm() {
-        int prev = prevLogIndex();
-        if (prev < 0) {
-            return -1;
-        } else {
-            return pState.log().get(prev).term;
+        synchronized (pState) {
+            int prev = prevLogIndex();
+            if (prev < pState.log().getSnapshotIndex()) {
+                return -1;
+            } else {
+                return pState.log().term(prev);
+            }
         }
     }
 
@@ -419,11 +767,27 @@ public class Server
         /** How frequently we send out heartbeats when we're the leader. */
         final int LEADER_HEARTBEAT_PERIOD = LEADER_HEARTBEAT_TIMEOUT / 3;
 
-        /** Periodically send heartbeats when we're the leader. */
-        ResettableTimer leaderHeartbeatSendTimer;
+        /** Maximum number of log entries sent to a follower in one appendEntries call. */
+        final int MAX_ENTRIES_PER_APPEND = 256;
+
+        /** One replicator for each follower, while we're the leader. */
+        Map<UUID, Replicator> replicators = new ConcurrentHashMap<UUID, Replicator>();
+
+        /** Results for clients waiting for their log entries to be applied, by log index. */
+        Map<Integer, CompletableFuture<Object>> waiting =
+                new ConcurrentHashMap<Integer, CompletableFuture<Object>>();
+
+        /**
+         * When the latest appendEntries call acknowledged by each server was sent, see {@link
+         * System#nanoTime()}.
+         */
+        Map<UUID, Long> lastContact = new ConcurrentHashMap<UUID, Long>();
+
+        /** Notified when a server acknowledged an appendEntries call. */
+        final Object contactMonitor = new Object();
 
-        /** Thread pool used for sending appendEntries (incl heartbeats) to followers. */
-        ThreadPoolExecutor appendEntriesThreadPool;
+        /** Held while committing the first entry of our term on behalf of a read. */
+        final Object noOpLock = new Object();
 
         Leader() {}
         /** Start being a leader. */
@@ -438,26 +802,13 @@ public class Server
             /** Reinitialize volatile leader state */
             nextIndex.clear();
             matchIndex.clear();
+            lastContact.clear();
             int lastLogIndex = lastLogIndex();
             for (UUID i : vState.otherServers.keySet()) {
                 nextIndex.put(i, lastLogIndex + 1);
-                matchIndex.put(i, 0);
+                matchIndex.put(i, INVALID_INDEX);
             }
 
-            appendEntriesThreadPool =
-                    (ThreadPoolExecutor)
-                            Executors.newFixedThreadPool(vState.otherServers.size() * 2 + 1);
-
-            leaderHeartbeatSendTimer =
-                    new ResettableTimer(
-                            new TimerTask() {
-                                public void run() {
-                                    sendHeartbeats();
-                                }
-                            },
-                            (long) LEADER_HEARTBEAT_PERIOD);
-            sendHeartbeats();
-
             /**
              * • If last log index ≥ nextIndex for a follower: send AppendEntries RPC with log
              * entries starting at nextIndex • If successful: update nextIndex and matchIndex for
@@ -466,58 +817,165 @@ public class Server
              * majority of matchIndex[i] ≥ N, and log[N].term == currentTerm: set commitIndex = N
              * (§5.3, §5.4).
              */
+            for (UUID i : vState.otherServers.keySet()) {
+                Replicator replicator = new Replicator(i);
+                replicators.put(i, replicator);
+                replicator.start();
+            }
         }
 
         /** Stop being a leader. */
         void stop() {
             logger.info(pState.myServerID + ": Stop being a leader.");
-            leaderHeartbeatSendTimer.cancel(); // Stop sending heartbeats.
-            appendEntriesThreadPool.shutdownNow();
-            appendEntriesThreadPool = null;
+            for (Replicator replicator : replicators.values()) {
+                replicator.halt();
+            }
+            replicators.clear();
+            synchronized (contactMonitor) {
+                contactMonitor.notifyAll(); // Fail pending reads.
+            }
+
+            // Entries not applied yet may or may not be committed by the next leader.
+            LeaderException e =
+                    new LeaderException(
+                            String.format(
+                                    "%s lost leadership. Current Leader is %s",
+                                    pState.myServerID, vState.getCurrentLeader()),
+                            getCurrentLeader());
+            for (Integer logIndex : waiting.keySet()) {
+                CompletableFuture<Object> result = waiting.remove(logIndex);
+                if (result != null) {
+                    result.completeExceptionally(e);
+                }
+            }
+        }
+
+        /**
+         * Replicates the log to one follower on its own thread, so that a slow or dead follower
+         * does not hold up the others. All entries appended since the previous appendEntries call
+         * to the follower returned are sent together in the next call, up to {@link
+         * #MAX_ENTRIES_PER_APPEND}. An empty call is sent as a heartbeat when there is nothing to
+         * replicate for {@link #LEADER_HEARTBEAT_PERIOD}.
+         */
+        class Replicator extends Thread {
+            final UUID otherServerID;
+            private volatile boolean running = true;
+            /** Whether new entries were appended since the follower was last sent entries. */
+            private boolean signalled = true;
+
+            Replicator(UUID otherServerID) {
+                super(String.format("raft-replicator-%s-%s", pState.myServerID, otherServerID));
+                this.otherServerID = otherServerID;
+                setDaemon(true);
+            }
+
+            /** Wake the replicator up to send new entries. */
+            synchronized void signal() {
+                signalled = true;
+                notify();
+            }
+
+            synchronized void halt() {
+                running = false;
+                notify();
+            }
+
+            /** @return whether to keep replicating */
+            private synchronized boolean await() throws InterruptedException {
+                long deadline = System.currentTimeMillis() + LEADER_HEARTBEAT_PERIOD;
+                long remaining;
+                while (running
+                        && !signalled
+                        && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                    wait(remaining);
+                }
+                signalled = false;
+                return running;
+            }
+
+            @Override
+            public void run() {
+                try {
+                    while (await() && vState.getState() == Server.State.LEADER) {
+                        try {
+                            if (sendAppendEntries(otherServerID, this) && running) {
+                                updateCommitIndex();
+                                applyCommitted();
+                            }
+                        } catch (RuntimeException e) {
+                            // The follower could not be reached. Try again with the next heartbeat.
+                            logger.warning(
+                                    String.format(
+                                            "%s: Failed to send appendEntries to %s: %s",
+                                            pState.myServerID, otherServerID, e));
+                            continue;
+                        }
+                        Integer next = nextIndex.get(otherServerID);
+                        if (next != null && next <= lastLogIndex()) {
+                            signal(); // More entries than fit in one call.
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    logger.fine(pState.myServerID + ": Replicator interrupted: " + e);
+                }
+            }
         }
 
         /**
          * Send a appendLog request to the specified server.
          *
          * @param otherServerID
+         * @param replicator replicator of the server; its updates are dropped once it is halted.
+         * @return <code>true</code> if the server appended entries, <code>false</code> if this was
+         *     a heartbeat or leadership was lost
          */
-        void sendAppendEntries(UUID otherServerID) {
+        boolean sendAppendEntries(UUID otherServerID, Replicator replicator) {
             boolean success = false;
             int logSize, currentTerm, lastLogIndex = 0;
-            List<LogEntry> entries;
-            while (!success && vState.getState() == State.LEADER) {
+            long contact = 0; // When the latest call was sent
+            List<LogEntry> entries = NO_LOG_ENTRIES;
+            while (!success && vState.getState() == State.LEADER && replicator.running) {
                 final Integer otherServerNextIndex = leader.nextIndex.get(otherServerID);
                 try {
                     int nextIndex = otherServerNextIndex == null ? 0 : otherServerNextIndex;
-                    int prevLogTerm;
-                    // TODO: If nextIndex == 0 and log.size() > 0, prevLogTerm should be set to
-                    // log.get(0).term
-                    // But it is currently set to INVALID_INDEX (-1)
+                    int prevLogTerm = INVALID_INDEX;
+                    Snapshot snapshot = null;
                     synchronized (pState) {
-                        logSize = pState.log().size();
-                        lastLogIndex = lastLogIndex();
+                        RaftLog log = pState.log();
+                        logSize = log.size();
                         currentTerm = pState.getCurrentTerm();
-                        if (nextIndex > 0 && logSize > 0) {
-                            prevLogTerm = pState.log().get(otherServerNextIndex - 1).term;
+                        if (nextIndex <= log.getSnapshotIndex()) {
+                            // The entries the server needs have been discarded.
+                            snapshot = pState.getSnapshot();
                         } else {
-                            prevLogTerm = INVALID_INDEX;
+                            lastLogIndex =
+                                    Math.min(
+                                            log.lastIndex(),
+                                            nextIndex + MAX_ENTRIES_PER_APPEND - 1);
+                            prevLogTerm = log.term(nextIndex - 1);
+                            entries =
+                                    logSize > nextIndex
+                                            ? log.subList(nextIndex, lastLogIndex + 1)
+                                            : NO_LOG_ENTRIES;
                         }
-                        entries =
-                                logSize > 0
-                                        ? new ArrayList(
-                                                pState.log().subList(nextIndex, lastLogIndex + 1))
-                                        : NO_LOG_ENTRIES;
                     }
-                    logger.fine(
-                            String.format(
-                                    "%s sending appendEntries to %s: otherServerNextIndex=%d, prevLogIndex=%d, lastLogIndex=%d, log.size=%d, entries.size=%d",
-                                    pState.myServerID,
-                                    otherServerID,
-                                    otherServerNextIndex,
-                                    nextIndex - 1,
-                                    lastLogIndex,
-                                    logSize,
-                                    entries.size()));
+                    if (snapshot != null) {
+                        sendSnapshot(otherServerID, currentTerm, snapshot, replicator);
+                        continue;
+                    }
+                    if (logger.isLoggable(Level.FINE)) {
+                        logger.fine(
+                                String.format(
+                                        "%s sending appendEntries to %s: otherServerNextIndex=%d, prevLogIndex=%d, lastLogIndex=%d, log.size=%d, entries.size=%d",
+                                        pState.myServerID,
+                                        otherServerID,
+                                        otherServerNextIndex,
+                                        nextIndex - 1,
+                                        lastLogIndex,
+                                        logSize,
+                                        entries.size()));
+                    }
+                    contact = System.nanoTime();
                     int remoteTerm =
                             getServer(otherServerID)
                                     .appendEntries(
@@ -529,62 +987,187 @@ public class Server
                                             vState.getCommitIndex());
                     success = true;
                     respondToRemoteTerm(remoteTerm); // Might lose leadership.
+                    recordContact(otherServerID, contact);
                 } catch (InvalidTermException e) {
                     logger.warning(e.toString());
                     respondToRemoteTerm(e.currentTerm);
                 } catch (PrevLogTermMismatch e) {
                     logger.warning(e.toString());
+                    recordContact(otherServerID, contact); // It still accepts us as leader.
                     this.nextIndex.put(
                             otherServerID, otherServerNextIndex - 1); // Decrement and try again.
                 } catch (
                         InvalidLogIndex
                                 e) { // The remote server doesn't have that log entry at all.
                     logger.severe(e.toString());
+                    recordContact(otherServerID, contact); // It still accepts us as leader.
                     this.nextIndex.put(
                             otherServerID, otherServerNextIndex - 1); // Decrement and try again.
                 }
             }
-            if (vState.getState() == State.LEADER) {
+            if (success && vState.getState() == State.LEADER && replicator.running) {
                 this.nextIndex.put(otherServerID, lastLogIndex + 1);
                 this.matchIndex.put(otherServerID, lastLogIndex);
+                return !entries.isEmpty();
             }
+            return false;
         }
 
-        /** Send heartbeats to all servers. */
-        void sendHeartbeats() { // We might want to keep a separate timer for each other server.
-            // For now, we use one timer.
-            if (vState.getState() == State.LEADER) {
-                final Iterator<UUID> i = vState.otherServers.keySet().iterator();
-                while (i.hasNext()) {
-                    final UUID server = i.next();
-                    appendEntriesThreadPool.execute(
-                            new Runnable() {
-                                @Override
-                                public void run() {
-                                    /* Ensure a single thread is used by each server at any point of time. So that we
-                                     * don't make another call to sendAppendEntries for the particular server when
-                                     * previous call is not returned yet. Otherwise, later invoked sendAppendEntries
-                                     * may return before its previous call and can result in log consistency check
-                                     * failures even when leader has not changed. */
-                                    synchronized (server) {
-                                        sendAppendEntries(server);
-                                    }
-                                    updateCommitIndex();
-                                    try {
-                                        applyCommitted();
-                                    } catch (java.lang.Exception e) {
-                                        logger.warning(
-                                                String.format(
-                                                        "%s: Applying operatation remotely on %s generated exception %s.  This can probably be ignored.",
-                                                        pState.myServerID, server, e));
-                                    }
-                                }
-                            });
+        /**
+         * Send the latest snapshot to a server that is missing entries it covers.
+         *
+         * @param otherServerID
+         * @param currentTerm
+         * @param snapshot
+         * @param replicator replicator of the server; its updates are dropped once it is halted.
+         * @throws InvalidTermException
+         */
+        void sendSnapshot(
+                UUID otherServerID, int currentTerm, Snapshot snapshot, Replicator replicator)
+                throws InvalidTermException {
+            logger.info(
+                    String.format(
+                            "%s sending %s to %s", pState.myServerID, snapshot, otherServerID));
+            long sent = System.nanoTime();
+            int remoteTerm =
+                    getServer(otherServerID)
+                            .installSnapshot(
+                                    currentTerm,
+                                    pState.myServerID,
+                                    snapshot.index,
+                                    snapshot.term,
+                                    snapshot.data);
+            respondToRemoteTerm(remoteTerm); // Might lose leadership.
+            recordContact(otherServerID, sent);
+            if (vState.getState() == State.LEADER && replicator.running) {
+                this.nextIndex.put(otherServerID, snapshot.index + 1);
+                this.matchIndex.put(otherServerID, snapshot.index);
+            }
+        }
+
+        /** Wake all replicators up to send new entries, or a heartbeat if there are none. */
+        void signalReplicators() {
+            for (Replicator replicator : replicators.values()) {
+                replicator.signal();
+            }
+        }
+
+        /**
+         * Record that a server acknowledged us as leader in a call sent at the given time.
+         *
+         * @param otherServerID
+         * @param sent see {@link System#nanoTime()}
+         */
+        void recordContact(UUID otherServerID, long sent) {
+            if (vState.getState() != State.LEADER) {
+                return;
+            }
+            synchronized (contactMonitor) {
+                Long previous = lastContact.get(otherServerID);
+                if (previous == null || previous - sent < 0) {
+                    lastContact.put(otherServerID, sent);
+                }
+                contactMonitor.notifyAll();
+            }
+        }
+
+        /**
+         * @param since see {@link System#nanoTime()}
+         * @return whether a majority quorum, including us, acknowledged calls sent after the given
+         *     time
+         */
+        private boolean confirmedSince(long since) {
+            int confirmed = 1; // Us
+            for (Long contact : lastContact.values()) {
+                if (contact - since >= 0) {
+                    confirmed++;
+                }
+            }
+            return confirmed >= majorityQuorumSize();
+        }
+
+        /**
+         * A leader holds a lease while a majority quorum acknowledged calls sent within the last
+         * {@link #LEADER_HEARTBEAT_TIMEOUT} less {@link #LEASE_MARGIN}: followers don't vote for
+         * another server until that long after they last heard from us, so no other leader can
+         * have been elected.
+         */
+        boolean hasLease() {
+            long lease =
+                    TimeUnit.MILLISECONDS.toNanos(
+                            (long) (LEADER_HEARTBEAT_TIMEOUT * (1 - LEASE_MARGIN)));
+            return confirmedSince(System.nanoTime() - lease);
+        }
+
+        /**
+         * Send heartbeats to all followers, and wait until a majority quorum acknowledged them.
+         * Concurrent reads share heartbeats.
+         *
+         * @param since see {@link System#nanoTime()}; only calls sent after then count
+         * @throws LeaderException if leadership could not be confirmed
+         */
+        void confirmLeadership(long since) throws LeaderException {
+            signalReplicators();
+            long deadline = System.currentTimeMillis() + LEADER_HEARTBEAT_TIMEOUT;
+            boolean confirmed;
+            synchronized (contactMonitor) {
+                while (!(confirmed = confirmedSince(since))
+                        && vState.getState() == State.LEADER) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    try {
+                        contactMonitor.wait(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
                 }
-                leaderHeartbeatSendTimer.reset();
+            }
+            if (!confirmed || vState.getState() != State.LEADER) {
+                throw new LeaderException(
+                        String.format(
+                                "%s could not confirm leadership. Current Leader is %s",
+                                pState.myServerID, vState.getCurrentLeader()),
+                        getCurrentLeader());
             }
         }
 
+        /**
+         * Determine the index up to which the log must be applied to serve a read (§8 of the RAFT
+         * paper): our commit index, once we committed an entry of our term, and confirmed that we
+         * are still the leader.
+         *
+         * @return read index
+         * @throws java.lang.Exception a LeaderException if we are not the leader.
+         */
+        int readIndex() throws java.lang.Exception {
+            long start = System.nanoTime();
+            int term = pState.getCurrentTerm();
+            int commitIndex = vState.getCommitIndex();
+            if (commitIndex == INVALID_INDEX || pState.log().term(commitIndex) != term) {
+                // Until an entry of our term is committed, we don't know which entries of earlier
+                // terms are. Commit a no-op.
+                synchronized (noOpLock) {
+                    commitIndex = vState.getCommitIndex();
+                    if (commitIndex == INVALID_INDEX || pState.log().term(commitIndex) != term) {
+                        applyToStateMachine(null);
+                        commitIndex = vState.getCommitIndex();
+                    }
+                }
+            }
+            if (readMode != ReadMode.LEASE || !hasLease()) {
+                confirmLeadership(start);
+            }
+            if (pState.getCurrentTerm() != term) {
+                throw new LeaderException(
+                        String.format("Current Leader is %s", vState.getCurrentLeader()),
+                        getCurrentLeader());
+            }
+            return commitIndex;
+        }
+
         /**
          * Are a majority of matchIndex[i]>=logIndex, and log[logIndex].term = currentTerm
          *
@@ -593,22 +1176,26 @@ public class Server
          */
         boolean shouldBeCommitted(int logIndex) {
             synchronized (pState) {
-                if (pState.log().get(logIndex).term != pState.getCurrentTerm()) {
+                if (pState.log().term(logIndex) != pState.getCurrentTerm()) {
                     return false;
                 }
             }
 
-            int matches = 0;
-            if (0 == vState.otherServers.size()) {
+            // The leader only counts itself once the entry is durable.
+            int required = majorityQuorumSize();
+            if (pState.log().getSyncedIndex() >= logIndex) {
+                required--;
+            }
+            if (required == 0) {
                 return true;
             }
 
+            int matches = 0;
+
             for (UUID otherServerID : vState.otherServers.keySet()) {
-                int match = leader.matchIndex.get(otherServerID);
-                if (match >= logIndex) {
-                    if (++matches
-                            >= majorityQuorumSize()
-                                    - 1) { // -1 because the leader implicitly matches
+                Integer match = leader.matchIndex.get(otherServerID);
+                if (match != null && match >= logIndex) {
+                    if (++matches >= required) {
                         return true;
                     }
                 }
@@ -620,7 +1207,7 @@ public class Server
          * If there exists an N such that N>commitIndex, a majority of matchIndex[i]>=N, and
          * log[N].term = currentTerm, then set commitIndex = N (see 5.3, 5.3)
          */
-        void updateCommitIndex() {
+        synchronized void updateCommitIndex() {
             for (int i = lastLogIndex(); i > vState.getCommitIndex(); i--) {
                 if (shouldBeCommitted(i)) {
                     vState.setCommitIndex(i, vState.getCommitIndex());
@@ -631,7 +1218,10 @@ public class Server
 
         /**
          * Applies an operation to the state machine, after successfully appending it to the logs of
-         * a majority quorum of replicas.
+         * a majority quorum of replicas. Safe to call from many threads at once: operations
+         * appended while the replicators are busy are replicated together in their next
+         * appendEntries calls, and all clients whose entries were committed are woken up when the
+         * entries are applied.
          *
          * @param operation to apply, i.e. a method invocation
          * @return result of the method invocation
@@ -639,13 +1229,6 @@ public class Server
          *     applied locally, or a RAFTException indicating why the operation could not be
          *     applied.
          */
-        // TODO: This method should be thread safe
-        // Currently this thread is not thread safe. Suppose we have multiple threads executing this
-        // method in different speed. We further assume that the lastLogIndex observed by thread A
-        // is
-        // 20, thread A sends append entry requests to other servers to replicate entries up to 20.
-        // After thread A receives quorum replies, it will update the committed index to the latest
-        // index. In this case the latest index may have been increased to 25 by other threads.
         public Object applyToStateMachine(Object operation) throws java.lang.Exception {
             /**
              * If command received from client: append entry to local log, respond after entry
@@ -653,111 +1236,60 @@ public class Server
              */
             logger.fine(String.format("%s: applyToStateMachine(%s)", pState.myServerID, operation));
             final int logIndex;
+            CompletableFuture<Object> result = new CompletableFuture<Object>();
             synchronized (pState) {
-                pState.log().add(new LogEntry(operation, pState.getCurrentTerm()));
-                logIndex = lastLogIndex();
+                logIndex = pState.log().add(new LogEntry(operation, pState.getCurrentTerm()));
+                waiting.put(logIndex, result);
             }
-            final Semaphore replicationCounter =
-                    new Semaphore(0); // Initially we have zero replicas
-            final Iterator<UUID> i = vState.otherServers.keySet().iterator();
-            while (i.hasNext()) {
-                final UUID otherServerID = i.next();
-                final Integer otherServerNextIndex = leader.nextIndex.get(otherServerID);
-
-                // TODO: We should allocate one replication thread for each follower.
-                // Blindly putting replication request into a thread pool has a few drawbacks:
-                // 1) A dead follower will take all available threads and make the system hang
-                // 2) We have to deal with race conditions between multiple threads which try
-                // to update the status of the same follower
-                appendEntriesThreadPool.execute(
-                        new Runnable() {
-                            @Override
-                            public void run() {
-                                if (otherServerNextIndex == null
-                                        || logIndex >= otherServerNextIndex) {
-                                    // This is always true, but we put it here to be consistent with
-                                    // the formal algorithm.
-                                    /* Ensure a single thread is used by each server at any point of time. So that we
-                                     * don't make another call to sendAppendEntries for the particular server when
-                                     * previous call is not returned yet. Otherwise, later invoked sendAppendEntries
-                                     * may return before its previous call and can result in log consistency check
-                                     * failures even when leader has not changed. */
-                                    synchronized (otherServerID) {
-                                        sendAppendEntries(otherServerID);
-                                    }
-                                } else {
-                                    logger.warning(
-                                            String.format(
-                                                    "%s: Whooah! logIndex %d is not greater than otherServerNextIndex %s",
-                                                    pState.myServerID,
-                                                    logIndex,
-                                                    otherServerNextIndex));
-                                }
-                                replicationCounter.release();
-                            }
-                        });
+            if (vState.getState() != State.LEADER) {
+                // Lost leadership before the entry was registered; nobody would complete it.
+                waiting.remove(logIndex);
+                throw new LeaderException(
+                        String.format("Current Leader is %s", vState.getCurrentLeader()),
+                        getCurrentLeader());
             }
+            signalReplicators();
             logger.fine(
                     String.format(
                             "%s: Waiting for logindex %d to be committed to %d majority quorum.",
                             pState.myServerID, logIndex, majorityQuorumSize()));
-            try {
-                replicationCounter.acquire(majorityQuorumSize() - 1);
-            } catch (InterruptedException e) {
-                logger.warning(
-                        String.format(
-                                "Failed to commit logindex %d to quorum of %d.  Reason: %s",
-                                logIndex, majorityQuorumSize(), e));
-            }
-            logger.fine(
-                    String.format(
-                            "%s: Logindex %d was committed to %d majority quorum.",
-                            pState.myServerID, logIndex, majorityQuorumSize()));
+
+            // Entries appended by other clients in the meantime are synced along with ours.
+            pState.log().sync();
+            // Without followers, the entry is committed as soon as it is durable.
             updateCommitIndex();
-            Object returnVal = applyCommitted();
-            if (vState.getLastApplied() >= logIndex) {
+            applyCommitted();
+
+            try {
+                Object returnVal = result.get();
                 logger.fine("logIndex " + logIndex + " applied to state machine: " + operation);
-            } else {
-                logger.severe(
-                        String.format(
-                                "Whooah! Internal error: logIndex %d was committed by a majority quorum, but not applied locally.",
-                                logIndex));
+                return returnVal;
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw (java.lang.Exception) cause;
             }
-            return returnVal;
         }
 
         /**
-         * Apply log entries that have been committed but not yet applied. • If commitIndex >
-         * lastApplied: increment lastApplied, apply log[lastApplied] to state machine (§5.3). On
-         * the master, return the result of the last applied operation, for return to the client.
+         * Hands the result of an applied log entry to the client waiting for it, if any.
+         *
+         * @param logIndex index of the applied entry
+         * @param returnVal result of the operation
+         * @param exception exception thrown by the operation, or <code>null</code>
          */
-        Object applyCommitted() throws java.lang.Exception {
-            Object lastReturnVal = null;
-            java.lang.Exception lastException = null;
-            while (vState.getCommitIndex() > vState.getLastApplied()) {
-                LogEntry entry;
-                synchronized (pState) {
-                    entry = pState.log().get(vState.incrementLastApplied(vState.getLastApplied()));
-                }
-                logger.fine(pState.myServerID + ": Applying " + entry);
-                try {
-                    lastReturnVal = applier.apply(entry.operation);
-                    lastException = null;
-                } catch (java.lang.Exception e) {
-                    logger.warning(
-                            String.format(
-                                    "Operation %s generated exception %s.  "
-                                            + "This should generally not be a problem, as the same exception should be "
-                                            + "generated on the master and all other replicas, and returned to the client "
-                                            + "for appropriate action (e.g. retry)",
-                                    entry, e));
-                    lastException = e;
-                }
+        void applied(int logIndex, Object returnVal, java.lang.Exception exception) {
+            CompletableFuture<Object> result = waiting.remove(logIndex);
+            if (result == null) {
+                return;
             }
-            if (lastException != null) {
-                throw lastException;
+            if (exception != null) {
+                result.completeExceptionally(exception);
+            } else {
+                result.complete(returnVal);
             }
-            return lastReturnVal;
         }
     }
 
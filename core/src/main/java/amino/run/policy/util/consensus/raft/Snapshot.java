@@ -0,0 +1,22 @@
+package amino.run.policy.util.consensus.raft;
+
+/** Snapshot of the state machine of a RAFT server, covering the log up to an entry. */
+class Snapshot {
+    /** Index of the last log entry covered by the snapshot */
+    final int index;
+    /** Term of the last log entry covered by the snapshot */
+    final int term;
+    /** Serialized state machine, see {@link StateMachineApplier#snapshot()} */
+    final byte[] data;
+
+    Snapshot(int index, int term, byte[] data) {
+        this.index = index;
+        this.term = term;
+        this.data = data;
+    }
+
+    @Override
+    public String toString() {
+        return "Snapshot{" + "index=" + index + ", term=" + term + ", size=" + data.length + '}';
+    }
+}
@@ -11,4 +11,21 @@ public interface StateMachineApplier {
      */
     // TODO: Suggest define it as `Object apply(RPC rpc)`
     public Object apply(Object operation) throws java.lang.Exception;
+
+    /**
+     * Take a snapshot of the state machine. Never called concurrently with {@link #apply}.
+     *
+     * @return The serialized state of the state machine.
+     * @throws java.lang.Exception Any exception arising from taking the snapshot.
+     */
+    public byte[] snapshot() throws java.lang.Exception;
+
+    /**
+     * Replace the state of the state machine with a snapshot. Never called concurrently with {@link
+     * #apply}.
+     *
+     * @param snapshot The serialized state, as returned by {@link #snapshot()}.
+     * @throws java.lang.Exception Any exception arising from restoring the snapshot.
+     */
+    public void restore(byte[] snapshot) throws java.lang.Exception;
 }
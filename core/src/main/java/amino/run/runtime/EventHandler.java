@@ -1,5 +1,6 @@
 package amino.run.runtime;
 
+import amino.run.common.DispatchTable;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
@@ -7,8 +8,10 @@ import java.io.Serializable;
 import java.lang.reflect.Method;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
-import java.util.Hashtable;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 
 /**
  * Event handler holds the group policy stub or server policy stub object of the microservice or
@@ -16,43 +19,51 @@ import java.util.Iterator;
  */
 public class EventHandler implements Serializable {
 
-    private class PolicyHandler {
-        private Object policyObject;
-        private Method handler;
+    private static class PolicyHandler {
+        private final Object policyObject;
+        private final DispatchTable table;
+        private final int slot;
 
-        public PolicyHandler(Object policyObject, Method handler) {
+        public PolicyHandler(Object policyObject, DispatchTable table, int slot) {
             this.policyObject = policyObject;
-            this.handler = handler;
+            this.table = table;
+            this.slot = slot;
         }
 
         public Object invokeHandler(ArrayList<Object> params) throws Exception {
-            return handler.invoke(policyObject, params.toArray());
+            return table.invoke(slot, policyObject, params);
         }
     }
 
     private InetSocketAddress host;
     private ArrayList<Object> objects;
-    private Hashtable<String, PolicyHandler> handlers;
+    /** Handlers by method name. Built on first use, and never modified afterwards. */
+    private transient volatile Map<String, PolicyHandler> handlers;
 
-    private void fillMethodTable() {
-        handlers = new Hashtable<String, PolicyHandler>();
+    private Map<String, PolicyHandler> getHandlers() {
+        Map<String, PolicyHandler> map = handlers;
+        if (map != null) {
+            return map;
+        }
+
+        map = new HashMap<String, PolicyHandler>();
         Iterator<Object> it = objects.iterator();
         while (it.hasNext()) {
             Object obj = it.next();
-            Class<?> cl = obj.getClass();
+            DispatchTable table = DispatchTable.forDeclaredMethods(obj.getClass());
             // Grab the methods of the class
-            Method[] methods = cl.getDeclaredMethods();
-            for (int i = 0; i < methods.length; i++) {
-                PolicyHandler handler = new PolicyHandler(obj, methods[i]);
-                handlers.put(methods[i].toGenericString(), handler);
+            for (Method m : obj.getClass().getDeclaredMethods()) {
+                String name = m.toGenericString();
+                map.put(name, new PolicyHandler(obj, table, table.slotOf(name)));
             }
         }
+        handlers = Collections.unmodifiableMap(map);
+        return handlers;
     }
 
     public EventHandler(InetSocketAddress hostAddr, ArrayList<Object> policies) {
         host = hostAddr;
         objects = policies;
-        fillMethodTable();
     }
 
     /**
@@ -63,8 +74,9 @@ public class EventHandler implements Serializable {
      * @return the return value from the method
      */
     public Object invoke(String method, ArrayList<Object> params) throws Exception {
-        if (handlers.containsKey(method)) {
-            return handlers.get(method).invokeHandler(params);
+        PolicyHandler handler = getHandlers().get(method);
+        if (handler != null) {
+            return handler.invokeHandler(params);
         } else {
             return null;
         }
@@ -79,7 +91,7 @@ public class EventHandler implements Serializable {
     }
 
     public Boolean hasHandler(String method) {
-        return handlers.containsKey(method);
+        return getHandlers().containsKey(method);
     }
 
     private void writeObject(ObjectOutputStream out) throws IOException {
@@ -90,6 +102,5 @@ public class EventHandler implements Serializable {
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
         host = (InetSocketAddress) in.readObject();
         objects = (ArrayList<Object>) in.readObject();
-        fillMethodTable();
     }
 }
@@ -322,6 +322,9 @@ public class MicroService {
 
             serverPolicy.setParentGroupId(parentGroupOid);
             serverPolicy.setSpec(spec);
+            GlobalKernelReferences.nodeServer
+                    .getKernelObject(serverPolicy.$__getKernelOID())
+                    .setAdmissionSpec(spec.getAdmissionSpec());
 
             /* Execute onCreate for ServerPolicy */
             serverPolicy.onCreate(groupPolicyStub);
@@ -39,6 +39,13 @@ public class MicroServiceSpecTest {
         Assert.assertTrue(spec.getDmList().isEmpty());
     }
 
+    @Test(expected = IllegalArgumentException.class)
+    public void testAdmissionSpecValidation() {
+        AdmissionSpec admissionSpec = new AdmissionSpec();
+        admissionSpec.setMaxConcurrency(0);
+        MicroServiceSpec.newBuilder().setAdmissionSpec(admissionSpec).create().validate();
+    }
+
     private MicroServiceSpec createSpec() {
         ScaleUpFrontendPolicy.Config scaleUpConfig = new ScaleUpFrontendPolicy.Config();
         scaleUpConfig.setReplicationRateInMs(100);
@@ -47,6 +54,11 @@ public class MicroServiceSpecTest {
         lbConfig.setMaxConcurrentReq(200);
         lbConfig.setReplicaCount(30);
 
+        AdmissionSpec admissionSpec = new AdmissionSpec();
+        admissionSpec.setMaxConcurrency(8);
+        admissionSpec.setQueueTimeoutInMs(250);
+        admissionSpec.setFair(false);
+
         DMSpec dmSpec =
                 DMSpec.newBuilder()
                         .setName(ScaleUpFrontendPolicy.class.getName())
@@ -61,6 +73,7 @@ public class MicroServiceSpecTest {
                 .setConstructorName("college")
                 .addDMSpec(dmSpec)
                 .setNodeSelectorSpec(new NodeSelectorSpec())
+                .setAdmissionSpec(admissionSpec)
                 .create();
     }
 }
@@ -0,0 +1,56 @@
+package amino.run.common;
+
+import static org.junit.Assert.assertEquals;
+
+import amino.run.app.Language;
+import amino.run.app.MicroServiceSpec;
+import amino.run.sampleSO.stubs.SO_Stub;
+import java.util.concurrent.CompletableFuture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+/** Tests the asynchronous variants of app stub methods. */
+@RunWith(PowerMockRunner.class)
+public class AsyncRPCTest extends BaseTest {
+    private SO_Stub stub;
+
+    @Before
+    public void setUp() throws Exception {
+        MicroServiceSpec spec =
+                MicroServiceSpec.newBuilder()
+                        .setLang(Language.java)
+                        .setJavaClassName("amino.run.sampleSO.SO")
+                        .create();
+        super.setUp(1, spec);
+        stub = (SO_Stub) soStub;
+    }
+
+    @Test
+    public void testAsyncRPC() throws Exception {
+        stub.setIAsync(5).get();
+        assertEquals(Integer.valueOf(5), stub.getIAsync().get());
+    }
+
+    @Test
+    public void testConcurrentAsyncRPCs() throws Exception {
+        int count = 20;
+        stub.setI(7);
+        @SuppressWarnings("unchecked")
+        CompletableFuture<Integer>[] futures = new CompletableFuture[count];
+        for (int i = 0; i < count; i++) {
+            futures[i] = stub.getIDelayedAsync();
+        }
+        CompletableFuture.allOf(futures).get();
+        for (CompletableFuture<Integer> future : futures) {
+            assertEquals(Integer.valueOf(7), future.get());
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        super.tearDown();
+    }
+}
@@ -18,6 +18,7 @@ import amino.run.kernel.server.KernelObject;
 import amino.run.kernel.server.KernelObjectManager;
 import amino.run.kernel.server.KernelServer;
 import amino.run.kernel.server.KernelServerImpl;
+import amino.run.kernel.transport.RMIKernelTransport;
 import amino.run.oms.KernelServerManager;
 import amino.run.oms.OMSServer;
 import amino.run.oms.OMSServerImpl;
@@ -47,6 +48,7 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 @PrepareForTest({
     KernelServerImpl.class,
     KernelClient.class,
+    RMIKernelTransport.class,
     MicroService.class,
     KernelObjectFactory.class,
     KernelServerManager.class,
@@ -0,0 +1,124 @@
+package amino.run.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import org.junit.Test;
+
+public class DispatchTableTest {
+    public static class Calculator implements Serializable {
+        public int total;
+
+        public int add(int a, int b) {
+            return a + b;
+        }
+
+        public long sum(int a, int b, int c, int d, int e, int f) {
+            return a + b + c + d + e + f;
+        }
+
+        public void accumulate(Integer value) {
+            total += value;
+        }
+
+        public String join(String... parts) {
+            return String.join("-", parts);
+        }
+
+        public static String name() {
+            return "calculator";
+        }
+
+        public void fail() throws IOException {
+            throw new IOException("failed");
+        }
+
+        public void castInside(Object o) {
+            String s = (String) o;
+        }
+    }
+
+    private static final String ADD =
+            "public int amino.run.common.DispatchTableTest$Calculator.add(int,int)";
+
+    private static ArrayList<Object> params(Object... values) {
+        return new ArrayList<Object>(Arrays.asList(values));
+    }
+
+    private static String method(String name, Class<?>... types) throws Exception {
+        return Calculator.class.getMethod(name, types).toGenericString();
+    }
+
+    private static Object invoke(String method, Object target, ArrayList<Object> params)
+            throws Exception {
+        DispatchTable table = DispatchTable.forPublicMethods(Calculator.class);
+        return table.invoke(table.slotOf(method), target, params);
+    }
+
+    @Test
+    public void testInvoke() throws Exception {
+        Calculator calculator = new Calculator();
+        assertEquals(5, invoke(ADD, calculator, params(2, 3)));
+
+        String sum =
+                method("sum", int.class, int.class, int.class, int.class, int.class, int.class);
+        assertEquals(21L, invoke(sum, calculator, params(1, 2, 3, 4, 5, 6)));
+
+        assertNull(invoke(method("accumulate", Integer.class), calculator, params(4)));
+        assertEquals(4, calculator.total);
+
+        Object parts = new String[] {"a", "b"};
+        assertEquals("a-b", invoke(method("join", String[].class), calculator, params(parts)));
+        assertEquals("calculator", invoke(method("name"), null, params()));
+    }
+
+    @Test
+    public void testSharedTable() {
+        assertSame(
+                DispatchTable.forPublicMethods(Calculator.class),
+                DispatchTable.forPublicMethods(Calculator.class));
+        assertEquals(-1, DispatchTable.forPublicMethods(Calculator.class).slotOf("unknown"));
+    }
+
+    @Test
+    public void testExceptionIsWrapped() throws Exception {
+        try {
+            invoke(method("fail"), new Calculator(), params());
+            fail("Expected InvocationTargetException");
+        } catch (InvocationTargetException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+
+        try {
+            invoke(method("castInside", Object.class), new Calculator(), params(1));
+            fail("Expected InvocationTargetException");
+        } catch (InvocationTargetException e) {
+            assertTrue(e.getCause() instanceof ClassCastException);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testArgumentTypeMismatch() throws Exception {
+        invoke(ADD, new Calculator(), params("2", 3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongNumberOfArguments() throws Exception {
+        invoke(ADD, new Calculator(), params(2));
+    }
+
+    @Test
+    public void testObjectHandlerAfterDeserialization() throws Exception {
+        ObjectHandler handler = new ObjectHandler(new Calculator());
+        ObjectHandler copy = (ObjectHandler) Utils.ObjectCloner.deepCopy(handler);
+        assertEquals(7, copy.invoke(ADD, params(3, 4)));
+    }
+}
@@ -0,0 +1,225 @@
+package amino.run.common.codec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import amino.run.common.MicroServiceID;
+import amino.run.common.ReplicaID;
+import amino.run.common.Utils;
+import amino.run.kernel.common.KernelOID;
+import amino.run.kernel.common.KernelObjectNotFoundException;
+import amino.run.kernel.common.KernelRPC;
+import amino.run.kernel.common.KernelRPCResult;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.UUID;
+import org.junit.Test;
+
+public class KernelCodecTest {
+    private static final String METHOD =
+            "public java.lang.Object amino.run.policy.DefaultPolicy$DefaultServerPolicy.onRPC(java.lang.String,java.util.ArrayList) throws java.lang.Exception";
+
+    static class Point implements Serializable {
+        int x;
+    }
+
+    static class Celsius {
+        final double degrees;
+
+        Celsius(double degrees) {
+            this.degrees = degrees;
+        }
+    }
+
+    private static byte[] javaSerialize(Object object) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bos);
+        out.writeObject(object);
+        out.close();
+        return bos.toByteArray();
+    }
+
+    private static ArrayList<Object> params(Object... values) {
+        return new ArrayList<Object>(Arrays.asList(values));
+    }
+
+    @Test
+    public void testPrimitives() throws Exception {
+        ArrayList<Object> values =
+                params(
+                        null,
+                        true,
+                        (byte) -3,
+                        (short) 300,
+                        'c',
+                        -1,
+                        Integer.MAX_VALUE,
+                        Long.MIN_VALUE,
+                        1.5f,
+                        -2.25d,
+                        "héllo",
+                        UUID.randomUUID(),
+                        new KernelOID(42),
+                        new MicroServiceID(UUID.randomUUID()),
+                        new ReplicaID(new MicroServiceID(UUID.randomUUID()), UUID.randomUUID()),
+                        new InetSocketAddress("127.0.0.1", 22345),
+                        params("nested", 1L));
+        assertEquals(values, KernelCodec.decode(KernelCodec.encode(values)));
+
+        byte[] bytes = new byte[] {1, 2, 3};
+        assertArrayEquals(bytes, (byte[]) KernelCodec.decode(KernelCodec.encode(bytes)));
+        int[] ints = new int[] {-1, 0, 1 << 30};
+        assertArrayEquals(ints, (int[]) KernelCodec.decode(KernelCodec.encode(ints)));
+    }
+
+    @Test
+    public void testKernelRPC() throws Exception {
+        KernelRPC rpc = new KernelRPC(new KernelOID(7), METHOD, params("getI", params(1, "a")));
+        byte[] encoded = KernelCodec.encode(rpc);
+        assertEquals(rpc, Utils.toObject(encoded));
+        assertTrue(encoded.length < javaSerialize(rpc).length);
+
+        KernelRPC appRPC =
+                new KernelRPC(new KernelOID(7), METHOD, params("getI", params(1, "a")), true);
+        KernelRPC decoded = (KernelRPC) Utils.toObject(KernelCodec.encode(appRPC));
+        assertTrue(decoded.isAppRPC());
+        assertEquals(appRPC, decoded);
+    }
+
+    @Test
+    public void testKernelRPCBatch() throws Exception {
+        ArrayList<KernelRPC> rpcs = new ArrayList<KernelRPC>();
+        for (int i = 0; i < 10; i++) {
+            rpcs.add(new KernelRPC(new KernelOID(i), METHOD, params("put", params(i))));
+        }
+        byte[] encoded = KernelCodec.encode(rpcs);
+        assertEquals(rpcs, KernelCodec.decode(encoded));
+        assertTrue(encoded.length < javaSerialize(rpcs).length);
+
+        ArrayList<KernelRPCResult> results = new ArrayList<KernelRPCResult>();
+        results.add(KernelRPCResult.success("ok"));
+        results.add(KernelRPCResult.failure(new KernelObjectNotFoundException("gone")));
+        ArrayList<?> decoded = (ArrayList<?>) KernelCodec.decode(KernelCodec.encode(results));
+        KernelRPCResult success = (KernelRPCResult) decoded.get(0);
+        KernelRPCResult failure = (KernelRPCResult) decoded.get(1);
+        assertTrue(success.isSuccess());
+        assertEquals("ok", success.getValue());
+        assertTrue(failure.getException() instanceof KernelObjectNotFoundException);
+    }
+
+    @Test
+    public void testSerializableFallbackKeepsSharedReferences() throws Exception {
+        Point point = new Point();
+        ArrayList<Object> values = params(point, point, new HashMap<String, Integer>());
+        ArrayList<?> decoded = (ArrayList<?>) KernelCodec.decode(KernelCodec.encode(values));
+        assertSame(decoded.get(0), decoded.get(1));
+    }
+
+    @Test
+    public void testMethodInterning() throws Exception {
+        MethodTable sender = new MethodTable();
+        MethodTable receiver = new MethodTable();
+        KernelRPC rpc = new KernelRPC(new KernelOID(1), METHOD, params());
+
+        /* Until the sender confirms the definition was written, every RPC defines the method */
+        byte[] first = KernelCodec.encode(rpc, sender);
+        byte[] second = KernelCodec.encode(rpc, sender);
+        assertEquals(first.length, second.length);
+
+        sender.confirm(METHOD);
+        byte[] reference = KernelCodec.encode(rpc, sender);
+        assertTrue(reference.length < first.length - METHOD.length());
+
+        KernelCodec.defineMethods(first, receiver);
+        KernelCodec.defineMethods(reference, receiver);
+        assertEquals(rpc, KernelCodec.decode(reference, receiver));
+        assertEquals(rpc, KernelCodec.decode(second, receiver));
+    }
+
+    @Test
+    public void testBatchDefinesMethodOnce() throws Exception {
+        MethodTable sender = new MethodTable();
+        MethodTable receiver = new MethodTable();
+        ArrayList<KernelRPC> rpcs = new ArrayList<KernelRPC>();
+        for (int i = 0; i < 10; i++) {
+            rpcs.add(new KernelRPC(new KernelOID(i), METHOD, params(i)));
+        }
+
+        byte[] first = KernelCodec.encode(rpcs, sender);
+        assertTrue(first.length < 2 * METHOD.length());
+        sender.confirm(METHOD);
+        byte[] second = KernelCodec.encode(rpcs, sender);
+        assertTrue(second.length < first.length - METHOD.length());
+
+        KernelCodec.defineMethods(first, receiver);
+        assertEquals(rpcs, KernelCodec.decode(second, receiver));
+        assertEquals(rpcs, KernelCodec.decode(first, receiver));
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnknownMethodId() throws Exception {
+        MethodTable sender = new MethodTable();
+        KernelRPC rpc = new KernelRPC(new KernelOID(1), METHOD, params());
+        KernelCodec.encode(rpc, sender);
+        sender.confirm(METHOD);
+        KernelCodec.decode(KernelCodec.encode(rpc, sender), new MethodTable());
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnsupportedVersion() throws Exception {
+        byte[] encoded = KernelCodec.encode("value");
+        encoded[1] = KernelCodec.VERSION + 1;
+        KernelCodec.decode(encoded);
+    }
+
+    @Test
+    public void testJavaSerializedData() throws Exception {
+        assertEquals(params("legacy"), Utils.toObject(javaSerialize(params("legacy"))));
+    }
+
+    @Test
+    public void testRegisteredCodec() throws Exception {
+        KernelCodec.register(
+                KernelCodec.FIRST_APP_CODEC_ID,
+                Celsius.class,
+                new TypeCodec<Celsius>() {
+                    @Override
+                    public void write(CodecOutput out, Celsius value) {
+                        out.writeLong(Double.doubleToLongBits(value.degrees));
+                    }
+
+                    @Override
+                    public Celsius read(CodecInput in) throws IOException {
+                        return new Celsius(Double.longBitsToDouble(in.readLong()));
+                    }
+                });
+
+        /* Celsius is not serializable, so this only works through the registered codec */
+        Celsius decoded = (Celsius) KernelCodec.decode(KernelCodec.encode(new Celsius(21.5)));
+        assertEquals(21.5, decoded.degrees, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReservedCodecId() {
+        KernelCodec.register(
+                1,
+                Point.class,
+                new TypeCodec<Point>() {
+                    @Override
+                    public void write(CodecOutput out, Point value) {}
+
+                    @Override
+                    public Point read(CodecInput in) {
+                        return new Point();
+                    }
+                });
+    }
+}
@@ -0,0 +1,93 @@
+package amino.run.kernel.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import amino.run.kernel.common.KernelOID;
+import amino.run.kernel.common.KernelObjectLocation;
+import amino.run.oms.OMSServer;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class KernelObjectLocationCacheTest {
+    private final InetSocketAddress host1 = new InetSocketAddress("127.0.0.1", 10001);
+    private final InetSocketAddress host2 = new InetSocketAddress("127.0.0.1", 10002);
+    private final InetSocketAddress local = new InetSocketAddress("127.0.0.1", 10003);
+    private final KernelOID oid = new KernelOID(7);
+
+    private OMSServer oms;
+    private KernelObjectLocationCache cache;
+
+    @Before
+    public void setUp() {
+        oms = mock(OMSServer.class);
+        cache = new KernelObjectLocationCache(oms);
+    }
+
+    @Test
+    public void testConcurrentLookupsAreCoalesced() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        when(oms.lookupKernelObject(oid, local))
+                .thenAnswer(
+                        new Answer<KernelObjectLocation>() {
+                            @Override
+                            public KernelObjectLocation answer(InvocationOnMock invocation)
+                                    throws Throwable {
+                                release.await();
+                                return new KernelObjectLocation(oid, host2, 2);
+                            }
+                        });
+
+        int count = 10;
+        ExecutorService executor = Executors.newFixedThreadPool(count);
+        Future<?>[] results = new Future<?>[count];
+        for (int i = 0; i < count; i++) {
+            results[i] =
+                    executor.submit(
+                            new Callable<InetSocketAddress>() {
+                                @Override
+                                public InetSocketAddress call() throws Exception {
+                                    return cache.lookup(oid, host1, local);
+                                }
+                            });
+        }
+        Thread.sleep(200);
+        release.countDown();
+        for (Future<?> result : results) {
+            assertEquals(host2, result.get());
+        }
+        executor.shutdown();
+
+        verify(oms, times(1)).lookupKernelObject(oid, local);
+    }
+
+    @Test
+    public void testPushedLocationAvoidsLookup() throws Exception {
+        cache.update(new KernelObjectLocation(oid, host2, 5));
+        assertEquals(host2, cache.lookup(oid, host1, local));
+        verify(oms, never()).lookupKernelObject(any(KernelOID.class), any(InetSocketAddress.class));
+    }
+
+    @Test
+    public void testOlderLocationIsIgnored() {
+        cache.update(new KernelObjectLocation(oid, host2, 5));
+        cache.update(new KernelObjectLocation(oid, host1, 3));
+        assertEquals(host2, cache.get(oid));
+
+        cache.update(new KernelObjectLocation(oid, null, 6));
+        assertEquals(null, cache.get(oid));
+    }
+}
@@ -0,0 +1,132 @@
+package amino.run.kernel.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import amino.run.kernel.common.KernelOID;
+import amino.run.kernel.common.KernelObjectNotFoundException;
+import amino.run.kernel.common.KernelRPC;
+import amino.run.kernel.common.KernelRPCResult;
+import amino.run.kernel.transport.KernelTransport;
+import java.net.InetSocketAddress;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class KernelRPCBatcherTest {
+    private final InetSocketAddress host1 = new InetSocketAddress("127.0.0.1", 10001);
+    private final InetSocketAddress host2 = new InetSocketAddress("127.0.0.1", 10002);
+
+    private KernelTransport transport;
+    private ExecutorService executor;
+    private KernelRPCBatcher batcher;
+
+    @Before
+    public void setUp() throws Exception {
+        transport = mock(KernelTransport.class);
+        when(transport.makeKernelRPCBatch(any(InetSocketAddress.class), any(ArrayList.class)))
+                .thenAnswer(
+                        new Answer<ArrayList<KernelRPCResult>>() {
+                            @Override
+                            public ArrayList<KernelRPCResult> answer(InvocationOnMock invocation) {
+                                ArrayList<KernelRPCResult> results =
+                                        new ArrayList<KernelRPCResult>();
+                                for (Object o : (ArrayList<?>) invocation.getArguments()[1]) {
+                                    KernelRPC rpc = (KernelRPC) o;
+                                    if (rpc.getOID().getID() < 0) {
+                                        results.add(
+                                                KernelRPCResult.failure(
+                                                        new KernelObjectNotFoundException("gone")));
+                                    } else {
+                                        results.add(KernelRPCResult.success(rpc.getMethod()));
+                                    }
+                                }
+                                return results;
+                            }
+                        });
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        if (batcher != null) {
+            batcher.shutdown();
+        }
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testRPCsWithinWindowAreBatchedPerHost() throws Exception {
+        batcher = new KernelRPCBatcher(transport, 200, 100, executor);
+        CompletableFuture<Object> a = batcher.submit(host1, newRPC(1, "a"));
+        CompletableFuture<Object> b = batcher.submit(host1, newRPC(2, "b"));
+        CompletableFuture<Object> c = batcher.submit(host2, newRPC(3, "c"));
+
+        assertEquals("a", a.get());
+        assertEquals("b", b.get());
+        assertEquals("c", c.get());
+        verify(transport, times(1)).makeKernelRPCBatch(eq(host1), any(ArrayList.class));
+        verify(transport, times(1)).makeKernelRPCBatch(eq(host2), any(ArrayList.class));
+    }
+
+    @Test
+    public void testFullBatchIsSentWithoutWaiting() throws Exception {
+        /* The window is far longer than the test may take */
+        batcher = new KernelRPCBatcher(transport, 60000, 2, executor);
+        CompletableFuture<Object> a = batcher.submit(host1, newRPC(1, "a"));
+        CompletableFuture<Object> b = batcher.submit(host1, newRPC(2, "b"));
+
+        assertEquals("a", a.get());
+        assertEquals("b", b.get());
+    }
+
+    @Test
+    public void testEntriesFailIndependently() throws Exception {
+        batcher = new KernelRPCBatcher(transport, 50, 100, executor);
+        CompletableFuture<Object> failed = batcher.submit(host1, newRPC(-1, "a"));
+        CompletableFuture<Object> succeeded = batcher.submit(host1, newRPC(1, "b"));
+
+        assertEquals("b", succeeded.get());
+        try {
+            batcher.call(host1, newRPC(-2, "c"));
+            fail("Expected KernelObjectNotFoundException");
+        } catch (KernelObjectNotFoundException e) {
+            // expected
+        }
+        try {
+            failed.get();
+            fail("Expected KernelObjectNotFoundException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof KernelObjectNotFoundException);
+        }
+    }
+
+    @Test(expected = RemoteException.class)
+    public void testTransportFailureFailsWholeBatch() throws Exception {
+        doThrow(new RemoteException("unreachable"))
+                .when(transport)
+                .makeKernelRPCBatch(eq(host1), any(ArrayList.class));
+        batcher = new KernelRPCBatcher(transport, 50, 100, executor);
+        batcher.call(host1, newRPC(1, "a"));
+    }
+
+    private static KernelRPC newRPC(int oid, String method) throws Exception {
+        return new KernelRPC(new KernelOID(oid), method, new ArrayList<Object>());
+    }
+}
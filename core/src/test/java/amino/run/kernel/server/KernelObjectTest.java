@@ -0,0 +1,219 @@
+package amino.run.kernel.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import amino.run.app.AdmissionSpec;
+import amino.run.kernel.common.KernelObjectMovedException;
+import amino.run.kernel.common.KernelObjectOverloadedException;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+public class KernelObjectTest {
+    private static CountDownLatch entered;
+    private static CountDownLatch release;
+    private static KernelObject self;
+
+    public static class Gate implements Serializable {
+        public String block() throws InterruptedException {
+            entered.countDown();
+            release.await();
+            return "local";
+        }
+
+        public String echo() {
+            return "local";
+        }
+
+        public Object nested() throws Exception {
+            String echo = Gate.class.getMethod("echo").toGenericString();
+            return self.invoke(echo, new ArrayList<Object>());
+        }
+
+        public String migrate() {
+            self.coalesce();
+            return "fenced";
+        }
+    }
+
+    private KernelObject object;
+
+    @Before
+    public void setUp() {
+        entered = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+        object = new KernelObject(new Gate());
+        self = object;
+    }
+
+    @Test
+    public void testCoalesceWaitsForRPCsInFlight() throws Exception {
+        Call blocked = call("block");
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+        Thread coalescer =
+                new Thread() {
+                    @Override
+                    public void run() {
+                        object.coalesce();
+                    }
+                };
+        coalescer.start();
+        coalescer.join(200);
+        assertTrue(coalescer.isAlive());
+
+        release.countDown();
+        coalescer.join(5000);
+        assertFalse(coalescer.isAlive());
+        assertEquals("local", blocked.get());
+        assertTrue(object.getLastDrainMillis() >= 200);
+    }
+
+    @Test
+    public void testParkedRPCIsReleasedToNewHost() throws Exception {
+        InetSocketAddress host = new InetSocketAddress("127.0.0.1", 22346);
+        object.coalesce();
+        Call parked = call("echo");
+        awaitParked(parked);
+
+        object.moved(host);
+        parked.join(5000);
+        assertTrue(parked.error instanceof KernelObjectMovedException);
+        assertEquals(host, ((KernelObjectMovedException) parked.error).getHost());
+        assertEquals(1, object.getLastParkedRPCs());
+
+        // RPCs arriving after the move are not parked
+        Call late = call("echo");
+        late.join(5000);
+        assertTrue(late.error instanceof KernelObjectMovedException);
+    }
+
+    @Test
+    public void testParkedRPCRunsLocallyAfterFailedMove() throws Exception {
+        object.coalesce();
+        Call parked = call("echo");
+        awaitParked(parked);
+
+        object.uncoalesce();
+        assertEquals("local", parked.get());
+        assertEquals("local", call("echo").get());
+    }
+
+    @Test
+    public void testCoalesceFromInsideRPC() throws Exception {
+        Call migrate = call("migrate");
+        assertEquals("fenced", migrate.get());
+        object.uncoalesce();
+    }
+
+    @Test
+    public void testRejectWhenQueueIsFull() throws Exception {
+        AdmissionSpec spec = new AdmissionSpec();
+        spec.setMaxConcurrency(1);
+        spec.setQueueDepth(0);
+        object.setAdmissionSpec(spec);
+
+        Call blocked = call("block");
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        Call rejected = call("echo");
+        rejected.join(5000);
+        assertTrue(rejected.error instanceof KernelObjectOverloadedException);
+
+        release.countDown();
+        assertEquals("local", blocked.get());
+        assertEquals("local", call("echo").get());
+
+        AdmissionStats stats = new AdmissionStats();
+        object.addAdmissionStats(stats);
+        assertEquals(2, stats.getAdmitted());
+        assertEquals(1, stats.getRejected());
+    }
+
+    @Test
+    public void testRejectAfterQueueTimeout() throws Exception {
+        AdmissionSpec spec = new AdmissionSpec();
+        spec.setMaxConcurrency(1);
+        spec.setQueueTimeoutInMs(100);
+        object.setAdmissionSpec(spec);
+
+        Call blocked = call("block");
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        Call timedOut = call("echo");
+        timedOut.join(5000);
+        assertTrue(timedOut.error instanceof KernelObjectOverloadedException);
+        release.countDown();
+        blocked.get();
+
+        AdmissionStats stats = new AdmissionStats();
+        object.addAdmissionStats(stats);
+        assertEquals(1, stats.getQueued());
+        assertEquals(1, stats.getRejected());
+        assertTrue(stats.getQueueWaitMs() >= 100);
+    }
+
+    @Test
+    public void testNestedRPCRunsUnderCallerPermit() throws Exception {
+        AdmissionSpec spec = new AdmissionSpec();
+        spec.setMaxConcurrency(1);
+        spec.setQueueTimeoutInMs(100);
+        object.setAdmissionSpec(spec);
+
+        assertEquals("local", call("nested").get());
+        // The permit is released once the outer RPC returns
+        assertEquals("local", call("echo").get());
+
+        AdmissionStats stats = new AdmissionStats();
+        object.addAdmissionStats(stats);
+        assertEquals(3, stats.getAdmitted());
+        assertEquals(0, stats.getQueued());
+        assertEquals(0, stats.getRejected());
+    }
+
+    private Call call(String method) throws Exception {
+        Call call = new Call(Gate.class.getMethod(method).toGenericString());
+        call.start();
+        return call;
+    }
+
+    private static void awaitParked(Call call) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (call.getState() != Thread.State.TIMED_WAITING
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(Thread.State.TIMED_WAITING, call.getState());
+    }
+
+    private class Call extends Thread {
+        private final String method;
+        volatile Object result;
+        volatile Exception error;
+
+        Call(String method) {
+            this.method = method;
+        }
+
+        @Override
+        public void run() {
+            try {
+                result = object.invoke(method, new ArrayList<Object>());
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+
+        Object get() throws InterruptedException {
+            join(5000);
+            assertFalse(isAlive());
+            assertNull(error);
+            return result;
+        }
+    }
+}
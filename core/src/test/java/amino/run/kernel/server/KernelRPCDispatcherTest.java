@@ -0,0 +1,217 @@
+package amino.run.kernel.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import amino.run.kernel.common.KernelOID;
+import amino.run.kernel.common.KernelObjectOverloadedException;
+import amino.run.kernel.common.KernelRPC;
+import amino.run.kernel.common.KernelRPCException;
+import amino.run.kernel.common.KernelRPCResult;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class KernelRPCDispatcherTest {
+    private static final boolean APP = true;
+    private static final boolean CONTROL = false;
+
+    private KernelRPCDispatcher dispatcher;
+    private CountDownLatch entered;
+    private CountDownLatch release;
+
+    @Before
+    public void setUp() {
+        dispatcher = new KernelRPCDispatcher(1, 1, 1, 1);
+        entered = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+    }
+
+    @Test
+    public void testControlRPCsRunWhileAppPoolIsBusy() throws Exception {
+        Thread blocked = dispatchInBackground(newRPC(APP), blockingTask());
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+        assertEquals("control", dispatcher.dispatch(newRPC(CONTROL), value("control")));
+
+        release.countDown();
+        blocked.join();
+    }
+
+    @Test
+    public void testRejectsWhenQueueIsFull() throws Exception {
+        Thread running = dispatchInBackground(newRPC(APP), blockingTask());
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        Thread queued = dispatchInBackground(newRPC(APP), value("queued"));
+        while (dispatcher.getStats().get(0).getQueued() == 0) {
+            Thread.sleep(10);
+        }
+
+        try {
+            dispatcher.dispatch(newRPC(APP), value("rejected"));
+            fail("Expected the RPC to be rejected");
+        } catch (KernelRPCException e) {
+            assertTrue(e.getException() instanceof KernelObjectOverloadedException);
+        }
+
+        release.countDown();
+        running.join();
+        queued.join();
+        DispatchStats stats = dispatcher.getStats().get(0);
+        assertEquals("app", stats.getPool());
+        assertEquals(2, stats.getCompleted());
+        assertEquals(1, stats.getRejected());
+    }
+
+    @Test
+    public void testNestedRPCsRunOnCallingThread() throws Exception {
+        final KernelRPC rpc = newRPC(APP);
+        Object ret =
+                dispatcher.dispatch(
+                        rpc,
+                        new Callable<Object>() {
+                            @Override
+                            public Object call() throws Exception {
+                                /* Would wait forever for the only app slot if it took one */
+                                return dispatcher.dispatch(rpc, value("nested"));
+                            }
+                        });
+        assertEquals("nested", ret);
+    }
+
+    @Test
+    public void testRPCsRunOnReceivingThread() throws Exception {
+        final Thread receiver = Thread.currentThread();
+        Object ret =
+                dispatcher.dispatch(
+                        newRPC(APP),
+                        new Callable<Object>() {
+                            @Override
+                            public Object call() {
+                                return Thread.currentThread() == receiver;
+                            }
+                        });
+        assertEquals(Boolean.TRUE, ret);
+    }
+
+    @Test
+    public void testDirectDispatcherDoesNotBoundRPCs() throws Exception {
+        dispatcher = KernelRPCDispatcher.direct();
+        Thread blocked = dispatchInBackground(newRPC(APP), blockingTask());
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+        assertEquals("app", dispatcher.dispatch(newRPC(APP), value("app")));
+
+        release.countDown();
+        blocked.join();
+        assertEquals(0, dispatcher.getStats().get(0).getThreads());
+        assertEquals(2, dispatcher.getStats().get(0).getCompleted());
+    }
+
+    @Test
+    public void testBatchEntriesRunConcurrently() throws Exception {
+        final CountDownLatch second = new CountDownLatch(1);
+        ArrayList<KernelRPC> rpcs = new ArrayList<KernelRPC>();
+        ArrayList<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+        rpcs.add(newRPC(APP));
+        tasks.add(
+                new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        /* Would wait forever if the entries ran one after the other */
+                        assertTrue(second.await(5, TimeUnit.SECONDS));
+                        return "first";
+                    }
+                });
+        rpcs.add(newRPC(CONTROL));
+        tasks.add(
+                new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        second.countDown();
+                        return "second";
+                    }
+                });
+        rpcs.add(newRPC(CONTROL));
+        tasks.add(
+                new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        throw new IllegalStateException("failed");
+                    }
+                });
+
+        ArrayList<KernelRPCResult> results = dispatcher.dispatchBatch(rpcs, tasks);
+        assertEquals(3, results.size());
+        assertEquals("first", results.get(0).getValue());
+        assertEquals("second", results.get(1).getValue());
+        assertTrue(results.get(2).getException() instanceof KernelRPCException);
+    }
+
+    @Test
+    public void testExceptionsAreWrapped() throws Exception {
+        try {
+            dispatcher.dispatch(
+                    newRPC(CONTROL),
+                    new Callable<Object>() {
+                        @Override
+                        public Object call() throws Exception {
+                            throw new IllegalStateException("failed");
+                        }
+                    });
+            fail("Expected KernelRPCException");
+        } catch (KernelRPCException e) {
+            assertTrue(e.getException() instanceof IllegalStateException);
+        }
+    }
+
+    private Callable<Object> blockingTask() {
+        return new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                entered.countDown();
+                release.await();
+                return "blocked";
+            }
+        };
+    }
+
+    private static Callable<Object> value(final Object value) {
+        return new Callable<Object>() {
+            @Override
+            public Object call() {
+                return value;
+            }
+        };
+    }
+
+    private Thread dispatchInBackground(final KernelRPC rpc, final Callable<Object> task) {
+        Thread thread =
+                new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            dispatcher.dispatch(rpc, task);
+                        } catch (Exception e) {
+                            // Checked by the tests through the statistics
+                        }
+                    }
+                };
+        thread.start();
+        return thread;
+    }
+
+    private static KernelRPC newRPC(boolean appRPC) throws Exception {
+        return new KernelRPC(new KernelOID(1), "method", new ArrayList<Object>(), appRPC);
+    }
+}
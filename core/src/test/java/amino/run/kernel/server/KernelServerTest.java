@@ -2,6 +2,8 @@ package amino.run.kernel.server;
 
 import static amino.run.common.UtilsTest.extractFieldValueOnInstance;
 import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.fail;
 
 import amino.run.app.Language;
 import amino.run.app.MicroServiceSpec;
@@ -53,6 +55,26 @@ public class KernelServerTest extends BaseTest {
         spiedKs1.makeKernelRPC(rpc);
     }
 
+    @Test
+    public void testInvokeLocalKernelRPCDoesNotWrapExceptions() throws Exception {
+        String method = "public java.lang.Integer amino.run.sampleSO.SO.getI()";
+        KernelRPC rpc =
+                new KernelRPC(server1.$__getKernelOID(), method, new ArrayList<Object>());
+        try {
+            ((KernelServerImpl) spiedKs1).invokeLocalKernelRPC(rpc);
+        } catch (Exception e) {
+            assertFalse(e instanceof KernelRPCException);
+            return;
+        }
+        fail("Expected the RPC to fail");
+    }
+
+    @Test(expected = KernelObjectNotFoundException.class)
+    public void testInvokeLocalKernelRPCOnMissingObject() throws Exception {
+        KernelRPC rpc = new KernelRPC(new KernelOID(0), "method", new ArrayList<Object>());
+        ((KernelServerImpl) spiedKs1).invokeLocalKernelRPC(rpc);
+    }
+
     @Test
     public void getKernelObjectTest() throws Exception {
         KernelServerImpl ks = (KernelServerImpl) spiedKs1;
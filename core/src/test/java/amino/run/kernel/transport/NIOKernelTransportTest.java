@@ -0,0 +1,219 @@
+package amino.run.kernel.transport;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import amino.run.kernel.common.KernelOID;
+import amino.run.kernel.common.KernelObjectNotFoundException;
+import amino.run.kernel.common.KernelObjectOverloadedException;
+import amino.run.kernel.common.KernelRPC;
+import amino.run.kernel.common.KernelRPCException;
+import amino.run.kernel.common.KernelRPCResult;
+import amino.run.kernel.server.KernelServer;
+import java.net.InetSocketAddress;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class NIOKernelTransportTest {
+    private InetSocketAddress host = new InetSocketAddress("127.0.0.1", 22345);
+    private KernelServer server;
+    private RMIKernelTransport rmi;
+    private NIOKernelTransportServer transportServer;
+    private NIOKernelTransport transport;
+    /** RPCs of method "stall" wait for it */
+    private CountDownLatch release;
+    /** Counted down by every RPC of method "stall" */
+    private CountDownLatch stalled;
+
+    @Before
+    public void setUp() throws Exception {
+        release = new CountDownLatch(1);
+        stalled = new CountDownLatch(1);
+        server = mock(KernelServer.class);
+        when(server.makeKernelRPC(any(KernelRPC.class)))
+                .thenAnswer(
+                        new Answer<Object>() {
+                            @Override
+                            public Object answer(InvocationOnMock invocation) throws Throwable {
+                                KernelRPC rpc = (KernelRPC) invocation.getArguments()[0];
+                                if (rpc.getOID().getID() < 0) {
+                                    throw new KernelObjectNotFoundException("not found");
+                                }
+                                if (rpc.getMethod().equals("stall")) {
+                                    stalled.countDown();
+                                    release.await();
+                                }
+                                return rpc.getMethod() + rpc.getParams().get(0);
+                            }
+                        });
+        when(server.makeKernelRPCBatch(any(ArrayList.class)))
+                .thenAnswer(
+                        new Answer<ArrayList<KernelRPCResult>>() {
+                            @Override
+                            public ArrayList<KernelRPCResult> answer(InvocationOnMock invocation)
+                                    throws Throwable {
+                                ArrayList<KernelRPCResult> results =
+                                        new ArrayList<KernelRPCResult>();
+                                for (Object rpc : (ArrayList<?>) invocation.getArguments()[0]) {
+                                    try {
+                                        results.add(
+                                                KernelRPCResult.success(
+                                                        server.makeKernelRPC((KernelRPC) rpc)));
+                                    } catch (Exception e) {
+                                        results.add(KernelRPCResult.failure(e));
+                                    }
+                                }
+                                return results;
+                            }
+                        });
+        transportServer =
+                new NIOKernelTransportServer(server, new InetSocketAddress("127.0.0.1", 0));
+        transportServer.start();
+        when(server.getTransportAddress()).thenReturn(transportServer.getAddress());
+
+        rmi = mock(RMIKernelTransport.class);
+        when(rmi.getServer(host)).thenReturn(server);
+        transport = new NIOKernelTransport(rmi);
+    }
+
+    @Test
+    public void testMakeKernelRPC() throws Exception {
+        Object ret = transport.makeKernelRPC(host, newRPC(1, "foo", 1));
+        Assert.assertEquals("foo1", ret);
+        verify(rmi, never()).makeKernelRPC(any(InetSocketAddress.class), any(KernelRPC.class));
+    }
+
+    @Test(expected = KernelObjectNotFoundException.class)
+    public void testExceptionIsPropagated() throws Exception {
+        transport.makeKernelRPC(host, newRPC(-1, "foo", 1));
+    }
+
+    @Test
+    public void testMakeKernelRPCBatch() throws Exception {
+        ArrayList<KernelRPC> rpcs = new ArrayList<KernelRPC>();
+        rpcs.add(newRPC(1, "foo", 1));
+        rpcs.add(newRPC(-1, "foo", 2));
+        rpcs.add(newRPC(1, "bar", 3));
+
+        ArrayList<KernelRPCResult> results = transport.makeKernelRPCBatch(host, rpcs);
+        Assert.assertEquals(3, results.size());
+        Assert.assertEquals("foo1", results.get(0).getValue());
+        Assert.assertTrue(results.get(1).getException() instanceof KernelObjectNotFoundException);
+        Assert.assertEquals("bar3", results.get(2).getValue());
+
+        /* Single RPCs still work on the connection after a batch */
+        Assert.assertEquals("foo4", transport.makeKernelRPC(host, newRPC(1, "foo", 4)));
+    }
+
+    @Test
+    public void testConcurrentRPCsOnOneConnection() throws Exception {
+        int count = 50;
+        final CountDownLatch done = new CountDownLatch(count);
+        final AtomicInteger mismatches = new AtomicInteger();
+        for (int i = 0; i < count; i++) {
+            final int n = i;
+            new Thread(
+                            new Runnable() {
+                                @Override
+                                public void run() {
+                                    try {
+                                        Object ret =
+                                                transport.makeKernelRPC(host, newRPC(1, "m", n));
+                                        if (!("m" + n).equals(ret)) {
+                                            mismatches.incrementAndGet();
+                                        }
+                                    } catch (Exception e) {
+                                        mismatches.incrementAndGet();
+                                    }
+                                    done.countDown();
+                                }
+                            })
+                    .start();
+        }
+        done.await();
+        Assert.assertEquals(0, mismatches.get());
+        // The transport address is negotiated only once for all calls
+        verify(server).getTransportAddress();
+    }
+
+    @Test
+    public void testFallbackToRMI() throws Exception {
+        when(server.getTransportAddress()).thenReturn(null);
+        KernelRPC rpc = newRPC(1, "foo", 1);
+        when(rmi.makeKernelRPC(host, rpc)).thenReturn("rmi");
+        Assert.assertEquals("rmi", transport.makeKernelRPC(host, rpc));
+    }
+
+    @Test
+    public void testStalledCallTimesOut() throws Exception {
+        NIOKernelTransport impatient = new NIOKernelTransport(rmi, 100);
+        try {
+            impatient.makeKernelRPC(host, newRPC(1, "stall", 1));
+            Assert.fail("Expected RemoteException");
+        } catch (RemoteException e) {
+            // expected
+        } finally {
+            release.countDown();
+            impatient.shutdown();
+        }
+        // The connection is still usable after a call timed out
+        Assert.assertEquals("foo2", transport.makeKernelRPC(host, newRPC(1, "foo", 2)));
+    }
+
+    @Test
+    public void testRequestsBeyondQueueAreRejected() throws Exception {
+        NIOKernelTransportServer small =
+                new NIOKernelTransportServer(server, new InetSocketAddress("127.0.0.1", 0), 1, 1);
+        small.start();
+        InetSocketAddress smallHost = new InetSocketAddress("127.0.0.1", 22346);
+        KernelServer smallServer = mock(KernelServer.class);
+        when(smallServer.getTransportAddress()).thenReturn(small.getAddress());
+        when(rmi.getServer(smallHost)).thenReturn(smallServer);
+        try {
+            // One request runs and one waits for the only worker
+            CompletableFuture<Object> running =
+                    transport.makeKernelRPCAsync(smallHost, newRPC(1, "stall", 1));
+            Assert.assertTrue(stalled.await(5, TimeUnit.SECONDS));
+            CompletableFuture<Object> queued =
+                    transport.makeKernelRPCAsync(smallHost, newRPC(1, "stall", 2));
+            try {
+                transport.makeKernelRPC(smallHost, newRPC(1, "foo", 3));
+                Assert.fail("Expected KernelRPCException");
+            } catch (KernelRPCException e) {
+                Assert.assertTrue(e.getException() instanceof KernelObjectOverloadedException);
+            }
+
+            release.countDown();
+            Assert.assertEquals("stall1", running.get(5, TimeUnit.SECONDS));
+            Assert.assertEquals("stall2", queued.get(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            small.shutdown();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        transport.shutdown();
+        transportServer.shutdown();
+    }
+
+    private static KernelRPC newRPC(int oid, String method, int param) throws Exception {
+        ArrayList<Object> params = new ArrayList<Object>();
+        params.add(param);
+        return new KernelRPC(new KernelOID(oid), method, params);
+    }
+}
@@ -0,0 +1,76 @@
+package amino.run.oms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import amino.run.kernel.common.KernelOID;
+import amino.run.kernel.common.KernelObjectLocation;
+import amino.run.kernel.common.KernelObjectNotFoundException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GlobalKernelObjectManagerTest {
+    private final InetSocketAddress host1 = new InetSocketAddress("127.0.0.1", 10001);
+    private final InetSocketAddress host2 = new InetSocketAddress("127.0.0.1", 10002);
+    private final InetSocketAddress subscriber = new InetSocketAddress("127.0.0.1", 10003);
+
+    private GlobalKernelObjectManager manager;
+    private List<KernelObjectLocation> changes;
+    private List<Set<InetSocketAddress>> notified;
+
+    @Before
+    public void setUp() {
+        manager = new GlobalKernelObjectManager();
+        changes = Collections.synchronizedList(new ArrayList<KernelObjectLocation>());
+        notified = Collections.synchronizedList(new ArrayList<Set<InetSocketAddress>>());
+        manager.setLocationListener(
+                new KernelObjectLocationListener() {
+                    @Override
+                    public void onLocationChanged(
+                            KernelObjectLocation location, Set<InetSocketAddress> subscribers) {
+                        changes.add(location);
+                        notified.add(subscribers);
+                    }
+                });
+    }
+
+    @Test
+    public void testMoveNotifiesSubscribers() throws Exception {
+        KernelOID oid = manager.register(host1);
+        KernelObjectLocation before = manager.lookup(oid, subscriber);
+        assertEquals(host1, before.getHost());
+
+        manager.register(oid, host2);
+        assertEquals(1, changes.size());
+        assertEquals(host2, changes.get(0).getHost());
+        assertTrue(changes.get(0).getVersion() > before.getVersion());
+        assertEquals(Collections.singleton(subscriber), notified.get(0));
+
+        manager.unRegister(oid, host2);
+        assertEquals(2, changes.size());
+        assertTrue(changes.get(1).isDeleted());
+    }
+
+    @Test
+    public void testNoNotificationWithoutSubscribers() throws Exception {
+        KernelOID oid = manager.register(host1);
+        manager.lookup(oid);
+        manager.register(oid, host2);
+
+        KernelOID other = manager.register(host1);
+        manager.lookup(other, subscriber);
+        manager.unsubscribe(subscriber);
+        manager.register(other, host2);
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test(expected = KernelObjectNotFoundException.class)
+    public void testLookupUnknownObject() throws Exception {
+        manager.lookup(new KernelOID(1), subscriber);
+    }
+}
@@ -4,11 +4,13 @@ import static amino.run.kernel.server.KernelServerImpl.REGION_KEY;
 import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
 
+import amino.run.app.MicroServiceSpec;
 import amino.run.app.NodeSelectorSpec;
 import amino.run.app.NodeSelectorTerm;
 import amino.run.app.Operator;
 import amino.run.app.Requirement;
 import amino.run.kernel.common.ServerInfo;
+import amino.run.kernel.common.ServerLoad;
 import amino.run.policy.util.ResettableTimer;
 import java.net.InetSocketAddress;
 import java.rmi.AccessException;
@@ -239,6 +241,33 @@ public class KernelServerManagerTest {
         Assert.assertEquals(1, result.get(0).getPort());
     }
 
+    @Test
+    public void testPlacementPrefersLessLoadedServer() throws Exception {
+        NodeSelectorSpec spec = new NodeSelectorSpec();
+        spec.addNodeSelectorTerms(
+                getNodeSelectorTerm(LABEL1_PREFIX + "0", Operator.Exists, NON_EXISTENT_LABEL));
+        spec.addNodeSelectorTerms(
+                getNodeSelectorTerm(LABEL1_PREFIX + "1", Operator.Exists, NON_EXISTENT_LABEL));
+        MicroServiceSpec microServiceSpec =
+                MicroServiceSpec.newBuilder().setNodeSelectorSpec(spec).create();
+
+        sendLoad(0, new ServerLoad(0.9, 0.8, 50, 200));
+        sendLoad(1, new ServerLoad(0.1, 0.2, 5, 10));
+        for (int i = 0; i < 20; i++) {
+            Assert.assertEquals(1, manager.getBestSuitableServer(microServiceSpec).getPort());
+        }
+
+        // The busy server got less busy than the one that took all the placements.
+        sendLoad(0, new ServerLoad(0, 0.1, 0, 0));
+        Assert.assertEquals(0, manager.getBestSuitableServer(microServiceSpec).getPort());
+    }
+
+    private void sendLoad(int server, ServerLoad load) throws Exception {
+        ServerInfo info = new ServerInfo(new InetSocketAddress(server));
+        info.setLoad(load);
+        manager.receiveHeartBeat(info);
+    }
+
     private void registerServers(final KernelServerManager manager, int numOfServers)
             throws Exception {
         ResettableTimer timer;
@@ -0,0 +1,103 @@
+package amino.run.oms;
+
+import static org.junit.Assert.assertEquals;
+
+import amino.run.app.NodeSelectorSpec;
+import amino.run.app.NodeSelectorTerm;
+import amino.run.app.Operator;
+import amino.run.app.Requirement;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LabelIndexTest {
+    private final InetSocketAddress host1 = new InetSocketAddress("127.0.0.1", 10001);
+    private final InetSocketAddress host2 = new InetSocketAddress("127.0.0.1", 10002);
+    private final InetSocketAddress host3 = new InetSocketAddress("127.0.0.1", 10003);
+
+    private LabelIndex index;
+
+    @Before
+    public void setUp() {
+        index = new LabelIndex();
+        index.add(host1, labels("region", "east", "disk", "ssd"));
+        index.add(host2, labels("region", "east", "disk", "hdd"));
+        index.add(host3, labels("region", "west"));
+    }
+
+    private static Map<String, String> labels(String... keyValues) {
+        Map<String, String> labels = new HashMap<String, String>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            labels.put(keyValues[i], keyValues[i + 1]);
+        }
+        return labels;
+    }
+
+    private static Set<InetSocketAddress> hosts(InetSocketAddress... hosts) {
+        return new HashSet<InetSocketAddress>(Arrays.asList(hosts));
+    }
+
+    private static Requirement requirement(String key, Operator operator, String... values) {
+        return new Requirement(
+                key, operator, operator == Operator.Exists ? null : Arrays.asList(values));
+    }
+
+    private static NodeSelectorSpec spec(Requirement... requirements) {
+        NodeSelectorSpec spec = new NodeSelectorSpec();
+        NodeSelectorTerm term = new NodeSelectorTerm();
+        term.addMatchRequirements(requirements);
+        spec.addNodeSelectorTerms(term);
+        return spec;
+    }
+
+    @Test
+    public void testOperators() {
+        assertEquals(
+                hosts(host1, host2),
+                index.select(spec(requirement("region", Operator.Equal, "east"))));
+        assertEquals(
+                hosts(host1, host2, host3),
+                index.select(spec(requirement("region", Operator.In, "east", "west"))));
+        assertEquals(
+                hosts(host2), index.select(spec(requirement("disk", Operator.NotIn, "ssd"))));
+        assertEquals(hosts(host1, host2), index.select(spec(requirement("disk", Operator.Exists))));
+        assertEquals(hosts(), index.select(spec(requirement("gpu", Operator.Exists))));
+    }
+
+    @Test
+    public void testTermsAndRequirements() {
+        NodeSelectorSpec spec =
+                spec(
+                        requirement("region", Operator.Equal, "east"),
+                        requirement("disk", Operator.Equal, "ssd"));
+        assertEquals(hosts(host1), index.select(spec));
+
+        NodeSelectorTerm west = new NodeSelectorTerm();
+        west.addMatchRequirements(requirement("region", Operator.Equal, "west"));
+        spec.addNodeSelectorTerms(west);
+        assertEquals(hosts(host1, host3), index.select(spec));
+    }
+
+    @Test
+    public void testEmptySelector() {
+        assertEquals(hosts(host1, host2, host3), index.select(null));
+        assertEquals(hosts(host1, host2, host3), index.select(new NodeSelectorSpec()));
+    }
+
+    @Test
+    public void testRemove() {
+        index.remove(host1, labels("region", "east", "disk", "ssd"));
+        assertEquals(hosts(host2, host3), index.select(null));
+        assertEquals(hosts(host2), index.select(spec(requirement("disk", Operator.Exists))));
+        assertEquals(hosts(), index.select(spec(requirement("disk", Operator.Equal, "ssd"))));
+
+        index.remove(host2, labels("region", "east", "disk", "hdd"));
+        assertEquals(hosts(), index.select(spec(requirement("disk", Operator.Exists))));
+        assertEquals(hosts(host3), index.select(null));
+    }
+}
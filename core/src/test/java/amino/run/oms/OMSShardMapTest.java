@@ -0,0 +1,57 @@
+package amino.run.oms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import amino.run.common.MicroServiceID;
+import amino.run.kernel.common.KernelOID;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.UUID;
+import org.junit.Test;
+
+public class OMSShardMapTest {
+    @Test
+    public void testParse() {
+        OMSShardMap map = OMSShardMap.parse("10.0.0.1:22222,10.0.0.2:22222;10.0.0.3:22223");
+        assertEquals(2, map.size());
+        assertEquals(
+                Arrays.asList(
+                        new InetSocketAddress("10.0.0.1", 22222),
+                        new InetSocketAddress("10.0.0.2", 22222)),
+                map.getReplicas(0));
+        assertEquals(0, map.getShard(new InetSocketAddress("10.0.0.2", 22222)));
+        assertEquals(1, map.getShard(new InetSocketAddress("10.0.0.3", 22223)));
+        assertEquals(-1, map.getShard(new InetSocketAddress("10.0.0.3", 22222)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseWithoutPort() {
+        OMSShardMap.parse("10.0.0.1:22222;10.0.0.2");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseInvalidPort() {
+        OMSShardMap.parse("10.0.0.1:oms");
+    }
+
+    @Test
+    public void testShardOf() {
+        OMSShardMap map = OMSShardMap.parse("10.0.0.1:1;10.0.0.2:1;10.0.0.3:1");
+        int[] kernelObjects = new int[map.size()];
+        for (int i = -300; i < 300; i++) {
+            kernelObjects[map.shardOf(new KernelOID(i))]++;
+        }
+        int[] microServices = new int[map.size()];
+        for (int i = 0; i < 600; i++) {
+            MicroServiceID id = new MicroServiceID(UUID.randomUUID());
+            assertEquals(map.shardOf(id), map.shardOf(new MicroServiceID(id.getID())));
+            microServices[map.shardOf(id)]++;
+        }
+        for (int shard = 0; shard < map.size(); shard++) {
+            assertEquals(200, kernelObjects[shard]);
+            assertTrue(microServices[shard] > 100);
+        }
+        assertEquals(map.shardOf("name"), map.shardOf(new String("name")));
+    }
+}
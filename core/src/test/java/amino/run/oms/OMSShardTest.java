@@ -0,0 +1,141 @@
+package amino.run.oms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import amino.run.common.MicroServiceID;
+import amino.run.common.MicroServiceNameModificationException;
+import amino.run.common.MicroServiceNotFoundException;
+import amino.run.kernel.common.KernelOID;
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.rmi.Remote;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Test;
+
+public class OMSShardTest {
+    private static final String LOOP_BACK_IP_ADDR = "127.0.0.1";
+    private static final int BASE_PORT = 22391;
+
+    private final List<OMSServerImpl> servers = new ArrayList<OMSServerImpl>();
+    /** Exported OMS instances and registries */
+    private final List<Remote> exported = new ArrayList<Remote>();
+    private File logDirectory;
+
+    @After
+    public void tearDown() throws Exception {
+        for (OMSServerImpl oms : servers) {
+            oms.stopReplication();
+        }
+        for (Remote remote : exported) {
+            UnicastRemoteObject.unexportObject(remote, true);
+        }
+        if (logDirectory != null) {
+            delete(logDirectory);
+        }
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /** Starts an OMS instance for each shard of the map, each with a single replica. */
+    private OMSServerImpl[] startShards(OMSShardMap map) throws Exception {
+        OMSServerImpl[] shards = new OMSServerImpl[map.size()];
+        for (int i = 0; i < map.size(); i++) {
+            InetSocketAddress host = map.getReplicas(i).get(0);
+            shards[i] = new OMSServerImpl(map, host, null);
+            servers.add(shards[i]);
+            Registry registry = LocateRegistry.createRegistry(host.getPort());
+            exported.add(registry);
+            registry.rebind(
+                    OMSShardRouter.OMS_NAME, UnicastRemoteObject.exportObject(shards[i], 0));
+            exported.add(shards[i]);
+            shards[i].startReplication();
+        }
+        return shards;
+    }
+
+    @Test
+    public void testCallsReachTheTrackingShard() throws Exception {
+        OMSShardMap map =
+                OMSShardMap.parse(
+                        LOOP_BACK_IP_ADDR
+                                + ":"
+                                + BASE_PORT
+                                + ";"
+                                + LOOP_BACK_IP_ADDR
+                                + ":"
+                                + (BASE_PORT + 1));
+        OMSServerImpl[] shards = startShards(map);
+        InetSocketAddress host = new InetSocketAddress(LOOP_BACK_IP_ADDR, 10001);
+
+        KernelOID oid = shards[0].registerKernelObject(host);
+        assertEquals(0, map.shardOf(oid));
+        assertEquals(host, shards[1].lookupKernelObject(oid));
+        assertTrue(shards[0].getAllKernelObjects().contains(oid));
+        assertTrue(shards[1].getAllKernelObjects().isEmpty());
+
+        MicroServiceID id = shards[1].registerMicroService();
+        assertEquals(1, map.shardOf(id));
+        String name = "microservice";
+        shards[0].setName(id, name);
+        assertEquals(id, shards[0].lookupMicroServiceName(name));
+        assertEquals(id, shards[1].lookupMicroServiceName(name));
+
+        MicroServiceID other = shards[0].registerMicroService();
+        try {
+            shards[1].setName(other, name);
+            fail("Name of another microservice was reused");
+        } catch (MicroServiceNameModificationException e) {
+            // expected
+        }
+
+        shards[0].unRegisterMicroService(id);
+        assertTrue(shards[1].getAllMicroServices().isEmpty());
+        try {
+            shards[1].lookupMicroServiceName(name);
+            fail("Name of a removed microservice was resolved");
+        } catch (MicroServiceNotFoundException e) {
+            // expected
+        }
+        // The name is free again.
+        shards[1].setName(other, name);
+        assertEquals(other, shards[0].lookupMicroServiceName(name));
+    }
+
+    @Test
+    public void testRegistriesSurviveRestart() throws Exception {
+        logDirectory = Files.createTempDirectory("omslog").toFile();
+        InetSocketAddress omsHost = new InetSocketAddress(LOOP_BACK_IP_ADDR, BASE_PORT);
+        OMSShardMap map = OMSShardMap.parse(LOOP_BACK_IP_ADDR + ":" + BASE_PORT);
+        InetSocketAddress host = new InetSocketAddress(LOOP_BACK_IP_ADDR, 10001);
+
+        OMSServerImpl oms = new OMSServerImpl(map, omsHost, logDirectory);
+        oms.startReplication();
+        KernelOID oid = oms.registerKernelObject(host);
+        MicroServiceID id = oms.registerMicroService();
+        oms.setName(id, "microservice");
+        oms.stopReplication();
+
+        oms = new OMSServerImpl(map, omsHost, logDirectory);
+        servers.add(oms);
+        oms.startReplication();
+        assertEquals(host, oms.lookupKernelObject(oid));
+        assertEquals(id, oms.lookupMicroServiceName("microservice"));
+        assertTrue(oms.getAllMicroServices().contains(id));
+    }
+}
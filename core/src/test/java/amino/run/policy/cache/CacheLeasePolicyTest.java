@@ -1,12 +1,18 @@
 package amino.run.policy.cache;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 
 import amino.run.common.AppObject;
+import amino.run.runtime.annotations.Immutable;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.UUID;
 import org.junit.Before;
@@ -131,4 +137,79 @@ public class CacheLeasePolicyTest {
         thrown.expect(LeaseExpiredException.class);
         this.clientOne.releaseCurrentLease();
     }
+
+    /**
+     * Any number of clients may hold read leases at once, but nobody may read while a client holds
+     * the write lease.
+     */
+    @Test
+    public void testSharedReadLeases() throws Exception {
+        this.client.getNewLease(CacheLeasePolicy.LeaseMode.READ, time);
+        this.clientOne.getNewLease(CacheLeasePolicy.LeaseMode.READ, time);
+        assertTrue(this.client.leaseStillValid());
+        assertTrue(this.clientOne.leaseStillValid());
+
+        // clientOne upgrades its read lease once it is the only reader
+        this.client.releaseCurrentLease();
+        this.clientOne.getNewLease(time);
+        assertEquals(CacheLeasePolicy.LeaseMode.WRITE, this.clientOne.leaseMode);
+
+        thrown.expect(LeaseNotAvailableException.class);
+        this.client.getNewLease(CacheLeasePolicy.LeaseMode.READ, time);
+    }
+
+    /** A client asking for the write lease waits until the read leases have expired. */
+    @Test
+    public void testWriteLeaseRecallsReadLeases() throws Exception {
+        long time = 100;
+        this.client.getNewLease(CacheLeasePolicy.LeaseMode.READ, time);
+
+        long start = System.currentTimeMillis();
+        this.clientOne.getNewLease(time);
+        assertTrue(System.currentTimeMillis() - start >= time);
+
+        // The read lease was recalled, so it cannot be renewed
+        thrown.expect(LeaseNotAvailableException.class);
+        this.client.getNewLease(CacheLeasePolicy.LeaseMode.READ, time);
+    }
+
+    /**
+     * Changes made by mutable methods are shipped to the server when the lease is released, while
+     * immutable methods don't make the lease holder sync at all.
+     */
+    @Test
+    public void testChangesSyncedOnRelease() throws Exception {
+        String incrementMethodName =
+                "public void amino.run.policy.cache.CacheLeasePolicyTest$Counter.increment()";
+        String getMethodName =
+                "public int amino.run.policy.cache.CacheLeasePolicyTest$Counter.get()";
+        ArrayList<Object> params = new ArrayList<Object>();
+        this.server.$__initialize(new AppObject(new Counter_Stub()));
+
+        this.client.onRPC(getMethodName, params);
+        this.client.releaseCurrentLease();
+        verify(this.server, never()).syncDelta((UUID) any(), (ObjectDelta) any());
+
+        this.client.onRPC(incrementMethodName, params);
+        lease = this.client.lease;
+        assertEquals(1, this.client.onRPC(getMethodName, params));
+        verify(this.server, never()).syncDelta((UUID) any(), (ObjectDelta) any());
+        this.client.releaseCurrentLease();
+        verify(this.server).syncDelta(eq(lease), (ObjectDelta) any());
+    }
+
+    public static class Counter implements Serializable {
+        private int value;
+
+        public void increment() {
+            value++;
+        }
+
+        @Immutable
+        public int get() {
+            return value;
+        }
+    }
+
+    public static class Counter_Stub extends Counter {}
 }
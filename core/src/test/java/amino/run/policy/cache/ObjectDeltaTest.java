@@ -0,0 +1,70 @@
+package amino.run.policy.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import amino.run.common.Utils;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class ObjectDeltaTest {
+    private static List<Integer> values(int count) {
+        List<Integer> values = new ArrayList<Integer>();
+        for (int i = 0; i < count; i++) {
+            values.add(i);
+        }
+        return values;
+    }
+
+    @Test
+    public void testSmallChangeToLargeObject() throws Exception {
+        List<Integer> values = values(10000);
+        byte[] base = Utils.toBytes(values);
+        values.set(5000, -1);
+        byte[] target = Utils.toBytes(values);
+
+        ObjectDelta delta = ObjectDelta.diff(base, target);
+        assertFalse(delta.isEmpty());
+        assertTrue(delta.size() < 16);
+        assertArrayEquals(target, delta.apply(base));
+        assertEquals(values, Utils.toObject(delta.apply(base)));
+    }
+
+    @Test
+    public void testLengthChange() throws Exception {
+        byte[] base = {1, 2, 3, 4, 5};
+        byte[] longer = {1, 2, 9, 9, 3, 4, 5};
+        byte[] shorter = {1, 5};
+        assertArrayEquals(longer, ObjectDelta.diff(base, longer).apply(base));
+        assertArrayEquals(shorter, ObjectDelta.diff(base, shorter).apply(base));
+        assertArrayEquals(base, ObjectDelta.diff(longer, base).apply(longer));
+    }
+
+    @Test
+    public void testUnchanged() throws Exception {
+        byte[] base = Utils.toBytes(values(100));
+        ObjectDelta delta = ObjectDelta.diff(base, base.clone());
+        assertTrue(delta.isEmpty());
+        assertEquals(0, delta.size());
+    }
+
+    @Test
+    public void testOnlyAppliesToItsBase() throws Exception {
+        byte[] base = {1, 2, 3};
+        ObjectDelta delta = ObjectDelta.diff(base, new byte[] {1, 4, 3});
+        assertFalse(delta.appliesTo(new byte[] {1, 5, 3}));
+        assertFalse(delta.appliesTo(null));
+
+        ObjectDelta full = ObjectDelta.full(new byte[] {7});
+        assertTrue(full.appliesTo(null));
+        assertArrayEquals(new byte[] {7}, full.apply(base));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testApplyToOtherBase() throws Exception {
+        ObjectDelta.diff(new byte[] {1, 2}, new byte[] {1, 3}).apply(new byte[] {2, 2});
+    }
+}
@@ -1,6 +1,7 @@
 package amino.run.policy.cache;
 
 import static junit.framework.TestCase.assertEquals;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
@@ -8,6 +9,9 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import amino.run.common.AppObject;
+import amino.run.policy.cache.WriteThroughCachePolicy.ClientPolicy;
+import amino.run.runtime.annotations.Immutable;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -71,4 +75,67 @@ public class WriteThroughCachePolicyTest {
         actual = this.client.onRPC(m, new ArrayList<Object>());
         assertEquals(expectedResult.toString(), actual.toString());
     }
+
+    /**
+     * Reads of other clients see a write once their cached object is older than the max staleness,
+     * and the writer itself sees it right away.
+     */
+    @org.junit.Test
+    public void readsRevalidatedAfterMaxStaleness() throws Exception {
+        String incrementMethodName =
+                "public void amino.run.policy.cache.WriteThroughCachePolicyTest$Counter.increment()";
+        String getMethodName =
+                "public int amino.run.policy.cache.WriteThroughCachePolicyTest$Counter.get()";
+        ArrayList<Object> params = new ArrayList<Object>();
+        server.$__initialize(new AppObject(new Counter_Stub()));
+
+        // Clients created now never find their cached object stale
+        doReturn(Long.MAX_VALUE).when(server).getMaxStalenessInMillis();
+        ClientPolicy writer = new ClientPolicy();
+        writer.setServer(server);
+        ClientPolicy reader = new ClientPolicy();
+        reader.setServer(server);
+
+        assertEquals(0, reader.onRPC(getMethodName, params));
+        writer.onRPC(incrementMethodName, params);
+        verify(server, times(1)).onRPC(incrementMethodName, params);
+        verify(server, never()).onRPC(getMethodName, params);
+        verify(server, times(1)).getObject();
+
+        // The reader trusts its cached object, while the writer fetches the object again
+        reader.onRPC(getMethodName, params);
+        verify(server, times(1)).getObject();
+        assertEquals(1, writer.onRPC(getMethodName, params));
+        verify(server, times(2)).getObject();
+
+        // Clients created now find their cached object stale on every read
+        doReturn(0L).when(server).getMaxStalenessInMillis();
+        ClientPolicy revalidating = new ClientPolicy();
+        revalidating.setServer(server);
+        assertEquals(1, revalidating.onRPC(getMethodName, params));
+        verify(server, times(3)).getObject();
+
+        // Revalidating an unchanged object does not fetch it again
+        assertEquals(1, revalidating.onRPC(getMethodName, params));
+        verify(server, times(3)).getObject();
+
+        writer.onRPC(incrementMethodName, params);
+        assertEquals(2, revalidating.onRPC(getMethodName, params));
+        verify(server, times(4)).getObject();
+    }
+
+    public static class Counter implements Serializable {
+        private int value;
+
+        public void increment() {
+            value++;
+        }
+
+        @Immutable
+        public int get() {
+            return value;
+        }
+    }
+
+    public static class Counter_Stub extends Counter {}
 }
@@ -1,5 +1,7 @@
 package amino.run.policy.dht;
 
+import amino.run.common.MicroServiceID;
+import amino.run.common.ReplicaID;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.ObjectInputStream;
@@ -8,6 +10,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
 import java.util.TreeSet;
+import java.util.UUID;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Assert;
 import org.junit.Before;
@@ -22,10 +25,17 @@ public class DHTChordTest {
         this.dhtChord = new DHTChord();
 
         for (int i = 0; i < 5; i++) {
-            dhtChord.add(new DHTPolicy.ServerPolicy());
+            dhtChord.add(newServer());
         }
     }
 
+    private static DHTPolicy.ServerPolicy newServer() {
+        DHTPolicy.ServerPolicy server = new DHTPolicy.ServerPolicy();
+        server.setReplicaId(
+                new ReplicaID(new MicroServiceID(UUID.randomUUID()), UUID.randomUUID()));
+        return server;
+    }
+
     @Test
     public void testGetResponsibleNodeWhenNodeNotExists() {
         TreeSet<DHTNode> nodes = dhtChord.getNodes();
@@ -63,7 +73,7 @@ public class DHTChordTest {
                 new HashMap<DHTPolicy.ServerPolicy, AtomicInteger>();
         DHTChord chord = new DHTChord(20);
         for (int i = 0; i < 5; i++) {
-            DHTPolicy.ServerPolicy server = new DHTPolicy.ServerPolicy();
+            DHTPolicy.ServerPolicy server = newServer();
             chord.add(server);
         }
 
@@ -86,11 +96,57 @@ public class DHTChordTest {
     }
 
     @Test
-    public void testSerializeChord() throws Exception {
+    public void testSameServersMakeSameChord() {
         DHTChord chord = new DHTChord();
+        for (DHTNode node : dhtChord.getNodes()) {
+            chord.add(node.server);
+        }
+
+        Assert.assertEquals(dhtChord.getNodes().size(), chord.getNodes().size());
+        for (int i = 0; i < 100; i++) {
+            DHTKey key = new DHTKey("key_" + i);
+            Assert.assertSame(
+                    dhtChord.getResponsibleNode(key).server, chord.getResponsibleNode(key).server);
+        }
+    }
+
+    @Test
+    public void testAddAndRemoveMoveOnlyKeysOfServer() {
+        DHTChord chord = dhtChord.copy();
+        DHTPolicy.ServerPolicy server = newServer();
+        chord.add(server);
+        Assert.assertTrue(chord.contains(server.getReplicaId()));
+        Assert.assertFalse(dhtChord.contains(server.getReplicaId()));
+
+        int moved = 0;
+        for (int i = 0; i < 1000; i++) {
+            DHTKey key = new DHTKey("key_" + i);
+            DHTPolicy.ServerPolicy owner = chord.getResponsibleNode(key).server;
+            if (owner != dhtChord.getResponsibleNode(key).server) {
+                Assert.assertSame(server, owner);
+                moved++;
+            }
+        }
+        Assert.assertTrue(moved > 0);
+
+        chord.remove(server);
+        Assert.assertFalse(chord.contains(server.getReplicaId()));
+        Assert.assertEquals(dhtChord.getNodes().size(), chord.getNodes().size());
+        for (int i = 0; i < 1000; i++) {
+            DHTKey key = new DHTKey("key_" + i);
+            Assert.assertSame(
+                    dhtChord.getResponsibleNode(key).server, chord.getResponsibleNode(key).server);
+        }
+    }
+
+    @Test
+    public void testSerializeChord() throws Exception {
+        DHTChord chord = dhtChord.copy();
         byte[] bytes = serialize(chord);
         DHTChord clone = (DHTChord) deserialize(bytes);
         System.out.println(clone);
+        Assert.assertEquals(dhtChord.getEpoch() + 1, clone.getEpoch());
+        Assert.assertEquals(chord.getNodes().size(), clone.getNodes().size());
     }
 
     private byte[] serialize(Object obj) throws Exception {
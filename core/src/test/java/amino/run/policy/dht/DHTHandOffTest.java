@@ -0,0 +1,190 @@
+package amino.run.policy.dht;
+
+import amino.run.common.AppObject;
+import amino.run.common.MicroServiceID;
+import amino.run.common.ReplicaID;
+import amino.run.runtime.annotations.Immutable;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DHTHandOffTest {
+    private static final String PUT =
+            "public void amino.run.policy.dht.DHTHandOffTest$Store.put(java.lang.String,java.io.Serializable)";
+    private static final String GET =
+            "public java.io.Serializable amino.run.policy.dht.DHTHandOffTest$Store.get(java.lang.String)";
+    private static final int NUM_OF_KEYS = 500;
+
+    private DHTPolicy.ServerPolicy first;
+    private DHTPolicy.ServerPolicy second;
+    private DHTChord chord;
+
+    @Before
+    public void setUp() throws Exception {
+        first = newShard();
+        chord = new DHTChord();
+        chord.add(first);
+        first.assignChord(chord);
+        for (int i = 0; i < NUM_OF_KEYS; i++) {
+            first.onRPC(PUT, params("key_" + i, i));
+        }
+        second = newShard();
+    }
+
+    private static DHTPolicy.ServerPolicy newShard() {
+        DHTPolicy.ServerPolicy server = new DHTPolicy.ServerPolicy();
+        server.setReplicaId(
+                new ReplicaID(new MicroServiceID(UUID.randomUUID()), UUID.randomUUID()));
+        server.$__initialize(new AppObject(new Store_Stub()));
+        return server;
+    }
+
+    private static ArrayList<Object> params(Object... params) {
+        return new ArrayList<Object>(Arrays.asList(params));
+    }
+
+    private static Store store(DHTPolicy.ServerPolicy server) {
+        return (Store) server.getAppObject().getObject();
+    }
+
+    @Test
+    public void testAddShard() throws Exception {
+        DHTChord next = chord.copy();
+        next.add(second);
+        second.assignChord(next);
+
+        first.prepareHandOff(next);
+        first.handOff();
+
+        // The entries handed off are still served by the first shard, and writes to them are
+        // handed off again on commit.
+        String moved = null;
+        for (int i = 0; i < NUM_OF_KEYS && moved == null; i++) {
+            if (next.getResponsibleNode(new DHTKey("key_" + i)).server == second) {
+                moved = "key_" + i;
+            }
+        }
+        Assert.assertNotNull(moved);
+        first.onRPC(PUT, params(moved, -1));
+        Assert.assertEquals(-1, first.onRPC(GET, params(moved)));
+
+        first.commitHandOff();
+
+        Set<String> keys = new HashSet<String>(store(first).keys());
+        keys.addAll(store(second).keys());
+        Assert.assertEquals(NUM_OF_KEYS, keys.size());
+        Assert.assertEquals(
+                NUM_OF_KEYS, store(first).keys().size() + store(second).keys().size());
+        for (String key : store(second).keys()) {
+            Assert.assertSame(second, next.getResponsibleNode(new DHTKey(key)).server);
+        }
+        Assert.assertEquals(-1, second.onRPC(GET, params(moved)));
+
+        try {
+            first.onRPC(GET, params(moved));
+            Assert.fail("first shard must redirect calls on entries it handed off");
+        } catch (DHTRedirectException e) {
+            Assert.assertTrue(e.getChord().contains(second.getReplicaId()));
+        }
+    }
+
+    @Test
+    public void testRemoveShard() throws Exception {
+        DHTChord next = chord.copy();
+        next.add(second);
+        second.assignChord(next);
+        first.prepareHandOff(next);
+        first.handOff();
+        first.commitHandOff();
+        Assert.assertFalse(store(second).keys().isEmpty());
+
+        first.prepareHandOff(chord);
+        second.prepareHandOff(chord);
+        first.handOff();
+        second.handOff();
+        first.commitHandOff();
+        second.commitHandOff();
+
+        Assert.assertTrue(store(second).keys().isEmpty());
+        for (int i = 0; i < NUM_OF_KEYS; i++) {
+            Assert.assertEquals(i, first.onRPC(GET, params("key_" + i)));
+        }
+    }
+
+    @Test
+    public void testClientFollowsRedirect() throws Exception {
+        final DHTChord stale = chord;
+        final int[] chordRequests = new int[1];
+        DHTPolicy.ClientPolicy client = new DHTPolicy.ClientPolicy();
+        client.onCreate(
+                new DHTPolicy.GroupPolicy() {
+                    @Override
+                    public DHTChord getChord() {
+                        chordRequests[0]++;
+                        return stale;
+                    }
+
+                    @Override
+                    public DHTKeyExtractor getKeyExtractor() {
+                        return new DHTPolicy.FirstParameterKeyExtractor();
+                    }
+                });
+
+        DHTChord next = chord.copy();
+        next.add(second);
+        second.assignChord(next);
+        first.prepareHandOff(next);
+        first.handOff();
+        first.commitHandOff();
+        Assert.assertTrue(next.getEpoch() > stale.getEpoch());
+
+        for (int i = 0; i < NUM_OF_KEYS; i++) {
+            Assert.assertEquals(i, client.onRPC(GET, params("key_" + i)));
+        }
+        Assert.assertEquals(1, chordRequests[0]);
+    }
+
+    public static class Store implements DHTStore, Serializable {
+        private final Map<String, Serializable> entries =
+                new ConcurrentHashMap<String, Serializable>();
+
+        public void put(String key, Serializable value) {
+            entries.put(key, value);
+        }
+
+        @Immutable
+        public Serializable get(String key) {
+            return entries.get(key);
+        }
+
+        @Override
+        public Set<String> keys() {
+            return new HashSet<String>(entries.keySet());
+        }
+
+        @Override
+        public Serializable getEntry(String key) {
+            return entries.get(key);
+        }
+
+        @Override
+        public void putEntry(String key, Serializable value) {
+            entries.put(key, value);
+        }
+
+        @Override
+        public void removeEntry(String key) {
+            entries.remove(key);
+        }
+    }
+
+    public static class Store_Stub extends Store {}
+}
@@ -0,0 +1,252 @@
+package amino.run.policy.dht;
+
+import amino.run.app.DMSpec;
+import amino.run.app.Language;
+import amino.run.app.MicroServiceSpec;
+import amino.run.common.AppObject;
+import amino.run.common.MicroServiceID;
+import amino.run.common.ReplicaID;
+import amino.run.policy.dht.DHTHandOffTest.Store;
+import amino.run.policy.dht.DHTHandOffTest.Store_Stub;
+import java.io.Serializable;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DHTReplicationTest {
+    private static final String PUT =
+            "public void amino.run.policy.dht.DHTHandOffTest$Store.put(java.lang.String,java.io.Serializable)";
+    private static final String GET =
+            "public java.io.Serializable amino.run.policy.dht.DHTHandOffTest$Store.get(java.lang.String)";
+    private static final String ECHO =
+            "public java.lang.String amino.run.policy.dht.DHTReplicationTest$Echo.echo(java.lang.String)";
+    private static final String KEY = "key";
+
+    private DHTChord chord;
+    private MicroServiceSpec spec;
+    private List<Shard> shards;
+    private List<Shard> replicas;
+    private DHTPolicy.ClientPolicy client;
+
+    @Before
+    public void setUp() throws Exception {
+        DHTPolicy.Config config = new DHTPolicy.Config();
+        config.setReplicationFactor(3);
+        config.setReadQuorum(3);
+        config.setWriteQuorum(2);
+        spec =
+                MicroServiceSpec.newBuilder()
+                        .setLang(Language.java)
+                        .setJavaClassName(Store.class.getName())
+                        .addDMSpec(
+                                DMSpec.newBuilder()
+                                        .setName(DHTPolicy.class.getName())
+                                        .addConfig(config)
+                                        .create())
+                        .create();
+
+        chord = new DHTChord();
+        chord.setReplicationFactor(3);
+        shards = new ArrayList<Shard>();
+        for (int i = 0; i < 4; i++) {
+            Shard shard = newShard();
+            chord.add(shard);
+            shards.add(shard);
+        }
+        for (Shard shard : shards) {
+            shard.assignChord(chord);
+        }
+
+        replicas = new ArrayList<Shard>();
+        for (DHTNode node : chord.getReplicaNodes(new DHTKey(KEY))) {
+            replicas.add((Shard) node.server);
+        }
+        Assert.assertEquals(3, replicas.size());
+
+        client = new DHTPolicy.ClientPolicy();
+        client.onCreate(
+                new DHTPolicy.GroupPolicy() {
+                    @Override
+                    public DHTChord getChord() {
+                        return chord;
+                    }
+
+                    @Override
+                    public DHTKeyExtractor getKeyExtractor() {
+                        return new DHTPolicy.FirstParameterKeyExtractor();
+                    }
+
+                    @Override
+                    public int getReadQuorum() {
+                        return 3;
+                    }
+                });
+    }
+
+    private Shard newShard() {
+        Shard shard = new Shard();
+        shard.setReplicaId(new ReplicaID(new MicroServiceID(UUID.randomUUID()), UUID.randomUUID()));
+        shard.$__initialize(new AppObject(new Store_Stub()));
+        shard.setSpec(spec);
+        shard.onCreate(null);
+        return shard;
+    }
+
+    private static ArrayList<Object> params(Object... params) {
+        return new ArrayList<Object>(Arrays.asList(params));
+    }
+
+    private static Object stored(Shard shard) {
+        return ((Store) shard.getAppObject().getObject()).get(KEY);
+    }
+
+    /** Waits until the given shard stores the given value for the key. */
+    private static void awaitStored(Shard shard, Object value) throws InterruptedException {
+        for (int i = 0; i < 100 && !value.equals(stored(shard)); i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(value, stored(shard));
+    }
+
+    @Test
+    public void testWritesReachAllReplicas() throws Exception {
+        client.onRPC(PUT, params(KEY, "value"));
+        for (Shard replica : replicas) {
+            awaitStored(replica, "value");
+        }
+        Assert.assertEquals("value", client.onRPC(GET, params(KEY)));
+    }
+
+    @Test(expected = DHTRedirectException.class)
+    public void testWriteToSecondaryRedirected() throws Exception {
+        replicas.get(1).onRPC(PUT, params(KEY, "value"));
+    }
+
+    @Test
+    public void testWriteSucceedsWithQuorum() throws Exception {
+        replicas.get(2).down = true;
+        client.onRPC(PUT, params(KEY, "value"));
+        Assert.assertEquals("value", stored(replicas.get(0)));
+        awaitStored(replicas.get(1), "value");
+        Assert.assertNull(stored(replicas.get(2)));
+    }
+
+    @Test(expected = DHTQuorumException.class)
+    public void testWriteFailsWithoutQuorum() throws Exception {
+        replicas.get(1).down = true;
+        replicas.get(2).down = true;
+        client.onRPC(PUT, params(KEY, "value"));
+    }
+
+    @Test
+    public void testQuorumReadRepairsStaleReplica() throws Exception {
+        replicas.get(2).down = true;
+        client.onRPC(PUT, params(KEY, "value"));
+        awaitStored(replicas.get(1), "value");
+        replicas.get(2).down = false;
+
+        Assert.assertEquals("value", client.onRPC(GET, params(KEY)));
+        awaitStored(replicas.get(2), "value");
+    }
+
+    @Test
+    public void testReplicaCatchesUpOnMissedWrite() throws Exception {
+        replicas.get(2).down = true;
+        client.onRPC(PUT, params(KEY, "first"));
+        replicas.get(2).down = false;
+
+        client.onRPC(PUT, params(KEY, "second"));
+        awaitStored(replicas.get(2), "second");
+    }
+
+    @Test
+    public void testAddShardWithReplicas() throws Exception {
+        int numOfKeys = 50;
+        for (int i = 0; i < numOfKeys; i++) {
+            client.onRPC(PUT, params("key_" + i, i));
+        }
+
+        Shard added = newShard();
+        DHTChord next = chord.copy();
+        next.add(added);
+        added.assignChord(next);
+        for (Shard shard : shards) {
+            shard.prepareHandOff(next);
+        }
+        for (Shard shard : shards) {
+            shard.handOff();
+        }
+        for (Shard shard : shards) {
+            shard.commitHandOff();
+        }
+        shards.add(added);
+
+        for (int i = 0; i < numOfKeys; i++) {
+            DHTKey key = new DHTKey("key_" + i);
+            for (Shard shard : shards) {
+                Object value = ((Store) shard.getAppObject().getObject()).get("key_" + i);
+                if (next.isResponsible(shard.getReplicaId(), key)) {
+                    for (int j = 0; j < 100 && value == null; j++) {
+                        Thread.sleep(10);
+                        value = ((Store) shard.getAppObject().getObject()).get("key_" + i);
+                    }
+                    Assert.assertEquals(i, value);
+                } else {
+                    Assert.assertNull(value);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testReadReturnsVersionOfKey() throws Exception {
+        client.onRPC(PUT, params(KEY, "value"));
+        awaitStored(replicas.get(2), "value");
+        DHTVersionedValue read = replicas.get(2).read(GET, params(KEY));
+        Assert.assertEquals("value", read.getValue());
+        Assert.assertEquals(1, read.getVersion());
+        Assert.assertEquals(0, replicas.get(2).read(GET, params("unwritten")).getVersion());
+    }
+
+    @Test
+    public void testAppWithoutStoreIsNotSharded() throws Exception {
+        Shard shard = new Shard();
+        shard.setReplicaId(new ReplicaID(new MicroServiceID(UUID.randomUUID()), UUID.randomUUID()));
+        shard.$__initialize(new AppObject(new Echo_Stub()));
+        shard.setSpec(spec);
+        shard.onCreate(null);
+        shard.assignChord(chord);
+
+        // The shard serves every key, as if it was not on the chord.
+        Assert.assertFalse(shard.isReplicated());
+        Assert.assertEquals(KEY, shard.onRPC(ECHO, params(KEY)));
+    }
+
+    public static class Echo implements Serializable {
+        public String echo(String value) {
+            return value;
+        }
+    }
+
+    public static class Echo_Stub extends Echo {}
+
+    /** A shard that can be taken down for replication. */
+    private static class Shard extends DHTPolicy.ServerPolicy {
+        volatile boolean down;
+
+        @Override
+        public boolean applyWrite(
+                String key, long version, String method, ArrayList<Object> params)
+                throws Exception {
+            if (down) {
+                throw new RemoteException("down");
+            }
+            return super.applyWrite(key, version, method, params);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package amino.run.policy.scalability;
+
+import amino.run.common.AppObject;
+import amino.run.policy.scalability.masterslave.Committer;
+import amino.run.policy.scalability.masterslave.Configuration;
+import amino.run.policy.scalability.masterslave.MethodInvocationRequest;
+import amino.run.policy.scalability.masterslave.MethodInvocationResponse;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CommitterTest {
+    private static final String AWAIT_READERS =
+            "public boolean "
+                    + Store.class.getName()
+                    + ".awaitReaders() throws java.lang.InterruptedException";
+    private static final String GET = "public int " + Store.class.getName() + ".get()";
+    private static final String INCREMENT = "public int " + Store.class.getName() + ".increment()";
+
+    private Committer committer;
+    private ExecutorService readers;
+
+    public static class Store implements Serializable {
+        private final transient CountDownLatch readers = new CountDownLatch(2);
+        private int value;
+
+        public boolean awaitReaders() throws InterruptedException {
+            readers.countDown();
+            return readers.await(5, TimeUnit.SECONDS);
+        }
+
+        public int get() {
+            return value;
+        }
+
+        public int increment() {
+            return ++value;
+        }
+    }
+
+    /** App objects hold instances of stubs that extend the app class */
+    public static class StoreStub extends Store {}
+
+    @Before
+    public void setup() {
+        Configuration config = new Configuration().setReadWaitTimeoutInMillis(50);
+        committer = new Committer(new AppObject(new StoreStub()), 0L, config);
+        committer.open();
+        readers = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        readers.shutdownNow();
+        committer.close();
+    }
+
+    @Test
+    public void testReadsRunConcurrently() throws Exception {
+        Future<MethodInvocationResponse> first = readers.submit(newRead(AWAIT_READERS, 0));
+        Future<MethodInvocationResponse> second = readers.submit(newRead(AWAIT_READERS, 0));
+
+        // Each read waits for the other one to start
+        Assert.assertEquals(true, first.get(10, TimeUnit.SECONDS).getResult());
+        Assert.assertEquals(true, second.get(10, TimeUnit.SECONDS).getResult());
+    }
+
+    @Test
+    public void testReadWaitsForMinIndex() throws Exception {
+        MethodInvocationResponse stale = readers.submit(newRead(GET, 1)).get();
+        Assert.assertEquals(MethodInvocationResponse.ReturnCode.REDIRECT, stale.getReturnCode());
+
+        Future<MethodInvocationResponse> read = readers.submit(newRead(GET, 1));
+        committer.applyWriteAsync(newRequest(INCREMENT, 0), 1);
+        MethodInvocationResponse response = read.get(10, TimeUnit.SECONDS);
+        if (response.getReturnCode() == MethodInvocationResponse.ReturnCode.REDIRECT) {
+            // The write was slower than the read wait timeout
+            response = readers.submit(newRead(GET, 1)).get();
+        }
+        Assert.assertEquals(MethodInvocationResponse.ReturnCode.SUCCESS, response.getReturnCode());
+        Assert.assertEquals(1, response.getResult());
+        Assert.assertEquals(1, response.getIndex());
+    }
+
+    private Callable<MethodInvocationResponse> newRead(final String method, final long minIndex) {
+        return new Callable<MethodInvocationResponse>() {
+            @Override
+            public MethodInvocationResponse call() {
+                return committer.applyRead(newRequest(method, minIndex));
+            }
+        };
+    }
+
+    private static MethodInvocationRequest newRequest(String method, long minIndex) {
+        return new MethodInvocationRequest(
+                "client",
+                0L,
+                method,
+                new ArrayList<Object>(),
+                MethodInvocationRequest.MethodType.IMMUTABLE,
+                minIndex);
+    }
+}
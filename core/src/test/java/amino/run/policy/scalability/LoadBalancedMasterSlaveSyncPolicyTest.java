@@ -6,6 +6,7 @@ import static org.mockito.Mockito.spy;
 import amino.run.common.AppObject;
 import amino.run.kernel.common.KernelOID;
 import amino.run.policy.scalability.masterslave.Lock;
+import amino.run.policy.scalability.masterslave.Topology;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Date;
@@ -71,6 +72,28 @@ public class LoadBalancedMasterSlaveSyncPolicyTest {
         Assert.assertEquals(servers.get(1), group.getSlave());
     }
 
+    @Test
+    public void testTopologyEpochChangesWithMaster() throws Exception {
+        LoadBalancedMasterSlaveSyncPolicy.GroupPolicy group =
+                spy(new LoadBalancedMasterSlaveSyncPolicy.GroupPolicy());
+        List<LoadBalancedMasterSlaveSyncPolicy.ServerPolicy> servers = createServers(group, 2);
+        doReturn(servers).when(group).getServers();
+        group.obtainLock(servers.get(0).getServerId(), 10L);
+        Topology first = group.getTopology();
+        Assert.assertEquals(servers.get(0), first.getMaster());
+        Assert.assertEquals(2, first.getServers().size());
+
+        group.obtainLock(servers.get(0).getServerId(), 10L);
+        Assert.assertEquals(first.getEpoch(), group.getTopology().getEpoch());
+
+        // sleep for 100 milliseconds to let lock expire
+        Thread.sleep(100L);
+        group.obtainLock(servers.get(1).getServerId(), 10L);
+        Topology second = group.getTopology();
+        Assert.assertEquals(servers.get(1), second.getMaster());
+        Assert.assertTrue(second.getEpoch() > first.getEpoch());
+    }
+
     private List<LoadBalancedMasterSlaveSyncPolicy.ServerPolicy> createServers(
             LoadBalancedMasterSlaveSyncPolicy.GroupPolicy group, int cnt) throws Exception {
         List<LoadBalancedMasterSlaveSyncPolicy.ServerPolicy> servers =
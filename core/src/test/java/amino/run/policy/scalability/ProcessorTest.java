@@ -0,0 +1,138 @@
+package amino.run.policy.scalability;
+
+import amino.run.common.AppObject;
+import amino.run.policy.scalability.masterslave.Committer;
+import amino.run.policy.scalability.masterslave.Configuration;
+import amino.run.policy.scalability.masterslave.MethodInvocationRequest;
+import amino.run.policy.scalability.masterslave.MethodInvocationResponse;
+import amino.run.policy.scalability.masterslave.Processor;
+import amino.run.policy.scalability.masterslave.ReplicationRequest;
+import amino.run.policy.scalability.masterslave.ReplicationResponse;
+import amino.run.policy.scalability.masterslave.Replicator;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ProcessorTest {
+    private static final String INCREMENT =
+            "public int " + Counter.class.getName() + ".increment()";
+
+    private final CountDownLatch replicating = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<ReplicationRequest> replicated =
+            new CopyOnWriteArrayList<ReplicationRequest>();
+
+    private Committer committer;
+    private Processor processor;
+
+    public static class Counter implements Serializable {
+        private int value;
+
+        public int increment() {
+            return ++value;
+        }
+    }
+
+    /** App objects hold instances of stubs that extend the app class */
+    public static class CounterStub extends Counter {}
+
+    /** Holds the first replication until released */
+    private class BlockingReplicator implements Replicator {
+        @Override
+        public void open() {}
+
+        @Override
+        public ReplicationResponse replicateInSync(ReplicationRequest request) {
+            replicated.add(request);
+            replicating.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new ReplicationResponse(ReplicationResponse.ReturnCode.SUCCESS, null);
+        }
+
+        @Override
+        public Future<ReplicationResponse> replicateInAsync(ReplicationRequest request) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    @Before
+    public void setup() {
+        Configuration config = new Configuration().setMaxReplicationBatchSize(3);
+        committer = new Committer(new AppObject(new CounterStub()), 0L, config);
+        committer.open();
+        processor = new Processor(config, null, committer, new BlockingReplicator());
+        processor.open();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        release.countDown();
+        processor.close();
+        committer.close();
+    }
+
+    @Test
+    public void testWritesAreBatchedWhileReplicating() throws Exception {
+        List<Future<MethodInvocationResponse>> responses =
+                new ArrayList<Future<MethodInvocationResponse>>();
+        responses.add(processor.processAsync(newWrite(0)));
+        Assert.assertTrue(replicating.await(5, TimeUnit.SECONDS));
+        for (long i = 1; i < 5; i++) {
+            responses.add(processor.processAsync(newWrite(i)));
+        }
+        // Entries are committed on master before they are replicated
+        while (committer.getIndexOfLargestCommittedEntry() < 5) {
+            Thread.sleep(10);
+        }
+        Assert.assertFalse("responses wait for replication", responses.get(4).isDone());
+        release.countDown();
+
+        for (int i = 0; i < responses.size(); i++) {
+            MethodInvocationResponse response = responses.get(i).get(5, TimeUnit.SECONDS);
+            Assert.assertEquals(
+                    MethodInvocationResponse.ReturnCode.SUCCESS, response.getReturnCode());
+            Assert.assertEquals(i + 1, response.getResult());
+        }
+
+        Assert.assertEquals(3, replicated.size());
+        Assert.assertEquals(1, replicated.get(0).getEntries().size());
+        Assert.assertEquals(3, replicated.get(1).getEntries().size());
+        Assert.assertEquals(1, replicated.get(1).getIndexOfLargestCommittedEntry());
+        Assert.assertEquals(5, replicated.get(2).getEntries().get(0).getIndex());
+    }
+
+    @Test
+    public void testDuplicateRequestIsNotRerun() throws Exception {
+        release.countDown();
+        MethodInvocationRequest request = newWrite(0);
+        MethodInvocationResponse first = processor.process(request);
+        MethodInvocationResponse second = processor.process(request);
+        Assert.assertEquals(1, first.getResult());
+        Assert.assertEquals(1, second.getResult());
+        Assert.assertEquals(1, committer.getIndexOfLargestCommittedEntry());
+    }
+
+    private static MethodInvocationRequest newWrite(long requestId) {
+        return new MethodInvocationRequest(
+                "client",
+                requestId,
+                INCREMENT,
+                new ArrayList<Object>(),
+                MethodInvocationRequest.MethodType.MUTABLE);
+    }
+}
@@ -0,0 +1,82 @@
+package amino.run.policy.scalability;
+
+import amino.run.policy.scalability.masterslave.Configuration;
+import amino.run.policy.scalability.masterslave.MethodInvocationRequest;
+import amino.run.policy.scalability.masterslave.MethodInvocationResponse;
+import amino.run.policy.scalability.masterslave.ResponseCache;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ResponseCacheTest {
+    private final Configuration config =
+            new Configuration().setResponseCacheMaxClients(2).setResponseCacheWindowSize(2);
+
+    @Test
+    public void testRetriedRequestGetsRecordedResponse() {
+        ResponseCache cache = new ResponseCache(config);
+        CompletableFuture<MethodInvocationResponse> response = newResponse();
+        Assert.assertNull(cache.putIfAbsent(newRequest("a", 0), response));
+        Assert.assertNull(cache.putIfAbsent(newRequest("a", 1), newResponse()));
+        Assert.assertSame(response, cache.putIfAbsent(newRequest("a", 0), newResponse()));
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(2, cache.getMisses());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRequestOlderThanWindowIsRejected() {
+        ResponseCache cache = new ResponseCache(config);
+        for (long i = 0; i < 3; i++) {
+            cache.putIfAbsent(newRequest("a", i), newResponse());
+        }
+        cache.putIfAbsent(newRequest("a", 0), newResponse());
+    }
+
+    @Test
+    public void testLeastRecentlyActiveClientIsEvicted() {
+        ResponseCache cache = new ResponseCache(config);
+        cache.putIfAbsent(newRequest("a", 0), newResponse());
+        cache.putIfAbsent(newRequest("b", 0), newResponse());
+        cache.putIfAbsent(newRequest("a", 1), newResponse());
+        cache.putIfAbsent(newRequest("c", 0), newResponse());
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(1, cache.getEvictions());
+        // b was forgotten, so its request is run again
+        Assert.assertNull(cache.putIfAbsent(newRequest("b", 0), newResponse()));
+    }
+
+    @Test
+    public void testIdleClientIsExpired() throws Exception {
+        ResponseCache cache =
+                new ResponseCache(new Configuration().setResponseCacheTtlInMillis(10));
+        cache.putIfAbsent(newRequest("a", 0), newResponse());
+        Thread.sleep(50);
+        cache.putIfAbsent(newRequest("b", 0), newResponse());
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testRecordedResponseIsReturned() throws Exception {
+        ResponseCache cache = new ResponseCache(config);
+        MethodInvocationResponse response =
+                new MethodInvocationResponse(MethodInvocationResponse.ReturnCode.SUCCESS, 1, 5L);
+        cache.record(newRequest("a", 0), response);
+        Assert.assertSame(response, cache.putIfAbsent(newRequest("a", 0), newResponse()).get());
+    }
+
+    private static CompletableFuture<MethodInvocationResponse> newResponse() {
+        return new CompletableFuture<MethodInvocationResponse>();
+    }
+
+    private static MethodInvocationRequest newRequest(String clientId, long requestId) {
+        return new MethodInvocationRequest(
+                clientId,
+                requestId,
+                "method",
+                new ArrayList<Object>(),
+                MethodInvocationRequest.MethodType.MUTABLE);
+    }
+}
@@ -9,6 +9,7 @@ import static org.mockito.Mockito.verify;
 
 import amino.run.common.AppObject;
 import amino.run.common.Utils;
+import amino.run.policy.cache.ObjectDelta;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.UUID;
@@ -82,7 +83,7 @@ public class LockingTransactionPolicyTest {
         // Commit the transaction
         this.client.onRPC(commitMethodName, noParams);
         // Check that it got sync'd to the server.
-        verify(this.server).syncObject((UUID) any(), (Serializable) any());
+        verify(this.server).syncDelta((UUID) any(), (ObjectDelta) any());
 
         // Verify that the object has been updated
         this.client.onRPC(getMethodName, noParams);
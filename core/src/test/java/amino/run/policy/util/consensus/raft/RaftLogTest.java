@@ -0,0 +1,156 @@
+package amino.run.policy.util.consensus.raft;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RaftLogTest {
+    private File directory;
+    private RaftLog log;
+
+    @Before
+    public void setUp() throws java.lang.Exception {
+        directory = Files.createTempDirectory("raftlog").toFile();
+        log = open();
+    }
+
+    @After
+    public void tearDown() throws java.lang.Exception {
+        log.close();
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    private RaftLog open() throws java.lang.Exception {
+        return open(PersistentState.INVALID_INDEX, PersistentState.INVALID_INDEX);
+    }
+
+    private RaftLog open(int snapshotIndex, int snapshotTerm) throws java.lang.Exception {
+        // Small segments, so that the tests cover several of them.
+        return new RaftLog(directory, 256, snapshotIndex, snapshotTerm);
+    }
+
+    private static List<LogEntry> entries(int count, int term) {
+        List<LogEntry> entries = new ArrayList<LogEntry>();
+        for (int i = 0; i < count; i++) {
+            entries.add(new LogEntry("operation" + i, term));
+        }
+        return entries;
+    }
+
+    @Test
+    public void testEntriesSurviveReopen() throws java.lang.Exception {
+        log.addAll(entries(20, 1));
+        log.sync();
+        assertEquals(19, log.getSyncedIndex());
+        assertTrue(directory.listFiles().length > 1);
+        log.close();
+
+        log = open();
+        assertEquals(20, log.size());
+        assertEquals("operation7", log.get(7).operation);
+        assertEquals(1, log.lastTerm());
+    }
+
+    @Test
+    public void testTruncate() throws java.lang.Exception {
+        log.addAll(entries(20, 1));
+        log.truncate(5);
+        log.addAll(entries(3, 2));
+        log.sync();
+        log.close();
+
+        log = open();
+        assertEquals(8, log.size());
+        assertEquals(1, log.term(4));
+        assertEquals(2, log.term(5));
+        assertEquals("operation2", log.get(7).operation);
+    }
+
+    @Test
+    public void testTornEntryIsDropped() throws java.lang.Exception {
+        log.addAll(entries(3, 1));
+        log.sync();
+        log.close();
+
+        File[] segments = directory.listFiles();
+        Arrays.sort(segments);
+        RandomAccessFile file = new RandomAccessFile(segments[segments.length - 1], "rw");
+        file.setLength(file.length() - 1);
+        file.close();
+
+        log = open();
+        assertEquals(2, log.size());
+        log.add(new LogEntry("operation", 1));
+        assertEquals(3, log.size());
+    }
+
+    @Test
+    public void testCompact() throws java.lang.Exception {
+        log.addAll(entries(20, 1));
+        int segments = directory.listFiles().length;
+        log.compact(14, 1);
+        assertEquals(15, log.firstIndex());
+        assertEquals(20, log.size());
+        assertEquals(1, log.term(14));
+        assertTrue(directory.listFiles().length < segments);
+        log.sync();
+        log.close();
+
+        log = open(14, 1);
+        assertEquals(20, log.size());
+        assertEquals("operation15", log.get(15).operation);
+    }
+
+    @Test
+    public void testCompactBeyondLog() throws java.lang.Exception {
+        log.addAll(entries(5, 1));
+        log.compact(9, 2);
+        assertEquals(10, log.size());
+        assertEquals(2, log.lastTerm());
+        assertEquals(0, directory.listFiles().length);
+        log.add(new LogEntry("operation", 2));
+        assertEquals(10, log.lastIndex());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testCompactedEntriesAreGone() throws java.lang.Exception {
+        log.addAll(entries(5, 1));
+        log.compact(2, 1);
+        log.get(2);
+    }
+
+    @Test
+    public void testStateSurvivesRestart() throws java.lang.Exception {
+        log.close();
+        PersistentState state = new PersistentState(directory, 256);
+        state.setCurrentTerm(3, state.getCurrentTerm());
+        state.setVotedFor(state.myServerID, state.getVotedFor());
+        state.log().addAll(entries(10, 3));
+        state.setSnapshot(new Snapshot(5, 3, new byte[] {1, 2, 3}));
+        state.log().sync();
+        state.close();
+
+        PersistentState restored = new PersistentState(directory, 256);
+        log = restored.log();
+        assertEquals(state.myServerID, restored.myServerID);
+        assertEquals(3, restored.getCurrentTerm());
+        assertEquals(state.myServerID, restored.getVotedFor());
+        assertNotNull(restored.getSnapshot());
+        assertEquals(5, restored.getSnapshot().index);
+        assertEquals(6, log.firstIndex());
+        assertEquals(10, log.size());
+    }
+}
@@ -38,7 +38,7 @@ public class ServerTest {
      * has default access.
      */
     public static List getRaftlog(Server r) throws Exception {
-        return r.pState.log();
+        return r.pState.log().subList(r.pState.log().firstIndex(), r.pState.log().size());
     }
 
     public static Object getOperation(LogEntry l) throws Exception {
@@ -285,6 +285,73 @@ public class ServerTest {
         assertEquals(raftServer[0].vState.getLastApplied(), raftServer[2].vState.getLastApplied());
     }
 
+    @Test
+    public void concurrentAppendEntries() throws java.lang.Exception {
+        for (Server s : raftServer) {
+            s.start();
+        }
+        raftServer[0].become(CANDIDATE, FOLLOWER);
+        assertTrue(raftServer[verifyLeaderElected(raftServer)] == raftServer[0]);
+
+        String methodName = "public java.lang.String java.lang.Object.toString()";
+        final Object obj = new ConsensusRSMPolicy.RPC(methodName, new ArrayList<Object>());
+        final int operations = 100;
+        Thread[] clients = new Thread[10];
+        final List<java.lang.Exception> failures = new ArrayList<java.lang.Exception>();
+        for (int i = 0; i < clients.length; i++) {
+            clients[i] =
+                    new Thread() {
+                        @Override
+                        public void run() {
+                            try {
+                                for (int j = 0; j < operations / 10; j++) {
+                                    raftServer[0].applyToStateMachine(obj);
+                                }
+                            } catch (java.lang.Exception e) {
+                                synchronized (failures) {
+                                    failures.add(e);
+                                }
+                            }
+                        }
+                    };
+            clients[i].start();
+        }
+        for (Thread client : clients) {
+            client.join();
+        }
+
+        assertTrue(failures.isEmpty());
+        assertEquals(operations, raftServer[0].pState.log().size());
+        assertEquals(operations - 1, raftServer[0].vState.getLastApplied());
+        verifyLastApplied(raftServer[0], raftServer[1]);
+        verifyLastApplied(raftServer[0], raftServer[2]);
+    }
+
+    @Test
+    public void read() throws java.lang.Exception {
+        for (Server s : raftServer) {
+            s.start();
+        }
+        raftServer[0].become(CANDIDATE, FOLLOWER);
+        assertTrue(raftServer[verifyLeaderElected(raftServer)] == raftServer[0]);
+
+        String methodName = "public java.lang.String java.lang.Object.toString()";
+        Object obj = new ConsensusRSMPolicy.RPC(methodName, new ArrayList<Object>());
+        raftServer[0].applyToStateMachine(obj);
+
+        // Reads are served by the leader and followers without being appended to the log.
+        for (Server.ReadMode mode : Server.ReadMode.values()) {
+            for (Server s : raftServer) {
+                s.setReadMode(mode);
+            }
+            for (Server s : raftServer) {
+                s.read(obj);
+                assertEquals(0, s.vState.getLastApplied());
+            }
+        }
+        assertEquals(1, raftServer[0].pState.log().size());
+    }
+
     @Test
     public void alreadyVoted() throws java.lang.Exception {
         for (Server s : raftServer) {